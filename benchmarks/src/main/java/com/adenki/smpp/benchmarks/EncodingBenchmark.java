@@ -0,0 +1,81 @@
+package com.adenki.smpp.benchmarks;
+
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import com.adenki.smpp.encoding.DefaultAlphabetEncoding;
+import com.adenki.smpp.encoding.UCS2Encoding;
+
+/**
+ * Conversion of message text to and from the GSM default alphabet,
+ * packing of septets and conversion to and from UCS2.
+ * @version $Id$
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class EncodingBenchmark {
+    @Param({"16", "160", "1530"})
+    public int length;
+
+    private DefaultAlphabetEncoding defaultAlphabet;
+    private UCS2Encoding ucs2;
+    private String text;
+    private byte[] septets;
+    private byte[] packed;
+    private byte[] ucs2Bytes;
+
+    @Setup
+    public void setUp() throws Exception {
+        defaultAlphabet = new DefaultAlphabetEncoding();
+        ucs2 = new UCS2Encoding();
+        text = Messages.text(length);
+        septets = defaultAlphabet.encode(text);
+        packed = defaultAlphabet.pack(septets);
+        ucs2Bytes = ucs2.encode(text);
+    }
+
+    @Benchmark
+    public byte[] defaultAlphabetEncode() {
+        return defaultAlphabet.encode(text);
+    }
+
+    @Benchmark
+    public String defaultAlphabetDecode() {
+        return defaultAlphabet.decode(septets, 0, septets.length);
+    }
+
+    @Benchmark
+    public byte[] defaultAlphabetPack() {
+        return defaultAlphabet.pack(septets);
+    }
+
+    @Benchmark
+    public byte[] defaultAlphabetUnpack() {
+        return defaultAlphabet.unpack(packed);
+    }
+
+    @Benchmark
+    public byte[] ucs2Encode() {
+        return ucs2.encode(text);
+    }
+
+    @Benchmark
+    public String ucs2Decode() {
+        return ucs2.decode(ucs2Bytes);
+    }
+}
@@ -0,0 +1,98 @@
+package com.adenki.smpp.benchmarks;
+
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OperationsPerInvocation;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+
+import com.adenki.smpp.Session;
+import com.adenki.smpp.event.EventDispatcher;
+import com.adenki.smpp.event.SMPPEvent;
+import com.adenki.smpp.event.SessionObserver;
+import com.adenki.smpp.message.DeliverSM;
+import com.adenki.smpp.message.SMPPPacket;
+
+/**
+ * Delivery of received packets to observers by each event dispatcher.
+ * Every invocation dispatches a batch of packets and waits until the
+ * observers have been notified of all of them, so asynchronous
+ * dispatchers are measured including their hand-off to a worker thread.
+ * @version $Id$
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class EventDispatcherBenchmark {
+    private static final int BATCH = 1000;
+
+    @Param({"SimpleEventDispatcher", "TaskExecutorEventDispatcher"})
+    public String dispatcherType;
+
+    @Param({"1", "4"})
+    public int observerCount;
+
+    private EventDispatcher dispatcher;
+    private final AtomicLong notified = new AtomicLong();
+    private SMPPPacket packet;
+
+    @Setup
+    public void setUp() throws Exception {
+        dispatcher = Class.forName("com.adenki.smpp.event." + dispatcherType)
+            .asSubclass(EventDispatcher.class).newInstance();
+        dispatcher.init();
+        // A dispatcher ignores an observer that is already registered.
+        for (int i = 0; i < observerCount; i++) {
+            dispatcher.addObserver(new CountingObserver(notified));
+        }
+        DeliverSM deliverSM = new DeliverSM();
+        deliverSM.setMessage(Messages.bytes(140));
+        packet = deliverSM;
+    }
+
+    @TearDown
+    public void tearDown() {
+        dispatcher.destroy();
+    }
+
+    @Benchmark
+    @OperationsPerInvocation(BATCH)
+    public void notifyObservers() {
+        long target = notified.get() + (long) BATCH * observerCount;
+        for (int i = 0; i < BATCH; i++) {
+            dispatcher.notifyObservers(null, packet);
+        }
+        while (notified.get() < target) {
+            Thread.yield();
+        }
+    }
+
+    private static class CountingObserver implements SessionObserver {
+        private final AtomicLong count;
+
+        CountingObserver(AtomicLong count) {
+            this.count = count;
+        }
+
+        public void packetReceived(Session source, SMPPPacket packet) {
+            count.incrementAndGet();
+        }
+
+        public void update(Session source, SMPPEvent event) {
+        }
+    }
+}
@@ -0,0 +1,37 @@
+package com.adenki.smpp.benchmarks;
+
+/**
+ * Message content shared by the benchmarks.
+ * @version $Id$
+ */
+final class Messages {
+    private static final String TEXT =
+        "The quick brown fox jumps over the lazy dog @ 12:00, {costs} $5 & "
+        + "returns [soon]. ";
+
+    private Messages() {
+    }
+
+    /**
+     * Get text of a length made only of default alphabet characters,
+     * including some from the extension table.
+     */
+    static String text(int length) {
+        StringBuilder text = new StringBuilder(length);
+        while (text.length() < length) {
+            text.append(TEXT, 0, Math.min(TEXT.length(), length - text.length()));
+        }
+        return text.toString();
+    }
+
+    /**
+     * Get a number of bytes of message data.
+     */
+    static byte[] bytes(int length) {
+        byte[] bytes = new byte[length];
+        for (int i = 0; i < length; i++) {
+            bytes[i] = (byte) ('a' + (i % 26));
+        }
+        return bytes;
+    }
+}
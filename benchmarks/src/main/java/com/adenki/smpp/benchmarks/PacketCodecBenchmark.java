@@ -0,0 +1,116 @@
+package com.adenki.smpp.benchmarks;
+
+import java.io.ByteArrayOutputStream;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import com.adenki.smpp.Address;
+import com.adenki.smpp.message.DataSM;
+import com.adenki.smpp.message.SMPPPacket;
+import com.adenki.smpp.message.SubmitSM;
+import com.adenki.smpp.message.tlv.Tag;
+import com.adenki.smpp.util.PacketDecoderImpl;
+import com.adenki.smpp.util.PacketEncoderImpl;
+
+/**
+ * Encoding and decoding of every packet type, with and without optional
+ * parameters.
+ * @version $Id$
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class PacketCodecBenchmark {
+    @Param({
+        "AlertNotification",
+        "BindReceiver", "BindReceiverResp",
+        "BindTransceiver", "BindTransceiverResp",
+        "BindTransmitter", "BindTransmitterResp",
+        "BroadcastSM", "BroadcastSMResp",
+        "CancelBroadcastSM", "CancelBroadcastSMResp",
+        "CancelSM", "CancelSMResp",
+        "DataSM", "DataSMResp",
+        "DeliverSM", "DeliverSMResp",
+        "EnquireLink", "EnquireLinkResp",
+        "GenericNack",
+        "Outbind",
+        "ParamRetrieve", "ParamRetrieveResp",
+        "QueryBroadcastSM", "QueryBroadcastSMResp",
+        "QueryLastMsgs", "QueryLastMsgsResp",
+        "QueryMsgDetails", "QueryMsgDetailsResp",
+        "QuerySM", "QuerySMResp",
+        "ReplaceSM", "ReplaceSMResp",
+        "SubmitMulti", "SubmitMultiResp",
+        "SubmitSM", "SubmitSMResp",
+        "Unbind", "UnbindResp",
+    })
+    public String packetType;
+
+    @Param({"false", "true"})
+    public boolean withTLVs;
+
+    private Class<? extends SMPPPacket> type;
+    private SMPPPacket packet;
+    private ByteArrayOutputStream out;
+    private PacketEncoderImpl encoder;
+    private byte[] encoded;
+
+    @Setup
+    public void setUp() throws Exception {
+        type = Class.forName("com.adenki.smpp.message." + packetType)
+            .asSubclass(SMPPPacket.class);
+        packet = type.newInstance();
+        packet.setSequenceNum(1L);
+        // Give the message packets a realistic size. DeliverSM is a SubmitSM.
+        Address source = new Address(1, 1, "447700900123");
+        Address destination = new Address(1, 1, "447700900456");
+        if (packet instanceof SubmitSM) {
+            SubmitSM submitSM = (SubmitSM) packet;
+            submitSM.setSource(source);
+            submitSM.setDestination(destination);
+            submitSM.setMessage(Messages.bytes(140));
+        } else if (packet instanceof DataSM) {
+            DataSM dataSM = (DataSM) packet;
+            dataSM.setSource(source);
+            dataSM.setDestination(destination);
+            dataSM.setTLV(Tag.MESSAGE_PAYLOAD, Messages.bytes(140));
+        }
+        if (withTLVs) {
+            packet.setTLV(Tag.DEST_ADDR_SUBUNIT, Integer.valueOf(234));
+            packet.setTLV(Tag.ITS_SESSION_INFO, new byte[] {1, 2});
+            packet.setTLV(Tag.RECEIPTED_MESSAGE_ID, "0123456789abcdef");
+        }
+        out = new ByteArrayOutputStream(packet.getLength());
+        encoder = new PacketEncoderImpl(out);
+        packet.writeTo(encoder);
+        encoded = out.toByteArray();
+    }
+
+    @Benchmark
+    public byte[] writeTo() throws Exception {
+        out.reset();
+        packet.writeTo(encoder);
+        return out.toByteArray();
+    }
+
+    @Benchmark
+    public SMPPPacket readFrom() throws Exception {
+        SMPPPacket decoded = type.newInstance();
+        decoded.readFrom(new PacketDecoderImpl(encoded));
+        return decoded;
+    }
+}
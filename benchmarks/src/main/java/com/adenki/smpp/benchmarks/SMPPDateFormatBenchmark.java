@@ -0,0 +1,68 @@
+package com.adenki.smpp.benchmarks;
+
+import java.util.Calendar;
+import java.util.TimeZone;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import com.adenki.smpp.util.SMPPDate;
+import com.adenki.smpp.util.SMPPDateFormat;
+
+/**
+ * Formatting and parsing of absolute and relative SMPP dates.
+ * @version $Id$
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class SMPPDateFormatBenchmark {
+    private SMPPDateFormat format;
+    private SMPPDate absolute;
+    private SMPPDate relative;
+    private String absoluteString;
+    private String relativeString;
+
+    @Setup
+    public void setUp() {
+        format = new SMPPDateFormat();
+        Calendar calendar = Calendar.getInstance(TimeZone.getTimeZone("GMT+01:00"));
+        calendar.set(2008, Calendar.MAY, 17, 14, 45, 30);
+        absolute = SMPPDate.getAbsoluteInstance(calendar, true);
+        relative = SMPPDate.getRelativeInstance(0, 0, 2, 12, 30, 0);
+        absoluteString = format.format(absolute);
+        relativeString = format.format(relative);
+    }
+
+    @Benchmark
+    public String formatAbsolute() {
+        return format.format(absolute);
+    }
+
+    @Benchmark
+    public String formatRelative() {
+        return format.format(relative);
+    }
+
+    @Benchmark
+    public Object parseAbsolute() throws Exception {
+        return format.parseObject(absoluteString);
+    }
+
+    @Benchmark
+    public Object parseRelative() throws Exception {
+        return format.parseObject(relativeString);
+    }
+}
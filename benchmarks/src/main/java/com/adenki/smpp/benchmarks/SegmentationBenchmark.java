@@ -0,0 +1,51 @@
+package com.adenki.smpp.benchmarks;
+
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import com.adenki.smpp.gsm.UserDataImpl;
+
+/**
+ * Splitting of user data into concatenated short message segments.
+ * @version $Id$
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class SegmentationBenchmark {
+    /**
+     * The number of bytes of user data. 140 bytes fit in a single message.
+     */
+    @Param({"140", "400", "1340"})
+    public int length;
+
+    @Param({"false", "true"})
+    public boolean useConcat16;
+
+    private UserDataImpl userData;
+
+    @Setup
+    public void setUp() {
+        userData = new UserDataImpl(useConcat16);
+        userData.setData(Messages.bytes(length));
+    }
+
+    @Benchmark
+    public byte[][] toSegments() {
+        return userData.toSegments();
+    }
+}
@@ -0,0 +1,71 @@
+package com.adenki.smpp.benchmarks;
+
+import java.io.ByteArrayOutputStream;
+import java.util.BitSet;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import com.adenki.smpp.message.tlv.TLVTableImpl;
+import com.adenki.smpp.message.tlv.Tag;
+import com.adenki.smpp.util.PacketDecoderImpl;
+import com.adenki.smpp.util.PacketEncoderImpl;
+
+/**
+ * Encoding and decoding of a table of optional parameters holding one
+ * value of each descriptor type.
+ * @version $Id$
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class TLVTableBenchmark {
+    private TLVTableImpl table;
+    private ByteArrayOutputStream out;
+    private PacketEncoderImpl encoder;
+    private byte[] encoded;
+
+    @Setup
+    public void setUp() throws Exception {
+        table = new TLVTableImpl();
+        table.put(Tag.DEST_ADDR_SUBUNIT, Integer.valueOf(1));
+        table.put(Tag.SOURCE_PORT, Integer.valueOf(2948));
+        table.put(Tag.QOS_TIME_TO_LIVE, Long.valueOf(86400L));
+        table.put(Tag.RECEIPTED_MESSAGE_ID, "0123456789abcdef");
+        BitSet bitSet = new BitSet();
+        bitSet.set(0);
+        bitSet.set(7);
+        table.put(Tag.MS_MSG_WAIT_FACILITIES, bitSet);
+        table.put(Tag.MESSAGE_PAYLOAD, Messages.bytes(140));
+        out = new ByteArrayOutputStream(table.getLength());
+        encoder = new PacketEncoderImpl(out);
+        table.writeTo(encoder);
+        encoded = out.toByteArray();
+    }
+
+    @Benchmark
+    public byte[] writeTo() throws Exception {
+        out.reset();
+        table.writeTo(encoder);
+        return out.toByteArray();
+    }
+
+    @Benchmark
+    public TLVTableImpl readFrom() {
+        TLVTableImpl decoded = new TLVTableImpl();
+        decoded.readFrom(new PacketDecoderImpl(encoded), encoded.length);
+        return decoded;
+    }
+}
@@ -90,13 +90,11 @@ public class Address implements java.io.Serializable {
      * Get a unique hash code for this address.
      */
     public int hashCode() {
-        StringBuilder buf = new StringBuilder();
-        buf.append(Integer.toString(ton)).append(':');
-        buf.append(Integer.toString(npi)).append(':');
+        int hc = 31 * ton + npi;
         if (address != null) {
-            buf.append(address);
+            hc = 31 * hc + address.hashCode();
         }
-        return buf.hashCode();
+        return hc;
     }
 
     /**
@@ -0,0 +1,23 @@
+package com.adenki.smpp;
+
+import com.adenki.smpp.message.Bind;
+
+/**
+ * Callback used by a {@link SessionAcceptor} to decide whether an ESME may
+ * bind. It is called on one of the acceptor&apos;s worker threads, so
+ * implementations may look credentials up in a database or directory.
+ * @version $Id$
+ */
+public interface BindAuthenticator {
+    /**
+     * Check a bind request.
+     * @param session The session the bind request was received on. Its
+     * state is {@link SessionState#BINDING}.
+     * @param bindRequest The bind request, holding the system ID, password,
+     * system type and address range of the ESME.
+     * @return {@link com.adenki.smpp.util.PacketStatus#OK} to accept the
+     * bind, or the command status to reject it with, for example
+     * {@link com.adenki.smpp.util.PacketStatus#INVALID_PASSWORD}.
+     */
+    int authenticate(ServerSession session, Bind bindRequest);
+}
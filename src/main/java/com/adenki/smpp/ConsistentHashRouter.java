@@ -0,0 +1,171 @@
+package com.adenki.smpp;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.Comparator;
+import java.util.List;
+
+import com.adenki.smpp.message.DataSM;
+import com.adenki.smpp.message.DestinationTable;
+import com.adenki.smpp.message.SMPPPacket;
+import com.adenki.smpp.message.SubmitMulti;
+import com.adenki.smpp.message.SubmitSM;
+
+/**
+ * Routes packets with the same key to the same session, so that messages
+ * to one handset, including all the segments of a concatenated message,
+ * are sent on one link and arrive in order.
+ * <p>
+ * The key is the one supplied by the caller or, if there is none, the
+ * destination {@link Address} of a <code>submit_sm</code>,
+ * <code>deliver_sm</code> or <code>data_sm</code>, or the first
+ * destination address of a <code>submit_multi</code>. Packets with no key
+ * are routed by a fallback router, by default a
+ * {@link LeastOutstandingRouter}.
+ * </p>
+ * <p>
+ * Keys are mapped to sessions with a consistent hash ring. Each session is
+ * placed on the ring at a number of points (virtual nodes) and a key is
+ * routed to the session owning the first point at or after the
+ * key&apos;s hash. Keys are therefore spread evenly over the sessions, and
+ * when a session joins or leaves only the keys on its share of the ring
+ * move to another session.
+ * </p>
+ * @version $Id$
+ */
+public class ConsistentHashRouter implements SessionRouter {
+    /**
+     * The default number of points each session has on the ring.
+     */
+    public static final int DEFAULT_VIRTUAL_NODES = 160;
+
+    private final int virtualNodes;
+    private final SessionRouter fallback;
+    private volatile Ring ring = new Ring(new ArrayList<SessionImpl>(), 0);
+
+    /**
+     * Create a router with the default number of virtual nodes that routes
+     * packets without a key to the session with the fewest outstanding
+     * requests.
+     */
+    public ConsistentHashRouter() {
+        this(DEFAULT_VIRTUAL_NODES, new LeastOutstandingRouter());
+    }
+
+    /**
+     * Create a router.
+     * @param virtualNodes The number of points each session has on the
+     * ring. More points spread keys more evenly.
+     * @param fallback The router used for packets that have no key.
+     */
+    public ConsistentHashRouter(int virtualNodes, SessionRouter fallback) {
+        if (virtualNodes < 1) {
+            throw new IllegalArgumentException(
+                    "There must be at least one virtual node per session");
+        }
+        this.virtualNodes = virtualNodes;
+        this.fallback = fallback;
+    }
+
+    public SessionImpl select(List<SessionImpl> sessions, SMPPPacket packet, Object key) {
+        if (key == null) {
+            key = getKey(packet);
+            if (key == null) {
+                return fallback.select(sessions, packet, null);
+            }
+        }
+        Ring current = ring;
+        if (!current.sessions.equals(sessions)) {
+            current = new Ring(new ArrayList<SessionImpl>(sessions), virtualNodes);
+            ring = current;
+        }
+        return current.get(key);
+    }
+
+    /**
+     * Get the routing key of a packet that was sent without one.
+     * @param packet The packet being routed.
+     * @return The destination address of the packet, or <code>null</code>
+     * if it does not have one.
+     */
+    protected Object getKey(SMPPPacket packet) {
+        if (packet instanceof SubmitSM) {
+            return ((SubmitSM) packet).getDestination();
+        } else if (packet instanceof DataSM) {
+            return ((DataSM) packet).getDestination();
+        } else if (packet instanceof SubmitMulti) {
+            DestinationTable table = ((SubmitMulti) packet).getDestinationTable();
+            if (table != null) {
+                Collection<Address> addresses = table.getAddresses();
+                if (!addresses.isEmpty()) {
+                    return addresses.iterator().next();
+                }
+            }
+        }
+        return null;
+    }
+
+    static long hash(int value) {
+        // The finalisation step of MurmurHash3, which spreads the bits of
+        // poorly distributed hash codes across the whole range.
+        long h = value;
+        h ^= h >>> 33;
+        h *= 0xff51afd7ed558ccdL;
+        h ^= h >>> 33;
+        h *= 0xc4ceb9fe1a85ec53L;
+        h ^= h >>> 33;
+        return h;
+    }
+
+    /**
+     * An immutable hash ring built for one set of sessions.
+     */
+    private static final class Ring {
+        private final List<SessionImpl> sessions;
+        private final long[] points;
+        private final SessionImpl[] owners;
+
+        Ring(List<SessionImpl> sessions, int virtualNodes) {
+            this.sessions = sessions;
+            int size = sessions.size() * virtualNodes;
+            final long[] hashes = new long[size];
+            SessionImpl[] nodeOwners = new SessionImpl[size];
+            Integer[] order = new Integer[size];
+            int i = 0;
+            for (SessionImpl session : sessions) {
+                String id = session.getSessionId();
+                for (int node = 0; node < virtualNodes; node++) {
+                    hashes[i] = hash((id + '#' + node).hashCode());
+                    nodeOwners[i] = session;
+                    order[i] = Integer.valueOf(i);
+                    i++;
+                }
+            }
+            Arrays.sort(order, new Comparator<Integer>() {
+                public int compare(Integer a, Integer b) {
+                    long x = hashes[a.intValue()];
+                    long y = hashes[b.intValue()];
+                    return x < y ? -1 : (x == y ? 0 : 1);
+                }
+            });
+            points = new long[size];
+            owners = new SessionImpl[size];
+            for (int j = 0; j < size; j++) {
+                points[j] = hashes[order[j].intValue()];
+                owners[j] = nodeOwners[order[j].intValue()];
+            }
+        }
+
+        SessionImpl get(Object key) {
+            int index = Arrays.binarySearch(points, hash(key.hashCode()));
+            if (index < 0) {
+                index = -index - 1;
+                if (index == points.length) {
+                    index = 0;
+                }
+            }
+            return owners[index];
+        }
+    }
+}
@@ -0,0 +1,562 @@
+package com.adenki.smpp;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.ScheduledFuture;
+import java.util.concurrent.TimeUnit;
+
+import com.adenki.smpp.message.Bind;
+import com.adenki.smpp.util.APIConfig;
+import com.adenki.smpp.util.APIConfigFactory;
+import com.adenki.smpp.util.SharedExecutors;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * Keeps a {@link SessionGroup} supplied with between a minimum and a
+ * maximum number of bound sessions, opening extra binds when the group is
+ * under pressure and unbinding them again once it is not.
+ * <p>
+ * The pool checks its sessions periodically, on the
+ * {@link SharedExecutors#getWorkers() background threads} shared by all
+ * sessions. Sessions are connected, bound and unbound by the check after
+ * it has released the pool&apos;s lock, so a slow SMSC never blocks
+ * callers of the pool&apos;s other methods. The group is under pressure
+ * if every bound session has filled at least the saturation fraction of
+ * its send window, or if the average recent response latency of the bound
+ * sessions is above the latency threshold. If the group is under pressure
+ * on two consecutive checks, a new session is created by the
+ * {@link SessionFactory}, added to the group and bound. Binds are never
+ * started less than the bind interval apart, which also limits how
+ * quickly the pool retries after a failed bind.
+ * </p>
+ * <p>
+ * Once the group has not been under pressure for the idle timeout, the
+ * most recently opened session above the minimum is removed from the
+ * group so that no new traffic is sent on it, and is unbound when its
+ * outstanding requests have completed. Sessions that fail to bind or lose
+ * their connection are dropped and replaced if the pool falls below its
+ * minimum size.
+ * </p>
+ * <p>
+ * Calling {@link #rotate()} replaces every session in the pool, one at a
+ * time, with a new session from the factory, using
+ * {@link SessionGroup#replace(SessionImpl, SessionImpl, Bind)} so that
+ * there is no gap in throughput. Change the host or credentials returned
+ * by the factory and then rotate the pool to move it to them.
+ * </p>
+ * @version $Id$
+ * @see APIConfig#POOL_MIN_SESSIONS
+ * @see APIConfig#POOL_MAX_SESSIONS
+ * @see APIConfig#POOL_BIND_INTERVAL
+ * @see APIConfig#POOL_IDLE_TIMEOUT
+ * @see APIConfig#POOL_LATENCY_THRESHOLD
+ */
+public class ElasticSessionPool {
+    private static final Logger LOG = LoggerFactory.getLogger(ElasticSessionPool.class);
+
+    /**
+     * The default interval between checks of the pool, in milliseconds.
+     */
+    public static final long DEFAULT_CHECK_INTERVAL = 1000L;
+
+    /**
+     * The default fraction of the window that must be in use for a
+     * session to count as saturated.
+     */
+    public static final double DEFAULT_SATURATION = 0.8;
+
+    private final SessionFactory factory;
+    private final SessionGroup group;
+    private final List<SessionImpl> sessions = new CopyOnWriteArrayList<SessionImpl>();
+    private final List<SessionImpl> draining = new CopyOnWriteArrayList<SessionImpl>();
+    private final List<SessionImpl> toRotate = new ArrayList<SessionImpl>();
+    private SessionImpl rotating;
+    private SessionImpl replacement;
+    private ResponseFuture replacementBind;
+    private int minSessions;
+    private int maxSessions;
+    private long bindInterval;
+    private long idleTimeout;
+    private long latencyThreshold;
+    private double saturation = DEFAULT_SATURATION;
+    private long checkInterval = DEFAULT_CHECK_INTERVAL;
+    private ScheduledFuture<?> checkTask;
+    private boolean running;
+    private final Runnable checkRunner = new Runnable() {
+        public void run() {
+            check();
+            scheduleCheck(false);
+        }
+    };
+    private boolean pressured;
+    private long lastBind;
+    private long lastPressure = System.currentTimeMillis();
+
+    /**
+     * Create a pool that manages a new group.
+     * @param factory The factory used to create new sessions.
+     */
+    public ElasticSessionPool(SessionFactory factory) {
+        this(factory, new SessionGroup());
+    }
+
+    /**
+     * Create a pool that manages an existing group. Sessions already in
+     * the group are used for sending but are not managed by the pool.
+     * @param factory The factory used to create new sessions.
+     * @param group The group to add sessions to.
+     */
+    public ElasticSessionPool(SessionFactory factory, SessionGroup group) {
+        this.factory = factory;
+        this.group = group;
+        APIConfig config = APIConfigFactory.getConfig();
+        minSessions = config.getInt(APIConfig.POOL_MIN_SESSIONS, 1);
+        maxSessions = config.getInt(APIConfig.POOL_MAX_SESSIONS, minSessions);
+        bindInterval = config.getLong(APIConfig.POOL_BIND_INTERVAL, 1000L);
+        idleTimeout = config.getLong(APIConfig.POOL_IDLE_TIMEOUT, 60000L);
+        latencyThreshold = config.getLong(APIConfig.POOL_LATENCY_THRESHOLD, 0L);
+    }
+
+    /**
+     * Get the group the pool adds its sessions to.
+     * @return The session group.
+     */
+    public SessionGroup getGroup() {
+        return group;
+    }
+
+    /**
+     * Set the minimum and maximum number of sessions the pool keeps open.
+     * @param minSessions The minimum number of sessions.
+     * @param maxSessions The maximum number of sessions.
+     */
+    public synchronized void setLimits(int minSessions, int maxSessions) {
+        if (minSessions < 0 || maxSessions < minSessions || maxSessions < 1) {
+            throw new IllegalArgumentException("Invalid pool limits: "
+                    + minSessions + " to " + maxSessions);
+        }
+        this.minSessions = minSessions;
+        this.maxSessions = maxSessions;
+    }
+
+    public synchronized int getMinSessions() {
+        return minSessions;
+    }
+
+    public synchronized int getMaxSessions() {
+        return maxSessions;
+    }
+
+    /**
+     * Set the minimum time between binds.
+     * @param bindInterval The bind interval in milliseconds.
+     */
+    public synchronized void setBindInterval(long bindInterval) {
+        this.bindInterval = bindInterval;
+    }
+
+    public synchronized long getBindInterval() {
+        return bindInterval;
+    }
+
+    /**
+     * Set how long the group must be free of pressure before a session is
+     * unbound.
+     * @param idleTimeout The idle timeout in milliseconds.
+     */
+    public synchronized void setIdleTimeout(long idleTimeout) {
+        this.idleTimeout = idleTimeout;
+    }
+
+    public synchronized long getIdleTimeout() {
+        return idleTimeout;
+    }
+
+    /**
+     * Set the average response latency above which the group is under
+     * pressure.
+     * @param latencyThreshold The latency threshold in milliseconds, or
+     * zero to grow only when windows are saturated.
+     */
+    public synchronized void setLatencyThreshold(long latencyThreshold) {
+        this.latencyThreshold = latencyThreshold;
+    }
+
+    public synchronized long getLatencyThreshold() {
+        return latencyThreshold;
+    }
+
+    /**
+     * Set the fraction of its window a session must be using to count as
+     * saturated. Sessions without a window never count as saturated.
+     * @param saturation The saturation fraction, greater than 0 and at
+     * most 1.
+     */
+    public synchronized void setSaturation(double saturation) {
+        if (saturation <= 0.0 || saturation > 1.0) {
+            throw new IllegalArgumentException(
+                    "Saturation must be in (0, 1]: " + saturation);
+        }
+        this.saturation = saturation;
+    }
+
+    public synchronized double getSaturation() {
+        return saturation;
+    }
+
+    /**
+     * Set the interval between checks. Takes effect after the next
+     * check.
+     * @param checkInterval The check interval in milliseconds.
+     */
+    public synchronized void setCheckInterval(long checkInterval) {
+        this.checkInterval = checkInterval;
+    }
+
+    /**
+     * Get the number of sessions opened by the pool that are binding or
+     * bound and are still used for sending.
+     * @return The number of sessions in the pool.
+     */
+    public int getSessionCount() {
+        return sessions.size();
+    }
+
+    /**
+     * Replace every session currently in the pool with a new session from
+     * the factory. Sessions are replaced one at a time by the periodic
+     * check: each replacement is bound before the session it replaces
+     * stops being used, and the old session is unbound once its
+     * outstanding requests have completed. A session whose replacement
+     * fails to bind is kept.
+     */
+    public synchronized void rotate() {
+        toRotate.clear();
+        toRotate.addAll(sessions);
+    }
+
+    /**
+     * Determine if the pool is still replacing sessions after a call to
+     * {@link #rotate()}.
+     * @return <code>true</code> if a rotation is in progress.
+     */
+    public synchronized boolean isRotating() {
+        return rotating != null || !toRotate.isEmpty();
+    }
+
+    /**
+     * Open the minimum number of sessions and start checking the pool.
+     */
+    public synchronized void start() {
+        if (!running) {
+            running = true;
+            scheduleCheck(true);
+        }
+    }
+
+    /**
+     * Stop checking the pool and unbind every session it opened.
+     */
+    public void stop() {
+        List<SessionImpl> toUnbind;
+        synchronized (this) {
+            running = false;
+            if (checkTask != null) {
+                checkTask.cancel(false);
+                checkTask = null;
+            }
+            toUnbind = new ArrayList<SessionImpl>(sessions);
+            toUnbind.addAll(draining);
+            if (replacement != null) {
+                toUnbind.add(replacement);
+            }
+            sessions.clear();
+            draining.clear();
+            toRotate.clear();
+            rotating = null;
+            replacement = null;
+            replacementBind = null;
+        }
+        for (SessionImpl session : toUnbind) {
+            group.remove(session);
+            unbind(session);
+        }
+    }
+
+    /**
+     * Check the pool, opening or closing a session if needed. Called
+     * periodically once the pool is started.
+     */
+    void check() {
+        SessionImpl newSession = null;
+        SessionImpl toReplace = null;
+        SessionImpl newReplacement = null;
+        List<SessionImpl> toUnbind = new ArrayList<SessionImpl>();
+        synchronized (this) {
+            try {
+                long now = System.currentTimeMillis();
+                toReplace = checkRotation();
+                newReplacement = replacement;
+                dropDeadSessions();
+                takeDrained(toUnbind);
+                boolean pressure = isUnderPressure();
+                if (pressure) {
+                    lastPressure = now;
+                }
+                int count = sessions.size();
+                if (count < minSessions
+                        || (pressure && pressured && count < maxSessions)) {
+                    if (now - lastBind >= bindInterval) {
+                        lastBind = now;
+                        newSession = openSession();
+                    }
+                } else if (count > minSessions && rotating == null
+                        && now - lastPressure >= idleTimeout) {
+                    // Restart the idle period so sessions are closed one at
+                    // a time.
+                    lastPressure = now;
+                    retireSession(sessions.get(count - 1));
+                    takeDrained(toUnbind);
+                }
+                pressured = pressure;
+            } catch (RuntimeException x) {
+                LOG.error("Unexpected exception checking the session pool", x);
+            }
+        }
+        // Binding and unbinding do network I/O, so they are done without
+        // holding the lock.
+        if (toReplace != null) {
+            bindReplacement(toReplace, newReplacement);
+        }
+        if (newSession != null) {
+            bindSession(newSession);
+        }
+        for (SessionImpl session : toUnbind) {
+            unbind(session);
+        }
+    }
+
+    private synchronized void scheduleCheck(boolean immediately) {
+        if (running) {
+            checkTask = SharedExecutors.scheduleWork(checkRunner,
+                    immediately ? 0L : checkInterval, TimeUnit.MILLISECONDS);
+        }
+    }
+
+    /**
+     * Finish the current replacement if its bind has completed, and start
+     * the next one.
+     * @return The session to bind a replacement for, or <code>null</code>
+     * if no replacement was started.
+     */
+    private SessionImpl checkRotation() {
+        if (rotating != null) {
+            if (replacementBind == null || !replacementBind.isDone()) {
+                return null;
+            }
+            if (replacement.getState() == SessionState.BOUND) {
+                // The group has already swapped the sessions and is
+                // draining the old one.
+                sessions.set(sessions.indexOf(rotating), replacement);
+            } else {
+                LOG.warn("Keeping {} as its replacement did not bind",
+                        rotating.getSessionId());
+            }
+            rotating = null;
+            replacement = null;
+            replacementBind = null;
+        }
+        while (!toRotate.isEmpty()) {
+            SessionImpl session = toRotate.remove(0);
+            if (sessions.contains(session)
+                    && session.getState() == SessionState.BOUND) {
+                return startReplacement(session);
+            }
+        }
+        return null;
+    }
+
+    /**
+     * Create the replacement for a session. It is bound by
+     * {@link #bindReplacement}.
+     * @return The session being replaced, or <code>null</code> if no
+     * replacement could be created.
+     */
+    private SessionImpl startReplacement(SessionImpl session) {
+        try {
+            replacement = factory.createSession();
+            rotating = session;
+            return session;
+        } catch (IOException x) {
+            LOG.warn("Could not create a replacement for " + session.getSessionId(), x);
+            return null;
+        } catch (RuntimeException x) {
+            LOG.warn("Could not create a replacement for " + session.getSessionId(), x);
+            return null;
+        }
+    }
+
+    private void bindReplacement(SessionImpl session, SessionImpl newSession) {
+        ResponseFuture bind = null;
+        try {
+            LOG.info("Binding {} to replace {}",
+                    newSession.getSessionId(), session.getSessionId());
+            bind = group.replace(session, newSession, factory.createBindRequest());
+        } catch (IOException x) {
+            LOG.warn("Could not bind a replacement for " + session.getSessionId(), x);
+        } catch (RuntimeException x) {
+            LOG.warn("Could not bind a replacement for " + session.getSessionId(), x);
+        }
+        synchronized (this) {
+            if (bind != null && replacement == newSession) {
+                replacementBind = bind;
+                return;
+            }
+            if (replacement == newSession) {
+                rotating = null;
+                replacement = null;
+            }
+        }
+        // The bind failed or the pool was stopped while binding.
+        group.remove(newSession);
+        unbind(newSession);
+    }
+
+    private boolean isUnderPressure() {
+        List<SessionImpl> available = group.getAvailableSessions();
+        if (available.isEmpty()) {
+            return false;
+        }
+        boolean saturated = true;
+        double totalLatency = 0.0;
+        for (SessionImpl session : available) {
+            int window = session.getWindowSize();
+            if (window <= 0 || session.getOutstandingRequests() < window * saturation) {
+                saturated = false;
+            }
+            totalLatency += session.getResponseLatency().get();
+        }
+        if (saturated) {
+            return true;
+        }
+        if (latencyThreshold > 0L) {
+            double averageMillis = totalLatency / available.size() / 1000000.0;
+            return averageMillis > latencyThreshold;
+        }
+        return false;
+    }
+
+    /**
+     * Create a new session and add it to the pool. It is bound by
+     * {@link #bindSession}.
+     * @return The new session, or <code>null</code> if it could not be
+     * created.
+     */
+    private SessionImpl openSession() {
+        try {
+            SessionImpl session = factory.createSession();
+            sessions.add(session);
+            group.add(session);
+            return session;
+        } catch (IOException x) {
+            LOG.warn("Could not create a new pool session", x);
+            return null;
+        } catch (RuntimeException x) {
+            LOG.warn("Could not create a new pool session", x);
+            return null;
+        }
+    }
+
+    private void bindSession(SessionImpl session) {
+        try {
+            LOG.info("Binding {} to grow the pool to {} sessions",
+                    session.getSessionId(), sessions.size());
+            session.bind(factory.createBindRequest());
+        } catch (IOException x) {
+            LOG.warn("Could not bind a new pool session", x);
+            synchronized (this) {
+                dropSession(session);
+            }
+        } catch (RuntimeException x) {
+            LOG.warn("Could not bind a new pool session", x);
+            synchronized (this) {
+                dropSession(session);
+            }
+        }
+    }
+
+    /**
+     * Stop sending on a session. It is unbound once its outstanding
+     * requests have completed.
+     */
+    private void retireSession(SessionImpl session) {
+        LOG.info("Retiring {} as the pool is idle", session.getSessionId());
+        sessions.remove(session);
+        group.remove(session);
+        draining.add(session);
+    }
+
+    /**
+     * Move the draining sessions that have no outstanding requests to a
+     * list of sessions to unbind.
+     */
+    private void takeDrained(List<SessionImpl> toUnbind) {
+        for (SessionImpl session : draining) {
+            if (session.getOutstandingRequests() == 0) {
+                draining.remove(session);
+                toUnbind.add(session);
+            }
+        }
+    }
+
+    /**
+     * Drop sessions that failed to bind or were removed from the group
+     * after losing their connection.
+     */
+    private void dropDeadSessions() {
+        List<SessionImpl> members = group.getSessions();
+        for (SessionImpl session : sessions) {
+            if (session == rotating) {
+                // Removed from the group when its replacement binds.
+                continue;
+            }
+            if (!members.contains(session)
+                    || (session.getState() == SessionState.UNBOUND
+                            && !session.isReconnecting())) {
+                LOG.info("Dropping {} from the pool", session.getSessionId());
+                dropSession(session);
+            }
+        }
+    }
+
+    private void dropSession(SessionImpl session) {
+        sessions.remove(session);
+        group.remove(session);
+        if (session.getState() == SessionState.UNBOUND) {
+            try {
+                session.closeLink();
+            } catch (IOException x) {
+                LOG.debug("Exception closing the link of {}", session.getSessionId(), x);
+            } catch (RuntimeException x) {
+                LOG.debug("Exception closing the link of {}", session.getSessionId(), x);
+            }
+        }
+    }
+
+    private void unbind(SessionImpl session) {
+        try {
+            if (session.getState() == SessionState.BOUND) {
+                session.unbind();
+            } else if (session.getState() == SessionState.UNBOUND) {
+                session.closeLink();
+            }
+        } catch (IOException x) {
+            LOG.debug("Exception unbinding {}", session.getSessionId(), x);
+        } catch (RuntimeException x) {
+            LOG.debug("Exception unbinding {}", session.getSessionId(), x);
+        }
+    }
+}
@@ -0,0 +1,186 @@
+package com.adenki.smpp;
+
+import java.io.IOException;
+import java.util.concurrent.Executor;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ScheduledFuture;
+import java.util.concurrent.TimeUnit;
+
+import com.adenki.smpp.event.KeepaliveTimeoutEvent;
+import com.adenki.smpp.message.EnquireLink;
+import com.adenki.smpp.net.ReadTimeoutException;
+import com.adenki.smpp.util.SharedExecutors;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * Sends <code>enquire_link</code> requests on bound sessions that have had
+ * no traffic for their keepalive interval, so that idle connections are
+ * not dropped by firewalls and dead connections are noticed.
+ * <p>
+ * Each session has one {@link Task} on the
+ * {@link SharedExecutors#getScheduler() shared scheduler}, which wakes up
+ * when the session would next become idle. Probes are written on the
+ * {@link SharedExecutors#getIoThreads() shared I/O threads}, so that a
+ * write blocked on a dead link holds up neither the scheduler nor the
+ * shared workers. A probe that times out is handled on the timer thread
+ * that reports the timeout, which closes the link and so releases the
+ * blocked write. A probe is only sent if nothing has
+ * been sent or received on the session since the last check, so busy
+ * sessions never send probes. Probes do not take a place in the
+ * session&apos;s window, so a session whose window is full of requests to
+ * a dead SMSC is still probed. The round-trip time of every answered probe is recorded in
+ * the session&apos;s {@link SessionImpl#getEnquireLinkLatency() latency
+ * histogram}; a probe that is not answered within the keepalive timeout
+ * raises a {@link KeepaliveTimeoutEvent} and, if the session is
+ * supervised, closes its link so that it is reconnected.
+ * </p>
+ * @version $Id$
+ */
+final class KeepaliveService {
+    private static final Logger LOG = LoggerFactory.getLogger(KeepaliveService.class);
+
+    private static final KeepaliveService DEFAULT_SERVICE = new KeepaliveService(
+            SharedExecutors.getScheduler(), SharedExecutors.getIoThreads());
+
+    private final ScheduledExecutorService scheduler;
+    private final Executor writers;
+
+    KeepaliveService(ScheduledExecutorService scheduler, Executor writers) {
+        this.scheduler = scheduler;
+        this.writers = writers;
+    }
+
+    /**
+     * Get the keepalive service shared by all sessions.
+     * @return The default keepalive service.
+     */
+    static KeepaliveService getDefault() {
+        return DEFAULT_SERVICE;
+    }
+
+    /**
+     * Start sending keepalive probes on a session. Probes stop when the
+     * returned task is stopped or the session is no longer bound.
+     * @param session The session to keep alive.
+     * @param interval The number of milliseconds the session may be idle
+     * before a probe is sent.
+     * @param timeout The number of milliseconds to wait for the response
+     * to a probe.
+     * @return The keepalive task for the session.
+     */
+    Task start(SessionImpl session, long interval, long timeout) {
+        Task task = new Task(session, interval, timeout);
+        task.schedule(interval);
+        return task;
+    }
+
+    /**
+     * The keepalive state of one session.
+     */
+    final class Task implements Runnable, ResponseListener {
+        private final SessionImpl session;
+        private final long interval;
+        private final long timeout;
+        private volatile ScheduledFuture<?> future;
+        private volatile boolean stopped;
+        private volatile boolean probing;
+        private volatile long probeSent;
+        private final Runnable probeTask = new Runnable() {
+            public void run() {
+                sendProbe();
+                schedule(interval);
+            }
+        };
+
+        Task(SessionImpl session, long interval, long timeout) {
+            this.session = session;
+            this.interval = interval;
+            this.timeout = timeout;
+        }
+
+        /**
+         * Stop sending probes on the session.
+         */
+        void stop() {
+            stopped = true;
+            ScheduledFuture<?> scheduled = future;
+            if (scheduled != null) {
+                scheduled.cancel(false);
+            }
+        }
+
+        boolean isStopped() {
+            return stopped;
+        }
+
+        public void run() {
+            if (stopped) {
+                return;
+            }
+            if (session.getState() != SessionState.BOUND) {
+                stopped = true;
+                return;
+            }
+            long delay = interval;
+            if (!probing) {
+                long idle = System.currentTimeMillis() - session.getLastActivity();
+                if (idle >= interval) {
+                    probing = true;
+                    writers.execute(probeTask);
+                    return;
+                }
+                delay = interval - idle;
+            }
+            schedule(delay);
+        }
+
+        public void requestCompleted(ResponseFuture probe) {
+            probing = false;
+            if (probe.getResponse() != null) {
+                session.getEnquireLinkLatency().record(System.nanoTime() - probeSent);
+            } else if (probe.getFailure() instanceof ReadTimeoutException && !stopped) {
+                // Handled here rather than on a pool thread: the probe write
+                // may still be blocked, and so may every pool thread.
+                probeTimedOut(probe);
+            }
+        }
+
+        private void sendProbe() {
+            probeSent = System.nanoTime();
+            try {
+                session.sendProbe(new EnquireLink(), timeout, this);
+            } catch (IOException x) {
+                probing = false;
+                LOG.debug("Could not send a keepalive probe on {}",
+                        session.getSessionId(), x);
+            } catch (RuntimeException x) {
+                probing = false;
+                LOG.debug("Could not send a keepalive probe on {}",
+                        session.getSessionId(), x);
+            }
+        }
+
+        private void probeTimedOut(ResponseFuture probe) {
+            LOG.warn("No response to enquire_link on {} within {}ms",
+                    session.getSessionId(), timeout);
+            session.getEventDispatcher().notifyObservers(session,
+                    new KeepaliveTimeoutEvent(session, probe.getRequest(), timeout));
+            if (session.isSupervised()) {
+                // Close the dead link so that the session is reconnected.
+                try {
+                    session.getSmscLink().disconnect();
+                } catch (IOException x) {
+                    LOG.debug("Exception closing the link of {}",
+                            session.getSessionId(), x);
+                }
+            }
+        }
+
+        private void schedule(long delay) {
+            if (!stopped) {
+                future = scheduler.schedule(this, delay, TimeUnit.MILLISECONDS);
+            }
+        }
+    }
+}
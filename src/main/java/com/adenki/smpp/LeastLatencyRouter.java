@@ -0,0 +1,37 @@
+package com.adenki.smpp;
+
+import java.util.List;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import com.adenki.smpp.message.SMPPPacket;
+
+/**
+ * Routes each packet to the session expected to respond soonest. A
+ * session&apos;s expected response time is its
+ * {@link SessionImpl#getResponseLatency() recent response latency}
+ * multiplied by one more than its number of outstanding requests, so a
+ * fast session is preferred until it has built up a backlog. Sessions
+ * that have not yet received any responses are tried first. Ties are
+ * broken round-robin.
+ * @version $Id$
+ */
+public class LeastLatencyRouter implements SessionRouter {
+    private final AtomicInteger next = new AtomicInteger();
+
+    public SessionImpl select(List<SessionImpl> sessions, SMPPPacket packet, Object key) {
+        int size = sessions.size();
+        int start = (next.getAndIncrement() & Integer.MAX_VALUE) % size;
+        SessionImpl best = null;
+        double bestScore = Double.MAX_VALUE;
+        for (int i = 0; i < size; i++) {
+            SessionImpl session = sessions.get((start + i) % size);
+            double score = session.getResponseLatency().get()
+                * (session.getOutstandingRequests() + 1);
+            if (best == null || score < bestScore) {
+                best = session;
+                bestScore = score;
+            }
+        }
+        return best;
+    }
+}
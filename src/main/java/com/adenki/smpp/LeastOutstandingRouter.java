@@ -0,0 +1,33 @@
+package com.adenki.smpp;
+
+import java.util.List;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import com.adenki.smpp.message.SMPPPacket;
+
+/**
+ * Routes each packet to the session with the fewest requests waiting on a
+ * response. Ties are broken round-robin, so sessions with equal load,
+ * including sessions used only with {@link Session#send}, share traffic
+ * evenly.
+ * @version $Id$
+ */
+public class LeastOutstandingRouter implements SessionRouter {
+    private final AtomicInteger next = new AtomicInteger();
+
+    public SessionImpl select(List<SessionImpl> sessions, SMPPPacket packet, Object key) {
+        int size = sessions.size();
+        int start = (next.getAndIncrement() & Integer.MAX_VALUE) % size;
+        SessionImpl best = null;
+        int bestOutstanding = Integer.MAX_VALUE;
+        for (int i = 0; i < size; i++) {
+            SessionImpl session = sessions.get((start + i) % size);
+            int outstanding = session.getOutstandingRequests();
+            if (outstanding < bestOutstanding) {
+                best = session;
+                bestOutstanding = outstanding;
+            }
+        }
+        return best;
+    }
+}
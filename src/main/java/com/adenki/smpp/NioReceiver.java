@@ -0,0 +1,106 @@
+package com.adenki.smpp;
+
+import java.util.concurrent.atomic.AtomicBoolean;
+
+import com.adenki.smpp.event.EventDispatcher;
+import com.adenki.smpp.event.ReceiverExitEvent;
+import com.adenki.smpp.message.SMPPPacket;
+import com.adenki.smpp.net.LinkListener;
+import com.adenki.smpp.net.NioLink;
+import com.adenki.smpp.net.SmscLink;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * Receiver for sessions using an {@link NioLink}. Rather than running a
+ * thread that blocks reading from the link, this receiver registers itself
+ * as the link&apos;s {@link LinkListener} and processes packets on the
+ * link&apos;s selector thread as they are decoded. It behaves the same way
+ * as {@link ReceiverThread} in all other respects: packets are passed to
+ * the session and then to the session&apos;s event dispatcher, and a
+ * {@link ReceiverExitEvent} is delivered when the session becomes unbound,
+ * the bind times out or the link fails.
+ * @version $Id$
+ */
+public class NioReceiver implements Receiver, LinkListener {
+    private static final Logger LOG = LoggerFactory.getLogger(NioReceiver.class);
+
+    private final SessionImpl session;
+    private final NioLink link;
+    private final AtomicBoolean started = new AtomicBoolean();
+    private String name;
+
+    public NioReceiver(SessionImpl session, NioLink link) {
+        this.session = session;
+        this.link = link;
+    }
+
+    public String getName() {
+        return name;
+    }
+
+    public void setName(String name) {
+        this.name = name;
+    }
+
+    public Session getSession() {
+        return session;
+    }
+
+    public boolean isStarted() {
+        return started.get();
+    }
+
+    public void start() {
+        if (started.compareAndSet(false, true)) {
+            LOG.debug("Receiver {} starting.", name);
+            link.setLinkListener(this);
+        }
+    }
+
+    public void stop() {
+        exit(new ReceiverExitEvent(session));
+    }
+
+    public void packetReceived(SmscLink source, SMPPPacket packet) {
+        if (!started.get()) {
+            return;
+        }
+        session.processReceivedPacket(packet);
+        session.getEventDispatcher().notifyObservers(session, packet);
+        packet.release();
+        if (session.getState() == SessionState.UNBOUND) {
+            exit(new ReceiverExitEvent(session));
+        }
+    }
+
+    public void readTimeout(SmscLink source) {
+        SessionState state = session.getState();
+        if (state == SessionState.BINDING) {
+            LOG.debug("Bind timeout occurred.");
+            ReceiverExitEvent exitEvent =
+                new ReceiverExitEvent(session, null, state);
+            exitEvent.setReason(ReceiverExitEvent.BIND_TIMEOUT);
+            exit(exitEvent);
+        }
+    }
+
+    public void linkFailed(SmscLink source, Exception cause) {
+        LOG.debug("Exception in receiver", cause);
+        exit(new ReceiverExitEvent(session, cause, session.getState()));
+    }
+
+    private void exit(ReceiverExitEvent exitEvent) {
+        if (started.compareAndSet(true, false)) {
+            link.setLinkListener(null);
+            boolean reconnecting = session.processReceiverExit(exitEvent);
+            EventDispatcher dispatcher = session.getEventDispatcher();
+            dispatcher.notifyObservers(session, exitEvent);
+            if (!reconnecting) {
+                LOG.debug("Destroying event dispatcher.");
+                dispatcher.destroy();
+            }
+            LOG.debug("Receiver {} exiting.", name);
+        }
+    }
+}
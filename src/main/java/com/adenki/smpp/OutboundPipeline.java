@@ -0,0 +1,325 @@
+package com.adenki.smpp;
+
+import java.io.IOException;
+import java.util.Queue;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.Executor;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.locks.Lock;
+import java.util.concurrent.locks.ReentrantLock;
+
+import com.adenki.smpp.message.CommandId;
+import com.adenki.smpp.message.SMPPPacket;
+import com.adenki.smpp.message.SubmitMulti;
+import com.adenki.smpp.message.SubmitSM;
+import com.adenki.smpp.net.SmscLink;
+import com.adenki.smpp.util.APIConfig;
+import com.adenki.smpp.util.APIConfigFactory;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * Queues outbound packets for a session and writes them to the session&apos;s
+ * link from a single writer. Any number of threads may
+ * {@link #enqueue(SMPPPacket) enqueue} packets; the queue is drained by a task
+ * run on a shared writer thread pool of fixed size, which writes queued
+ * packets to the link in batches, flushing the link once per batch. Threads
+ * enqueueing packets therefore never block on network I/O.
+ * <p>
+ * Packets that change the state of the session (binds, unbinds and unbind
+ * responses) are written with {@link #writeNow(SMPPPacket)}, which writes
+ * all queued packets followed by the given packet on the calling thread.
+ * Only one thread writes to the link at any time, so packets are never
+ * interleaved on the wire.
+ * </p>
+ * <p>
+ * Queued packets are held in priority lanes. Responses and link-control
+ * requests (<code>enquire_link</code>, <code>unbind</code> and
+ * <code>alert_notification</code>) go in the control lane, which is always
+ * written first so that they never wait behind bulk traffic. Every other
+ * request goes in one of four bulk lanes chosen by its
+ * <code>priority_flag</code>; requests without a priority flag use the
+ * lowest lane. The bulk lanes are served by weighted round-robin, each lane
+ * getting twice the share of the lane below it, so that high priority
+ * messages are sent first without starving low priority ones. Packets in
+ * the same lane are written in the order they were queued.
+ * </p>
+ * <p>
+ * If a write fails, the pipeline discards any queued packets and every
+ * subsequent call to <code>enqueue</code> or <code>writeNow</code> throws an
+ * <code>IOException</code>.
+ * </p>
+ * @version $Id$
+ */
+final class OutboundPipeline {
+    private static final Logger LOG = LoggerFactory.getLogger(OutboundPipeline.class);
+
+    /**
+     * The maximum number of packets written between flushes of the link.
+     */
+    static final int MAX_BATCH_SIZE = 64;
+
+    private static final int CONTROL_LANE = 0;
+    private static final int MAX_PRIORITY = 3;
+
+    /**
+     * The number of packets taken from each lane per round-robin turn,
+     * indexed by lane. The control lane is not part of the rotation.
+     */
+    private static final int[] WEIGHTS = {0, 8, 4, 2, 1};
+
+    private final SessionImpl session;
+    private final SmscLink link;
+    private final Executor executor;
+    private final Queue<SMPPPacket>[] lanes;
+    private final AtomicBoolean scheduled = new AtomicBoolean();
+    private final Lock writeLock = new ReentrantLock();
+    private volatile IOException failure;
+    // Round-robin state, only accessed while holding the write lock.
+    private int currentLane;
+    private int credit;
+
+    private final Runnable drainTask = new Runnable() {
+        public void run() {
+            drain();
+        }
+    };
+
+    OutboundPipeline(SessionImpl session, SmscLink link) {
+        this(session, link, WriterPool.EXECUTOR);
+    }
+
+    OutboundPipeline(SessionImpl session, SmscLink link, Executor executor) {
+        this.session = session;
+        this.link = link;
+        this.executor = executor;
+        @SuppressWarnings({"unchecked", "rawtypes"})
+        Queue<SMPPPacket>[] queues = new Queue[WEIGHTS.length];
+        for (int i = 0; i < queues.length; i++) {
+            queues[i] = new ConcurrentLinkedQueue<SMPPPacket>();
+        }
+        lanes = queues;
+    }
+
+    /**
+     * Queue a packet to be written to the link by the writer.
+     * @param packet The packet to write.
+     * @throws IOException If a previous write to the link failed.
+     */
+    void enqueue(SMPPPacket packet) throws IOException {
+        checkFailure();
+        lanes[laneFor(packet)].add(packet);
+        if (scheduled.compareAndSet(false, true)) {
+            executor.execute(drainTask);
+        }
+    }
+
+    /**
+     * Write any queued packets followed by <code>packet</code> to the link
+     * on the calling thread, then flush the link.
+     * @param packet The packet to write.
+     * @throws IOException If a write to the link fails.
+     */
+    void writeNow(SMPPPacket packet) throws IOException {
+        writeLock.lock();
+        try {
+            checkFailure();
+            try {
+                writeQueued();
+                session.writePacket(packet);
+                link.flush();
+            } catch (IOException x) {
+                fail(x);
+                throw x;
+            }
+        } finally {
+            writeLock.unlock();
+        }
+    }
+
+    /**
+     * Clear a previous write failure so the pipeline can be used on a
+     * re-connected link. Packets queued for the failed link are discarded.
+     */
+    void reset() {
+        discard();
+        failure = null;
+    }
+
+    /**
+     * Get the number of packets waiting to be written.
+     * @return The number of queued packets.
+     */
+    int getQueueSize() {
+        int size = 0;
+        for (Queue<SMPPPacket> lane : lanes) {
+            size += lane.size();
+        }
+        return size;
+    }
+
+    /**
+     * Get the lane a packet is queued in.
+     * @param packet The packet.
+     * @return The index of the lane, where <code>0</code> is the control
+     * lane and higher lanes have lower priority.
+     */
+    static int laneFor(SMPPPacket packet) {
+        if (packet.isResponse()) {
+            return CONTROL_LANE;
+        }
+        int priority;
+        switch (packet.getCommandId()) {
+        case CommandId.ENQUIRE_LINK:
+        case CommandId.UNBIND:
+        case CommandId.ALERT_NOTIFICATION:
+            return CONTROL_LANE;
+        case CommandId.SUBMIT_SM:
+        case CommandId.DELIVER_SM:
+            priority = ((SubmitSM) packet).getPriority();
+            break;
+        case CommandId.SUBMIT_MULTI:
+            priority = ((SubmitMulti) packet).getPriority();
+            break;
+        default:
+            priority = 0;
+        }
+        priority = Math.max(0, Math.min(MAX_PRIORITY, priority));
+        return 1 + MAX_PRIORITY - priority;
+    }
+
+    private boolean isEmpty() {
+        for (Queue<SMPPPacket> lane : lanes) {
+            if (!lane.isEmpty()) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    /**
+     * Take the next packet to write. Must be called with the write lock
+     * held.
+     * @return The next packet, or <code>null</code> if all lanes are empty.
+     */
+    private SMPPPacket poll() {
+        SMPPPacket packet = lanes[CONTROL_LANE].poll();
+        if (packet != null) {
+            return packet;
+        }
+        // Visit the current lane and then every other bulk lane once.
+        for (int i = 0; i < lanes.length; i++) {
+            if (credit > 0) {
+                packet = lanes[currentLane].poll();
+                if (packet != null) {
+                    credit--;
+                    return packet;
+                }
+            }
+            currentLane = currentLane % (lanes.length - 1) + 1;
+            credit = WEIGHTS[currentLane];
+        }
+        return null;
+    }
+
+    private void drain() {
+        while (true) {
+            writeLock.lock();
+            try {
+                if (failure != null) {
+                    // Packets may have been queued just as the pipeline
+                    // failed; they will never be written.
+                    discard();
+                    scheduled.set(false);
+                    return;
+                }
+                writeQueued();
+            } catch (IOException x) {
+                LOG.warn("Could not write to the link", x);
+                fail(x);
+            } finally {
+                writeLock.unlock();
+            }
+            scheduled.set(false);
+            // A packet may have been queued after the last poll but before
+            // the scheduled flag was cleared.
+            if (isEmpty() || !scheduled.compareAndSet(false, true)) {
+                return;
+            }
+        }
+    }
+
+    private void writeQueued() throws IOException {
+        int count = 0;
+        SMPPPacket packet;
+        while ((packet = poll()) != null) {
+            try {
+                session.writePacket(packet);
+            } catch (RuntimeException x) {
+                LOG.error("Discarding a packet that could not be written: "
+                        + packet, x);
+            }
+            if (++count == MAX_BATCH_SIZE) {
+                link.flush();
+                count = 0;
+            }
+        }
+        if (count > 0) {
+            link.flush();
+        }
+    }
+
+    private void fail(IOException x) {
+        failure = x;
+        discard();
+    }
+
+    private void discard() {
+        int discarded = 0;
+        for (Queue<SMPPPacket> lane : lanes) {
+            while (lane.poll() != null) {
+                discarded++;
+            }
+        }
+        if (discarded > 0) {
+            LOG.warn("Discarded {} queued packets after a write failure",
+                    discarded);
+        }
+    }
+
+    private void checkFailure() throws IOException {
+        IOException x = failure;
+        if (x != null) {
+            IOException y = new IOException("Outbound pipeline has failed: "
+                    + x.getMessage());
+            y.initCause(x);
+            throw y;
+        }
+    }
+
+    /**
+     * Holder for the thread pool shared by all pipelines. The number of
+     * writer threads is set by the
+     * {@link APIConfig#CONNECTION_OUTBOUND_PIPELINE_THREADS} property.
+     */
+    private static final class WriterPool {
+        private static final AtomicInteger THREAD_ID = new AtomicInteger(1);
+
+        static final ExecutorService EXECUTOR = Executors.newFixedThreadPool(
+                Math.max(1, APIConfigFactory.getConfig().getInt(
+                        APIConfig.CONNECTION_OUTBOUND_PIPELINE_THREADS,
+                        Runtime.getRuntime().availableProcessors() * 2)),
+                new ThreadFactory() {
+                    public Thread newThread(Runnable r) {
+                        Thread thread = new Thread(
+                                r, "OutboundWriter-" + THREAD_ID.getAndIncrement());
+                        thread.setDaemon(true);
+                        return thread;
+                    }
+                });
+    }
+}
@@ -0,0 +1,336 @@
+package com.adenki.smpp;
+
+import java.io.IOException;
+import java.io.InterruptedIOException;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.List;
+import java.util.Queue;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.TimeUnit;
+
+import com.adenki.smpp.message.SMPPPacket;
+import com.adenki.smpp.net.ReadTimeoutException;
+import com.adenki.smpp.util.ConcurrentLongMap;
+import com.adenki.smpp.util.TimingWheel;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * Tracks the requests a session has sent with
+ * {@link Session#sendAsync(SMPPPacket)} that are still waiting on a
+ * response. Requests are keyed by sequence number. If a window size is
+ * set, at most that many requests may be outstanding at once; callers
+ * trying to add another request wait for space in the window for up to
+ * the window wait time. Response timeouts are run on the shared
+ * {@link TimingWheel}.
+ * @version $Id$
+ */
+final class PendingRequests {
+    private static final Logger LOG = LoggerFactory.getLogger(PendingRequests.class);
+
+    private final ConcurrentLongMap<ResponseFuture> pending =
+        new ConcurrentLongMap<ResponseFuture>();
+    private final Semaphore window;
+    private final int windowSize;
+    private final long windowWait;
+    private final TimingWheel timer;
+    private final Queue<Runnable> emptyTasks = new ConcurrentLinkedQueue<Runnable>();
+
+    /**
+     * Create a new pending request table.
+     * @param windowSize The maximum number of outstanding requests, or zero
+     * for no limit.
+     * @param windowWait The number of milliseconds to wait for space in a
+     * full window. Zero fails immediately and a negative value waits
+     * indefinitely.
+     */
+    PendingRequests(int windowSize, long windowWait) {
+        this(windowSize, windowWait, TimingWheel.getDefault());
+    }
+
+    PendingRequests(int windowSize, long windowWait, TimingWheel timer) {
+        this.timer = timer;
+        this.windowSize = windowSize;
+        this.windowWait = windowWait;
+        if (windowSize > 0) {
+            window = new Semaphore(windowSize);
+        } else {
+            window = null;
+        }
+    }
+
+    int getWindowSize() {
+        return windowSize;
+    }
+
+    long getWindowWait() {
+        return windowWait;
+    }
+
+    /**
+     * Get the number of outstanding requests.
+     * @return The number of requests waiting on a response.
+     */
+    int size() {
+        return pending.size();
+    }
+
+    /**
+     * Run a task once there are no outstanding requests. If there are
+     * none now, the task is run immediately on the calling thread;
+     * otherwise it is run by the thread that removes the last request,
+     * usually the session&apos;s receiver or the timer thread, so it must
+     * not block.
+     * @param task The task to run.
+     */
+    void whenEmpty(Runnable task) {
+        emptyTasks.add(task);
+        if (pending.isEmpty()) {
+            runEmptyTasks();
+        }
+    }
+
+    /**
+     * Add a request to the table. The request must already have its
+     * sequence number set.
+     * @param request The request that is about to be sent.
+     * @param timeout The number of milliseconds to wait for the response,
+     * or zero to wait indefinitely.
+     * @return The future that will be completed by the response.
+     * @throws WindowFullException If there is no space in the window.
+     * @throws IllegalStateException If a request with the same sequence
+     * number is already outstanding.
+     * @throws InterruptedIOException If the thread is interrupted while
+     * waiting for space in the window.
+     */
+    ResponseFuture add(SMPPPacket request, long timeout) throws IOException {
+        return add(request, timeout, true);
+    }
+
+    /**
+     * Add a request to the table, optionally without taking a place in the
+     * window. Requests the session sends on its own behalf, such as
+     * keepalive probes, must not wait for or fail on a full window.
+     * @param request The request that is about to be sent.
+     * @param timeout The number of milliseconds to wait for the response,
+     * or zero to wait indefinitely.
+     * @param windowed <code>false</code> to add the request outside the
+     * window.
+     * @return The future that will be completed by the response.
+     * @throws IOException As for {@link #add(SMPPPacket, long)}.
+     */
+    ResponseFuture add(SMPPPacket request, long timeout, boolean windowed)
+            throws IOException {
+        if (windowed) {
+            acquireWindow();
+        }
+        final ResponseFuture future = new ResponseFuture(request, this, windowed);
+        long key = request.getSequenceNum();
+        if (pending.putIfAbsent(key, future) != null) {
+            releaseWindow(future);
+            throw new IllegalStateException("A request with sequence number "
+                    + key + " is already outstanding.");
+        }
+        if (timeout > 0L) {
+            TimingWheel.Timeout task = timer.schedule(
+                    new Runnable() {
+                        public void run() {
+                            timedOut(future);
+                        }
+                    }, timeout, TimeUnit.MILLISECONDS);
+            future.setTimeout(task);
+        }
+        return future;
+    }
+
+    /**
+     * Complete the future waiting on a response.
+     * @param response The response packet.
+     * @return The future that was completed, or <code>null</code> if no
+     * request was waiting on the response.
+     */
+    ResponseFuture complete(SMPPPacket response) {
+        ResponseFuture future = pending.get(response.getSequenceNum());
+        if (future != null && remove(future)) {
+            future.complete(response);
+            return future;
+        }
+        return null;
+    }
+
+    /**
+     * Fail a single outstanding request.
+     * @param future The future to fail.
+     * @param cause The cause of the failure.
+     */
+    void fail(ResponseFuture future, Throwable cause) {
+        if (remove(future)) {
+            future.fail(cause);
+        }
+    }
+
+    /**
+     * Fail every outstanding request.
+     * @param cause The cause of the failure.
+     */
+    void failAll(Throwable cause) {
+        int count = 0;
+        for (ResponseFuture future : pending.values()) {
+            if (remove(future)) {
+                future.fail(cause);
+                count++;
+            }
+        }
+        if (count > 0) {
+            LOG.debug("Failed {} outstanding requests", count);
+        }
+    }
+
+    /**
+     * Hold the outstanding requests a replay policy replays so that they
+     * can be sent again after a reconnect, and fail the rest.
+     * @param policy The replay policy.
+     * @param cause The cause of failure for requests that are not
+     * replayed.
+     */
+    void holdForReplay(ReplayPolicy policy, Throwable cause) {
+        int held = 0;
+        for (ResponseFuture future : pending.values()) {
+            if (policy.isReplayable(future.getRequest())) {
+                future.markForReplay();
+                held++;
+            } else if (remove(future)) {
+                future.fail(cause);
+            }
+        }
+        if (held > 0) {
+            LOG.debug("Holding {} outstanding requests for replay", held);
+        }
+    }
+
+    /**
+     * Claim every request that is held for replay.
+     * @return The claimed requests, in the order they were first sent.
+     */
+    List<ResponseFuture> claimReplays() {
+        List<ResponseFuture> claimed = new ArrayList<ResponseFuture>();
+        for (ResponseFuture future : pending.values()) {
+            if (future.claimReplay()) {
+                claimed.add(future);
+            }
+        }
+        Collections.sort(claimed, new Comparator<ResponseFuture>() {
+            public int compare(ResponseFuture a, ResponseFuture b) {
+                long x = a.getRequest().getSequenceNum();
+                long y = b.getRequest().getSequenceNum();
+                return x < y ? -1 : (x == y ? 0 : 1);
+            }
+        });
+        return claimed;
+    }
+
+    /**
+     * Move an outstanding request to a new sequence number before it is
+     * sent again.
+     * @param future The future of the request.
+     * @param sequenceNum The new sequence number.
+     * @return <code>true</code> if the request is still outstanding under
+     * its new sequence number, <code>false</code> if it has completed,
+     * been cancelled or timed out and must not be sent.
+     */
+    boolean rekey(ResponseFuture future, long sequenceNum) {
+        SMPPPacket request = future.getRequest();
+        if (!pending.remove(request.getSequenceNum(), future)) {
+            return false;
+        }
+        request.setSequenceNum(sequenceNum);
+        if (pending.putIfAbsent(sequenceNum, future) != null) {
+            releaseWindow(future);
+            future.fail(new IllegalStateException("A request with sequence number "
+                    + sequenceNum + " is already outstanding."));
+            return false;
+        }
+        // The future may have been cancelled or timed out while it was
+        // not in the table, in which case nothing removed it.
+        TimingWheel.Timeout timeout = future.getTimeout();
+        if (timeout != null && timeout.isExpired()) {
+            timedOut(future);
+        } else if (future.isDone()) {
+            remove(future);
+        }
+        return !future.isDone();
+    }
+
+    /**
+     * Remove a future from the table, freeing its space in the window.
+     * @param future The future to remove.
+     * @return <code>true</code> if the future was removed by this call.
+     */
+    boolean remove(ResponseFuture future) {
+        long key = future.getRequest().getSequenceNum();
+        if (pending.remove(key, future)) {
+            TimingWheel.Timeout timeout = future.getTimeout();
+            if (timeout != null) {
+                timeout.cancel();
+            }
+            releaseWindow(future);
+            if (!emptyTasks.isEmpty() && pending.isEmpty()) {
+                runEmptyTasks();
+            }
+            return true;
+        }
+        return false;
+    }
+
+    private void runEmptyTasks() {
+        Runnable task;
+        while ((task = emptyTasks.poll()) != null) {
+            try {
+                task.run();
+            } catch (RuntimeException x) {
+                LOG.error("Task run when requests completed threw an exception", x);
+            }
+        }
+    }
+
+    private void timedOut(ResponseFuture future) {
+        SMPPPacket request = future.getRequest();
+        fail(future, new ReadTimeoutException(
+                request.getClass().getSimpleName()
+                + " response with sequence " + request.getSequenceNum()
+                + " not received within timeout."));
+    }
+
+    private void acquireWindow() throws IOException {
+        if (window == null) {
+            return;
+        }
+        boolean acquired;
+        try {
+            if (windowWait < 0L) {
+                window.acquire();
+                acquired = true;
+            } else if (windowWait == 0L) {
+                acquired = window.tryAcquire();
+            } else {
+                acquired = window.tryAcquire(windowWait, TimeUnit.MILLISECONDS);
+            }
+        } catch (InterruptedException x) {
+            throw new InterruptedIOException(
+                    "Interrupted waiting for space in the window");
+        }
+        if (!acquired) {
+            throw new WindowFullException("Window of " + windowSize
+                    + " outstanding requests is full");
+        }
+    }
+
+    private void releaseWindow(ResponseFuture future) {
+        if (window != null && future.isWindowed()) {
+            window.release();
+        }
+    }
+}
@@ -3,7 +3,6 @@ package com.adenki.smpp;
 import java.io.IOException;
 
 import com.adenki.smpp.event.ReceiverExitEvent;
-import com.adenki.smpp.event.SMPPEvent;
 import com.adenki.smpp.message.SMPPPacket;
 import com.adenki.smpp.net.ReadTimeoutException;
 import com.adenki.smpp.util.APIConfig;
@@ -56,16 +55,19 @@ public class ReceiverThread implements Receiver, Runnable {
     
     public void run() {
         LOG.debug("Receiver thread starting.");
-        SMPPEvent exitEvent = null;
+        ReceiverExitEvent exitEvent = null;
         try {
             running = true;
             exitEvent = processPackets();
         } catch (Exception x) {
             exitEvent = new ReceiverExitEvent(session, x);
         }
+        boolean reconnecting = session.processReceiverExit(exitEvent);
         session.getEventDispatcher().notifyObservers(session, exitEvent);
-        LOG.debug("Destroying event dispatcher.");
-        session.getEventDispatcher().destroy();
+        if (!reconnecting) {
+            LOG.debug("Destroying event dispatcher.");
+            session.getEventDispatcher().destroy();
+        }
         LOG.debug("Receiver thread exiting.");
     }
 
@@ -74,6 +76,13 @@ public class ReceiverThread implements Receiver, Runnable {
     }
 
     public void start() {
+        if (thread.getState() != Thread.State.NEW) {
+            // A thread cannot be started twice, so use a new one when the
+            // session is bound again.
+            Thread oldThread = thread;
+            thread = new Thread(this, oldThread.getName());
+            thread.setDaemon(true);
+        }
         thread.start();
     }
     
@@ -97,6 +106,7 @@ public class ReceiverThread implements Receiver, Runnable {
                 }
                 session.processReceivedPacket(packet);
                 session.getEventDispatcher().notifyObservers(session, packet);
+                packet.release();
                 ioExceptions = 0;
             } catch (ReadTimeoutException x) {
                 SessionState state = session.getState();
@@ -0,0 +1,118 @@
+package com.adenki.smpp;
+
+import java.util.Random;
+
+import com.adenki.smpp.util.APIConfig;
+import com.adenki.smpp.util.APIConfigFactory;
+
+/**
+ * Decides how long a supervised session waits before each attempt to
+ * reconnect and rebind after its connection fails.
+ * <p>
+ * The delay starts at the initial delay and doubles after every failed
+ * attempt up to the maximum delay. Each delay is jittered by picking a
+ * random value between half and all of it, so that many sessions that lost
+ * their connections at the same moment, for example when an SMSC
+ * restarts, do not all reconnect in step. After the maximum number of
+ * attempts the session gives up.
+ * </p>
+ * <p>
+ * Reconnect policies are immutable.
+ * </p>
+ * @version $Id$
+ * @see SessionImpl#setReconnectPolicy(ReconnectPolicy)
+ * @see APIConfig#CONNECTION_RECONNECT_INITIAL_DELAY
+ * @see APIConfig#CONNECTION_RECONNECT_MAX_DELAY
+ * @see APIConfig#CONNECTION_RECONNECT_MAX_ATTEMPTS
+ */
+public final class ReconnectPolicy {
+    private final long initialDelay;
+    private final long maxDelay;
+    private final int maxAttempts;
+
+    /**
+     * Create a new reconnect policy.
+     * @param initialDelay The number of milliseconds to wait before the
+     * first attempt.
+     * @param maxDelay The longest number of milliseconds to wait between
+     * attempts.
+     * @param maxAttempts The number of failed attempts after which to give
+     * up, or zero to keep trying.
+     */
+    public ReconnectPolicy(long initialDelay, long maxDelay, int maxAttempts) {
+        if (initialDelay < 0L || maxDelay < initialDelay || maxAttempts < 0) {
+            throw new IllegalArgumentException("Invalid reconnect policy: "
+                    + initialDelay + "ms to " + maxDelay + "ms, "
+                    + maxAttempts + " attempts");
+        }
+        this.initialDelay = initialDelay;
+        this.maxDelay = maxDelay;
+        this.maxAttempts = maxAttempts;
+    }
+
+    /**
+     * Get the reconnect policy defined by the API configuration.
+     * @return The configured policy, or <code>null</code> if
+     * {@link APIConfig#CONNECTION_RECONNECT_INITIAL_DELAY} is not set.
+     */
+    public static ReconnectPolicy fromConfig() {
+        APIConfig config = APIConfigFactory.getConfig();
+        long initialDelay =
+            config.getLong(APIConfig.CONNECTION_RECONNECT_INITIAL_DELAY, -1L);
+        if (initialDelay < 0L) {
+            return null;
+        }
+        long maxDelay = config.getLong(APIConfig.CONNECTION_RECONNECT_MAX_DELAY,
+                Math.max(initialDelay, 60000L));
+        int maxAttempts =
+            config.getInt(APIConfig.CONNECTION_RECONNECT_MAX_ATTEMPTS, 0);
+        return new ReconnectPolicy(initialDelay, maxDelay, maxAttempts);
+    }
+
+    public long getInitialDelay() {
+        return initialDelay;
+    }
+
+    public long getMaxDelay() {
+        return maxDelay;
+    }
+
+    public int getMaxAttempts() {
+        return maxAttempts;
+    }
+
+    /**
+     * Determine if another attempt may be made.
+     * @param attempt The number of the attempt, starting at 1.
+     * @return <code>true</code> if the attempt may be made.
+     */
+    public boolean isAllowed(int attempt) {
+        return maxAttempts == 0 || attempt <= maxAttempts;
+    }
+
+    /**
+     * Get the delay before an attempt.
+     * @param attempt The number of the attempt, starting at 1.
+     * @param random The source of jitter.
+     * @return The number of milliseconds to wait before the attempt.
+     */
+    public long getDelay(int attempt, Random random) {
+        long delay = initialDelay;
+        for (int i = 1; i < attempt && delay < maxDelay; i++) {
+            delay *= 2L;
+        }
+        delay = Math.min(delay, maxDelay);
+        long half = delay / 2L;
+        if (half == 0L) {
+            return delay;
+        }
+        return delay - half + (long) (random.nextDouble() * (half + 1L));
+    }
+
+    @Override
+    public String toString() {
+        return "ReconnectPolicy[initialDelay=" + initialDelay
+            + ",maxDelay=" + maxDelay
+            + ",maxAttempts=" + maxAttempts + "]";
+    }
+}
@@ -0,0 +1,83 @@
+package com.adenki.smpp;
+
+import java.util.Arrays;
+
+import com.adenki.smpp.message.CommandId;
+import com.adenki.smpp.message.SMPPPacket;
+
+/**
+ * Decides which outstanding requests a supervised session sends again
+ * after it has reconnected and rebound.
+ * <p>
+ * A request that was sent but not acknowledged when the connection failed
+ * may or may not have reached the SMSC. Replaying it gives at-least-once
+ * delivery: the request is not lost, but the SMSC may see it twice.
+ * Requests that are not replayed fail with an <code>IOException</code> as
+ * they would on an unsupervised session. Binds, unbinds and
+ * <code>enquire_link</code>s are never replayed. Requests sent with
+ * <code>sendAsync</code> while the session is reconnecting are held and
+ * sent once it has rebound if they are replayable, and are otherwise sent
+ * immediately, which normally fails.
+ * </p>
+ * <p>
+ * Replay policies are immutable.
+ * </p>
+ * @version $Id$
+ * @see SessionImpl#setReplayPolicy(ReplayPolicy)
+ */
+public final class ReplayPolicy {
+    /**
+     * Replay every request other than binds, unbinds and enquire_links.
+     */
+    public static final ReplayPolicy ALL = new ReplayPolicy(true, new int[0]);
+
+    /**
+     * Never replay requests.
+     */
+    public static final ReplayPolicy NONE = new ReplayPolicy(false, new int[0]);
+
+    private final boolean all;
+    private final int[] commandIds;
+
+    /**
+     * Create a policy that replays requests with the given command IDs.
+     * @param commandIds The command IDs of the requests to replay, such as
+     * {@link CommandId#SUBMIT_SM}.
+     */
+    public ReplayPolicy(int... commandIds) {
+        this(false, commandIds);
+    }
+
+    private ReplayPolicy(boolean all, int[] commandIds) {
+        this.all = all;
+        this.commandIds = commandIds.clone();
+        Arrays.sort(this.commandIds);
+    }
+
+    /**
+     * Determine if a request should be replayed.
+     * @param request The request.
+     * @return <code>true</code> if the request should be sent again once
+     * the session has rebound.
+     */
+    public boolean isReplayable(SMPPPacket request) {
+        switch (request.getCommandId()) {
+        case CommandId.BIND_TRANSMITTER:
+        case CommandId.BIND_RECEIVER:
+        case CommandId.BIND_TRANSCEIVER:
+        case CommandId.UNBIND:
+        case CommandId.ENQUIRE_LINK:
+            return false;
+        default:
+            return all || Arrays.binarySearch(commandIds, request.getCommandId()) >= 0;
+        }
+    }
+
+    @Override
+    public String toString() {
+        if (all) {
+            return "ReplayPolicy[ALL]";
+        }
+        return "ReplayPolicy" + Arrays.toString(commandIds);
+    }
+}
@@ -0,0 +1,246 @@
+package com.adenki.smpp;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.CancellationException;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+import java.util.concurrent.atomic.AtomicBoolean;
+
+import com.adenki.smpp.message.SMPPPacket;
+import com.adenki.smpp.util.TimingWheel;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * The pending result of a request sent with
+ * {@link Session#sendAsync(SMPPPacket)}. The future completes when the
+ * response with the same sequence number as the request is received. The
+ * response is returned regardless of its command status, so callers should
+ * check {@link SMPPPacket#getCommandStatus()}. A <code>generic_nack</code>
+ * carrying the request&apos;s sequence number also completes the future.
+ * <p>
+ * The future fails with a
+ * {@link com.adenki.smpp.net.ReadTimeoutException} if no response is
+ * received within the request timeout, or with an
+ * <code>IOException</code> if the session&apos;s receiver exits while the
+ * request is outstanding. On a supervised session, a request that its
+ * {@link ReplayPolicy} replays does not fail when the receiver exits but
+ * is sent again once the session has rebound; its timeout keeps running
+ * while the session reconnects. Cancelling the future stops the session waiting
+ * for the response and frees its place in the window; the request itself
+ * will already have been sent.
+ * </p>
+ * <p>
+ * Code that cannot block waiting for the response can register a
+ * {@link ResponseListener} to be called when the future completes.
+ * </p>
+ * @version $Id$
+ */
+public class ResponseFuture implements Future<SMPPPacket> {
+    private static final Logger LOG = LoggerFactory.getLogger(ResponseFuture.class);
+
+    private final SMPPPacket request;
+    private final PendingRequests owner;
+    private final boolean windowed;
+    private final CountDownLatch done = new CountDownLatch(1);
+    private final AtomicBoolean finished = new AtomicBoolean();
+    private final AtomicBoolean awaitingReplay = new AtomicBoolean();
+    private volatile SMPPPacket response;
+    private volatile Throwable failure;
+    private volatile boolean cancelled;
+    private volatile TimingWheel.Timeout timeout;
+    private final long created = System.nanoTime();
+    private volatile long latency = -1L;
+    private List<ResponseListener> listeners;
+    private boolean notified;
+
+    ResponseFuture(SMPPPacket request, PendingRequests owner, boolean windowed) {
+        this.request = request;
+        this.owner = owner;
+        this.windowed = windowed;
+    }
+
+    /**
+     * Get the request this future is waiting on a response for.
+     * @return The request packet.
+     */
+    public SMPPPacket getRequest() {
+        return request;
+    }
+
+    /**
+     * Get the response, if one has been received.
+     * @return The response packet, or <code>null</code> if the future has
+     * not completed successfully.
+     */
+    public SMPPPacket getResponse() {
+        return response;
+    }
+
+    /**
+     * Get the exception that caused the future to fail.
+     * @return The cause of failure, or <code>null</code> if the future has
+     * not failed.
+     */
+    public Throwable getFailure() {
+        return failure;
+    }
+
+    /**
+     * Get the time between the request being registered and its response
+     * being received.
+     * @return The response latency in nanoseconds, or -1 if no response has
+     * been received.
+     */
+    public long getLatency() {
+        return latency;
+    }
+
+    /**
+     * Add a listener to be called when this future completes. If the
+     * future has already completed, the listener is called immediately on
+     * the calling thread.
+     * @param listener The listener to add.
+     */
+    public void addListener(ResponseListener listener) {
+        synchronized (this) {
+            if (!notified) {
+                if (listeners == null) {
+                    listeners = new ArrayList<ResponseListener>(1);
+                }
+                listeners.add(listener);
+                return;
+            }
+        }
+        notifyListener(listener);
+    }
+
+    public boolean cancel(boolean mayInterruptIfRunning) {
+        if (finished.compareAndSet(false, true)) {
+            cancelled = true;
+            done.countDown();
+            owner.remove(this);
+            notifyListeners();
+            return true;
+        }
+        return false;
+    }
+
+    public boolean isCancelled() {
+        return cancelled;
+    }
+
+    public boolean isDone() {
+        return finished.get();
+    }
+
+    public SMPPPacket get() throws InterruptedException, ExecutionException {
+        done.await();
+        return getResult();
+    }
+
+    public SMPPPacket get(long time, TimeUnit unit)
+            throws InterruptedException, ExecutionException, TimeoutException {
+        if (!done.await(time, unit)) {
+            throw new TimeoutException();
+        }
+        return getResult();
+    }
+
+    @Override
+    public String toString() {
+        return "ResponseFuture[sequenceNum=" + request.getSequenceNum()
+            + ",done=" + isDone() + "]";
+    }
+
+    boolean complete(SMPPPacket response) {
+        if (finished.compareAndSet(false, true)) {
+            this.latency = System.nanoTime() - created;
+            this.response = response;
+            done.countDown();
+            notifyListeners();
+            return true;
+        }
+        return false;
+    }
+
+    boolean fail(Throwable failure) {
+        if (finished.compareAndSet(false, true)) {
+            this.failure = failure;
+            done.countDown();
+            notifyListeners();
+            return true;
+        }
+        return false;
+    }
+
+    TimingWheel.Timeout getTimeout() {
+        return timeout;
+    }
+
+    /**
+     * Determine if the request holds a place in the session&apos;s window.
+     * @return <code>false</code> for requests, such as keepalive probes,
+     * that are tracked outside the window.
+     */
+    boolean isWindowed() {
+        return windowed;
+    }
+
+    void setTimeout(TimingWheel.Timeout timeout) {
+        this.timeout = timeout;
+    }
+
+    /**
+     * Mark the request as waiting to be sent again once its session has
+     * rebound.
+     */
+    void markForReplay() {
+        awaitingReplay.set(true);
+    }
+
+    /**
+     * Take responsibility for sending a request marked for replay.
+     * @return <code>true</code> if the request was waiting to be replayed
+     * and the caller must now send it.
+     */
+    boolean claimReplay() {
+        return awaitingReplay.compareAndSet(true, false);
+    }
+
+    private void notifyListeners() {
+        List<ResponseListener> toNotify;
+        synchronized (this) {
+            notified = true;
+            toNotify = listeners;
+            listeners = null;
+        }
+        if (toNotify != null) {
+            for (ResponseListener listener : toNotify) {
+                notifyListener(listener);
+            }
+        }
+    }
+
+    private void notifyListener(ResponseListener listener) {
+        try {
+            listener.requestCompleted(this);
+        } catch (RuntimeException x) {
+            LOG.warn("Response listener threw an exception", x);
+        }
+    }
+
+    private SMPPPacket getResult() throws ExecutionException {
+        if (cancelled) {
+            throw new CancellationException();
+        }
+        if (failure != null) {
+            throw new ExecutionException(failure);
+        }
+        return response;
+    }
+}
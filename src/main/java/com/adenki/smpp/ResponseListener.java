@@ -0,0 +1,18 @@
+package com.adenki.smpp;
+
+/**
+ * Callback interface for code that wants to be told when a
+ * {@link ResponseFuture} completes, rather than waiting on it.
+ * @version $Id$
+ * @see ResponseFuture#addListener(ResponseListener)
+ */
+public interface ResponseListener {
+    /**
+     * Called once the future has completed, failed or been cancelled.
+     * This is called on the thread that completed the future, which is
+     * usually the session&apos;s receiver or the shared timer thread, so
+     * implementations must not block.
+     * @param future The future that has completed.
+     */
+    void requestCompleted(ResponseFuture future);
+}
@@ -0,0 +1,527 @@
+package com.adenki.smpp;
+
+import java.io.IOException;
+import java.net.SocketAddress;
+import java.util.Queue;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.Executor;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicReference;
+
+import com.adenki.smpp.message.Bind;
+import com.adenki.smpp.message.BindResp;
+import com.adenki.smpp.message.CommandId;
+import com.adenki.smpp.message.GenericNack;
+import com.adenki.smpp.message.SMPPPacket;
+import com.adenki.smpp.message.Unbind;
+import com.adenki.smpp.net.LinkListener;
+import com.adenki.smpp.net.NioLink;
+import com.adenki.smpp.net.SmscLink;
+import com.adenki.smpp.util.DefaultSequenceScheme;
+import com.adenki.smpp.util.PacketFactory;
+import com.adenki.smpp.util.PacketStatus;
+import com.adenki.smpp.util.SequenceNumberScheme;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * The SMSC end of a session with one ESME, accepted by a
+ * {@link SessionAcceptor}.
+ * <p>
+ * A server session starts {@link SessionState#UNBOUND} when the ESME
+ * connects. A bind request moves it to {@link SessionState#BINDING} while
+ * the acceptor&apos;s {@link BindAuthenticator} checks it, and then to
+ * {@link SessionState#BOUND} or back to <code>UNBOUND</code>. An
+ * <code>unbind</code> from either side, the ESME dropping the connection
+ * or the bind timeout passing closes the session.
+ * </p>
+ * <p>
+ * Packets are read on a selector thread shared with other sessions and
+ * processed, one at a time and in order, on the acceptor&apos;s worker
+ * threads, so that thousands of sessions can be served by a few threads.
+ * Requests sent to the ESME with {@link #sendAsync(SMPPPacket)} are
+ * matched to their responses in the same way as requests sent by
+ * {@link SessionImpl}.
+ * </p>
+ * <p>
+ * Neither reading nor writing blocks those threads. If too many packets
+ * from one ESME are waiting for a worker, or the ESME stops reading
+ * what is written to it, reading from its connection is paused until
+ * the backlog has cleared.
+ * </p>
+ * @version $Id$
+ */
+public class ServerSession implements LinkListener {
+    private static final Logger LOG = LoggerFactory.getLogger(ServerSession.class);
+    private static final AtomicInteger SESSION_ID = new AtomicInteger(1);
+
+    /**
+     * The number of packets from one ESME that may wait for a worker
+     * thread before reading from its connection is paused.
+     */
+    private static final int MAX_QUEUED_PACKETS = 64;
+
+    private final String sessionId;
+    private final SessionAcceptor acceptor;
+    private final NioLink link;
+    private final SocketAddress remoteAddress;
+    private final SerialExecutor serial;
+    private final PacketFactory packetFactory = new PacketFactory();
+    private final SequenceNumberScheme numberScheme = new DefaultSequenceScheme();
+    private final AtomicReference<SessionState> state =
+        new AtomicReference<SessionState>(SessionState.UNBOUND);
+    private final AtomicBoolean closed = new AtomicBoolean();
+    private final PendingRequests pendingRequests;
+    private final long responseTimeout;
+    private final AtomicInteger queuedPackets = new AtomicInteger();
+    private final Runnable outputDrained = new Runnable() {
+        public void run() {
+            outputFull = false;
+            updateReading();
+        }
+    };
+    private volatile boolean queueFull;
+    private volatile boolean outputFull;
+    private volatile SessionType type;
+    private volatile Bind bindRequest;
+    private volatile Object attachment;
+    private volatile long lastActivity = System.currentTimeMillis();
+
+    ServerSession(SessionAcceptor acceptor, NioLink link,
+            SocketAddress remoteAddress, Executor executor) {
+        this.sessionId = "ServerSession-" + SESSION_ID.getAndIncrement();
+        this.acceptor = acceptor;
+        this.link = link;
+        this.remoteAddress = remoteAddress;
+        this.serial = new SerialExecutor(executor);
+        this.pendingRequests = new PendingRequests(acceptor.getWindowSize(), 0L);
+        this.responseTimeout = acceptor.getResponseTimeout();
+    }
+
+    public String getSessionId() {
+        return sessionId;
+    }
+
+    public SessionState getState() {
+        return state.get();
+    }
+
+    /**
+     * Get how the ESME is bound.
+     * @return The session type, or <code>null</code> if the ESME has not
+     * bound.
+     */
+    public SessionType getSessionType() {
+        return type;
+    }
+
+    /**
+     * Get the bind request the ESME was bound with.
+     * @return The accepted bind request, or <code>null</code> if the ESME
+     * has not bound.
+     */
+    public Bind getBindRequest() {
+        return bindRequest;
+    }
+
+    /**
+     * Get the system ID the ESME is bound with.
+     * @return The system ID, or <code>null</code> if the ESME has not
+     * bound.
+     */
+    public String getSystemId() {
+        Bind bind = bindRequest;
+        return bind != null ? bind.getSystemId() : null;
+    }
+
+    /**
+     * Get the address of the ESME.
+     * @return The remote address.
+     */
+    public SocketAddress getRemoteAddress() {
+        return remoteAddress;
+    }
+
+    public SmscLink getSmscLink() {
+        return link;
+    }
+
+    /**
+     * Get the object the application attached to this session.
+     * @return The attachment, or <code>null</code>.
+     */
+    public Object getAttachment() {
+        return attachment;
+    }
+
+    /**
+     * Attach an object to this session, such as the application&apos;s
+     * account record for the ESME.
+     * @param attachment The object to attach.
+     */
+    public void setAttachment(Object attachment) {
+        this.attachment = attachment;
+    }
+
+    /**
+     * Get the time of the last packet sent or received.
+     * @return The time, in milliseconds since the epoch.
+     */
+    public long getLastActivity() {
+        return lastActivity;
+    }
+
+    /**
+     * Get the number of requests sent with {@link #sendAsync} that are
+     * waiting for a response.
+     * @return The number of outstanding requests.
+     */
+    public int getOutstandingRequests() {
+        return pendingRequests.size();
+    }
+
+    public boolean isClosed() {
+        return closed.get();
+    }
+
+    /**
+     * Send a packet to the ESME. Responses may be sent in any state. A
+     * request without a sequence number is given the next one. This
+     * method does not wait for the packet to be written to the network.
+     * @param packet The packet to send.
+     * @throws IOException If the packet cannot be written.
+     * @throws NotBoundException If a request other than
+     * <code>enquire_link</code> or <code>unbind</code> is sent to an ESME
+     * that is not bound.
+     * @throws UnsupportedOperationException If a request is sent that the
+     * ESME&apos;s bind type does not allow it to receive.
+     */
+    public void send(SMPPPacket packet) throws IOException {
+        if (packet.isRequest()) {
+            checkRequest(packet);
+            if (packet.getSequenceNum() < 0L) {
+                packet.setSequenceNum(numberScheme.nextNumber());
+            }
+        }
+        writePacket(packet);
+    }
+
+    /**
+     * Send a request to the ESME and return a future that will be
+     * completed by its response, or failed if no response arrives within
+     * the acceptor&apos;s {@link SessionAcceptor#getResponseTimeout()
+     * response timeout}.
+     * @param request The request to send.
+     * @return The future of the response.
+     * @throws IOException If the request cannot be written.
+     * @see #send(SMPPPacket)
+     */
+    public ResponseFuture sendAsync(SMPPPacket request) throws IOException {
+        if (!request.isRequest()) {
+            throw new IllegalArgumentException(
+                    "Only requests can be sent asynchronously");
+        }
+        checkRequest(request);
+        if (request.getSequenceNum() < 0L) {
+            request.setSequenceNum(numberScheme.nextNumber());
+        }
+        ResponseFuture future = pendingRequests.add(request, responseTimeout);
+        try {
+            writePacket(request);
+        } catch (IOException x) {
+            pendingRequests.remove(future);
+            throw x;
+        } catch (RuntimeException x) {
+            pendingRequests.remove(future);
+            throw x;
+        }
+        return future;
+    }
+
+    /**
+     * Ask the ESME to unbind. The session is closed when the ESME responds.
+     * @throws IOException If the unbind cannot be written.
+     */
+    public void unbind() throws IOException {
+        if (state.compareAndSet(SessionState.BOUND, SessionState.UNBINDING)) {
+            send(new Unbind());
+        }
+    }
+
+    /**
+     * Close the connection to the ESME without unbinding. Requests waiting
+     * for a response are failed.
+     */
+    public void close() {
+        close(new IOException("Session closed"));
+    }
+
+    @Override
+    public String toString() {
+        return sessionId + "[" + getState() + "," + getSystemId() + "]";
+    }
+
+    public void packetReceived(SmscLink source, final SMPPPacket packet) {
+        lastActivity = System.currentTimeMillis();
+        if (queuedPackets.incrementAndGet() >= MAX_QUEUED_PACKETS && !queueFull) {
+            queueFull = true;
+            updateReading();
+        }
+        serial.execute(new Runnable() {
+            public void run() {
+                try {
+                    processPacket(packet);
+                } finally {
+                    packetProcessed();
+                }
+            }
+        });
+    }
+
+    public void readTimeout(SmscLink source) {
+        if (getState() != SessionState.BOUND) {
+            LOG.info("{} did not bind in time; closing the connection", sessionId);
+            close(new IOException("Bind timed out"));
+        }
+    }
+
+    public void linkFailed(SmscLink source, Exception cause) {
+        if (cause instanceof IOException) {
+            LOG.debug("{} link failed", sessionId, cause);
+            close((IOException) cause);
+        } else {
+            LOG.warn("{} received a packet that could not be decoded", sessionId, cause);
+        }
+    }
+
+    /**
+     * Start processing packets from the ESME.
+     */
+    void start(int bindTimeout) {
+        link.setTimeout(bindTimeout);
+        link.setLinkListener(this);
+    }
+
+    private void packetProcessed() {
+        if (queuedPackets.decrementAndGet() <= MAX_QUEUED_PACKETS / 2 && queueFull) {
+            queueFull = false;
+            updateReading();
+        }
+    }
+
+    private synchronized void updateReading() {
+        if (queueFull || outputFull) {
+            link.pauseReading();
+        } else {
+            link.resumeReading();
+        }
+    }
+
+    private void processPacket(SMPPPacket packet) {
+        if (closed.get()) {
+            return;
+        }
+        if (packet.isResponse()) {
+            processResponse(packet);
+            return;
+        }
+        switch (packet.getCommandId()) {
+        case CommandId.BIND_RECEIVER:
+        case CommandId.BIND_TRANSMITTER:
+        case CommandId.BIND_TRANSCEIVER:
+            processBind((Bind) packet);
+            return;
+        case CommandId.UNBIND:
+            state.set(SessionState.UNBINDING);
+            respond(packet, PacketStatus.OK);
+            // Closing the link discards unwritten output, which would
+            // lose the unbind_resp.
+            link.whenFlushed(new Runnable() {
+                public void run() {
+                    close(new IOException("Unbound by the ESME"));
+                }
+            });
+            return;
+        case CommandId.ENQUIRE_LINK:
+            respond(packet, PacketStatus.OK);
+            return;
+        }
+        if (getState() != SessionState.BOUND) {
+            respond(packet, PacketStatus.INVALID_BIND_STATUS);
+            return;
+        }
+        acceptor.packetReceived(this, packet);
+        packet.release();
+    }
+
+    private void processResponse(SMPPPacket response) {
+        if (pendingRequests.complete(response) != null) {
+            // Owned by the holder of the future from now on.
+            response.retain();
+        }
+        if (response.getCommandId() == CommandId.UNBIND_RESP
+                && getState() == SessionState.UNBINDING) {
+            close(new IOException("Unbound"));
+            return;
+        }
+        acceptor.packetReceived(this, response);
+        response.release();
+    }
+
+    private void processBind(Bind request) {
+        if (!state.compareAndSet(SessionState.UNBOUND, SessionState.BINDING)) {
+            respond(request, PacketStatus.ALREADY_BOUND);
+            return;
+        }
+        int status;
+        try {
+            status = acceptor.getAuthenticator().authenticate(this, request);
+        } catch (RuntimeException x) {
+            LOG.error("Bind authenticator threw an exception", x);
+            status = PacketStatus.BIND_FAILED;
+        }
+        BindResp response = (BindResp) packetFactory.newResponse(request);
+        response.setSystemId(acceptor.getSystemId());
+        response.setCommandStatus(status);
+        if (status == PacketStatus.OK) {
+            bindRequest = request;
+            type = sessionType(request.getCommandId());
+            link.setTimeout(0);
+            state.set(SessionState.BOUND);
+        } else {
+            LOG.info("{} rejected a bind from {} with status {}",
+                    new Object[] {sessionId, request.getSystemId(), Integer.valueOf(status)});
+            state.set(SessionState.UNBOUND);
+        }
+        try {
+            writePacket(response);
+        } catch (IOException x) {
+            close(x);
+            return;
+        }
+        if (status == PacketStatus.OK) {
+            acceptor.sessionBound(this);
+        }
+    }
+
+    private void respond(SMPPPacket request, int status) {
+        SMPPPacket response;
+        try {
+            response = packetFactory.newResponse(request);
+        } catch (BadCommandIDException x) {
+            if (request.getCommandId() == CommandId.ALERT_NOTIFICATION) {
+                return;
+            }
+            response = new GenericNack();
+            response.setSequenceNum(request.getSequenceNum());
+            status = PacketStatus.INVALID_COMMAND_ID;
+        }
+        response.setCommandStatus(status);
+        try {
+            writePacket(response);
+        } catch (IOException x) {
+            close(x);
+        }
+    }
+
+    private void checkRequest(SMPPPacket request) {
+        int commandId = request.getCommandId();
+        if (commandId == CommandId.ENQUIRE_LINK || commandId == CommandId.UNBIND
+                || commandId == CommandId.OUTBIND) {
+            return;
+        }
+        if (getState() != SessionState.BOUND) {
+            throw new NotBoundException("ESME is not bound");
+        }
+        if (type == SessionType.TRANSMITTER) {
+            throw new UnsupportedOperationException(
+                    "Transmitter session cannot receive command " + commandId);
+        }
+    }
+
+    private void writePacket(SMPPPacket packet) throws IOException {
+        if (!link.writeNoWait(packet, true) && !outputFull) {
+            outputFull = true;
+            updateReading();
+            link.whenDrained(outputDrained);
+        }
+        lastActivity = System.currentTimeMillis();
+    }
+
+    private void close(IOException cause) {
+        if (!closed.compareAndSet(false, true)) {
+            return;
+        }
+        state.set(SessionState.UNBOUND);
+        try {
+            link.disconnect();
+        } catch (IOException x) {
+            LOG.debug("Exception closing the link of {}", sessionId, x);
+        }
+        pendingRequests.failAll(cause);
+        serial.execute(new Runnable() {
+            public void run() {
+                acceptor.sessionClosed(ServerSession.this);
+            }
+        });
+    }
+
+    private static SessionType sessionType(int bindCommandId) {
+        switch (bindCommandId) {
+        case CommandId.BIND_TRANSMITTER:
+            return SessionType.TRANSMITTER;
+        case CommandId.BIND_RECEIVER:
+            return SessionType.RECEIVER;
+        default:
+            return SessionType.TRANSCEIVER;
+        }
+    }
+
+    /**
+     * Runs the tasks of one session one at a time, in order, on a shared
+     * executor.
+     */
+    private static final class SerialExecutor implements Runnable {
+        private final Executor executor;
+        private final Queue<Runnable> tasks = new ConcurrentLinkedQueue<Runnable>();
+        private final AtomicBoolean scheduled = new AtomicBoolean();
+
+        SerialExecutor(Executor executor) {
+            this.executor = executor;
+        }
+
+        void execute(Runnable task) {
+            tasks.add(task);
+            schedule();
+        }
+
+        public void run() {
+            Runnable task;
+            while ((task = tasks.poll()) != null) {
+                try {
+                    task.run();
+                } catch (RuntimeException x) {
+                    LOG.error("Server session task threw an exception", x);
+                }
+            }
+            scheduled.set(false);
+            if (!tasks.isEmpty()) {
+                schedule();
+            }
+        }
+
+        private void schedule() {
+            if (scheduled.compareAndSet(false, true)) {
+                try {
+                    executor.execute(this);
+                } catch (RejectedExecutionException x) {
+                    LOG.debug("Acceptor has shut down; dropping session tasks");
+                    tasks.clear();
+                    scheduled.set(false);
+                }
+            }
+        }
+    }
+}
@@ -0,0 +1,45 @@
+package com.adenki.smpp;
+
+import com.adenki.smpp.message.SMPPPacket;
+
+/**
+ * Interface for applications that handle the traffic of the ESMEs bound to
+ * a {@link SessionAcceptor}.
+ * <p>
+ * Callbacks for one session are made one at a time, in the order the
+ * packets were received, on one of the acceptor&apos;s worker threads.
+ * Callbacks for different sessions run concurrently. The acceptor answers
+ * <code>bind</code>, <code>unbind</code> and <code>enquire_link</code>
+ * requests itself; the listener must answer every other request it is
+ * given, using {@link ServerSession#send(SMPPPacket)}.
+ * </p>
+ * @version $Id$
+ */
+public interface ServerSessionListener {
+    /**
+     * Called when an ESME has been authenticated and the bind response
+     * has been sent.
+     * @param session The session that is now bound.
+     */
+    void sessionBound(ServerSession session);
+
+    /**
+     * Called for every request received from a bound ESME other than
+     * <code>unbind</code> and <code>enquire_link</code>, and for every
+     * response. Responses complete the future returned by
+     * {@link ServerSession#sendAsync(SMPPPacket)} before this is called.
+     * The packet is {@link SMPPPacket#release() released} when this method
+     * returns, so a listener that keeps it must
+     * {@link SMPPPacket#retain() retain} it.
+     * @param session The session the packet was received on.
+     * @param packet The packet received.
+     */
+    void packetReceived(ServerSession session, SMPPPacket packet);
+
+    /**
+     * Called once when a session has been closed, whether by an unbind,
+     * by the ESME dropping the connection or by the acceptor.
+     * @param session The session that has been closed.
+     */
+    void sessionClosed(ServerSession session);
+}
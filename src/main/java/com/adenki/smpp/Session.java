@@ -6,6 +6,7 @@ import com.adenki.smpp.event.SessionObserver;
 import com.adenki.smpp.message.Bind;
 import com.adenki.smpp.message.SMPPPacket;
 import com.adenki.smpp.net.SmscLink;
+import com.adenki.smpp.util.SequenceNumberScheme;
 import com.adenki.smpp.version.SMPPVersion;
 
 /**
@@ -27,6 +28,13 @@ public interface Session {
 
     void setVersion(SMPPVersion version);
 
+    /**
+     * Get the scheme used to assign sequence numbers to packets sent
+     * without one.
+     * @return The sequence number scheme, which may be <code>null</code>.
+     */
+    SequenceNumberScheme getSequenceNumberScheme();
+
     boolean isValidating();
 
     void setValidating(boolean validating);
@@ -50,6 +58,38 @@ public interface Session {
 
     void send(SMPPPacket packet) throws IOException;
 
+    /**
+     * Send a request and return a future that completes when its response
+     * is received. The request timeout is taken from the
+     * {@link com.adenki.smpp.util.APIConfig#CONNECTION_RESPONSE_TIMEOUT}
+     * property.
+     * @param request The request packet to send.
+     * @return A future that completes with the response to
+     * <code>request</code>.
+     * @throws IOException If the request cannot be sent.
+     * @throws WindowFullException If the maximum number of requests are
+     * already outstanding.
+     * @see #sendAsync(SMPPPacket, long)
+     */
+    ResponseFuture sendAsync(SMPPPacket request) throws IOException;
+
+    /**
+     * Send a request and return a future that completes when its response
+     * is received. If the session has a window size configured and the
+     * window is full, the caller waits for space in the window for up to
+     * the configured window wait time before a
+     * {@link WindowFullException} is thrown.
+     * @param request The request packet to send.
+     * @param timeout The number of milliseconds to wait for the response
+     * before the future fails, or zero to wait indefinitely.
+     * @return A future that completes with the response to
+     * <code>request</code>.
+     * @throws IOException If the request cannot be sent.
+     * @throws WindowFullException If the maximum number of requests are
+     * already outstanding.
+     */
+    ResponseFuture sendAsync(SMPPPacket request, long timeout) throws IOException;
+
     void closeLink() throws IOException;
 
     SessionState getState();
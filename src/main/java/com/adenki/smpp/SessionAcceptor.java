@@ -0,0 +1,393 @@
+package com.adenki.smpp;
+
+import java.io.IOException;
+import java.net.InetSocketAddress;
+import java.net.SocketAddress;
+import java.nio.channels.ClosedChannelException;
+import java.nio.channels.ServerSocketChannel;
+import java.nio.channels.SocketChannel;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import com.adenki.smpp.message.SMPPPacket;
+import com.adenki.smpp.net.NioLink;
+import com.adenki.smpp.net.SelectorPool;
+import com.adenki.smpp.util.APIConfig;
+import com.adenki.smpp.util.APIConfigFactory;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * Accepts connections from ESMEs and runs the SMSC end of their sessions.
+ * <p>
+ * Accepted connections are {@link NioLink}s serviced by a
+ * {@link SelectorPool}, so reading from thousands of ESMEs takes only the
+ * pool&apos;s few selector threads. Each connection gets a
+ * {@link ServerSession}, which processes its packets in order on a worker
+ * pool shared by every session. The acceptor answers
+ * <code>bind</code>, <code>unbind</code> and <code>enquire_link</code>
+ * requests itself, asking its {@link BindAuthenticator} whether to accept
+ * each bind, and passes everything else to its
+ * {@link ServerSessionListener}.
+ * </p>
+ * <pre>
+ * SessionAcceptor acceptor = new SessionAcceptor(2775, authenticator);
+ * acceptor.setListener(listener);
+ * acceptor.start();
+ * </pre>
+ * <p>
+ * An ESME that does not bind within the bind timeout is disconnected.
+ * The timeout is taken from the {@link APIConfig#BIND_TIMEOUT} property,
+ * defaulting to 30 seconds. The response timeout for requests sent to
+ * ESMEs is taken from {@link APIConfig#CONNECTION_RESPONSE_TIMEOUT}.
+ * </p>
+ * @version $Id$
+ */
+public class SessionAcceptor {
+    /**
+     * The bind timeout used if none is configured.
+     */
+    public static final int DEFAULT_BIND_TIMEOUT = 30000;
+
+    private static final Logger LOG = LoggerFactory.getLogger(SessionAcceptor.class);
+    /**
+     * Milliseconds to wait before accepting again after the first of a run
+     * of failed accepts, for example when out of file descriptors. The
+     * wait doubles with each failure up to {@link #MAX_ACCEPT_BACKOFF}.
+     */
+    private static final long MIN_ACCEPT_BACKOFF = 10L;
+    private static final long MAX_ACCEPT_BACKOFF = 1000L;
+    private static final AtomicInteger ACCEPTOR_ID = new AtomicInteger(1);
+
+    private static final ServerSessionListener NULL_LISTENER =
+        new ServerSessionListener() {
+            public void sessionBound(ServerSession session) {
+            }
+            public void packetReceived(ServerSession session, SMPPPacket packet) {
+            }
+            public void sessionClosed(ServerSession session) {
+            }
+        };
+
+    private final SocketAddress bindAddress;
+    private final BindAuthenticator authenticator;
+    private final ConcurrentMap<ServerSession, Boolean> sessions =
+        new ConcurrentHashMap<ServerSession, Boolean>();
+    private final int id = ACCEPTOR_ID.getAndIncrement();
+    private volatile ServerSessionListener listener = NULL_LISTENER;
+    private volatile SelectorPool selectorPool;
+    private volatile ExecutorService executor;
+    private volatile boolean ownExecutor;
+    private volatile int workerThreads = Runtime.getRuntime().availableProcessors();
+    private volatile String systemId = "smppapi";
+    private volatile int bindTimeout;
+    private volatile int windowSize;
+    private volatile long responseTimeout;
+    private ServerSocketChannel serverChannel;
+    private Thread acceptThread;
+
+    /**
+     * Create an acceptor listening on all interfaces.
+     * @param port The port to listen on, or zero for any free port.
+     * @param authenticator The authenticator to check binds with.
+     */
+    public SessionAcceptor(int port, BindAuthenticator authenticator) {
+        this(new InetSocketAddress(port), authenticator);
+    }
+
+    /**
+     * Create an acceptor.
+     * @param bindAddress The address to listen on.
+     * @param authenticator The authenticator to check binds with.
+     */
+    public SessionAcceptor(SocketAddress bindAddress, BindAuthenticator authenticator) {
+        if (authenticator == null) {
+            throw new IllegalArgumentException("An authenticator is required");
+        }
+        this.bindAddress = bindAddress;
+        this.authenticator = authenticator;
+        APIConfig config = APIConfigFactory.getConfig();
+        bindTimeout = config.getInt(APIConfig.BIND_TIMEOUT, DEFAULT_BIND_TIMEOUT);
+        windowSize = config.getInt(APIConfig.CONNECTION_WINDOW_SIZE, 0);
+        responseTimeout = config.getLong(APIConfig.CONNECTION_RESPONSE_TIMEOUT, 0L);
+    }
+
+    public BindAuthenticator getAuthenticator() {
+        return authenticator;
+    }
+
+    public ServerSessionListener getListener() {
+        return listener;
+    }
+
+    /**
+     * Set the listener that receives packets from bound ESMEs.
+     * @param listener The listener, or <code>null</code> to discard
+     * packets.
+     */
+    public void setListener(ServerSessionListener listener) {
+        this.listener = listener != null ? listener : NULL_LISTENER;
+    }
+
+    /**
+     * Set the selector pool that reads from accepted connections. If none
+     * is set, the {@link SelectorPool#getDefault() default pool} is used.
+     * @param selectorPool The selector pool.
+     */
+    public void setSelectorPool(SelectorPool selectorPool) {
+        this.selectorPool = selectorPool;
+    }
+
+    /**
+     * Set the executor that processes received packets and runs the
+     * listener. If none is set, the acceptor creates a pool of
+     * {@link #setWorkerThreads worker threads} when it starts and shuts
+     * it down when it stops. An executor set here is not shut down.
+     * @param executor The executor.
+     */
+    public void setExecutor(ExecutorService executor) {
+        checkNotStarted();
+        this.executor = executor;
+    }
+
+    /**
+     * Set the number of worker threads in the pool the acceptor creates
+     * if no executor has been set. Defaults to the number of processors.
+     * @param workerThreads The number of threads.
+     */
+    public void setWorkerThreads(int workerThreads) {
+        if (workerThreads < 1) {
+            throw new IllegalArgumentException("At least one worker thread is required");
+        }
+        this.workerThreads = workerThreads;
+    }
+
+    public String getSystemId() {
+        return systemId;
+    }
+
+    /**
+     * Set the system ID sent to ESMEs in bind responses.
+     * @param systemId The SMSC system ID.
+     */
+    public void setSystemId(String systemId) {
+        this.systemId = systemId;
+    }
+
+    public int getBindTimeout() {
+        return bindTimeout;
+    }
+
+    /**
+     * Set how long an ESME has to bind after connecting.
+     * @param bindTimeout The timeout in milliseconds, or zero for none.
+     */
+    public void setBindTimeout(int bindTimeout) {
+        this.bindTimeout = bindTimeout;
+    }
+
+    public int getWindowSize() {
+        return windowSize;
+    }
+
+    /**
+     * Set the maximum number of requests that may be sent to each ESME
+     * without a response.
+     * @param windowSize The window size, or zero for no limit.
+     */
+    public void setWindowSize(int windowSize) {
+        this.windowSize = windowSize;
+    }
+
+    public long getResponseTimeout() {
+        return responseTimeout;
+    }
+
+    /**
+     * Set how long requests sent to ESMEs wait for a response.
+     * @param responseTimeout The timeout in milliseconds, or zero for
+     * none.
+     */
+    public void setResponseTimeout(long responseTimeout) {
+        this.responseTimeout = responseTimeout;
+    }
+
+    /**
+     * Start listening for connections.
+     * @throws IOException If the listening socket cannot be bound.
+     */
+    public synchronized void start() throws IOException {
+        checkNotStarted();
+        if (executor == null || ownExecutor) {
+            executor = Executors.newFixedThreadPool(
+                    workerThreads, new WorkerFactory(id));
+            ownExecutor = true;
+        }
+        ServerSocketChannel channel = ServerSocketChannel.open();
+        try {
+            channel.socket().setReuseAddress(true);
+            channel.socket().bind(bindAddress);
+        } catch (IOException x) {
+            channel.close();
+            throw x;
+        }
+        serverChannel = channel;
+        acceptThread = new Thread(new Runnable() {
+            public void run() {
+                acceptLoop(serverChannel);
+            }
+        }, "SessionAcceptor-" + id);
+        acceptThread.setDaemon(true);
+        acceptThread.start();
+        LOG.info("Accepting ESME connections on {}", channel.socket().getLocalSocketAddress());
+    }
+
+    /**
+     * Stop listening and close every session. Sessions are closed without
+     * being unbound.
+     */
+    public synchronized void stop() {
+        if (serverChannel == null) {
+            return;
+        }
+        try {
+            serverChannel.close();
+        } catch (IOException x) {
+            LOG.debug("Exception closing the server channel", x);
+        }
+        serverChannel = null;
+        try {
+            acceptThread.join(1000L);
+        } catch (InterruptedException x) {
+            Thread.currentThread().interrupt();
+        }
+        acceptThread = null;
+        for (ServerSession session : getSessions()) {
+            session.close();
+        }
+        if (ownExecutor) {
+            executor.shutdown();
+        }
+    }
+
+    public synchronized boolean isRunning() {
+        return serverChannel != null;
+    }
+
+    /**
+     * Get the port the acceptor is listening on.
+     * @return The local port, or -1 if the acceptor is not running.
+     */
+    public synchronized int getLocalPort() {
+        return serverChannel != null ? serverChannel.socket().getLocalPort() : -1;
+    }
+
+    /**
+     * Get the open sessions, bound or not.
+     * @return A snapshot of the open sessions.
+     */
+    public Collection<ServerSession> getSessions() {
+        return new ArrayList<ServerSession>(sessions.keySet());
+    }
+
+    public int getSessionCount() {
+        return sessions.size();
+    }
+
+    void sessionBound(ServerSession session) {
+        try {
+            listener.sessionBound(session);
+        } catch (RuntimeException x) {
+            LOG.error("Server session listener threw an exception", x);
+        }
+    }
+
+    void packetReceived(ServerSession session, SMPPPacket packet) {
+        try {
+            listener.packetReceived(session, packet);
+        } catch (RuntimeException x) {
+            LOG.error("Server session listener threw an exception", x);
+        }
+    }
+
+    void sessionClosed(ServerSession session) {
+        if (sessions.remove(session) != null) {
+            try {
+                listener.sessionClosed(session);
+            } catch (RuntimeException x) {
+                LOG.error("Server session listener threw an exception", x);
+            }
+        }
+    }
+
+    private void acceptLoop(ServerSocketChannel channel) {
+        long backoff = 0L;
+        while (channel.isOpen()) {
+            SocketChannel accepted;
+            try {
+                accepted = channel.accept();
+                backoff = 0L;
+            } catch (ClosedChannelException x) {
+                break;
+            } catch (IOException x) {
+                backoff = Math.min(Math.max(backoff * 2L, MIN_ACCEPT_BACKOFF),
+                        MAX_ACCEPT_BACKOFF);
+                LOG.warn("Failed to accept a connection, retrying in {}ms",
+                        backoff, x);
+                try {
+                    Thread.sleep(backoff);
+                } catch (InterruptedException ix) {
+                    Thread.currentThread().interrupt();
+                    break;
+                }
+                continue;
+            }
+            try {
+                accepted.socket().setTcpNoDelay(true);
+                SocketAddress remote = accepted.socket().getRemoteSocketAddress();
+                NioLink link = new NioLink(accepted, selectorPool);
+                ServerSession session = new ServerSession(this, link, remote, executor);
+                sessions.put(session, Boolean.TRUE);
+                LOG.debug("Accepted a connection from {}", remote);
+                session.start(bindTimeout);
+            } catch (IOException x) {
+                LOG.warn("Failed to set up an accepted connection", x);
+                try {
+                    accepted.close();
+                } catch (IOException ignore) {
+                }
+            }
+        }
+    }
+
+    private void checkNotStarted() {
+        if (serverChannel != null) {
+            throw new IllegalStateException("Acceptor is already running");
+        }
+    }
+
+    /**
+     * Creates the daemon worker threads of an acceptor&apos;s own pool.
+     */
+    private static final class WorkerFactory implements ThreadFactory {
+        private final AtomicInteger threadId = new AtomicInteger(1);
+        private final int acceptorId;
+
+        WorkerFactory(int acceptorId) {
+            this.acceptorId = acceptorId;
+        }
+
+        public Thread newThread(Runnable r) {
+            Thread thread = new Thread(r, "SessionAcceptor-" + acceptorId
+                    + "-worker-" + threadId.getAndIncrement());
+            thread.setDaemon(true);
+            return thread;
+        }
+    }
+}
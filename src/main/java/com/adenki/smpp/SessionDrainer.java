@@ -0,0 +1,89 @@
+package com.adenki.smpp;
+
+import java.io.IOException;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+
+import com.adenki.smpp.util.SharedExecutors;
+import com.adenki.smpp.util.TimingWheel;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * Unbinds a session that is no longer being sent on once its outstanding
+ * requests have completed, or once a drain timeout has passed. The drain
+ * is started by the completion of the session&apos;s last outstanding
+ * request or by a timeout on the shared {@link TimingWheel}, whichever
+ * comes first, and the session is unbound on a
+ * {@link SharedExecutors#getWorkers() background thread}, after which
+ * the drain&apos;s completion task is run.
+ * @version $Id$
+ */
+final class SessionDrainer implements Runnable {
+    private static final Logger LOG = LoggerFactory.getLogger(SessionDrainer.class);
+
+    private final SessionImpl session;
+    private final Runnable completion;
+    private final AtomicBoolean started = new AtomicBoolean();
+    private volatile TimingWheel.Timeout timeout;
+
+    private SessionDrainer(SessionImpl session, Runnable completion) {
+        this.session = session;
+        this.completion = completion;
+    }
+
+    /**
+     * Start draining a session.
+     * @param session The session to unbind.
+     * @param timeout The longest number of milliseconds to wait for its
+     * outstanding requests, or zero to wait until they have all completed.
+     * @param completion Run once the session has been unbound, or
+     * <code>null</code>.
+     */
+    static void drain(SessionImpl session, long timeout, Runnable completion) {
+        SessionDrainer drainer = new SessionDrainer(session, completion);
+        if (timeout > 0L) {
+            drainer.timeout = TimingWheel.getDefault().schedule(
+                    drainer, timeout, TimeUnit.MILLISECONDS);
+        }
+        session.whenRequestsComplete(drainer);
+    }
+
+    public void run() {
+        if (!started.compareAndSet(false, true)) {
+            return;
+        }
+        TimingWheel.Timeout drainTimeout = timeout;
+        if (drainTimeout != null) {
+            drainTimeout.cancel();
+        }
+        SharedExecutors.execute(new Runnable() {
+            public void run() {
+                unbind();
+            }
+        });
+    }
+
+    private void unbind() {
+        int outstanding = session.getOutstandingRequests();
+        if (outstanding > 0) {
+            LOG.warn("Unbinding {} with {} requests still outstanding",
+                    session.getSessionId(), outstanding);
+        }
+        try {
+            if (session.getState() == SessionState.BOUND) {
+                session.unbind();
+            } else if (session.getState() == SessionState.UNBOUND) {
+                session.closeLink();
+            }
+        } catch (IOException x) {
+            LOG.debug("Exception unbinding {}", session.getSessionId(), x);
+        } catch (RuntimeException x) {
+            LOG.debug("Exception unbinding {}", session.getSessionId(), x);
+        } finally {
+            if (completion != null) {
+                completion.run();
+            }
+        }
+    }
+}
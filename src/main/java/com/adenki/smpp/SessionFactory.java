@@ -0,0 +1,26 @@
+package com.adenki.smpp;
+
+import java.io.IOException;
+
+import com.adenki.smpp.message.Bind;
+
+/**
+ * Creates the sessions used by an {@link ElasticSessionPool}, along with the
+ * bind request each one binds with. Implementations must be thread-safe.
+ * @version $Id$
+ */
+public interface SessionFactory {
+    /**
+     * Create a new, unbound session.
+     * @return A new session.
+     * @throws IOException If the session&apos;s link cannot be created.
+     */
+    SessionImpl createSession() throws IOException;
+
+    /**
+     * Create the bind request for a new session. A new request must be
+     * returned on every call.
+     * @return A new bind request.
+     */
+    Bind createBindRequest();
+}
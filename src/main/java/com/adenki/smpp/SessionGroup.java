@@ -0,0 +1,414 @@
+package com.adenki.smpp;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.CopyOnWriteArrayList;
+
+import com.adenki.smpp.event.SMPPEvent;
+import com.adenki.smpp.event.SessionObserver;
+import com.adenki.smpp.message.Bind;
+import com.adenki.smpp.message.SMPPPacket;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * A group of sessions, usually several binds to the same SMSC account,
+ * that are used together to send more traffic than a single bind allows.
+ * <p>
+ * Each packet sent through the group is sent on one member chosen by the
+ * group&apos;s {@link SessionRouter} from the members that are currently
+ * bound. By default the {@link LeastOutstandingRouter} is used. A member is
+ * removed from the group automatically when its receiver exits, when a
+ * keepalive probe on it times out, or when sending a packet on it fails
+ * with an <code>IOException</code>. Supervised members, which have a
+ * {@link ReconnectPolicy}, stay in the group while they reconnect unless
+ * a send on them fails.
+ * </p>
+ * <p>
+ * Callers can supply a routing key with each packet, which routers such as
+ * the {@link ConsistentHashRouter} use to send all packets with the same
+ * key on the same member. Packets that must go out on one link, such as
+ * the segments of a concatenated message, can be sent together with
+ * {@link #send(List, Object)}.
+ * </p>
+ * <p>
+ * A member can be replaced without a gap in service, for example to move
+ * to a new SMSC host or password, with
+ * {@link #replace(SessionImpl, SessionImpl, Bind)}. The replacement is
+ * bound in the background while traffic continues on the old member, and
+ * takes its place once the bind succeeds. The old member is then unbound
+ * when its outstanding requests have completed. To rotate a single bind
+ * this way, send through a group with one member.
+ * </p>
+ * <p>
+ * Observers added to the group receive the events and packets of every
+ * member. The source passed to the observer is the member session the
+ * event or packet came from.
+ * </p>
+ * @version $Id$
+ */
+public class SessionGroup {
+    private static final Logger LOG = LoggerFactory.getLogger(SessionGroup.class);
+
+    /**
+     * The default number of milliseconds a replaced member is given to
+     * receive the responses to its outstanding requests before it is
+     * unbound.
+     */
+    public static final long DEFAULT_DRAIN_TIMEOUT = 60000L;
+
+    private final List<SessionImpl> members = new CopyOnWriteArrayList<SessionImpl>();
+    private final List<SessionObserver> observers =
+        new CopyOnWriteArrayList<SessionObserver>();
+    private volatile SessionRouter router;
+
+    private final SessionObserver relay = new SessionObserver() {
+        public void update(Session source, SMPPEvent event) {
+            switch (event.getType()) {
+            case SMPPEvent.RECEIVER_EXIT:
+            case SMPPEvent.KEEPALIVE_TIMEOUT:
+                // Supervised members reconnect by themselves and are
+                // only sent on again once they are bound.
+                if (!(source instanceof SessionImpl)
+                        || !((SessionImpl) source).isSupervised()) {
+                    memberFailed(source);
+                }
+                break;
+            default:
+            }
+            for (SessionObserver observer : observers) {
+                try {
+                    observer.update(source, event);
+                } catch (Exception x) {
+                    LOG.error("An observer threw an exception during event processing", x);
+                }
+            }
+        }
+
+        public void packetReceived(Session source, SMPPPacket packet) {
+            for (SessionObserver observer : observers) {
+                try {
+                    observer.packetReceived(source, packet);
+                } catch (Exception x) {
+                    LOG.error("An observer threw an exception during packet processing", x);
+                }
+            }
+        }
+    };
+
+    /**
+     * Create a group that routes packets to the member with the fewest
+     * outstanding requests.
+     */
+    public SessionGroup() {
+        this(new LeastOutstandingRouter());
+    }
+
+    /**
+     * Create a group.
+     * @param router The router used to choose the member each packet is
+     * sent on.
+     */
+    public SessionGroup(SessionRouter router) {
+        setRouter(router);
+    }
+
+    public SessionRouter getRouter() {
+        return router;
+    }
+
+    public void setRouter(SessionRouter router) {
+        if (router == null) {
+            throw new NullPointerException("Router cannot be null");
+        }
+        this.router = router;
+    }
+
+    /**
+     * Add a session to the group. The session is used for sending once it
+     * is bound.
+     * @param session The session to add.
+     */
+    public void add(SessionImpl session) {
+        if (!members.contains(session)) {
+            session.addObserver(relay);
+            members.add(session);
+        }
+    }
+
+    /**
+     * Remove a session from the group. The session itself is left as it
+     * is.
+     * @param session The session to remove.
+     * @return <code>true</code> if the session was a member of the group.
+     */
+    public boolean remove(SessionImpl session) {
+        if (members.remove(session)) {
+            session.removeObserver(relay);
+            return true;
+        }
+        return false;
+    }
+
+    /**
+     * Get the members of the group.
+     * @return An unmodifiable snapshot of the group&apos;s members.
+     */
+    public List<SessionImpl> getSessions() {
+        return Collections.unmodifiableList(new ArrayList<SessionImpl>(members));
+    }
+
+    /**
+     * Get the members of the group that are bound and can be sent on.
+     * @return A new list of the available members.
+     */
+    public List<SessionImpl> getAvailableSessions() {
+        List<SessionImpl> available = new ArrayList<SessionImpl>(members.size());
+        for (SessionImpl session : members) {
+            if (session.getState() == SessionState.BOUND) {
+                available.add(session);
+            }
+        }
+        return available;
+    }
+
+    public int size() {
+        return members.size();
+    }
+
+    public void addObserver(SessionObserver observer) {
+        if (!observers.contains(observer)) {
+            observers.add(observer);
+        }
+    }
+
+    public void removeObserver(SessionObserver observer) {
+        observers.remove(observer);
+    }
+
+    /**
+     * Choose the member a packet would be sent on.
+     * @param packet The packet to send.
+     * @return The session chosen by the router.
+     * @throws NotBoundException If no member of the group is bound.
+     */
+    public SessionImpl select(SMPPPacket packet) {
+        return select(packet, null);
+    }
+
+    /**
+     * Choose the member a packet would be sent on.
+     * @param packet The packet to send.
+     * @param key The routing key, or <code>null</code>.
+     * @return The session chosen by the router.
+     * @throws NotBoundException If no member of the group is bound.
+     */
+    public SessionImpl select(SMPPPacket packet, Object key) {
+        List<SessionImpl> available = getAvailableSessions();
+        if (available.isEmpty()) {
+            throw new NotBoundException("No session in the group is bound");
+        }
+        return router.select(available, packet, key);
+    }
+
+    /**
+     * Send a packet on the member chosen by the router.
+     * @param packet The packet to send.
+     * @return The session the packet was sent on.
+     * @throws IOException If the packet could not be sent. The member is
+     * removed from the group.
+     * @throws NotBoundException If no member of the group is bound.
+     * @see Session#send(SMPPPacket)
+     */
+    public SessionImpl send(SMPPPacket packet) throws IOException {
+        return send(packet, null);
+    }
+
+    /**
+     * Send a packet on the member the router chooses for a routing key.
+     * @param packet The packet to send.
+     * @param key The routing key, or <code>null</code>.
+     * @return The session the packet was sent on.
+     * @throws IOException If the packet could not be sent. The member is
+     * removed from the group.
+     * @throws NotBoundException If no member of the group is bound.
+     */
+    public SessionImpl send(SMPPPacket packet, Object key) throws IOException {
+        SessionImpl session = select(packet, key);
+        try {
+            session.send(packet);
+        } catch (IOException x) {
+            memberFailed(session);
+            throw x;
+        }
+        return session;
+    }
+
+    /**
+     * Send several packets, in order, on a single member. The member is
+     * chosen by the router for the first packet and key. Use this to send
+     * the segments of a concatenated message so that they all go out on
+     * the same link.
+     * @param packets The packets to send.
+     * @param key The routing key, or <code>null</code>.
+     * @return The session the packets were sent on.
+     * @throws IOException If a packet could not be sent. The member is
+     * removed from the group and the remaining packets are not sent.
+     * @throws NotBoundException If no member of the group is bound.
+     */
+    public SessionImpl send(List<? extends SMPPPacket> packets, Object key) throws IOException {
+        if (packets.isEmpty()) {
+            throw new IllegalArgumentException("No packets to send");
+        }
+        SessionImpl session = select(packets.get(0), key);
+        try {
+            for (SMPPPacket packet : packets) {
+                session.send(packet);
+            }
+        } catch (IOException x) {
+            memberFailed(session);
+            throw x;
+        }
+        return session;
+    }
+
+    /**
+     * Send a request on the member chosen by the router without waiting
+     * for the response.
+     * @param request The request to send.
+     * @return A future that completes when the response is received.
+     * @throws IOException If the request could not be sent. The member is
+     * removed from the group.
+     * @throws NotBoundException If no member of the group is bound.
+     * @see Session#sendAsync(SMPPPacket)
+     */
+    public ResponseFuture sendAsync(SMPPPacket request) throws IOException {
+        SessionImpl session = select(request);
+        try {
+            return session.sendAsync(request);
+        } catch (IOException x) {
+            memberFailed(session);
+            throw x;
+        }
+    }
+
+    /**
+     * Send a request on the member chosen by the router without waiting
+     * for the response.
+     * @param request The request to send.
+     * @param timeout The number of milliseconds to wait for the response,
+     * or zero to wait indefinitely.
+     * @return A future that completes when the response is received.
+     * @throws IOException If the request could not be sent. The member is
+     * removed from the group.
+     * @throws NotBoundException If no member of the group is bound.
+     * @see Session#sendAsync(SMPPPacket, long)
+     */
+    public ResponseFuture sendAsync(SMPPPacket request, long timeout) throws IOException {
+        return sendAsync(request, null, timeout);
+    }
+
+    /**
+     * Send a request on the member the router chooses for a routing key
+     * without waiting for the response.
+     * @param request The request to send.
+     * @param key The routing key, or <code>null</code>.
+     * @param timeout The number of milliseconds to wait for the response,
+     * or zero to wait indefinitely.
+     * @return A future that completes when the response is received.
+     * @throws IOException If the request could not be sent. The member is
+     * removed from the group.
+     * @throws NotBoundException If no member of the group is bound.
+     */
+    public ResponseFuture sendAsync(SMPPPacket request, Object key, long timeout)
+            throws IOException {
+        SessionImpl session = select(request, key);
+        try {
+            return session.sendAsync(request, timeout);
+        } catch (IOException x) {
+            memberFailed(session);
+            throw x;
+        }
+    }
+
+    /**
+     * Replace a member with a new session, waiting up to
+     * {@link #DEFAULT_DRAIN_TIMEOUT} for the old member to drain.
+     * @param oldSession The member to replace.
+     * @param replacement The unbound session to replace it with.
+     * @param bindRequest The request used to bind the replacement.
+     * @return The future of the replacement&apos;s bind request.
+     * @throws IOException If the bind request cannot be sent.
+     * @see #replace(SessionImpl, SessionImpl, Bind, long)
+     */
+    public ResponseFuture replace(SessionImpl oldSession,
+            SessionImpl replacement, Bind bindRequest) throws IOException {
+        return replace(oldSession, replacement, bindRequest, DEFAULT_DRAIN_TIMEOUT);
+    }
+
+    /**
+     * Replace a member with a new session without a gap in service. The
+     * replacement is bound in the background. If the bind succeeds, the
+     * replacement is added to the group and the old member removed in its
+     * favour, so new packets are sent on the replacement while responses
+     * to requests already sent on the old member are still received.
+     * Packets and events from the old member reach the group&apos;s
+     * observers until it has been unbound. The old member is unbound once it has no outstanding requests, or once
+     * the drain timeout has passed. If the bind fails, the old member is
+     * kept and the replacement&apos;s link is closed.
+     * @param oldSession The member to replace.
+     * @param replacement The unbound session to replace it with.
+     * @param bindRequest The request used to bind the replacement.
+     * @param drainTimeout The longest number of milliseconds to wait for
+     * the old member&apos;s outstanding requests, or zero to wait until
+     * they have all completed.
+     * @return The future of the replacement&apos;s bind request, which
+     * completes once the replacement is in the group.
+     * @throws IOException If the bind request cannot be sent.
+     */
+    public ResponseFuture replace(final SessionImpl oldSession,
+            final SessionImpl replacement, Bind bindRequest,
+            final long drainTimeout) throws IOException {
+        ResponseFuture future = replacement.sendAsync(bindRequest);
+        future.addListener(new ResponseListener() {
+            public void requestCompleted(ResponseFuture bind) {
+                if (replacement.getState() == SessionState.BOUND) {
+                    add(replacement);
+                    // Stop sending on the old member, but keep relaying its
+                    // packets, such as delivery receipts, until it is unbound.
+                    if (members.remove(oldSession)) {
+                        LOG.info("Replaced {} with {} in the session group",
+                                oldSession.getSessionId(), replacement.getSessionId());
+                    }
+                    SessionDrainer.drain(oldSession, drainTimeout, new Runnable() {
+                        public void run() {
+                            if (!members.contains(oldSession)) {
+                                oldSession.removeObserver(relay);
+                            }
+                        }
+                    });
+                } else {
+                    LOG.warn("Replacement {} for {} did not bind",
+                            replacement.getSessionId(), oldSession.getSessionId());
+                    if (replacement.getState() == SessionState.UNBOUND) {
+                        try {
+                            replacement.closeLink();
+                        } catch (IOException x) {
+                            LOG.debug("Exception closing the link of {}",
+                                    replacement.getSessionId(), x);
+                        }
+                    }
+                }
+            }
+        });
+        return future;
+    }
+
+    private void memberFailed(Session session) {
+        if (session instanceof SessionImpl && remove((SessionImpl) session)) {
+            LOG.info("Removed {} from the session group", session.getSessionId());
+        }
+    }
+}
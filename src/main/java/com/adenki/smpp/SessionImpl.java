@@ -3,10 +3,13 @@ package com.adenki.smpp;
 import java.io.IOException;
 import java.net.UnknownHostException;
 import java.util.Collection;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
 import java.util.concurrent.atomic.AtomicInteger;
 import java.util.concurrent.atomic.AtomicReference;
 
 import com.adenki.smpp.event.EventDispatcher;
+import com.adenki.smpp.event.ReceiverExitEvent;
 import com.adenki.smpp.event.SessionObserver;
 import com.adenki.smpp.event.SimpleEventDispatcher;
 import com.adenki.smpp.message.Bind;
@@ -19,20 +22,59 @@ import com.adenki.smpp.message.SMPPPacket;
 import com.adenki.smpp.message.Unbind;
 import com.adenki.smpp.message.UnbindResp;
 import com.adenki.smpp.message.tlv.Tag;
+import com.adenki.smpp.net.AbstractStreamLink;
+import com.adenki.smpp.net.FlushPolicy;
+import com.adenki.smpp.net.NioLink;
 import com.adenki.smpp.net.SmscLink;
 import com.adenki.smpp.net.TcpLink;
 import com.adenki.smpp.util.APIConfig;
 import com.adenki.smpp.util.APIConfigFactory;
 import com.adenki.smpp.util.DefaultSequenceScheme;
+import com.adenki.smpp.util.ExponentialMovingAverage;
+import com.adenki.smpp.util.LatencyHistogram;
+import com.adenki.smpp.util.PacketStatus;
 import com.adenki.smpp.util.PropertyNotFoundException;
 import com.adenki.smpp.util.SequenceNumberScheme;
+import com.adenki.smpp.util.ThroughputLimiter;
+import com.adenki.smpp.util.TimingWheel;
 import com.adenki.smpp.version.SMPPVersion;
 import com.adenki.smpp.version.VersionException;
 import com.adenki.smpp.version.VersionFactory;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
-// TODO documentation!
+/**
+ * Default implementation of the {@link Session} interface.
+ * <p>
+ * By default, packets are written to the link on the thread that calls
+ * {@link #send}. If the {@link APIConfig#CONNECTION_OUTBOUND_PIPELINE}
+ * property is set, or {@link #setOutboundPipeline(boolean)} is called,
+ * packets are instead assigned a sequence number and validated on the
+ * calling thread and then queued to be written to the link by a single
+ * writer. Sending threads then never block on network I/O, and packets
+ * from many threads are written to the link in batches. Queued responses
+ * and link-control requests are written ahead of queued messages, and
+ * messages are written in order of their priority flag.
+ * </p>
+ * <p>
+ * If a keepalive interval is set, with the
+ * {@link APIConfig#CONNECTION_KEEPALIVE_INTERVAL} property or
+ * {@link #setKeepalive(long, long)}, an <code>enquire_link</code> is sent
+ * whenever the bound session has been idle for that interval.
+ * </p>
+ * <p>
+ * If a {@link ReconnectPolicy} is set, with the
+ * {@link APIConfig#CONNECTION_RECONNECT_INITIAL_DELAY} property or
+ * {@link #setReconnectPolicy(ReconnectPolicy)}, the session is supervised:
+ * when its receiver exits without {@link #unbind()} having been called,
+ * the link is reconnected and the session rebound with the original bind
+ * request. Requests that were waiting on a response, and requests sent
+ * with {@link #sendAsync} while the session is reconnecting, are sent
+ * again once it has rebound if the session&apos;s {@link ReplayPolicy}
+ * allows it.
+ * </p>
+ * @version $Id$
+ */
 public class SessionImpl implements Session {
     private static final AtomicInteger SESSION_ID = new AtomicInteger(1);
     
@@ -45,15 +87,38 @@ public class SessionImpl implements Session {
     private SmscLink smscLink;
     private SequenceNumberScheme numberScheme = new DefaultSequenceScheme();
     private EventDispatcher eventDispatcher;
-    private Receiver receiver;
+    private volatile Receiver receiver;
     private boolean useOptionalParams = version.isSupportTLV();
     private boolean validating = true;
+    private volatile OutboundPipeline pipeline;
+    private PendingRequests pendingRequests;
+    private long responseTimeout;
+    private volatile ThroughputLimiter throughputLimiter;
+    private volatile TimingWheel.Timeout bindTimer;
+    private volatile boolean bindTimedOut;
+    private volatile long lastActivity = System.currentTimeMillis();
+    private final SessionMetrics metrics = new SessionMetrics(this);
+    private final ExponentialMovingAverage responseLatency =
+        new ExponentialMovingAverage();
+    private long keepaliveInterval;
+    private long keepaliveTimeout;
+    private KeepaliveService.Task keepaliveTask;
+    private volatile SessionSupervisor supervisor;
+    private volatile ReplayPolicy replayPolicy = ReplayPolicy.ALL;
+    private volatile Bind bindRequest;
+    private volatile boolean unbindRequested;
+    private final boolean publishMetrics;
     
     public SessionImpl(SmscLink link) {
         sessionId = "Session-" + SESSION_ID.getAndIncrement();
         log = LoggerFactory.getLogger(SessionImpl.class + "." + sessionId);
         this.smscLink = link;
         initFromConfig();
+        publishMetrics = APIConfigFactory.getConfig().getBoolean(
+                APIConfig.METRICS_JMX, false);
+        if (publishMetrics) {
+            metrics.registerMBean();
+        }
     }
     
     public SessionImpl(String host, int port) throws UnknownHostException {
@@ -114,6 +179,39 @@ public class SessionImpl implements Session {
         this.validating = validating;
     }
 
+    /**
+     * Determine if packets are written to the link by an outbound pipeline.
+     * @return <code>true</code> if packets are queued and written by a
+     * single writer, <code>false</code> if they are written on the sending
+     * thread.
+     */
+    public boolean isOutboundPipeline() {
+        return pipeline != null;
+    }
+
+    /**
+     * Enable or disable the outbound pipeline. When enabled, packets sent
+     * on this session are queued and written to the link by a single
+     * writer; {@link #send} returns once the packet has been queued. As the
+     * pipeline flushes the link after each batch of packets, an
+     * {@link AbstractStreamLink} that flushes after every packet is switched
+     * to {@link FlushPolicy#EXPLICIT}.
+     * @param enabled <code>true</code> to enable the outbound pipeline.
+     */
+    public void setOutboundPipeline(boolean enabled) {
+        if (enabled && pipeline == null) {
+            if (smscLink instanceof AbstractStreamLink) {
+                AbstractStreamLink streamLink = (AbstractStreamLink) smscLink;
+                if (streamLink.getFlushPolicy().isImmediate()) {
+                    streamLink.setFlushPolicy(FlushPolicy.EXPLICIT);
+                }
+            }
+            pipeline = new OutboundPipeline(this, smscLink);
+        } else if (!enabled) {
+            pipeline = null;
+        }
+    }
+
     public void bind(SessionType type,
                      String systemID,
                      String password,
@@ -160,16 +258,36 @@ public class SessionImpl implements Session {
         } else {
             type = SessionType.TRANSCEIVER;
         }
+        this.bindRequest = bindRequest;
+        unbindRequested = false;
+        if (publishMetrics) {
+            // Registered again if the session is reused after unbinding.
+            metrics.registerMBean();
+        }
         if (!smscLink.isConnected()) {
             smscLink.connect();
         }
+        OutboundPipeline outbound = pipeline;
+        if (outbound != null) {
+            outbound.reset();
+        }
         setLinkTimeout(APIConfig.BIND_TIMEOUT);
+        startBindTimer();
         log.debug("Sending bind packet to the SMSC..");
-        sendPacketInternal(bindRequest);
+        try {
+            sendPacketInternal(bindRequest);
+        } catch (IOException x) {
+            cancelBindTimer();
+            throw x;
+        } catch (RuntimeException x) {
+            cancelBindTimer();
+            throw x;
+        }
         receiver.start();
     }
 
     public void unbind() throws IOException {
+        unbindRequested = true;
         sendPacketInternal(new Unbind());
     }
     
@@ -192,11 +310,321 @@ public class SessionImpl implements Session {
                         "Receiver connection cannot send command " + commandId);
             }
         }
+        ThroughputLimiter limiter = throughputLimiter;
+        if (limiter != null && packet.isRequest()
+                && commandId != CommandId.UNBIND
+                && commandId != CommandId.ENQUIRE_LINK) {
+            limiter.acquire();
+        }
         sendPacketInternal(packet);
     }
 
+    public ResponseFuture sendAsync(SMPPPacket request) throws IOException {
+        return sendAsync(request, responseTimeout);
+    }
+
+    public ResponseFuture sendAsync(SMPPPacket request, long timeout) throws IOException {
+        if (!request.isRequest()) {
+            throw new IllegalArgumentException(
+                    "Only requests can be sent asynchronously");
+        }
+        if (request.getSequenceNum() < 0L) {
+            if (numberScheme == null) {
+                throw new IllegalArgumentException(
+                        "Request has no sequence number and there is no "
+                        + "sequence number scheme to assign one");
+            }
+            request.setSequenceNum(numberScheme.nextNumber());
+        }
+        ResponseFuture future = pendingRequests.add(request, timeout);
+        SessionSupervisor sup = supervisor;
+        if (sup != null && sup.isReconnecting()
+                && replayPolicy.isReplayable(request)) {
+            // Hold the request until the session has rebound. If the
+            // session was rebound in the meantime, whoever claims the
+            // request sends it.
+            future.markForReplay();
+            if (sup.isReconnecting() || !future.claimReplay()) {
+                return future;
+            }
+        }
+        try {
+            send(request);
+        } catch (IOException x) {
+            pendingRequests.remove(future);
+            throw x;
+        } catch (RuntimeException x) {
+            pendingRequests.remove(future);
+            throw x;
+        }
+        return future;
+    }
+
+    /**
+     * Send a keepalive probe. Unlike {@link #sendAsync}, the probe does not
+     * take a place in the window, so a full window neither delays nor
+     * prevents it, and the listener is registered before the probe is
+     * written so that it hears of a timeout even if the write blocks.
+     * @param probe The request to send.
+     * @param timeout The number of milliseconds to wait for the response.
+     * @param listener The listener to notify when the probe completes.
+     * @throws IOException If the probe cannot be sent.
+     */
+    void sendProbe(SMPPPacket probe, long timeout, ResponseListener listener)
+            throws IOException {
+        if (numberScheme == null) {
+            throw new IllegalArgumentException(
+                    "There is no sequence number scheme to number the probe");
+        }
+        probe.setSequenceNum(numberScheme.nextNumber());
+        ResponseFuture future = pendingRequests.add(probe, timeout, false);
+        future.addListener(listener);
+        try {
+            send(probe);
+        } catch (IOException x) {
+            pendingRequests.remove(future);
+            throw x;
+        } catch (RuntimeException x) {
+            pendingRequests.remove(future);
+            throw x;
+        }
+    }
+
+    /**
+     * Get the number of requests sent with {@link #sendAsync} that are
+     * still waiting on a response.
+     * @return The number of outstanding requests.
+     */
+    public int getOutstandingRequests() {
+        return pendingRequests.size();
+    }
+
+    /**
+     * Run a task once no requests sent with {@link #sendAsync} are waiting
+     * on a response. The task may be run on the calling thread, the
+     * receiver or the timer thread, so it must not block.
+     * @param task The task to run.
+     */
+    void whenRequestsComplete(Runnable task) {
+        pendingRequests.whenEmpty(task);
+    }
+
+    /**
+     * Get the maximum number of requests that may be outstanding at once.
+     * @return The window size, or zero if there is no limit.
+     * @see APIConfig#CONNECTION_WINDOW_SIZE
+     */
+    public int getWindowSize() {
+        return pendingRequests.getWindowSize();
+    }
+
+    /**
+     * Set the maximum number of requests that may be outstanding at once.
+     * This may only be changed while no requests are outstanding.
+     * @param windowSize The window size, or zero for no limit.
+     * @param windowWait The number of milliseconds a caller of
+     * {@link #sendAsync} waits for space in a full window. Zero fails
+     * immediately and a negative value waits indefinitely.
+     */
+    public void setWindowSize(int windowSize, long windowWait) {
+        if (pendingRequests != null && pendingRequests.size() > 0) {
+            throw new IllegalStateException(
+                    "Cannot change the window while requests are outstanding");
+        }
+        pendingRequests = new PendingRequests(windowSize, windowWait);
+    }
+
+    /**
+     * Get the default timeout used by {@link #sendAsync(SMPPPacket)}.
+     * @return The response timeout in milliseconds, or zero for no timeout.
+     */
+    public long getResponseTimeout() {
+        return responseTimeout;
+    }
+
+    /**
+     * Set the default timeout used by {@link #sendAsync(SMPPPacket)}.
+     * @param responseTimeout The response timeout in milliseconds, or zero
+     * for no timeout.
+     */
+    public void setResponseTimeout(long responseTimeout) {
+        this.responseTimeout = responseTimeout;
+    }
+
+    /**
+     * Get the limiter that controls the rate at which requests are sent.
+     * @return The throughput limiter, or <code>null</code> if the rate of
+     * requests is not limited.
+     */
+    public ThroughputLimiter getThroughputLimiter() {
+        return throughputLimiter;
+    }
+
+    /**
+     * Set the limiter that controls the rate at which requests are sent.
+     * Every request other than binds, unbinds and enquire_links waits for
+     * the limiter before it is sent, whether it is sent by {@link #send}
+     * or {@link #sendAsync}. Responses received with the
+     * {@link PacketStatus#THROTTLING_ERROR} status are reported to the
+     * limiter so that it can reduce its rate.
+     * @param throughputLimiter The limiter to use, or <code>null</code> to
+     * send requests without limit.
+     */
+    public void setThroughputLimiter(ThroughputLimiter throughputLimiter) {
+        this.throughputLimiter = throughputLimiter;
+    }
+
+    /**
+     * Get the keepalive interval.
+     * @return The number of milliseconds the session may be idle before
+     * an <code>enquire_link</code> is sent, or zero if keepalive is off.
+     */
+    public synchronized long getKeepaliveInterval() {
+        return keepaliveInterval;
+    }
+
+    /**
+     * Get the keepalive timeout.
+     * @return The number of milliseconds to wait for the response to a
+     * keepalive <code>enquire_link</code>.
+     */
+    public synchronized long getKeepaliveTimeout() {
+        return keepaliveTimeout;
+    }
+
+    /**
+     * Set the keepalive interval and timeout. While the session is bound,
+     * an <code>enquire_link</code> is sent whenever nothing has been sent
+     * or received for <code>interval</code> milliseconds. If the response
+     * is not received within <code>timeout</code> milliseconds, a
+     * {@link com.adenki.smpp.event.KeepaliveTimeoutEvent} is sent to the
+     * session&apos;s observers. Probes for all sessions are sent from a
+     * single shared thread.
+     * @param interval The idle interval in milliseconds, or zero to turn
+     * keepalive off.
+     * @param timeout The response timeout in milliseconds. If zero or
+     * less, the interval is used.
+     */
+    public synchronized void setKeepalive(long interval, long timeout) {
+        this.keepaliveInterval = Math.max(0L, interval);
+        this.keepaliveTimeout = timeout > 0L ? timeout : keepaliveInterval;
+        stopKeepalive();
+        if (getState() == SessionState.BOUND) {
+            startKeepalive();
+        }
+    }
+
+    /**
+     * Get the policy used to reconnect the session when its connection
+     * fails.
+     * @return The reconnect policy, or <code>null</code> if the session is
+     * not supervised.
+     */
+    public ReconnectPolicy getReconnectPolicy() {
+        SessionSupervisor sup = supervisor;
+        return sup != null ? sup.getPolicy() : null;
+    }
+
+    /**
+     * Set the policy used to reconnect the session when its receiver exits
+     * without the session having been unbound. Setting a policy makes the
+     * session supervised.
+     * @param policy The reconnect policy, or <code>null</code> to stop
+     * reconnecting the session.
+     */
+    public void setReconnectPolicy(ReconnectPolicy policy) {
+        SessionSupervisor old = supervisor;
+        if (old != null) {
+            old.stop();
+        }
+        supervisor = policy != null ? new SessionSupervisor(this, policy) : null;
+    }
+
+    public ReplayPolicy getReplayPolicy() {
+        return replayPolicy;
+    }
+
+    /**
+     * Set which requests are sent again after the session has been
+     * reconnected. The default is {@link ReplayPolicy#ALL}.
+     * @param replayPolicy The replay policy.
+     */
+    public void setReplayPolicy(ReplayPolicy replayPolicy) {
+        if (replayPolicy == null) {
+            throw new NullPointerException("Replay policy cannot be null");
+        }
+        this.replayPolicy = replayPolicy;
+    }
+
+    /**
+     * Determine if the session is reconnected automatically when its
+     * connection fails.
+     * @return <code>true</code> if the session has a reconnect policy.
+     */
+    public boolean isSupervised() {
+        return supervisor != null;
+    }
+
+    /**
+     * Determine if the session has lost its connection and is waiting to
+     * be reconnected and rebound.
+     * @return <code>true</code> while the session is reconnecting.
+     */
+    public boolean isReconnecting() {
+        SessionSupervisor sup = supervisor;
+        return sup != null && sup.isReconnecting();
+    }
+
+    /**
+     * Get the histogram of round-trip times, in nanoseconds, of the
+     * <code>enquire_link</code> requests sent by the keepalive service.
+     * @return The enquire_link latency histogram.
+     */
+    public LatencyHistogram getEnquireLinkLatency() {
+        return metrics.getEnquireLinkLatency();
+    }
+
+    /**
+     * Get the traffic and latency metrics of this session.
+     * @return The session metrics.
+     */
+    public SessionMetrics getMetrics() {
+        return metrics;
+    }
+
+    /**
+     * Get the number of packets waiting to be written by the outbound
+     * pipeline.
+     * @return The outbound queue size, or zero if the session does not
+     * use an outbound pipeline.
+     */
+    public int getOutboundQueueSize() {
+        OutboundPipeline outbound = pipeline;
+        return outbound != null ? outbound.getQueueSize() : 0;
+    }
+
+    /**
+     * Get the moving average of the time, in nanoseconds, taken to receive
+     * the response to requests sent with {@link #sendAsync}.
+     * @return The recent response latency.
+     */
+    public ExponentialMovingAverage getResponseLatency() {
+        return responseLatency;
+    }
+
+    /**
+     * Get the time a packet was last sent or received on this session.
+     * @return The time of the last activity, in milliseconds since the
+     * epoch.
+     */
+    public long getLastActivity() {
+        return lastActivity;
+    }
+
     public void closeLink() throws IOException {
         if (getState() == SessionState.UNBOUND) {
+            unbindRequested = true;
+            metrics.unregisterMBean();
             smscLink.disconnect();
         } else {
             throw new IllegalStateException("Cannot close link while connection is bound.");
@@ -220,6 +648,31 @@ public class SessionImpl implements Session {
     }
     
     public void processReceivedPacket(SMPPPacket packet) {
+        lastActivity = System.currentTimeMillis();
+        metrics.packetReceived(packet);
+        if (packet.isResponse()
+                && packet.getCommandStatus() == PacketStatus.THROTTLING_ERROR) {
+            ThroughputLimiter limiter = throughputLimiter;
+            if (limiter != null) {
+                limiter.throttled();
+            }
+        }
+        updateState(packet);
+        // Futures complete after the state has changed, so that a listener
+        // waiting on a bind response sees the session bound.
+        if (packet.isResponse()) {
+            ResponseFuture future = pendingRequests.complete(packet);
+            if (future != null) {
+                // The response belongs to whoever holds the future now, so
+                // a pooled packet must never be recycled.
+                packet.retain();
+                responseLatency.update(future.getLatency());
+                metrics.getResponseLatency().record(future.getLatency());
+            }
+        }
+    }
+
+    private void updateState(SMPPPacket packet) {
         switch (packet.getCommandId()) {
         case CommandId.BIND_TRANSMITTER_RESP:
         case CommandId.BIND_RECEIVER_RESP:
@@ -237,6 +690,165 @@ public class SessionImpl implements Session {
         }
     }
 
+    /**
+     * Called by the receiver when it exits. The session becomes unbound.
+     * If the session is supervised and was not unbound by the application,
+     * a reconnect is scheduled and the requests still waiting on a
+     * response that the replay policy replays are held; every other
+     * outstanding request fails.
+     * @param exitEvent The event describing why the receiver exited.
+     * @return <code>true</code> if the session will be reconnected, in
+     * which case the receiver must not destroy the event dispatcher.
+     */
+    boolean processReceiverExit(ReceiverExitEvent exitEvent) {
+        cancelBindTimer();
+        synchronized (this) {
+            stopKeepalive();
+        }
+        if (bindTimedOut) {
+            exitEvent.setException(null);
+            exitEvent.setReason(ReceiverExitEvent.BIND_TIMEOUT);
+        }
+        state.set(SessionState.UNBOUND);
+        IOException cause = new IOException("Receiver has exited");
+        if (exitEvent.getException() != null) {
+            cause.initCause(exitEvent.getException());
+        }
+        SessionSupervisor sup = supervisor;
+        if (sup != null && !unbindRequested) {
+            pendingRequests.holdForReplay(replayPolicy, cause);
+            if (sup.receiverExited()) {
+                return true;
+            }
+        }
+        pendingRequests.failAll(cause);
+        metrics.unregisterMBean();
+        return false;
+    }
+
+    /**
+     * Determine if the application has unbound the session or closed its
+     * link, in which case it must not be reconnected.
+     * @return <code>true</code> if the session was closed on purpose.
+     */
+    boolean isUnbindRequested() {
+        return unbindRequested;
+    }
+
+    /**
+     * Reconnect the link and send the original bind request again. Called
+     * by the supervisor.
+     * @throws IOException If the link cannot be connected or the bind
+     * cannot be sent.
+     */
+    void rebind() throws IOException {
+        Bind request = bindRequest;
+        if (request == null) {
+            throw new IllegalStateException("Session has not been bound");
+        }
+        try {
+            smscLink.disconnect();
+        } catch (IOException x) {
+            log.debug("Exception closing the failed link", x);
+        }
+        request.setSequenceNum(-1L);
+        bind(request);
+    }
+
+    /**
+     * Send the requests that were held for replay while the session was
+     * reconnecting. Each request is given a new sequence number. Called by
+     * the supervisor once the session has rebound.
+     */
+    void replayHeldRequests() {
+        List<ResponseFuture> held = pendingRequests.claimReplays();
+        if (held.isEmpty()) {
+            return;
+        }
+        log.info("Replaying {} requests after reconnecting", held.size());
+        for (int i = 0; i < held.size(); i++) {
+            ResponseFuture future = held.get(i);
+            if (!pendingRequests.rekey(future, numberScheme.nextNumber())) {
+                continue;
+            }
+            try {
+                send(future.getRequest());
+            } catch (IOException x) {
+                // The link has failed again. Leave the remaining requests
+                // to be held or failed when the receiver exits.
+                log.debug("Could not replay requests", x);
+                for (int j = i; j < held.size(); j++) {
+                    held.get(j).markForReplay();
+                }
+                return;
+            } catch (RuntimeException x) {
+                pendingRequests.fail(future, x);
+            }
+        }
+    }
+
+    /**
+     * Called by the supervisor when it gives up reconnecting. Every
+     * request still held for replay fails.
+     */
+    void reconnectFailed() {
+        pendingRequests.failAll(new IOException(
+                "Session could not be reconnected"));
+        metrics.unregisterMBean();
+        eventDispatcher.destroy();
+    }
+
+    /**
+     * Start a timer on the shared timing wheel that closes the link if the
+     * bind response is not received within the bind timeout.
+     */
+    private void startBindTimer() {
+        bindTimedOut = false;
+        APIConfig config = APIConfigFactory.getConfig();
+        long timeout = config.getLong(APIConfig.BIND_TIMEOUT, 0L);
+        if (timeout > 0L) {
+            bindTimer = TimingWheel.getDefault().schedule(new Runnable() {
+                public void run() {
+                    bindTimedOut();
+                }
+            }, timeout, TimeUnit.MILLISECONDS);
+        }
+    }
+
+    private void cancelBindTimer() {
+        TimingWheel.Timeout timer = bindTimer;
+        if (timer != null) {
+            timer.cancel();
+            bindTimer = null;
+        }
+    }
+
+    private void bindTimedOut() {
+        if (state.compareAndSet(SessionState.BINDING, SessionState.UNBOUND)) {
+            log.warn("No bind response received within the bind timeout.");
+            bindTimedOut = true;
+            try {
+                smscLink.disconnect();
+            } catch (IOException x) {
+                log.debug("Exception closing the link after bind timeout", x);
+            }
+        }
+    }
+
+    private synchronized void startKeepalive() {
+        if (keepaliveInterval > 0L && keepaliveTask == null) {
+            keepaliveTask = KeepaliveService.getDefault().start(
+                    this, keepaliveInterval, keepaliveTimeout);
+        }
+    }
+
+    private void stopKeepalive() {
+        if (keepaliveTask != null) {
+            keepaliveTask.stop();
+            keepaliveTask = null;
+        }
+    }
+
     private void setState(SessionState fromState, SessionState toState) {
         if (!state.compareAndSet(fromState, toState)) {
             log.error("Race condition in setting state - expected {} but is {}",
@@ -256,10 +868,26 @@ public class SessionImpl implements Session {
             dispatcher = new SimpleEventDispatcher();
         }
         setEventDispatcher(dispatcher);
+        setOutboundPipeline(config.getBoolean(
+                APIConfig.CONNECTION_OUTBOUND_PIPELINE, false));
+        setWindowSize(config.getInt(APIConfig.CONNECTION_WINDOW_SIZE, 0),
+                config.getLong(APIConfig.CONNECTION_WINDOW_WAIT, 0L));
+        responseTimeout =
+            config.getLong(APIConfig.CONNECTION_RESPONSE_TIMEOUT, 0L);
+        throughputLimiter = ThroughputLimiter.fromConfig();
+        keepaliveInterval =
+            config.getLong(APIConfig.CONNECTION_KEEPALIVE_INTERVAL, 0L);
+        keepaliveTimeout = config.getLong(
+                APIConfig.CONNECTION_KEEPALIVE_TIMEOUT, keepaliveInterval);
+        setReconnectPolicy(ReconnectPolicy.fromConfig());
     }
 
     private void initReceiver() {
-        receiver = new ReceiverThread(this);
+        if (smscLink instanceof NioLink) {
+            receiver = new NioReceiver(this, (NioLink) smscLink);
+        } else {
+            receiver = new ReceiverThread(this);
+        }
         receiver.setName(sessionId + "-Receiver");
     }
 
@@ -281,10 +909,42 @@ public class SessionImpl implements Session {
         if (validating) {
             packet.validate(version);
         }
+        OutboundPipeline outbound = pipeline;
+        if (outbound == null) {
+            writePacket(packet);
+        } else if (isStateChange(packet.getCommandId())) {
+            outbound.writeNow(packet);
+        } else {
+            outbound.enqueue(packet);
+        }
+    }
+
+    /**
+     * Write a packet to the link and update the session state. Called
+     * either by {@link #send} or by the outbound pipeline&apos;s writer.
+     * @param packet The packet to write.
+     * @throws IOException If the packet cannot be written to the link.
+     */
+    void writePacket(SMPPPacket packet) throws IOException {
         smscLink.write(packet, useOptionalParams);
+        lastActivity = System.currentTimeMillis();
+        metrics.packetSent(packet);
         processSentPacket(packet);
     }
 
+    private boolean isStateChange(int commandId) {
+        switch (commandId) {
+        case CommandId.BIND_TRANSMITTER:
+        case CommandId.BIND_RECEIVER:
+        case CommandId.BIND_TRANSCEIVER:
+        case CommandId.UNBIND:
+        case CommandId.UNBIND_RESP:
+            return true;
+        default:
+            return false;
+        }
+    }
+
     private void processSentPacket(SMPPPacket packet) {
         switch (packet.getCommandId()) {
         case CommandId.BIND_TRANSMITTER:
@@ -318,11 +978,17 @@ public class SessionImpl implements Session {
     }
     
     private void processReceivedBindResponse(BindResp bindResponse) {
+        cancelBindTimer();
         int status = bindResponse.getCommandStatus();
         if (status == 0) {
             setState(SessionState.BINDING, SessionState.BOUND);
             negotiateVersion(bindResponse);
             setLinkTimeout(APIConfig.LINK_TIMEOUT);
+            startKeepalive();
+            SessionSupervisor sup = supervisor;
+            if (sup != null) {
+                sup.bound();
+            }
         } else {
             log.warn("Received a bind response with status {}", status);
             setState(SessionState.BINDING, SessionState.UNBOUND);
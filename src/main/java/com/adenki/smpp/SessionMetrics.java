@@ -0,0 +1,378 @@
+package com.adenki.smpp;
+
+import java.lang.management.ManagementFactory;
+import java.lang.reflect.Field;
+import java.lang.reflect.Modifier;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.TreeMap;
+import java.util.concurrent.atomic.AtomicReferenceArray;
+
+import javax.management.JMException;
+import javax.management.MBeanServer;
+import javax.management.ObjectName;
+
+import com.adenki.smpp.message.CommandId;
+import com.adenki.smpp.message.SMPPPacket;
+import com.adenki.smpp.util.APIConfig;
+import com.adenki.smpp.util.LatencyHistogram;
+import com.adenki.smpp.util.PacketStatus;
+import com.adenki.smpp.util.StripedCounter;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * Traffic and latency metrics of one session.
+ * <p>
+ * The session counts every packet it writes to and reads from its link
+ * by command ID, and every response it receives by command status. It
+ * records the time taken to receive the response to each request sent
+ * with {@link Session#sendAsync(SMPPPacket)}, the round-trip time of
+ * keepalive <code>enquire_link</code>s and, when a
+ * {@link com.adenki.smpp.event.TaskExecutorEventDispatcher} is used, the
+ * time received packets and events wait for a dispatcher thread.
+ * Counters are {@link StripedCounter}s and latencies are recorded in
+ * {@link LatencyHistogram}s, so recording never takes a lock and sending
+ * threads do not contend on the metrics.
+ * </p>
+ * <p>
+ * The metrics can be published as a JMX MBean named
+ * <code>com.adenki.smpp:type=Session,name=</code><em>sessionId</em>
+ * with {@link #registerMBean()}. Sessions register their metrics when
+ * they are created or bound if the {@link APIConfig#METRICS_JMX}
+ * property is set, and unregister them once they are finally unbound:
+ * when the receiver exits and the session is not being reconnected, when
+ * a reconnect gives up, or when the link is closed.
+ * </p>
+ * @version $Id$
+ */
+public class SessionMetrics implements SessionMetricsMBean {
+    private static final Logger LOG = LoggerFactory.getLogger(SessionMetrics.class);
+
+    /**
+     * The domain of the names the metrics are registered under.
+     */
+    public static final String JMX_DOMAIN = "com.adenki.smpp";
+
+    /**
+     * Command IDs and statuses are counted in a slot each up to this
+     * value, and in a shared overflow slot above it.
+     */
+    private static final int SLOTS = 0x400;
+
+    private static final Map<Integer, String> COMMAND_NAMES = constantNames(CommandId.class);
+    private static final Map<Integer, String> STATUS_NAMES = constantNames(PacketStatus.class);
+
+    private final SessionImpl session;
+    private final StripedCounter sentTotal = new StripedCounter();
+    private final StripedCounter receivedTotal = new StripedCounter();
+    private final AtomicReferenceArray<StripedCounter> sent =
+        new AtomicReferenceArray<StripedCounter>(SLOTS + 1);
+    private final AtomicReferenceArray<StripedCounter> received =
+        new AtomicReferenceArray<StripedCounter>(SLOTS + 1);
+    private final AtomicReferenceArray<StripedCounter> statuses =
+        new AtomicReferenceArray<StripedCounter>(SLOTS + 1);
+    private final LatencyHistogram responseLatency = new LatencyHistogram();
+    private final LatencyHistogram enquireLinkLatency = new LatencyHistogram();
+    private final LatencyHistogram dispatchQueueTime = new LatencyHistogram();
+    private ObjectName objectName;
+
+    SessionMetrics(SessionImpl session) {
+        this.session = session;
+    }
+
+    /**
+     * Count a packet written to the link.
+     * @param packet The packet that was sent.
+     */
+    public void packetSent(SMPPPacket packet) {
+        sentTotal.increment();
+        counter(sent, commandSlot(packet.getCommandId())).increment();
+    }
+
+    /**
+     * Count a packet read from the link.
+     * @param packet The packet that was received.
+     */
+    public void packetReceived(SMPPPacket packet) {
+        receivedTotal.increment();
+        counter(received, commandSlot(packet.getCommandId())).increment();
+        if (packet.isResponse()) {
+            counter(statuses, statusSlot(packet.getCommandStatus())).increment();
+        }
+    }
+
+    /**
+     * Get the number of packets sent with a command ID.
+     * @param commandId The command ID.
+     * @return The number of packets sent.
+     */
+    public long getSentCount(int commandId) {
+        return count(sent, commandSlot(commandId));
+    }
+
+    /**
+     * Get the number of packets received with a command ID.
+     * @param commandId The command ID.
+     * @return The number of packets received.
+     */
+    public long getReceivedCount(int commandId) {
+        return count(received, commandSlot(commandId));
+    }
+
+    /**
+     * Get the number of responses received with a command status.
+     * @param status The command status.
+     * @return The number of responses received.
+     */
+    public long getStatusCount(int status) {
+        return count(statuses, statusSlot(status));
+    }
+
+    /**
+     * Get the histogram of the time, in nanoseconds, taken to receive the
+     * response to requests sent with {@link Session#sendAsync(SMPPPacket)}.
+     * @return The response latency histogram.
+     */
+    public LatencyHistogram getResponseLatency() {
+        return responseLatency;
+    }
+
+    /**
+     * Get the histogram of round-trip times, in nanoseconds, of keepalive
+     * <code>enquire_link</code>s.
+     * @return The enquire_link latency histogram.
+     */
+    public LatencyHistogram getEnquireLinkLatency() {
+        return enquireLinkLatency;
+    }
+
+    /**
+     * Get the histogram of the time, in nanoseconds, received packets and
+     * events wait to be dispatched to observers.
+     * @return The dispatch queue time histogram.
+     */
+    public LatencyHistogram getDispatchQueueTime() {
+        return dispatchQueueTime;
+    }
+
+    public String getSessionId() {
+        return session.getSessionId();
+    }
+
+    public String getState() {
+        return session.getState().toString();
+    }
+
+    public long getPacketsSent() {
+        return sentTotal.get();
+    }
+
+    public long getPacketsReceived() {
+        return receivedTotal.get();
+    }
+
+    public Map<String, Long> getSentByCommand() {
+        return snapshot(sent, COMMAND_NAMES, true);
+    }
+
+    public Map<String, Long> getReceivedByCommand() {
+        return snapshot(received, COMMAND_NAMES, true);
+    }
+
+    public Map<String, Long> getResponsesByStatus() {
+        return snapshot(statuses, STATUS_NAMES, false);
+    }
+
+    public int getOutstandingRequests() {
+        return session.getOutstandingRequests();
+    }
+
+    public int getWindowSize() {
+        return session.getWindowSize();
+    }
+
+    public int getOutboundQueueSize() {
+        return session.getOutboundQueueSize();
+    }
+
+    public long getResponseLatencyMean() {
+        return (long) responseLatency.getMean() / 1000L;
+    }
+
+    public long getResponseLatency50() {
+        return responseLatency.getPercentile(50.0) / 1000L;
+    }
+
+    public long getResponseLatency99() {
+        return responseLatency.getPercentile(99.0) / 1000L;
+    }
+
+    public long getResponseLatencyMax() {
+        return responseLatency.getMax() / 1000L;
+    }
+
+    public long getEnquireLinkLatencyMean() {
+        return (long) enquireLinkLatency.getMean() / 1000L;
+    }
+
+    public long getEnquireLinkLatency99() {
+        return enquireLinkLatency.getPercentile(99.0) / 1000L;
+    }
+
+    public long getDispatchQueueTimeMean() {
+        return (long) dispatchQueueTime.getMean() / 1000L;
+    }
+
+    public long getDispatchQueueTime99() {
+        return dispatchQueueTime.getPercentile(99.0) / 1000L;
+    }
+
+    public void reset() {
+        sentTotal.reset();
+        receivedTotal.reset();
+        for (int i = 0; i <= SLOTS; i++) {
+            reset(sent, i);
+            reset(received, i);
+            reset(statuses, i);
+        }
+        responseLatency.reset();
+        enquireLinkLatency.reset();
+        dispatchQueueTime.reset();
+    }
+
+    /**
+     * Get the name the metrics are registered under.
+     * @return The JMX object name of the metrics.
+     */
+    public ObjectName getObjectName() {
+        try {
+            return new ObjectName(JMX_DOMAIN + ":type=Session,name="
+                    + ObjectName.quote(session.getSessionId()));
+        } catch (JMException x) {
+            throw new IllegalStateException(x.toString());
+        }
+    }
+
+    /**
+     * Register the metrics with the platform MBean server. Failures are
+     * logged and otherwise ignored.
+     */
+    public synchronized void registerMBean() {
+        if (objectName != null) {
+            return;
+        }
+        ObjectName name = getObjectName();
+        try {
+            MBeanServer server = ManagementFactory.getPlatformMBeanServer();
+            server.registerMBean(this, name);
+            objectName = name;
+        } catch (JMException x) {
+            LOG.warn("Could not register the metrics of {}", getSessionId(), x);
+        }
+    }
+
+    /**
+     * Unregister the metrics from the platform MBean server, if they are
+     * registered.
+     */
+    public synchronized void unregisterMBean() {
+        if (objectName == null) {
+            return;
+        }
+        try {
+            ManagementFactory.getPlatformMBeanServer().unregisterMBean(objectName);
+        } catch (JMException x) {
+            LOG.debug("Could not unregister the metrics of {}", getSessionId(), x);
+        }
+        objectName = null;
+    }
+
+    public synchronized boolean isRegistered() {
+        return objectName != null;
+    }
+
+    private static int commandSlot(int commandId) {
+        int id = commandId & ~CommandId.GENERIC_NACK;
+        if (id >= SLOTS / 2) {
+            return SLOTS;
+        }
+        return commandId < 0 ? id + SLOTS / 2 : id;
+    }
+
+    private static int statusSlot(int status) {
+        return status >= 0 && status < SLOTS ? status : SLOTS;
+    }
+
+    private static int commandId(int slot) {
+        return slot >= SLOTS / 2 ? (slot - SLOTS / 2) | CommandId.GENERIC_NACK : slot;
+    }
+
+    private static StripedCounter counter(
+            AtomicReferenceArray<StripedCounter> counters, int slot) {
+        StripedCounter counter = counters.get(slot);
+        if (counter == null) {
+            counters.compareAndSet(slot, null, new StripedCounter());
+            counter = counters.get(slot);
+        }
+        return counter;
+    }
+
+    private static long count(AtomicReferenceArray<StripedCounter> counters, int slot) {
+        StripedCounter counter = counters.get(slot);
+        return counter != null ? counter.get() : 0L;
+    }
+
+    private static void reset(AtomicReferenceArray<StripedCounter> counters, int slot) {
+        StripedCounter counter = counters.get(slot);
+        if (counter != null) {
+            counter.reset();
+        }
+    }
+
+    private static Map<String, Long> snapshot(AtomicReferenceArray<StripedCounter> counters,
+            Map<Integer, String> names, boolean commands) {
+        Map<String, Long> snapshot = new TreeMap<String, Long>();
+        for (int slot = 0; slot <= SLOTS; slot++) {
+            StripedCounter counter = counters.get(slot);
+            if (counter == null) {
+                continue;
+            }
+            String name;
+            if (slot == SLOTS) {
+                name = "OTHER";
+            } else {
+                int value = commands ? commandId(slot) : slot;
+                name = names.get(Integer.valueOf(value));
+                if (name == null) {
+                    name = "0x" + Integer.toHexString(value);
+                }
+            }
+            snapshot.put(name, Long.valueOf(counter.get()));
+        }
+        return snapshot;
+    }
+
+    /**
+     * Map the values of the <code>public static final int</code> fields of
+     * a class to the field names.
+     */
+    private static Map<Integer, String> constantNames(Class<?> type) {
+        Map<Integer, String> names = new HashMap<Integer, String>();
+        for (Field field : type.getFields()) {
+            int modifiers = field.getModifiers();
+            if (field.getType() == int.class && Modifier.isStatic(modifiers)
+                    && Modifier.isFinal(modifiers)) {
+                try {
+                    Integer value = Integer.valueOf(field.getInt(null));
+                    if (!names.containsKey(value)) {
+                        names.put(value, field.getName());
+                    }
+                } catch (IllegalAccessException x) {
+                    // Public fields are always accessible.
+                }
+            }
+        }
+        return names;
+    }
+}
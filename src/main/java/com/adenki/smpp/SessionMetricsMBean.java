@@ -0,0 +1,63 @@
+package com.adenki.smpp;
+
+import java.util.Map;
+
+/**
+ * Management interface of {@link SessionMetrics}. Latencies are reported
+ * in microseconds.
+ * @version $Id$
+ */
+public interface SessionMetricsMBean {
+    String getSessionId();
+
+    String getState();
+
+    long getPacketsSent();
+
+    long getPacketsReceived();
+
+    /**
+     * Get the number of packets sent, keyed by command name.
+     * @return The packets sent per command.
+     */
+    Map<String, Long> getSentByCommand();
+
+    /**
+     * Get the number of packets received, keyed by command name.
+     * @return The packets received per command.
+     */
+    Map<String, Long> getReceivedByCommand();
+
+    /**
+     * Get the number of responses received, keyed by command status name.
+     * @return The responses received per command status.
+     */
+    Map<String, Long> getResponsesByStatus();
+
+    int getOutstandingRequests();
+
+    int getWindowSize();
+
+    int getOutboundQueueSize();
+
+    long getResponseLatencyMean();
+
+    long getResponseLatency50();
+
+    long getResponseLatency99();
+
+    long getResponseLatencyMax();
+
+    long getEnquireLinkLatencyMean();
+
+    long getEnquireLinkLatency99();
+
+    long getDispatchQueueTimeMean();
+
+    long getDispatchQueueTime99();
+
+    /**
+     * Reset every counter and histogram.
+     */
+    void reset();
+}
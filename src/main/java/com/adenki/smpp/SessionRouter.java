@@ -0,0 +1,26 @@
+package com.adenki.smpp;
+
+import java.util.List;
+
+import com.adenki.smpp.message.SMPPPacket;
+
+/**
+ * Strategy used by a {@link SessionGroup} to choose which of its sessions
+ * a packet is sent on. Implementations must be thread-safe.
+ * @version $Id$
+ * @see LeastOutstandingRouter
+ * @see LeastLatencyRouter
+ * @see ConsistentHashRouter
+ */
+public interface SessionRouter {
+    /**
+     * Choose the session to send a packet on.
+     * @param sessions The group members that are bound and healthy, in the
+     * order they were added to the group. This list is never empty.
+     * @param packet The packet to be sent.
+     * @param key The routing key supplied by the caller, or
+     * <code>null</code>. Routers that do not route by key ignore it.
+     * @return One of the sessions in <code>sessions</code>.
+     */
+    SessionImpl select(List<SessionImpl> sessions, SMPPPacket packet, Object key);
+}
@@ -0,0 +1,138 @@
+package com.adenki.smpp;
+
+import java.io.IOException;
+import java.util.Random;
+import java.util.concurrent.TimeUnit;
+
+import com.adenki.smpp.util.SharedExecutors;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * Reconnects and rebinds a session whose receiver has exited without the
+ * session being unbound, then sends the requests that were held for
+ * replay while it was down.
+ * <p>
+ * Reconnect attempts are made on the
+ * {@link SharedExecutors#getWorkers() background threads} shared by all
+ * sessions, with the original bind request, after the delays given by
+ * the session&apos;s {@link ReconnectPolicy}. An attempt fails if the
+ * link cannot be connected, the bind cannot be sent or the receiver exits
+ * again before the session is bound, for example because the bind was
+ * rejected or timed out; the next attempt is then scheduled. Once the
+ * session is bound again the attempt count is reset and held requests are
+ * replayed on a background thread.
+ * </p>
+ * @version $Id$
+ */
+final class SessionSupervisor {
+    private static final Logger LOG = LoggerFactory.getLogger(SessionSupervisor.class);
+
+    private final SessionImpl session;
+    private final ReconnectPolicy policy;
+    private final Random random = new Random();
+    private volatile boolean reconnecting;
+    private volatile boolean stopped;
+    private int attempts;
+
+    private final Runnable attemptTask = new Runnable() {
+        public void run() {
+            attempt();
+        }
+    };
+
+    private final Runnable replayTask = new Runnable() {
+        public void run() {
+            session.replayHeldRequests();
+        }
+    };
+
+    SessionSupervisor(SessionImpl session, ReconnectPolicy policy) {
+        this.session = session;
+        this.policy = policy;
+    }
+
+    ReconnectPolicy getPolicy() {
+        return policy;
+    }
+
+    /**
+     * Determine if the session has lost its connection and is waiting to
+     * be rebound.
+     * @return <code>true</code> while the session is reconnecting.
+     */
+    boolean isReconnecting() {
+        return reconnecting;
+    }
+
+    /**
+     * Called when the session&apos;s receiver has exited without the
+     * session being unbound. Schedules the next reconnect attempt.
+     * @return <code>true</code> if a reconnect was scheduled,
+     * <code>false</code> if the supervisor has stopped or given up.
+     */
+    synchronized boolean receiverExited() {
+        if (stopped) {
+            reconnecting = false;
+            return false;
+        }
+        attempts++;
+        if (!policy.isAllowed(attempts)) {
+            LOG.error("Giving up reconnecting {} after {} attempts",
+                    session.getSessionId(), attempts - 1);
+            reconnecting = false;
+            return false;
+        }
+        reconnecting = true;
+        long delay = policy.getDelay(attempts, random);
+        LOG.info("Reconnecting {} in {}ms (attempt {})",
+                new Object[] {session.getSessionId(), delay, attempts});
+        SharedExecutors.scheduleWork(attemptTask, delay, TimeUnit.MILLISECONDS);
+        return true;
+    }
+
+    /**
+     * Called when the session has received a successful bind response.
+     */
+    void bound() {
+        synchronized (this) {
+            attempts = 0;
+        }
+        if (reconnecting) {
+            LOG.info("{} has reconnected", session.getSessionId());
+            reconnecting = false;
+            SharedExecutors.execute(replayTask);
+        }
+    }
+
+    /**
+     * Stop supervising the session. A reconnect attempt that has already
+     * been scheduled does nothing.
+     */
+    void stop() {
+        stopped = true;
+    }
+
+    private void attempt() {
+        if (stopped || session.isUnbindRequested()) {
+            giveUp();
+            return;
+        }
+        try {
+            session.rebind();
+            return;
+        } catch (IOException x) {
+            LOG.warn("Could not reconnect {}: {}", session.getSessionId(), x.toString());
+        } catch (RuntimeException x) {
+            LOG.warn("Could not reconnect " + session.getSessionId(), x);
+        }
+        if (!receiverExited()) {
+            giveUp();
+        }
+    }
+
+    private void giveUp() {
+        reconnecting = false;
+        session.reconnectFailed();
+    }
+}
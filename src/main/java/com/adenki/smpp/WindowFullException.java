@@ -0,0 +1,22 @@
+package com.adenki.smpp;
+
+/**
+ * Thrown by {@link Session#sendAsync(com.adenki.smpp.message.SMPPPacket)}
+ * when the session already has the maximum number of requests outstanding
+ * and no space became available in the window within the configured wait
+ * time.
+ * @version $Id$
+ * @see com.adenki.smpp.util.APIConfig#CONNECTION_WINDOW_SIZE
+ * @see com.adenki.smpp.util.APIConfig#CONNECTION_WINDOW_WAIT
+ */
+public class WindowFullException extends SMPPRuntimeException {
+    static final long serialVersionUID = 2L;
+
+    public WindowFullException() {
+        super();
+    }
+
+    public WindowFullException(String msg) {
+        super(msg);
+    }
+}
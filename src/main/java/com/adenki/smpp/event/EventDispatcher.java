@@ -83,6 +83,12 @@ public interface EventDispatcher {
 
     /**
      * Notify all registered observers of a received SMPP packet.
+     * <p>
+     * The receiver {@link SMPPPacket#release() releases} the packet when
+     * this method returns. Implementations that deliver the packet after
+     * returning must {@link SMPPPacket#retain() retain} it first and
+     * release it once every observer has been called.
+     * </p>
      * 
      * @param packet
      *            the SMPP packet to notify observers of.
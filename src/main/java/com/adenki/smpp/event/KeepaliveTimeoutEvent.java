@@ -0,0 +1,55 @@
+package com.adenki.smpp.event;
+
+import com.adenki.smpp.Session;
+import com.adenki.smpp.message.SMPPPacket;
+
+/**
+ * Event generated when an enquire_link sent by the keepalive service is
+ * not answered within the keepalive timeout. This usually means the
+ * network connection to the SMSC has been silently dropped. If the session
+ * is {@link com.adenki.smpp.SessionImpl#setReconnectPolicy supervised}, its
+ * link is closed after the event is delivered so that it is reconnected.
+ * Otherwise the session is left as it is and it is up to the application
+ * to decide whether to close the link and rebind.
+ * 
+ * @version $Id$
+ * @see com.adenki.smpp.SessionImpl#setKeepalive(long, long)
+ */
+public class KeepaliveTimeoutEvent extends SMPPEvent {
+    /**
+     * The enquire_link that was not answered.
+     */
+    private SMPPPacket request;
+
+    /**
+     * The number of milliseconds the session waited for the response.
+     */
+    private long timeout;
+
+    /**
+     * Create a new KeepaliveTimeoutEvent.
+     * 
+     * @param source The source Connection of this event.
+     * @param request The enquire_link that was not answered.
+     * @param timeout The number of milliseconds waited for the response.
+     */
+    public KeepaliveTimeoutEvent(Session source, SMPPPacket request, long timeout) {
+        super(KEEPALIVE_TIMEOUT, source);
+        this.request = request;
+        this.timeout = timeout;
+    }
+
+    /**
+     * Get the enquire_link that was not answered.
+     */
+    public SMPPPacket getRequest() {
+        return request;
+    }
+
+    /**
+     * Get the number of milliseconds the session waited for the response.
+     */
+    public long getTimeout() {
+        return timeout;
+    }
+}
@@ -17,6 +17,9 @@ public abstract class SMPPEvent {
     /** ReceiverExceptionEvent enumeration type. */
     public static final int RECEIVER_EXCEPTION = 4;
 
+    /** KeepaliveTimeoutEvent enumeration type. */
+    public static final int KEEPALIVE_TIMEOUT = 5;
+
     /** The source Connection of this event. */
     private Session source;
 
@@ -44,6 +47,7 @@ public abstract class SMPPEvent {
      * 
      * @see #RECEIVER_EXIT
      * @see #RECEIVER_EXCEPTION
+     * @see #KEEPALIVE_TIMEOUT
      */
     public int getType() {
         return type;
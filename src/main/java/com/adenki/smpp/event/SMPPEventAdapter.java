@@ -66,6 +66,10 @@ public abstract class SMPPEventAdapter implements SessionObserver {
                 receiverException(source, (ReceiverExceptionEvent) event);
                 break;
 
+            case SMPPEvent.KEEPALIVE_TIMEOUT:
+                keepaliveTimeout(source, (KeepaliveTimeoutEvent) event);
+                break;
+
             default:
                 userEvent(source, event);
             }
@@ -157,6 +161,21 @@ public abstract class SMPPEventAdapter implements SessionObserver {
         // default: do nothing
     }
 
+    /**
+     * An enquire_link sent by the keepalive service was not answered in
+     * time. The connection to the SMSC may have been lost. The link of a
+     * supervised session is closed by the API so that it is reconnected;
+     * any other session is left open.
+     * 
+     * @param source
+     *            the source connection of the event.
+     * @param kte
+     *            the keepalive timeout event received from the API.
+     */
+    public void keepaliveTimeout(Session source, KeepaliveTimeoutEvent kte) {
+        // default: do nothing
+    }
+
     /**
      * PLACEHOLDER. This method will currently never be called.
      */
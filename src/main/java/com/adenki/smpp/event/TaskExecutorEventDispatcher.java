@@ -5,6 +5,7 @@ import java.util.concurrent.ExecutorService;
 import java.util.concurrent.Executors;
 
 import com.adenki.smpp.Session;
+import com.adenki.smpp.SessionImpl;
 import com.adenki.smpp.message.SMPPPacket;
 import com.adenki.smpp.util.APIConfig;
 import com.adenki.smpp.util.APIConfigFactory;
@@ -24,6 +25,11 @@ import org.slf4j.LoggerFactory;
  * be consulted for the {@link APIConfig#EVENT_THREAD_POOL_SIZE} property. If
  * no value is set there, then a default value of <tt>3</tt> will be used.
  * </p>
+ * <p>
+ * The time each packet and event waits for a thread is recorded in the
+ * {@link com.adenki.smpp.SessionMetrics#getDispatchQueueTime() metrics} of
+ * the session it came from.
+ * </p>
  */
 public class TaskExecutorEventDispatcher extends AbstractEventDispatcher {
     private static final Logger LOG =
@@ -50,8 +56,10 @@ public class TaskExecutorEventDispatcher extends AbstractEventDispatcher {
 
     public void notifyObservers(final Session conn, final SMPPEvent event) {
         final SessionObserver[] observers = getObserverList();
+        final long queued = System.nanoTime();
         executor.execute(new Runnable() {
             public void run() {
+                recordQueueTime(conn, queued);
                 doUpdate(observers, conn, event);
             }
         });
@@ -59,11 +67,24 @@ public class TaskExecutorEventDispatcher extends AbstractEventDispatcher {
 
     public void notifyObservers(final Session conn, final SMPPPacket packet) {
         final SessionObserver[] observers = getObserverList();
-        executor.execute(new Runnable() {
-            public void run() {
-                doPacketReceived(observers, conn, packet);
-            }
-        });
+        final long queued = System.nanoTime();
+        // Keep a pooled packet until the observers have seen it.
+        packet.retain();
+        try {
+            executor.execute(new Runnable() {
+                public void run() {
+                    try {
+                        recordQueueTime(conn, queued);
+                        doPacketReceived(observers, conn, packet);
+                    } finally {
+                        packet.release();
+                    }
+                }
+            });
+        } catch (RuntimeException x) {
+            packet.release();
+            throw x;
+        }
     }
 
     /**
@@ -84,6 +105,13 @@ public class TaskExecutorEventDispatcher extends AbstractEventDispatcher {
         this.executor = executor;
     }
     
+    private void recordQueueTime(Session session, long queued) {
+        if (session instanceof SessionImpl) {
+            ((SessionImpl) session).getMetrics().getDispatchQueueTime().record(
+                    System.nanoTime() - queued);
+        }
+    }
+
     private void doUpdate(SessionObserver[] observers, Session session, SMPPEvent event) {
         for (SessionObserver observer : observers) {
             try {
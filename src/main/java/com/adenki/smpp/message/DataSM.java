@@ -31,50 +31,62 @@ public class DataSM extends SMPPPacket {
     }
 
     public int getDataCoding() {
+        decodeBody();
         return dataCoding;
     }
 
     public void setDataCoding(int dataCoding) {
+        decodeBody();
         this.dataCoding = dataCoding;
     }
 
     public Address getDestination() {
+        decodeBody();
         return destination;
     }
 
     public void setDestination(Address destination) {
+        decodeBody();
         this.destination = destination;
     }
 
     public int getEsmClass() {
+        decodeBody();
         return esmClass;
     }
 
     public void setEsmClass(int esmClass) {
+        decodeBody();
         this.esmClass = esmClass;
     }
 
     public String getServiceType() {
+        decodeBody();
         return serviceType;
     }
 
     public void setServiceType(String serviceType) {
+        decodeBody();
         this.serviceType = serviceType;
     }
 
     public Address getSource() {
+        decodeBody();
         return source;
     }
 
     public void setSource(Address source) {
+        decodeBody();
         this.source = source;
     }
 
     public int getRegistered() {
+        decodeBody();
         return registered;
     }
 
     public void setRegistered(int registered) {
+        decodeBody();
         this.registered = registered;
     }
 
@@ -125,6 +137,21 @@ public class DataSM extends SMPPPacket {
         smppVersion.validateDataCoding(dataCoding);
     }
 
+    @Override
+    protected boolean isLazilyDecodable() {
+        return true;
+    }
+
+    @Override
+    protected void resetMandatory() {
+        serviceType = null;
+        source = null;
+        destination = null;
+        esmClass = 0;
+        registered = 0;
+        dataCoding = 0;
+    }
+
     @Override
     protected void readMandatory(PacketDecoder decoder) {
         serviceType = decoder.readCString();
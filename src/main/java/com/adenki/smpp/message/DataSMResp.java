@@ -35,10 +35,12 @@ public class DataSMResp extends SMPPPacket {
     }
 
     public String getMessageId() {
+        decodeBody();
         return messageId;
     }
 
     public void setMessageId(String messageId) {
+        decodeBody();
         this.messageId = messageId;
     }
     
@@ -69,6 +71,16 @@ public class DataSMResp extends SMPPPacket {
         smppVersion.validateMessageId(messageId);
     }
 
+    @Override
+    protected boolean isLazilyDecodable() {
+        return true;
+    }
+
+    @Override
+    protected void resetMandatory() {
+        messageId = null;
+    }
+
     @Override
     protected void readMandatory(PacketDecoder decoder) {
         messageId = decoder.readCString();
@@ -0,0 +1,186 @@
+package com.adenki.smpp.message;
+
+import java.util.HashMap;
+import java.util.Map;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.atomic.AtomicLong;
+
+import com.adenki.smpp.util.APIConfig;
+import com.adenki.smpp.util.APIConfigFactory;
+
+/**
+ * A pool of packet objects that are recycled rather than left for the
+ * garbage collector. Each pooled packet type has its own bounded pool of
+ * idle packets.
+ * <p>
+ * A {@link com.adenki.smpp.util.PacketFactory} with a pool takes packets of
+ * the pooled types from it, allocating new ones when the pool is empty.
+ * Such packets are owned once by whoever decoded them and go back to the
+ * pool, {@link SMPPPacket#reset() reset}, when they have been
+ * {@link SMPPPacket#release() released} as many times as they were
+ * owned. Receivers release the packets they read once every observer has
+ * been called; observers that keep a packet must
+ * {@link SMPPPacket#retain() retain} it.
+ * </p>
+ * <p>
+ * Only packet types whose {@link SMPPPacket#resetMandatory()} clears
+ * every mandatory parameter should be pooled. The default types are
+ * <code>deliver_sm</code>, <code>submit_sm</code>, <code>data_sm</code>
+ * and <code>enquire_link</code> and their responses.
+ * </p>
+ * @version $Id$
+ * @see APIConfig#PACKET_POOL_CAPACITY
+ */
+public final class PacketPool {
+    /**
+     * The command IDs pooled by default.
+     */
+    public static final int[] DEFAULT_COMMAND_IDS = {
+        CommandId.DELIVER_SM,
+        CommandId.DELIVER_SM_RESP,
+        CommandId.SUBMIT_SM,
+        CommandId.SUBMIT_SM_RESP,
+        CommandId.DATA_SM,
+        CommandId.DATA_SM_RESP,
+        CommandId.ENQUIRE_LINK,
+        CommandId.ENQUIRE_LINK_RESP,
+    };
+
+    private final Map<Integer, BlockingQueue<SMPPPacket>> pools =
+        new HashMap<Integer, BlockingQueue<SMPPPacket>>();
+    private final AtomicLong hits = new AtomicLong();
+    private final AtomicLong misses = new AtomicLong();
+
+    /**
+     * Create a pool of the {@link #DEFAULT_COMMAND_IDS default} packet
+     * types.
+     * @param capacity The maximum number of idle packets kept per type.
+     */
+    public PacketPool(int capacity) {
+        this(capacity, DEFAULT_COMMAND_IDS);
+    }
+
+    /**
+     * Create a pool.
+     * @param capacity The maximum number of idle packets kept per type.
+     * @param commandIds The command IDs of the packet types to pool.
+     */
+    public PacketPool(int capacity, int[] commandIds) {
+        if (capacity < 1) {
+            throw new IllegalArgumentException("Capacity must be positive");
+        }
+        for (int commandId : commandIds) {
+            pools.put(Integer.valueOf(commandId),
+                    new ArrayBlockingQueue<SMPPPacket>(capacity));
+        }
+    }
+
+    /**
+     * Get the pool shared by every packet factory, as configured by the
+     * {@link APIConfig#PACKET_POOL_CAPACITY} property.
+     * @return The shared pool, or <code>null</code> if pooling is not
+     * enabled.
+     */
+    public static PacketPool getDefault() {
+        return DefaultPool.INSTANCE;
+    }
+
+    /**
+     * Determine if a packet type is pooled.
+     * @param commandId The command ID of the packet type.
+     * @return <code>true</code> if packets of the type are pooled.
+     */
+    public boolean isPooled(int commandId) {
+        return pools.containsKey(Integer.valueOf(commandId));
+    }
+
+    /**
+     * Take an idle packet from the pool.
+     * @param commandId The command ID of the packet type.
+     * @return A packet owned by the caller, or <code>null</code> if the
+     * type is not pooled or no idle packet is available.
+     */
+    public SMPPPacket acquire(int commandId) {
+        BlockingQueue<SMPPPacket> pool = pools.get(Integer.valueOf(commandId));
+        if (pool == null) {
+            return null;
+        }
+        SMPPPacket packet = pool.poll();
+        if (packet == null) {
+            misses.incrementAndGet();
+            return null;
+        }
+        hits.incrementAndGet();
+        packet.setPool(this);
+        return packet;
+    }
+
+    /**
+     * Make a newly-created packet part of this pool, so that it is
+     * recycled when released. Packets of types that are not pooled are
+     * left alone.
+     * @param packet The packet, owned by the caller.
+     * @return The packet.
+     */
+    public SMPPPacket adopt(SMPPPacket packet) {
+        if (isPooled(packet.getCommandId()) && !packet.isPooled()) {
+            packet.setPool(this);
+        }
+        return packet;
+    }
+
+    /**
+     * Get the number of packets taken from the pool rather than
+     * allocated.
+     * @return The number of reused packets.
+     */
+    public long getHits() {
+        return hits.get();
+    }
+
+    /**
+     * Get the number of times a pooled type was requested but no idle
+     * packet was available.
+     * @return The number of misses.
+     */
+    public long getMisses() {
+        return misses.get();
+    }
+
+    /**
+     * Get the number of idle packets of a type.
+     * @param commandId The command ID of the packet type.
+     * @return The number of idle packets.
+     */
+    public int getIdleCount(int commandId) {
+        BlockingQueue<SMPPPacket> pool = pools.get(Integer.valueOf(commandId));
+        return pool != null ? pool.size() : 0;
+    }
+
+    /**
+     * Called by a packet once it has been released by every owner.
+     */
+    void recycle(SMPPPacket packet) {
+        packet.reset();
+        BlockingQueue<SMPPPacket> pool = pools.get(Integer.valueOf(packet.getCommandId()));
+        if (pool != null) {
+            // If the pool is full, the packet is left for the garbage
+            // collector.
+            pool.offer(packet);
+        }
+    }
+
+    /**
+     * Holder for the shared pool, created on first use.
+     */
+    private static final class DefaultPool {
+        static final PacketPool INSTANCE = create();
+
+        private static PacketPool create() {
+            APIConfig config = APIConfigFactory.getConfig();
+            int capacity = config.getInt(APIConfig.PACKET_POOL_CAPACITY, 0);
+            return capacity > 0 ? new PacketPool(capacity) : null;
+        }
+    }
+}
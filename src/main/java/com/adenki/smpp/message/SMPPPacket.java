@@ -1,14 +1,17 @@
 package com.adenki.smpp.message;
 
 import java.io.IOException;
+import java.io.ObjectOutputStream;
 import java.io.Serializable;
+import java.util.concurrent.atomic.AtomicIntegerFieldUpdater;
 
 import com.adenki.smpp.Address;
 import com.adenki.smpp.SMPPRuntimeException;
+import com.adenki.smpp.message.tlv.CompactTLVTable;
 import com.adenki.smpp.message.tlv.TLVTable;
-import com.adenki.smpp.message.tlv.TLVTableImpl;
 import com.adenki.smpp.message.tlv.Tag;
 import com.adenki.smpp.util.PacketDecoder;
+import com.adenki.smpp.util.PacketDecoderImpl;
 import com.adenki.smpp.util.PacketEncoder;
 import com.adenki.smpp.util.SMPPDate;
 import com.adenki.smpp.version.SMPPVersion;
@@ -16,11 +19,29 @@ import com.adenki.smpp.version.VersionException;
 
 /**
  * This is the abstract class that all SMPP messages are inherited from.
- * 
+ * <p>
+ * Packets read from a link may come from a {@link PacketPool}. A pooled
+ * packet is returned to its pool once it has been {@link #release()
+ * released} as many times as it was {@link #retain() retained}, plus once
+ * by the receiver that read it. Code that keeps a received packet beyond
+ * the observer callback it was delivered to must retain it and release it
+ * when done. For packets that are not pooled, which is every packet unless
+ * pooling has been enabled, <code>retain</code> and <code>release</code>
+ * do nothing.
+ * </p>
+ * <p>
+ * Packet types that support it may also be {@link #readLazilyFrom(byte[])
+ * read lazily}: only the header is decoded, and the mandatory and optional
+ * parameters are decoded from the retained packet bytes the first time
+ * any of them is used. A packet that is forwarded without its parameters
+ * having been used is re-encoded from those bytes.
+ * </p>
  * @version $Id$
  */
 public abstract class SMPPPacket implements Serializable, Cloneable {
     private static final long serialVersionUID = 2L;
+    private static final AtomicIntegerFieldUpdater<SMPPPacket> REF_COUNT =
+        AtomicIntegerFieldUpdater.newUpdater(SMPPPacket.class, "refCount");
     /** Command ID. */
     protected int commandId;
 
@@ -33,7 +54,17 @@ public abstract class SMPPPacket implements Serializable, Cloneable {
     /**
      * TLV table.
      */
-    protected TLVTable tlvTable = new TLVTableImpl();
+    protected TLVTable tlvTable = new CompactTLVTable();
+
+    /** The pool this packet returns to, if it is pooled. */
+    private transient volatile PacketPool pool;
+
+    private transient volatile int refCount;
+
+    /**
+     * The encoded packet, if its parameters have not been decoded yet.
+     */
+    private transient volatile byte[] undecoded;
 
     /**
      * Create a new SMPPPacket with the specified Id. This version of the
@@ -116,12 +147,76 @@ public abstract class SMPPPacket implements Serializable, Cloneable {
         this.sequenceNum = sequenceNum;
     }
 
+    /**
+     * Determine if this packet belongs to a {@link PacketPool}.
+     * @return <code>true</code> if this packet will be recycled when it is
+     * released.
+     */
+    public boolean isPooled() {
+        return pool != null;
+    }
+
+    /**
+     * Keep this packet from being recycled until a matching call to
+     * {@link #release()}.
+     * @return This packet.
+     */
+    public SMPPPacket retain() {
+        if (pool != null) {
+            REF_COUNT.incrementAndGet(this);
+        }
+        return this;
+    }
+
+    /**
+     * Release this packet. A pooled packet is reset and returned to its
+     * pool when it has been released once more than it was retained; it
+     * must not be used after that.
+     * @throws IllegalStateException If a pooled packet is released more
+     * times than it was retained.
+     */
+    public void release() {
+        PacketPool owner = pool;
+        if (owner == null) {
+            return;
+        }
+        int count = REF_COUNT.decrementAndGet(this);
+        if (count == 0) {
+            owner.recycle(this);
+        } else if (count < 0) {
+            throw new IllegalStateException("Packet released too many times");
+        }
+    }
+
+    /**
+     * Return this packet to the state it was created in: no status,
+     * sequence number or optional parameters, and mandatory parameters
+     * cleared by {@link #resetMandatory()}.
+     */
+    public void reset() {
+        commandStatus = 0;
+        sequenceNum = -1;
+        undecoded = null;
+        tlvTable.clear();
+        resetMandatory();
+    }
+
+    /**
+     * Called by the pool that takes ownership of this packet.
+     * @param owner The pool.
+     */
+    void setPool(PacketPool owner) {
+        this.pool = owner;
+        this.refCount = 1;
+    }
+
     /**
      * Get the optional parameter (TLV) table.
      * 
      * @see com.adenki.smpp.message.tlv.TLVTable
      */
     public TLVTable getTLVTable() {
+        decodeBody();
         return tlvTable;
     }
 
@@ -138,6 +233,7 @@ public abstract class SMPPPacket implements Serializable, Cloneable {
      * @see TLVTable#put
      */
     public Object setTLV(Tag tag, Object value) {
+        decodeBody();
         return tlvTable.put(tag, value);
     }
     
@@ -147,6 +243,7 @@ public abstract class SMPPPacket implements Serializable, Cloneable {
      * @param tag the tag of the TLV parameter to get.
      */
     public Object getTLV(Tag tag) {
+        decodeBody();
         return tlvTable.get(tag);
     }
 
@@ -157,6 +254,7 @@ public abstract class SMPPPacket implements Serializable, Cloneable {
      * @return The TLV, if it was set or <code>null</code> if it wasn't.
      */
     public Object removeTLV(Tag tag) {
+        decodeBody();
         return tlvTable.remove(tag);
     }
     
@@ -170,6 +268,7 @@ public abstract class SMPPPacket implements Serializable, Cloneable {
      * @return true if the parameter is set, false if it is not.
      */
     public boolean isSet(Tag tag) {
+        decodeBody();
         return tlvTable.containsKey(tag);
     }
 
@@ -179,6 +278,10 @@ public abstract class SMPPPacket implements Serializable, Cloneable {
      * network.
      */
     public final int getLength() {
+        byte[] pdu = undecoded;
+        if (pdu != null) {
+            return pdu.length;
+        }
         return 16 + getMandatorySize() + tlvTable.getLength();
     }
     
@@ -207,6 +310,17 @@ public abstract class SMPPPacket implements Serializable, Cloneable {
      */
     public final void writeTo(PacketEncoder encoder, boolean withOptional)
             throws IOException {
+        byte[] pdu = undecoded;
+        if (pdu != null && withOptional) {
+            // Nothing but the header can have changed.
+            encoder.writeInt4(pdu.length);
+            encoder.writeInt4(commandId);
+            encoder.writeInt4(commandStatus);
+            encoder.writeUInt4(sequenceNum);
+            encoder.writeBytes(pdu, 16, pdu.length - 16);
+            return;
+        }
+        decodeBody();
         int commandLen = 16 + getMandatorySize();
         if (withOptional) {
             commandLen += tlvTable.getLength();
@@ -237,6 +351,7 @@ public abstract class SMPPPacket implements Serializable, Cloneable {
      * <code>BindTransceiver</code> packet).
      */
     public void readFrom(PacketDecoder decoder) throws SMPPProtocolException {
+        undecoded = null;
         tlvTable.clear();
         int startPos = decoder.getParsePosition();
         int commandLen = readHeader(decoder);
@@ -249,6 +364,52 @@ public abstract class SMPPPacket implements Serializable, Cloneable {
         }
     }
 
+    /**
+     * Decode only the header of an SMPP packet, keeping the packet bytes
+     * to decode the mandatory and optional parameters from when they are
+     * first used. Packet types that do not support lazy decoding, and
+     * packets with a non-zero command status, are decoded immediately as
+     * by {@link #readFrom(PacketDecoder)}.
+     * <p>
+     * The array is kept by this packet and must not be modified
+     * afterwards. An error in the parameters is not detected until they
+     * are decoded, when it is thrown as an <code>SMPPProtocolException
+     * </code> from whichever method caused them to be decoded.
+     * </p>
+     * @param pdu An array holding exactly one encoded packet.
+     * @throws com.adenki.smpp.message.SMPPProtocolException
+     *             If the header is invalid.
+     * @throws SMPPRuntimeException If the array holds a different type of
+     * packet than this class supports.
+     */
+    public void readLazilyFrom(byte[] pdu) throws SMPPProtocolException {
+        PacketDecoder decoder = new PacketDecoderImpl(pdu);
+        if (!isLazilyDecodable()) {
+            readFrom(decoder);
+            return;
+        }
+        undecoded = null;
+        tlvTable.clear();
+        int commandLen = readHeader(decoder);
+        if (commandLen != pdu.length) {
+            throw new SMPPProtocolException("Command length " + commandLen
+                    + " does not match the " + pdu.length + " bytes given");
+        }
+        if (commandStatus == 0) {
+            undecoded = pdu;
+        }
+    }
+
+    /**
+     * Determine if the mandatory and optional parameters of this packet
+     * have been decoded.
+     * @return <code>false</code> if this packet was read lazily and none
+     * of its parameters has been used yet.
+     */
+    public boolean isDecoded() {
+        return undecoded == null;
+    }
+
     /**
      * Validate this packet against an SMPP version. If any part of this
      * packet is in violation of <code>smppVersion</code>, a
@@ -266,6 +427,7 @@ public abstract class SMPPPacket implements Serializable, Cloneable {
      */
     public final void validate(SMPPVersion smppVersion) {
         // TODO: you need to remove the isSupported from Versioning.
+        decodeBody();
         validateMandatory(smppVersion);
         if (smppVersion.isNewerThan(SMPPVersion.VERSION_5_0)) {
             if (!validateTLVTable(smppVersion)) {
@@ -281,6 +443,7 @@ public abstract class SMPPPacket implements Serializable, Cloneable {
      * @return A string representation of this packet.
      */
     public String toString() {
+        decodeBody();
         String packetName = getClass().getSimpleName();
         StringBuilder buffer = new StringBuilder();
         buffer.append(packetName)
@@ -334,7 +497,12 @@ public abstract class SMPPPacket implements Serializable, Cloneable {
     
     @Override
     public Object clone() throws CloneNotSupportedException {
-        return super.clone();
+        decodeBody();
+        SMPPPacket copy = (SMPPPacket) super.clone();
+        // A copy is never returned to the original's pool.
+        copy.pool = null;
+        copy.refCount = 0;
+        return copy;
     }
     
     @Override
@@ -346,6 +514,8 @@ public abstract class SMPPPacket implements Serializable, Cloneable {
             return false;
         }
         SMPPPacket other = (SMPPPacket) obj;
+        decodeBody();
+        other.decodeBody();
         return commandId == other.commandId
                 && commandStatus == other.commandStatus
                 && sequenceNum == other.sequenceNum;
@@ -353,6 +523,7 @@ public abstract class SMPPPacket implements Serializable, Cloneable {
     
     @Override
     public int hashCode() {
+        decodeBody();
         return new Integer(commandId).hashCode()
                 + new Integer(commandStatus).hashCode()
                 + new Long(sequenceNum).hashCode();
@@ -381,6 +552,41 @@ public abstract class SMPPPacket implements Serializable, Cloneable {
     protected void toString(StringBuilder buffer) {
     }
 
+    /**
+     * Determine if this packet type supports
+     * {@link #readLazilyFrom(byte[]) lazy decoding}. Sub-classes that
+     * return <code>true</code> must call {@link #decodeBody()} before
+     * using any of their mandatory parameters outside of
+     * {@link #readMandatory}, {@link #writeMandatory},
+     * {@link #getMandatorySize} and {@link #toString(StringBuilder)}.
+     * This default implementation returns <code>false</code>.
+     * @return <code>true</code> if this packet can be read lazily.
+     */
+    protected boolean isLazilyDecodable() {
+        return false;
+    }
+
+    /**
+     * Decode the mandatory and optional parameters if this packet was
+     * read lazily and they have not been decoded yet.
+     * @throws SMPPProtocolException If the parameters are invalid.
+     */
+    protected final void decodeBody() {
+        if (undecoded != null) {
+            decodeUndecoded();
+        }
+    }
+
+    /**
+     * Clear the mandatory parameters for {@link #reset()}. This default
+     * implementation does nothing. Packets that a {@link PacketPool}
+     * recycles must clear every mandatory parameter that decoding might
+     * not overwrite, which includes the parameters of a response that is
+     * decoded with an error status.
+     */
+    protected void resetMandatory() {
+    }
+
     /**
      * Validate the mandatory parameters for this packet. If any
      * mandatory parameter fails validation, a <code>
@@ -429,6 +635,32 @@ public abstract class SMPPPacket implements Serializable, Cloneable {
         return 0;
     }
     
+    private synchronized void decodeUndecoded() {
+        byte[] pdu = undecoded;
+        if (pdu == null) {
+            return;
+        }
+        try {
+            PacketDecoder decoder = new PacketDecoderImpl(pdu, 16);
+            readMandatory(decoder);
+            int tlvLength = pdu.length - decoder.getParsePosition();
+            if (tlvLength > 0) {
+                tlvTable.readFrom(decoder, tlvLength);
+            }
+        } catch (IndexOutOfBoundsException x) {
+            throw new SMPPProtocolException("Packet parameters are truncated", x);
+        } finally {
+            // A packet that fails to decode is left with whatever was
+            // decoded rather than failing again on every access.
+            undecoded = null;
+        }
+    }
+
+    private void writeObject(ObjectOutputStream out) throws IOException {
+        decodeBody();
+        out.defaultWriteObject();
+    }
+
     /**
      * Parse the header parameters for an SMPP packet.
      * @param decoder The decoder to read fields from.
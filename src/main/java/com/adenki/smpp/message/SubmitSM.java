@@ -43,106 +43,132 @@ public class SubmitSM extends SMPPPacket {
     }
 
     public int getDataCoding() {
+        decodeBody();
         return dataCoding;
     }
 
     public void setDataCoding(int dataCoding) {
+        decodeBody();
         this.dataCoding = dataCoding;
     }
 
     public int getDefaultMsg() {
+        decodeBody();
         return defaultMsg;
     }
 
     public void setDefaultMsg(int defaultMsg) {
+        decodeBody();
         this.defaultMsg = defaultMsg;
     }
 
     public SMPPDate getDeliveryTime() {
+        decodeBody();
         return deliveryTime;
     }
 
     public void setDeliveryTime(SMPPDate deliveryTime) {
+        decodeBody();
         this.deliveryTime = deliveryTime;
     }
 
     public Address getDestination() {
+        decodeBody();
         return destination;
     }
 
     public void setDestination(Address destination) {
+        decodeBody();
         this.destination = destination;
     }
 
     public int getEsmClass() {
+        decodeBody();
         return esmClass;
     }
 
     public void setEsmClass(int esmClass) {
+        decodeBody();
         this.esmClass = esmClass;
     }
 
     public SMPPDate getExpiryTime() {
+        decodeBody();
         return expiryTime;
     }
 
     public void setExpiryTime(SMPPDate expiryTime) {
+        decodeBody();
         this.expiryTime = expiryTime;
     }
 
     public byte[] getMessage() {
+        decodeBody();
         return message;
     }
 
     public void setMessage(byte[] message) {
+        decodeBody();
         this.message = message;
     }
 
     public int getPriority() {
+        decodeBody();
         return priority;
     }
 
     public void setPriority(int priority) {
+        decodeBody();
         this.priority = priority;
     }
 
     public int getProtocolID() {
+        decodeBody();
         return protocolID;
     }
 
     public void setProtocolID(int protocolID) {
+        decodeBody();
         this.protocolID = protocolID;
     }
 
     public int getRegistered() {
+        decodeBody();
         return registered;
     }
 
     public void setRegistered(int registered) {
+        decodeBody();
         this.registered = registered;
     }
 
     public int getReplaceIfPresent() {
+        decodeBody();
         return replaceIfPresent;
     }
 
     public void setReplaceIfPresent(int replaceIfPresent) {
+        decodeBody();
         this.replaceIfPresent = replaceIfPresent;
     }
 
     public String getServiceType() {
+        decodeBody();
         return serviceType;
     }
 
     public void setServiceType(String serviceType) {
+        decodeBody();
         this.serviceType = serviceType;
     }
 
     public Address getSource() {
+        decodeBody();
         return source;
     }
 
     public void setSource(Address source) {
+        decodeBody();
         this.source = source;
     }
 
@@ -208,6 +234,28 @@ public class SubmitSM extends SMPPPacket {
         smppVersion.validateMessage(this.message, 0, sizeOf(this.message));
     }
   
+    @Override
+    protected boolean isLazilyDecodable() {
+        return true;
+    }
+
+    @Override
+    protected void resetMandatory() {
+        serviceType = null;
+        source = null;
+        destination = null;
+        esmClass = 0;
+        protocolID = 0;
+        priority = 0;
+        deliveryTime = null;
+        expiryTime = null;
+        registered = 0;
+        replaceIfPresent = 0;
+        dataCoding = 0;
+        defaultMsg = 0;
+        message = null;
+    }
+
     @Override
     protected void readMandatory(PacketDecoder decoder) {
         serviceType = decoder.readCString();
@@ -36,10 +36,12 @@ public class SubmitSMResp extends SMPPPacket {
     }
 
     public String getMessageId() {
+        decodeBody();
         return messageId;
     }
 
     public void setMessageId(String messageId) {
+        decodeBody();
         this.messageId = messageId;
     }
     
@@ -70,6 +72,16 @@ public class SubmitSMResp extends SMPPPacket {
         smppVersion.validateMessageId(messageId);
     }
     
+    @Override
+    protected boolean isLazilyDecodable() {
+        return true;
+    }
+
+    @Override
+    protected void resetMandatory() {
+        messageId = null;
+    }
+
     @Override
     protected void readMandatory(PacketDecoder decoder) {
         messageId = decoder.readCString();
@@ -0,0 +1,540 @@
+package com.adenki.smpp.message.tlv;
+
+import java.io.IOException;
+import java.text.MessageFormat;
+import java.util.AbstractMap;
+import java.util.AbstractSet;
+import java.util.BitSet;
+import java.util.Iterator;
+import java.util.Map;
+import java.util.NoSuchElementException;
+import java.util.Set;
+
+import com.adenki.smpp.message.SMPPProtocolException;
+import com.adenki.smpp.message.param.IntegerParamDescriptor;
+import com.adenki.smpp.message.param.ParamDescriptor;
+import com.adenki.smpp.util.PacketDecoder;
+import com.adenki.smpp.util.PacketDecoderImpl;
+import com.adenki.smpp.util.PacketEncoder;
+import com.adenki.smpp.util.SMPPIO;
+
+/**
+ * A TLV table that keeps its parameters in small parallel arrays keyed by
+ * the tag&apos;s integer value, in the order they were added.
+ * <p>
+ * The arrays are not allocated until the first parameter is added, so a
+ * packet without optional parameters only pays for the empty table.
+ * Parameters read from a packet are kept as slices of a single copy of the
+ * encoded parameters and are decoded, through the tag&apos;s
+ * {@link ParamDescriptor}, only when their value is asked for. Integer
+ * parameters set through {@link #put(Tag, int)} or {@link #put(Tag, long)}
+ * and integers read through {@link #getInt(Tag)} or {@link #getLong(Tag)}
+ * are never boxed. Parameters that were never decoded are written back
+ * out as they were read.
+ * </p>
+ * <p>
+ * The encoded length of each parameter is recorded when it is added, and
+ * the length of the table is cached until the table is next changed.
+ * </p>
+ * <p>
+ * Like <code>TLVTableImpl</code>, this table is not safe for use by
+ * multiple threads without external synchronization, even for reading.
+ * </p>
+ * @version $Id$
+ */
+public class CompactTLVTable extends AbstractMap<Tag, Object> implements TLVTable, java.io.Serializable {
+    private static final long serialVersionUID = 2L;
+
+    /** The value is the object in <code>values</code>. */
+    private static final byte OBJECT = 0;
+    /** The value is an Integer held in <code>numbers</code>. */
+    private static final byte INT = 1;
+    /** The value is a Long held in <code>numbers</code>. */
+    private static final byte LONG = 2;
+    /**
+     * The value is still encoded in the byte array in <code>values</code>,
+     * starting at the offset in <code>numbers</code>.
+     */
+    private static final byte ENCODED = 3;
+
+    private static final int INITIAL_CAPACITY = 4;
+
+    private int size;
+    private int[] tags;
+    private byte[] kinds;
+    private Object[] values;
+    private long[] numbers;
+    private int[] lengths;
+    private transient boolean lengthValid;
+    private transient int length;
+
+    public CompactTLVTable() {
+    }
+
+    /**
+     * Read a full set of optional parameters. The parameters are copied
+     * from the decoder in one piece; individual values are not decoded
+     * until they are used.
+     * @throws SMPPProtocolException If a parameter&apos;s length runs
+     * past the end of the parameters.
+     */
+    public void readFrom(PacketDecoder decoder, int length) {
+        byte[] encoded = decoder.readBytes(length);
+        int pos = 0;
+        while (pos + 4 <= length) {
+            int tag = SMPPIO.readUInt2(encoded, pos);
+            int valueLen = SMPPIO.readUInt2(encoded, pos + 2);
+            pos += 4;
+            if (pos + valueLen > length) {
+                throw new SMPPProtocolException("Tag 0x"
+                        + Integer.toHexString(tag) + " has length " + valueLen
+                        + " but only " + (length - pos) + " bytes remain");
+            }
+            set(tag, ENCODED, encoded, pos, valueLen);
+            pos += valueLen;
+        }
+    }
+
+    /**
+     * Encode all the optional parameters in this table. Parameters that
+     * have not been decoded are copied as they were read.
+     * @throws java.io.IOException
+     *             If an error occurs writing to the encoder.
+     */
+    public void writeTo(PacketEncoder encoder) throws IOException {
+        for (int i = 0; i < size; i++) {
+            encoder.writeUInt2(tags[i]);
+            encoder.writeUInt2(lengths[i]);
+            switch (kinds[i]) {
+            case ENCODED:
+                encoder.writeBytes((byte[]) values[i], (int) numbers[i], lengths[i]);
+                break;
+            case INT:
+            case LONG:
+                writeNumber(encoder, numbers[i], lengths[i]);
+                break;
+            default:
+                Tag.getTag(tags[i]).getParamDescriptor().writeObject(values[i], encoder);
+                break;
+            }
+        }
+    }
+
+    @Override
+    public int size() {
+        return size;
+    }
+
+    @Override
+    public boolean containsKey(Object key) {
+        return key instanceof Tag && indexOf(((Tag) key).intValue()) >= 0;
+    }
+
+    @Override
+    public Object get(Object key) {
+        if (!(key instanceof Tag)) {
+            return null;
+        }
+        return get(((Tag) key).intValue());
+    }
+
+    public Object get(int tag) {
+        int index = indexOf(tag);
+        return index >= 0 ? valueAt(index) : null;
+    }
+
+    public String getString(Tag tag) {
+        Object obj = get(tag);
+        return obj != null ? obj.toString() : null;
+    }
+
+    public int getInt(Tag tag) {
+        int index = indexOf(tag.intValue());
+        if (index < 0) {
+            return -1;
+        }
+        return (int) numberAt(index, tag);
+    }
+
+    public long getLong(Tag tag) {
+        int index = indexOf(tag.intValue());
+        if (index < 0) {
+            return -1L;
+        }
+        return numberAt(index, tag);
+    }
+
+    public BitSet getBitmask(Tag tag) {
+        return (BitSet) get(tag);
+    }
+
+    public byte[] getBytes(Tag tag) {
+        return (byte[]) get(tag);
+    }
+
+    /**
+     * Set the value of a TLV.
+     * @param tag The tag of the parameter to set.
+     * @param value The tag&apos;s value.
+     * @throws BadValueTypeException If <code>tag</code> does not accept
+     * the type that <code>value</code> is.
+     * @throws InvalidSizeForValueException If <code>value</code>
+     * exceeds either the minimum or maximum size allowed by <code>tag</code>.
+     */
+    @Override
+    public Object put(Tag tag, Object value)
+            throws BadValueTypeException, InvalidSizeForValueException {
+        ParamDescriptor descriptor = tag.getParamDescriptor();
+        if (descriptor.equals(BasicDescriptors.NULL) && value != null) {
+            String error = MessageFormat.format(
+                    "Tag {0} does not accept any value.",
+                    new Object[] {tag});
+            throw new BadValueTypeException(error);
+        } else if (value == null) {
+            String error = MessageFormat.format(
+                    "Tag {0} does not accept a null value.",
+                    new Object[] {tag});
+            throw new BadValueTypeException(error);
+        }
+        int valueLen = checkLength(tag, descriptor.sizeOf(value));
+        return set(tag.intValue(), OBJECT, value, 0L, valueLen);
+    }
+
+    public Object put(Tag tag, char value) {
+        return put(tag, Character.valueOf(value));
+    }
+
+    public Object put(Tag tag, short value) {
+        return put(tag, Short.valueOf(value));
+    }
+
+    public Object put(Tag tag, int value) {
+        ParamDescriptor descriptor = tag.getParamDescriptor();
+        if (!(descriptor instanceof IntegerParamDescriptor)) {
+            return put(tag, Integer.valueOf(value));
+        }
+        int valueLen = checkLength(tag, descriptor.sizeOf(null));
+        return set(tag.intValue(), INT, null, value, valueLen);
+    }
+
+    public Object put(Tag tag, long value) {
+        ParamDescriptor descriptor = tag.getParamDescriptor();
+        if (!(descriptor instanceof IntegerParamDescriptor)) {
+            return put(tag, Long.valueOf(value));
+        }
+        int valueLen = checkLength(tag, descriptor.sizeOf(null));
+        return set(tag.intValue(), LONG, null, value, valueLen);
+    }
+
+    @Override
+    public Object remove(Object key) {
+        if (!(key instanceof Tag)) {
+            return null;
+        }
+        int index = indexOf(((Tag) key).intValue());
+        if (index < 0) {
+            return null;
+        }
+        Object previous = valueAt(index);
+        removeAt(index);
+        return previous;
+    }
+
+    public void remove(int tag) {
+        int index = indexOf(tag);
+        if (index >= 0) {
+            removeAt(index);
+        }
+    }
+
+    /**
+     * Remove every parameter. The arrays are kept for re-use.
+     */
+    @Override
+    public void clear() {
+        for (int i = 0; i < size; i++) {
+            values[i] = null;
+        }
+        size = 0;
+        lengthValid = false;
+    }
+
+    @Override
+    public Set<Map.Entry<Tag, Object>> entrySet() {
+        return new EntrySet();
+    }
+
+    @Override
+    public String toString() {
+        StringBuffer buffer = new StringBuffer();
+        for (int i = 0; i < size; i++) {
+            buffer.append('{')
+            .append(Integer.toHexString(tags[i]))
+            .append(',').append(lengths[i])
+            .append(',').append(valueAt(i));
+        }
+        return buffer.toString();
+    }
+
+    public int getLength() {
+        if (!lengthValid) {
+            int total = size * 4;
+            for (int i = 0; i < size; i++) {
+                total += lengths[i];
+            }
+            length = total;
+            lengthValid = true;
+        }
+        return length;
+    }
+
+    private int indexOf(int tag) {
+        for (int i = 0; i < size; i++) {
+            if (tags[i] == tag) {
+                return i;
+            }
+        }
+        return -1;
+    }
+
+    /**
+     * Get the value at an index, decoding it if necessary. A decoded value
+     * replaces the encoded one, so later calls return the same object.
+     */
+    private Object valueAt(int index) {
+        switch (kinds[index]) {
+        case INT:
+            return Integer.valueOf((int) numbers[index]);
+        case LONG:
+            return Long.valueOf(numbers[index]);
+        case ENCODED:
+            ParamDescriptor descriptor = Tag.getTag(tags[index]).getParamDescriptor();
+            PacketDecoder decoder = new PacketDecoderImpl(
+                    (byte[]) values[index], (int) numbers[index]);
+            Object value = descriptor.readObject(decoder, lengths[index]);
+            values[index] = value;
+            kinds[index] = OBJECT;
+            // From now on the value is written by its descriptor, which
+            // may not use exactly the length it was read with.
+            int valueLen = descriptor.sizeOf(value);
+            if (valueLen != lengths[index]) {
+                lengths[index] = valueLen;
+                lengthValid = false;
+            }
+            return value;
+        default:
+            return values[index];
+        }
+    }
+
+    /**
+     * Get the value at an index as a number without boxing it, if it is
+     * an integer.
+     * @throws ClassCastException If the value is not a number.
+     */
+    private long numberAt(int index, Tag tag) {
+        switch (kinds[index]) {
+        case INT:
+        case LONG:
+            return numbers[index];
+        case ENCODED:
+            if (tag.getParamDescriptor() instanceof IntegerParamDescriptor) {
+                return readNumber((byte[]) values[index],
+                        (int) numbers[index], lengths[index]);
+            }
+            return ((Number) valueAt(index)).longValue();
+        default:
+            return ((Number) values[index]).longValue();
+        }
+    }
+
+    private Object set(int tag, byte kind, Object value, long number, int valueLen) {
+        int index = indexOf(tag);
+        Object previous = null;
+        if (index >= 0) {
+            previous = valueAt(index);
+        } else {
+            ensureCapacity(size + 1);
+            index = size++;
+            tags[index] = tag;
+        }
+        kinds[index] = kind;
+        values[index] = value;
+        numbers[index] = number;
+        lengths[index] = valueLen;
+        lengthValid = false;
+        return previous;
+    }
+
+    private void removeAt(int index) {
+        int moved = size - index - 1;
+        if (moved > 0) {
+            System.arraycopy(tags, index + 1, tags, index, moved);
+            System.arraycopy(kinds, index + 1, kinds, index, moved);
+            System.arraycopy(values, index + 1, values, index, moved);
+            System.arraycopy(numbers, index + 1, numbers, index, moved);
+            System.arraycopy(lengths, index + 1, lengths, index, moved);
+        }
+        values[--size] = null;
+        lengthValid = false;
+    }
+
+    private void ensureCapacity(int capacity) {
+        if (tags == null) {
+            int initial = Math.max(capacity, INITIAL_CAPACITY);
+            tags = new int[initial];
+            kinds = new byte[initial];
+            values = new Object[initial];
+            numbers = new long[initial];
+            lengths = new int[initial];
+        } else if (capacity > tags.length) {
+            int newCapacity = Math.max(capacity, tags.length * 2);
+            int[] newTags = new int[newCapacity];
+            byte[] newKinds = new byte[newCapacity];
+            Object[] newValues = new Object[newCapacity];
+            long[] newNumbers = new long[newCapacity];
+            int[] newLengths = new int[newCapacity];
+            System.arraycopy(tags, 0, newTags, 0, size);
+            System.arraycopy(kinds, 0, newKinds, 0, size);
+            System.arraycopy(values, 0, newValues, 0, size);
+            System.arraycopy(numbers, 0, newNumbers, 0, size);
+            System.arraycopy(lengths, 0, newLengths, 0, size);
+            tags = newTags;
+            kinds = newKinds;
+            values = newValues;
+            numbers = newNumbers;
+            lengths = newLengths;
+        }
+    }
+
+    private int checkLength(Tag tag, int actual) {
+        // Enforce the length restrictions on the Value specified by the
+        // Tag.
+        int min = tag.getMinLength();
+        int max = tag.getMaxLength();
+        if ((min > -1 && actual < min) || (max > -1 && actual > max)) {
+            throw new InvalidSizeForValueException("Tag "
+                    + tag.toHexString()
+                    + " must have a length in the range " + min
+                    + " <= len <= " + max);
+        }
+        return actual;
+    }
+
+    /**
+     * Read an integer the way {@link IntegerParamDescriptor} does.
+     */
+    private static long readNumber(byte[] array, int offset, int length) {
+        switch (length) {
+        case 8:
+            return SMPPIO.readInt8(array, offset);
+        case 4:
+            return SMPPIO.readUInt4(array, offset);
+        case 2:
+            return SMPPIO.readUInt2(array, offset);
+        default:
+            return SMPPIO.readUInt1(array, offset);
+        }
+    }
+
+    /**
+     * Write an integer the way {@link IntegerParamDescriptor} does.
+     */
+    private static void writeNumber(PacketEncoder encoder, long value, int length)
+            throws IOException {
+        switch (length) {
+        case 8:
+            encoder.writeInt8(value);
+            break;
+        case 4:
+            encoder.writeUInt4(value);
+            break;
+        case 2:
+            encoder.writeUInt2((int) value);
+            break;
+        default:
+            encoder.writeUInt1((int) value);
+            break;
+        }
+    }
+
+    private final class EntrySet extends AbstractSet<Map.Entry<Tag, Object>> {
+        @Override
+        public Iterator<Map.Entry<Tag, Object>> iterator() {
+            return new EntryIterator();
+        }
+
+        @Override
+        public int size() {
+            return size;
+        }
+    }
+
+    private final class EntryIterator implements Iterator<Map.Entry<Tag, Object>> {
+        private int next;
+        private int last = -1;
+
+        public boolean hasNext() {
+            return next < size;
+        }
+
+        public Map.Entry<Tag, Object> next() {
+            if (next >= size) {
+                throw new NoSuchElementException();
+            }
+            last = next++;
+            return new Entry(Tag.getTag(tags[last]));
+        }
+
+        public void remove() {
+            if (last < 0) {
+                throw new IllegalStateException();
+            }
+            removeAt(last);
+            next = last;
+            last = -1;
+        }
+    }
+
+    private final class Entry implements Map.Entry<Tag, Object> {
+        private final Tag tag;
+
+        Entry(Tag tag) {
+            this.tag = tag;
+        }
+
+        public Tag getKey() {
+            return tag;
+        }
+
+        public Object getValue() {
+            return get(tag.intValue());
+        }
+
+        public Object setValue(Object value) {
+            return put(tag, value);
+        }
+
+        @Override
+        public boolean equals(Object obj) {
+            if (!(obj instanceof Map.Entry)) {
+                return false;
+            }
+            Map.Entry<?, ?> other = (Map.Entry<?, ?>) obj;
+            Object value = getValue();
+            return tag.equals(other.getKey())
+                    && (value == null ? other.getValue() == null : value.equals(other.getValue()));
+        }
+
+        @Override
+        public int hashCode() {
+            Object value = getValue();
+            return tag.hashCode() ^ (value == null ? 0 : value.hashCode());
+        }
+
+        @Override
+        public String toString() {
+            return tag + "=" + getValue();
+        }
+    }
+}
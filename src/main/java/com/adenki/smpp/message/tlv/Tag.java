@@ -1,22 +1,39 @@
 package com.adenki.smpp.message.tlv;
 
-import java.util.HashMap;
-import java.util.Map;
+import java.util.concurrent.atomic.AtomicReferenceArray;
 
 import com.adenki.smpp.message.param.ParamDescriptor;
 
 /**
  * Enumeration class for optional parameter tag values.
+ * <p>
+ * Tags are held in a registry that is safe to read and update from any
+ * thread without locking. The tags defined by this class are registered
+ * when it is loaded; other tags, such as vendor-specific ones, must be
+ * registered with {@link #defineTag} before values of their type can be
+ * decoded as anything but octet strings. Looking up a tag that has not
+ * been defined does not register it, so a peer that sends arbitrary tag
+ * values cannot grow the registry.
+ * </p>
  * 
  * @version $Id$
  */
 public final class Tag implements java.io.Serializable {
 
     /**
-     * Look-up table of statically defined tags. This <b>must</b> be defined
-     * before all the tags as the Tag constructor expects this object to exist.
+     * Number of tags in each page of the registry.
      */
-    private static Map<Integer, Tag> tagTable = new HashMap<Integer, Tag>();
+    private static final int PAGE_SIZE = 256;
+
+    /**
+     * Registry of defined tags. Tag values are 16 bits wide; the registry
+     * is a dense array of pages of 256 tags each, and a page is only
+     * allocated once a tag in its range is defined. This <b>must</b> be
+     * defined before all the tags as the Tag constructor expects this
+     * object to exist.
+     */
+    private static final AtomicReferenceArray<AtomicReferenceArray<Tag>> REGISTRY =
+        new AtomicReferenceArray<AtomicReferenceArray<Tag>>(0x10000 / PAGE_SIZE);
 
     static final long serialVersionUID = 2L;
     
@@ -188,23 +205,23 @@ public final class Tag implements java.io.Serializable {
     /**
      * Integer value of this tag.
      */
-    private Integer tag;
+    private final Integer tag;
 
     /**
      * The minimum length a value of this tag type can be.
      */
-    private int minLength = -1;
+    private final int minLength;
 
     /**
      * The maximum length a value of this tag type can be.
      */
-    private int maxLength = -1;
+    private final int maxLength;
 
     /**
      * The class used for encoding and decoding values of this tag type.
      * @see com.adenki.smpp.message.param.ParamDescriptor
      */
-    private ParamDescriptor paramDescriptor;
+    private final ParamDescriptor paramDescriptor;
 
     private Tag(int tag,
             ParamDescriptor paramDescriptor,
@@ -231,16 +248,25 @@ public final class Tag implements java.io.Serializable {
             ParamDescriptor paramDescriptor,
             int minLength,
             int maxLength) throws TagDefinedException {
-        this.tag = new Integer(tag);
+        this(tag, paramDescriptor, minLength, maxLength, true);
+    }
+
+    private Tag(int tag,
+            ParamDescriptor paramDescriptor,
+            int minLength,
+            int maxLength,
+            boolean register) throws TagDefinedException {
+        if (tag < 0 || tag > 0xffff) {
+            throw new IllegalArgumentException("Tag value 0x"
+                    + Integer.toHexString(tag) + " is out of range");
+        }
+        this.tag = Integer.valueOf(tag);
         this.paramDescriptor = paramDescriptor;
         this.minLength = minLength;
         this.maxLength = maxLength;
-        synchronized (tagTable) {
-            if (tagTable.containsKey(this.tag)) {
-                throw new TagDefinedException(tag, "Tag 0x"
-                        + Integer.toHexString(tag) + " is already defined.");
-            }
-            tagTable.put(this.tag, this);
+        if (register && !page(tag, true).compareAndSet(tag % PAGE_SIZE, null, this)) {
+            throw new TagDefinedException(tag, "Tag 0x"
+                    + Integer.toHexString(tag) + " is already defined.");
         }
     }
 
@@ -342,7 +368,9 @@ public final class Tag implements java.io.Serializable {
      * Get the Tag object that represents tag <code>tagValue</code>. If the
      * tag is known then the static Tag object representing the tag is returned.
      * If the tag is not known, a fresh instance of Tag will be returned which
-     * uses an octet-string type.
+     * uses an octet-string type. The fresh instance is not registered, so
+     * the tag remains undefined and each call returns a new instance; it
+     * is equal to any other instance with the same value.
      * 
      * <p><b>WARNING</b> The behaviour of this method may change to returning
      * <code>null</code> for an undefined tag. It needs to be determined
@@ -352,9 +380,9 @@ public final class Tag implements java.io.Serializable {
      *         Will never return <code>null</code>.
      */
     public static Tag getTag(int tagValue) {
-        Tag t = (Tag) tagTable.get(new Integer(tagValue));
+        Tag t = lookup(tagValue);
         if (t == null) {
-            return Tag.defineTag(tagValue, BasicDescriptors.BYTES, -1);
+            return new Tag(tagValue, BasicDescriptors.BYTES, -1, -1, false);
         } else {
             return t;
         }
@@ -401,7 +429,7 @@ public final class Tag implements java.io.Serializable {
      * otherwise.
      */
     public static boolean isTagDefined(int tagValue) {
-        return tagTable.containsKey(new Integer(tagValue));
+        return lookup(tagValue) != null;
     }
     
     /**
@@ -417,8 +445,51 @@ public final class Tag implements java.io.Serializable {
         if (tag == null) {
             return null;
         }
-        synchronized (tagTable) {
-            return (Tag) tagTable.remove(tag.tag);
+        int tagValue = tag.intValue();
+        AtomicReferenceArray<Tag> page = page(tagValue, false);
+        if (page == null) {
+            return null;
+        }
+        while (true) {
+            Tag defined = page.get(tagValue % PAGE_SIZE);
+            if (defined == null
+                    || page.compareAndSet(tagValue % PAGE_SIZE, defined, null)) {
+                return defined;
+            }
+        }
+    }
+
+    /**
+     * Resolve a deserialized tag to the defined tag with the same value,
+     * if there is one.
+     */
+    private Object readResolve() {
+        Tag defined = lookup(tag.intValue());
+        return defined != null ? defined : this;
+    }
+
+    private static Tag lookup(int tagValue) {
+        if (tagValue < 0 || tagValue > 0xffff) {
+            return null;
+        }
+        AtomicReferenceArray<Tag> page = page(tagValue, false);
+        return page != null ? page.get(tagValue % PAGE_SIZE) : null;
+    }
+
+    /**
+     * Get the registry page holding a tag value.
+     * @param create <code>true</code> to allocate the page if it does not
+     * exist yet.
+     * @return The page, or <code>null</code> if it does not exist and
+     * <code>create</code> is <code>false</code>.
+     */
+    private static AtomicReferenceArray<Tag> page(int tagValue, boolean create) {
+        int index = tagValue / PAGE_SIZE;
+        AtomicReferenceArray<Tag> page = REGISTRY.get(index);
+        if (page == null && create) {
+            REGISTRY.compareAndSet(index, null, new AtomicReferenceArray<Tag>(PAGE_SIZE));
+            page = REGISTRY.get(index);
         }
+        return page;
     }
 }
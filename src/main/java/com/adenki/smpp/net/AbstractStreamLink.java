@@ -1,11 +1,17 @@
 package com.adenki.smpp.net;
 
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
 import java.io.EOFException;
 import java.io.IOException;
 import java.io.InputStream;
 import java.io.OutputStream;
 import java.net.SocketTimeoutException;
+import java.util.concurrent.ScheduledFuture;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.locks.ReentrantLock;
 
+import com.adenki.smpp.message.PacketPool;
 import com.adenki.smpp.message.SMPPPacket;
 import com.adenki.smpp.util.APIConfig;
 import com.adenki.smpp.util.APIConfigFactory;
@@ -16,6 +22,7 @@ import com.adenki.smpp.util.PacketEncoderImpl;
 import com.adenki.smpp.util.PacketFactory;
 import com.adenki.smpp.util.PropertyNotFoundException;
 import com.adenki.smpp.util.SMPPIO;
+import com.adenki.smpp.util.SharedExecutors;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
@@ -33,6 +40,19 @@ import org.slf4j.LoggerFactory;
  * {@link SmscLink#connect()} operation in order to set up instances of
  * this class properly.
  * </p>
+ * <p>
+ * Packets are encoded into a re-usable buffer and handed to the output
+ * stream with a single <code>write</code> call. When the output stream is
+ * written to and flushed is decided by the link&apos;s {@link FlushPolicy}:
+ * packets written by any number of threads are collected in the buffer until
+ * the policy calls for a flush, at which point they are all written out
+ * together. A flush due to the policy&apos;s delay is done by the next
+ * writer or, if there is none, on one of the
+ * {@link SharedExecutors#getIoThreads() shared I/O threads}. If the
+ * {@link APIConfig#LINK_BUFFERSIZE_IN} or {@link APIConfig#LINK_BUFFERSIZE_OUT}
+ * properties are set, the streams supplied by the implementation are wrapped
+ * in buffered streams of the configured size.
+ * </p>
  * @version $Id$
  */
 public abstract class AbstractStreamLink implements SmscLink {
@@ -45,29 +65,53 @@ public abstract class AbstractStreamLink implements SmscLink {
     private OutputStream out;
     private OutputStream snoopIn;
     private OutputStream snoopOut;
-    private PacketEncoder encoder;
     private PacketDecoder decoder;
-    private PacketEncoder snoopOutEncoder;
+    private final EncodeBuffer encodeBuffer = new EncodeBuffer(512);
+    private final PacketEncoder encoder = new PacketEncoderImpl(encodeBuffer);
+    private final ReentrantLock writeLock = new ReentrantLock();
     private PacketFactory packetFactory = new PacketFactory();
+    private int bufferSizeIn;
+    private int bufferSizeOut;
+    private volatile boolean lazyDecoding;
+    private volatile FlushPolicy flushPolicy;
+
+    /*
+     * The following, and the encode buffer, are guarded by writeLock.
+     */
+    private int waitingPackets;
+    private int waitingBytes;
+    private ScheduledFuture<?> flushTask;
+    private IOException flushFailure;
 
     /**
-     * Set to automatically flush the output stream after every packet. Default
-     * is <code>false</code>, but can be reconfigured in the API config.
+     * Set when the flush policy&apos;s delay has expired for the waiting
+     * packets.
      */
-    private boolean autoFlush;
+    private volatile boolean flushDue;
+
+    private final Runnable timedFlush = new Runnable() {
+        public void run() {
+            timedFlush();
+        }
+    };
+
+    private final Runnable flushDelayExpired = new Runnable() {
+        public void run() {
+            flushDue = true;
+            SharedExecutors.getIoThreads().execute(timedFlush);
+        }
+    };
 
     /**
      * Create a new unconnected SmscLink.
      */
     public AbstractStreamLink() {
-        try {
-            APIConfig config = APIConfigFactory.getConfig();
-            autoFlush = config.getBoolean(APIConfig.LINK_AUTO_FLUSH);
-        } catch (PropertyNotFoundException x) {
-            autoFlush = true;
-        } finally {
-            LOG.debug("autoFlush set to {}", autoFlush);
-        }
+        APIConfig config = APIConfigFactory.getConfig();
+        flushPolicy = FlushPolicy.getDefault();
+        LOG.debug("Flush policy set to {}", flushPolicy);
+        bufferSizeIn = config.getInt(APIConfig.LINK_BUFFERSIZE_IN, 0);
+        bufferSizeOut = config.getInt(APIConfig.LINK_BUFFERSIZE_OUT, 0);
+        lazyDecoding = config.getBoolean(APIConfig.LINK_LAZY_DECODING, false);
     }
 
     /**
@@ -81,10 +125,10 @@ public abstract class AbstractStreamLink implements SmscLink {
      *             If an exception occurs while closing the connection.
      */
     public void disconnect() throws IOException {
+        flushIfIdle();
         out = null;
         in = null;
         buffer = null;
-        encoder = null;
         decoder = null;
         if (isAutoCloseSnoop()) {
             closeQuietly(snoopOut);
@@ -108,31 +152,88 @@ public abstract class AbstractStreamLink implements SmscLink {
      *             not open.
      */
     public void write(SMPPPacket pak, boolean withOptional) throws IOException {
-        if (out == null) {
+        OutputStream stream = out;
+        if (stream == null) {
             throw new IOException(LINK_NOT_UP_ERR);
         }
-        pak.writeTo(encoder, withOptional);
+        writeLock.lock();
         try {
-            if (snoopOutEncoder != null) {
-                pak.writeTo(snoopOutEncoder, withOptional);
+            if (flushFailure != null) {
+                throw flushFailure;
             }
-        } catch (IOException x) {
-            LOG.warn("IOException writing to snoop output stream.", x);
-        }
-        if (autoFlush) {
-            out.flush();
+            int start = encodeBuffer.size();
+            if (start == 0) {
+                encodeBuffer.reset(pak.getLength());
+            }
+            try {
+                pak.writeTo(encoder, withOptional);
+            } catch (RuntimeException x) {
+                encodeBuffer.truncate(start);
+                throw x;
+            } catch (IOException x) {
+                encodeBuffer.truncate(start);
+                throw x;
+            }
+            int length = encodeBuffer.size() - start;
+            dump(snoopOut, encodeBuffer.getBytes(), start, length);
+            waitingPackets++;
+            waitingBytes += length;
+            FlushPolicy policy = flushPolicy;
+            if (flushDue || policy.isFlushRequired(waitingPackets, waitingBytes)) {
+                flushWaiting(stream);
+            } else {
+                if (encodeBuffer.size() >= EncodeBuffer.MAX_RETAINED_SIZE) {
+                    writeBuffer(stream);
+                }
+                if (flushTask == null && policy.getDelay() > 0L) {
+                    flushTask = SharedExecutors.getScheduler().schedule(
+                            flushDelayExpired, policy.getDelay(), TimeUnit.MICROSECONDS);
+                }
+            }
+        } finally {
+            writeLock.unlock();
         }
     }
 
     /**
-     * Flush the output stream of the SMSC link.
+     * Flush the output stream of the SMSC link. Any packets waiting to be
+     * flushed under the link&apos;s flush policy are written out.
      * 
      * @throws java.io.IOException
      *             If an exception occurs while flushing the output stream.
      */
     public void flush() throws IOException {
-        if (out != null) {
-            out.flush();
+        writeLock.lock();
+        try {
+            if (flushFailure != null) {
+                throw flushFailure;
+            }
+            if (out != null) {
+                flushWaiting(out);
+            }
+        } finally {
+            writeLock.unlock();
+        }
+    }
+
+    /**
+     * Flush waiting packets before the link is closed, unless another
+     * thread is writing. A write blocked on a dead connection would
+     * otherwise block the close that releases it.
+     */
+    protected void flushIfIdle() {
+        if (!writeLock.tryLock()) {
+            LOG.debug("Link is busy writing; closing without a flush");
+            return;
+        }
+        try {
+            if (flushFailure == null && out != null) {
+                flushWaiting(out);
+            }
+        } catch (IOException x) {
+            LOG.debug("Could not flush waiting packets", x);
+        } finally {
+            writeLock.unlock();
         }
     }
 
@@ -141,22 +242,51 @@ public abstract class AbstractStreamLink implements SmscLink {
      * defined in the smppapi properties file. If no properties are found at
      * runtime, the default behaviour is set to <code>true</code>.
      * 
+     * @return <code>true</code> if the link&apos;s flush policy flushes
+     * after every packet.
      * @see #setAutoFlush
+     * @see #getFlushPolicy
      * @see com.adenki.smpp.util.APIConfig
      */
     public boolean getAutoFlush() {
-        return autoFlush;
+        return flushPolicy.isImmediate();
     }
 
     /**
      * Set the auto flush behaviour of this link. If set to true, the link will
      * flush the output stream after every packet written. In high-load
-     * environments this may be undesirable.
+     * environments this may be undesirable. If set to false, the link will
+     * only flush when {@link #flush} is called. This method replaces the
+     * link&apos;s flush policy with {@link FlushPolicy#IMMEDIATE} or
+     * {@link FlushPolicy#EXPLICIT} respectively.
      * 
      * @see #getAutoFlush
+     * @see #setFlushPolicy
      */
     public void setAutoFlush(boolean flush) {
-        this.autoFlush = flush;
+        setFlushPolicy(flush ? FlushPolicy.IMMEDIATE : FlushPolicy.EXPLICIT);
+    }
+
+    /**
+     * Get the policy that decides when packets written to this link are
+     * flushed.
+     * @return This link&apos;s flush policy.
+     */
+    public FlushPolicy getFlushPolicy() {
+        return flushPolicy;
+    }
+
+    /**
+     * Set the policy that decides when packets written to this link are
+     * flushed. Packets already waiting to be flushed are subject to the new
+     * policy from the next write.
+     * @param flushPolicy The new flush policy.
+     */
+    public void setFlushPolicy(FlushPolicy flushPolicy) {
+        if (flushPolicy == null) {
+            throw new NullPointerException("Flush policy cannot be null.");
+        }
+        this.flushPolicy = flushPolicy;
     }
 
     /**
@@ -193,6 +323,14 @@ public abstract class AbstractStreamLink implements SmscLink {
             readBytes(buffer, count, remaining, remaining);
             int commandId = SMPPIO.readInt4(buffer, 4);
             SMPPPacket packet = packetFactory.newInstance(commandId);
+            if (lazyDecoding) {
+                // The read buffer is re-used, so the packet needs its own
+                // copy of the bytes it will decode from later.
+                byte[] pdu = new byte[cmdLen];
+                System.arraycopy(buffer, 0, pdu, 0, cmdLen);
+                packet.readLazilyFrom(pdu);
+                return packet;
+            }
             decoder.setParsePosition(0);
             packet.readFrom(decoder);
             return packet;
@@ -203,6 +341,29 @@ public abstract class AbstractStreamLink implements SmscLink {
         }
     }
 
+    /**
+     * Set the pool that packets read from this link are taken from. By
+     * default the {@link PacketPool#getDefault() shared pool} is used if
+     * packet pooling has been enabled.
+     * @param packetPool The packet pool, or <code>null</code> to allocate
+     * a new object for every packet.
+     */
+    public void setPacketPool(PacketPool packetPool) {
+        packetFactory.setPacketPool(packetPool);
+    }
+
+    /**
+     * Set whether packets read from this link are
+     * {@link SMPPPacket#readLazilyFrom(byte[]) decoded lazily}. The
+     * default is taken from the {@link APIConfig#LINK_LAZY_DECODING}
+     * property.
+     * @param lazyDecoding <code>true</code> to decode only the header of
+     * packets that support it until the rest is used.
+     */
+    public void setLazyDecoding(boolean lazyDecoding) {
+        this.lazyDecoding = lazyDecoding;
+    }
+
     /**
      * Get the number of bytes currently available on the input stream.
      */
@@ -231,18 +392,113 @@ public abstract class AbstractStreamLink implements SmscLink {
     public void setSnoopStreams(OutputStream snoopIn, OutputStream snoopOut) {
         this.snoopIn = snoopIn;
         this.snoopOut = snoopOut;
-        snoopOutEncoder = new PacketEncoderImpl(snoopOut);
     }
 
+    /**
+     * Set the stream packets will be read from. If an input buffer size is
+     * configured, <code>inputStream</code> will be wrapped in a
+     * <code>BufferedInputStream</code>.
+     * @param inputStream The stream to read packets from.
+     */
     protected void setInputStream(InputStream inputStream) {
-        this.in = inputStream;
+        if (bufferSizeIn > 0) {
+            this.in = new BufferedInputStream(inputStream, bufferSizeIn);
+        } else {
+            this.in = inputStream;
+        }
         buffer = new byte[512];
         this.decoder = new PacketDecoderImpl(buffer);
     }
     
+    /**
+     * Set the stream packets will be written to. If an output buffer size
+     * is configured, <code>outputStream</code> will be wrapped in a
+     * <code>BufferedOutputStream</code>.
+     * @param outputStream The stream to write packets to.
+     */
     protected void setOutputStream(OutputStream outputStream) {
-        this.out = outputStream;
-        this.encoder = new PacketEncoderImpl(this.out);
+        writeLock.lock();
+        try {
+            if (bufferSizeOut > 0) {
+                this.out = new BufferedOutputStream(outputStream, bufferSizeOut);
+            } else {
+                this.out = outputStream;
+            }
+            encodeBuffer.reset(0);
+            waitingPackets = 0;
+            waitingBytes = 0;
+            flushFailure = null;
+            flushDue = false;
+            if (flushTask != null) {
+                flushTask.cancel(false);
+                flushTask = null;
+            }
+        } finally {
+            writeLock.unlock();
+        }
+    }
+
+    /**
+     * Write out and flush all waiting packets. Must be called with the
+     * write lock held.
+     */
+    private void flushWaiting(OutputStream stream) throws IOException {
+        flushDue = false;
+        if (flushTask != null) {
+            flushTask.cancel(false);
+            flushTask = null;
+        }
+        if (waitingPackets > 0) {
+            writeBuffer(stream);
+            stream.flush();
+            waitingPackets = 0;
+            waitingBytes = 0;
+        }
+    }
+
+    /**
+     * Write the contents of the encode buffer to the output stream. Must be
+     * called with the write lock held.
+     */
+    private void writeBuffer(OutputStream stream) throws IOException {
+        int size = encodeBuffer.size();
+        if (size > 0) {
+            byte[] bytes = encodeBuffer.getBytes();
+            encodeBuffer.reset(0);
+            stream.write(bytes, 0, size);
+        }
+    }
+
+    /**
+     * Flush waiting packets once the flush policy&apos;s delay has expired.
+     * The scheduler only marks the flush as due and hands it to an
+     * {@link SharedExecutors#getIoThreads() I/O thread}, so a blocked
+     * stream never holds up the scheduler or the shared workers. A writer
+     * that gets the lock first does the flush itself, in which case this
+     * has nothing left to do. If the flush fails, the exception is thrown
+     * from the next call to {@link #write} or {@link #flush}.
+     */
+    private void timedFlush() {
+        writeLock.lock();
+        try {
+            if (!flushDue) {
+                return;
+            }
+            flushTask = null;
+            OutputStream stream = out;
+            if (stream == null || waitingPackets == 0) {
+                flushDue = false;
+                return;
+            }
+            try {
+                flushWaiting(stream);
+            } catch (IOException x) {
+                LOG.warn("Could not flush waiting packets", x);
+                flushFailure = x;
+            }
+        } finally {
+            writeLock.unlock();
+        }
     }
     
     /**
@@ -290,7 +546,7 @@ public abstract class AbstractStreamLink implements SmscLink {
                 s.write(b, offset, len);
             }
         } catch (IOException x) {
-            LOG.warn("Couldn't write incoming bytes to input snooper.", x);
+            LOG.warn("Couldn't write bytes to snooper.", x);
         }
     }
 
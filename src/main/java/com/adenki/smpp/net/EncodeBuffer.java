@@ -0,0 +1,95 @@
+package com.adenki.smpp.net;
+
+import java.io.OutputStream;
+
+/**
+ * A re-usable, unsynchronized byte array output stream that packets are
+ * encoded into before being written to the network. Unlike
+ * <code>java.io.ByteArrayOutputStream</code>, the backing array is exposed
+ * so the encoded bytes can be written out without being copied.
+ * <p>
+ * Callers are expected to {@link #reset(int) reset} the buffer with the
+ * encoded length of the next packet, so that the array only ever needs to
+ * grow once per packet. If a very large packet causes the array to grow
+ * beyond {@link #MAX_RETAINED_SIZE}, the large array is released at the
+ * next reset.
+ * </p>
+ * @version $Id$
+ */
+final class EncodeBuffer extends OutputStream {
+    /**
+     * The largest array that is kept for re-use between packets.
+     */
+    static final int MAX_RETAINED_SIZE = 64 * 1024;
+
+    private final int initialSize;
+    private byte[] buf;
+    private int count;
+
+    EncodeBuffer(int initialSize) {
+        this.initialSize = initialSize;
+        this.buf = new byte[initialSize];
+    }
+
+    /**
+     * Empty the buffer, making sure it has space for at least
+     * <code>capacity</code> bytes.
+     * @param capacity The number of bytes that are about to be written.
+     */
+    void reset(int capacity) {
+        count = 0;
+        if (buf.length > MAX_RETAINED_SIZE && capacity <= MAX_RETAINED_SIZE) {
+            buf = new byte[Math.max(initialSize, capacity)];
+        } else if (capacity > buf.length) {
+            buf = new byte[capacity];
+        }
+    }
+
+    /**
+     * Discard any bytes written after <code>size</code>.
+     * @param size The number of bytes to keep.
+     */
+    void truncate(int size) {
+        if (size < count) {
+            count = size;
+        }
+    }
+
+    /**
+     * Get the backing array. Only the first {@link #size()} bytes are
+     * valid.
+     * @return The backing array of this buffer.
+     */
+    byte[] getBytes() {
+        return buf;
+    }
+
+    /**
+     * Get the number of bytes written since the last reset.
+     * @return The number of valid bytes in the buffer.
+     */
+    int size() {
+        return count;
+    }
+
+    @Override
+    public void write(int b) {
+        ensureCapacity(count + 1);
+        buf[count++] = (byte) b;
+    }
+
+    @Override
+    public void write(byte[] b, int off, int len) {
+        ensureCapacity(count + len);
+        System.arraycopy(b, off, buf, count, len);
+        count += len;
+    }
+
+    private void ensureCapacity(int required) {
+        if (required > buf.length) {
+            byte[] newBuf = new byte[Math.max(required, buf.length * 2)];
+            System.arraycopy(buf, 0, newBuf, 0, count);
+            buf = newBuf;
+        }
+    }
+}
@@ -0,0 +1,162 @@
+package com.adenki.smpp.net;
+
+import com.adenki.smpp.util.APIConfig;
+import com.adenki.smpp.util.APIConfigFactory;
+
+/**
+ * Decides when packets written to a link are flushed to the network.
+ * Packets written to an {@link AbstractStreamLink} are collected in the
+ * link&apos;s output buffer and flushed with a single write when the first
+ * of the following limits is reached:
+ * <ul>
+ * <li>{@link #getMaxPackets() maxPackets} packets are waiting,</li>
+ * <li>{@link #getMaxBytes() maxBytes} bytes are waiting,</li>
+ * <li>{@link #getDelay() delay} microseconds have passed since the first
+ * waiting packet was written.</li>
+ * </ul>
+ * A limit of zero disables that limit. A policy with all limits disabled
+ * only flushes when {@link SmscLink#flush()} is called explicitly.
+ * <p>
+ * As packets from all threads sending on a link share the same output
+ * buffer, concurrent senders are coalesced into a single flush. Setting a
+ * small delay (a few hundred microseconds) together with a packet or byte
+ * limit keeps latency bounded at low load while reducing the number of
+ * system calls and TCP segments at high load.
+ * </p>
+ * <p>
+ * Flush policies only apply to links derived from
+ * {@link AbstractStreamLink}, such as {@link TcpLink}. {@link NioLink}
+ * ignores them: it hands each packet to its selector thread as soon as it
+ * is written, and the selector writes whatever is pending when the socket
+ * is ready.
+ * </p>
+ * <p>
+ * Flush policies are immutable.
+ * </p>
+ * @version $Id$
+ * @see APIConfig#LINK_FLUSH_MAX_PACKETS
+ * @see APIConfig#LINK_FLUSH_MAX_BYTES
+ * @see APIConfig#LINK_FLUSH_DELAY
+ */
+public final class FlushPolicy {
+    /**
+     * Flush after every packet. This is the behaviour of a link with auto
+     * flush turned on.
+     */
+    public static final FlushPolicy IMMEDIATE = new FlushPolicy(1, 0, 0L);
+
+    /**
+     * Only flush when explicitly asked to. This is the behaviour of a link
+     * with auto flush turned off.
+     */
+    public static final FlushPolicy EXPLICIT = new FlushPolicy(0, 0, 0L);
+
+    private final int maxPackets;
+    private final int maxBytes;
+    private final long delay;
+
+    /**
+     * Create a new flush policy.
+     * @param maxPackets The number of waiting packets that triggers a flush,
+     * or zero for no limit.
+     * @param maxBytes The number of waiting bytes that triggers a flush, or
+     * zero for no limit.
+     * @param delay The maximum time, in microseconds, a packet will wait
+     * before being flushed, or zero for no limit.
+     */
+    public FlushPolicy(int maxPackets, int maxBytes, long delay) {
+        if (maxPackets < 0 || maxBytes < 0 || delay < 0L) {
+            throw new IllegalArgumentException(
+                    "Flush policy limits cannot be negative.");
+        }
+        this.maxPackets = maxPackets;
+        this.maxBytes = maxBytes;
+        this.delay = delay;
+    }
+
+    /**
+     * Get the flush policy defined by the API configuration. If none of the
+     * {@link APIConfig#LINK_FLUSH_MAX_PACKETS},
+     * {@link APIConfig#LINK_FLUSH_MAX_BYTES} or
+     * {@link APIConfig#LINK_FLUSH_DELAY} properties are set, the policy is
+     * {@link #IMMEDIATE} or {@link #EXPLICIT} depending on the value of
+     * {@link APIConfig#LINK_AUTO_FLUSH}.
+     * @return The configured flush policy.
+     */
+    public static FlushPolicy getDefault() {
+        APIConfig config = APIConfigFactory.getConfig();
+        int maxPackets = config.getInt(APIConfig.LINK_FLUSH_MAX_PACKETS, 0);
+        int maxBytes = config.getInt(APIConfig.LINK_FLUSH_MAX_BYTES, 0);
+        long delay = config.getLong(APIConfig.LINK_FLUSH_DELAY, 0L);
+        if (maxPackets > 0 || maxBytes > 0 || delay > 0L) {
+            return new FlushPolicy(maxPackets, maxBytes, delay);
+        }
+        if (config.getBoolean(APIConfig.LINK_AUTO_FLUSH, true)) {
+            return IMMEDIATE;
+        } else {
+            return EXPLICIT;
+        }
+    }
+
+    public int getMaxPackets() {
+        return maxPackets;
+    }
+
+    public int getMaxBytes() {
+        return maxBytes;
+    }
+
+    /**
+     * Get the maximum time a packet will wait before being flushed.
+     * @return The flush delay, in microseconds.
+     */
+    public long getDelay() {
+        return delay;
+    }
+
+    /**
+     * Determine if this policy flushes after every packet.
+     * @return <code>true</code> if every packet is flushed as soon as it is
+     * written.
+     */
+    public boolean isImmediate() {
+        return maxPackets == 1;
+    }
+
+    /**
+     * Determine if waiting packets should be flushed.
+     * @param packets The number of packets waiting to be flushed.
+     * @param bytes The number of bytes waiting to be flushed.
+     * @return <code>true</code> if the waiting packets should be flushed
+     * now.
+     */
+    public boolean isFlushRequired(int packets, int bytes) {
+        return (maxPackets > 0 && packets >= maxPackets)
+            || (maxBytes > 0 && bytes >= maxBytes);
+    }
+
+    @Override
+    public boolean equals(Object obj) {
+        if (obj == this) {
+            return true;
+        }
+        if (!(obj instanceof FlushPolicy)) {
+            return false;
+        }
+        FlushPolicy other = (FlushPolicy) obj;
+        return maxPackets == other.maxPackets
+            && maxBytes == other.maxBytes
+            && delay == other.delay;
+    }
+
+    @Override
+    public int hashCode() {
+        return (maxPackets * 31 + maxBytes) * 31 + (int) (delay ^ (delay >>> 32));
+    }
+
+    @Override
+    public String toString() {
+        return "FlushPolicy[maxPackets=" + maxPackets + ",maxBytes="
+            + maxBytes + ",delay=" + delay + "us]";
+    }
+}
@@ -0,0 +1,42 @@
+package com.adenki.smpp.net;
+
+import com.adenki.smpp.message.SMPPPacket;
+
+/**
+ * Interface for objects that want to be handed packets as they are read
+ * by an event-driven {@link SmscLink} implementation, rather than blocking
+ * in {@link SmscLink#read}.
+ * <p>
+ * All callbacks for one link are made from the same thread, in the order
+ * the events occurred on the link. That thread is normally shared with other
+ * links, so implementations should not block inside these methods.
+ * </p>
+ * @version $Id$
+ * @see NioLink#setLinkListener(LinkListener)
+ */
+public interface LinkListener {
+    /**
+     * Called when a complete packet has been read and decoded from the link.
+     * @param link The link the packet was read from.
+     * @param packet The decoded packet.
+     */
+    void packetReceived(SmscLink link, SMPPPacket packet);
+
+    /**
+     * Called when no data has been read from the link for longer than
+     * the link&apos;s configured read timeout. This is called once per
+     * timeout period for as long as the link remains idle.
+     * @param link The idle link.
+     */
+    void readTimeout(SmscLink link);
+
+    /**
+     * Called when an error occurs reading from the link. If the error is an
+     * <code>IOException</code> the link will have been closed by the time
+     * this method is called. Other exceptions (for example, a failure to
+     * decode a packet) leave the link open.
+     * @param link The link on which the error occurred.
+     * @param cause The exception describing the error.
+     */
+    void linkFailed(SmscLink link, Exception cause);
+}
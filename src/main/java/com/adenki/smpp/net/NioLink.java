@@ -0,0 +1,976 @@
+package com.adenki.smpp.net;
+
+import java.io.EOFException;
+import java.io.IOException;
+import java.io.InterruptedIOException;
+import java.io.OutputStream;
+import java.net.InetAddress;
+import java.net.InetSocketAddress;
+import java.nio.ByteBuffer;
+import java.nio.channels.SelectionKey;
+import java.nio.channels.SocketChannel;
+import java.util.ArrayList;
+import java.util.LinkedList;
+import java.util.List;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.TimeUnit;
+
+import com.adenki.smpp.message.PacketPool;
+import com.adenki.smpp.message.SMPPPacket;
+import com.adenki.smpp.util.APIConfig;
+import com.adenki.smpp.util.APIConfigFactory;
+import com.adenki.smpp.util.PacketDecoderImpl;
+import com.adenki.smpp.util.PacketEncoder;
+import com.adenki.smpp.util.PacketEncoderImpl;
+import com.adenki.smpp.util.PacketFactory;
+import com.adenki.smpp.util.SMPPIO;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * Implementation of an SMSC link using a non-blocking
+ * {@link SocketChannel}. Network I/O for the link is performed by a
+ * {@link SelectorPool} thread that is shared with other links, so an
+ * application with many sessions does not need a thread per session.
+ * <p>
+ * <code>NioLink</code> can be used anywhere a {@link TcpLink} can. It
+ * operates in one of two modes:
+ * </p>
+ * <ul>
+ * <li>If a {@link LinkListener} is set, every packet is decoded on the
+ * selector thread and handed straight to the listener. This is how
+ * {@link com.adenki.smpp.SessionImpl} uses the link; it installs a
+ * {@link com.adenki.smpp.NioReceiver} in place of a receiver thread and
+ * the packets are delivered to the session&apos;s event dispatcher.</li>
+ * <li>If no listener is set, decoded packets are queued and returned from
+ * {@link #read()}, which blocks in the same way as it does for
+ * <code>TcpLink</code>. Reading from the socket is suspended while the queue
+ * is full so that a slow reader applies back-pressure to the SMSC.</li>
+ * </ul>
+ * <p>
+ * If the listener is a {@link RawLinkListener}, each packet is offered to
+ * it as raw bytes first and only decoded if the listener declines it.
+ * Together with {@link #writeRaw(ByteBuffer)}, {@link #pauseReading()} and
+ * {@link #whenDrained(Runnable)} this lets a relay forward packets between
+ * links without decoding them or blocking the selector thread.
+ * </p>
+ * <p>
+ * Since the selector thread is shared, observers should not do any
+ * long-running work on it. Applications using this link with many sessions
+ * will usually want to use an event dispatcher that hands events off to
+ * another thread, such as
+ * {@link com.adenki.smpp.event.TaskExecutorEventDispatcher}.
+ * </p>
+ * <p>
+ * Unlike {@link TcpLink}, this link does not use a {@link FlushPolicy}.
+ * Written packets are queued for the selector thread immediately and sent
+ * as soon as the socket can take them, so {@link #flush()} only waits for
+ * that to finish.
+ * </p>
+ * @version $Id$
+ */
+public class NioLink implements SmscLink {
+    private static final Logger LOG = LoggerFactory.getLogger(NioLink.class);
+    private static final String END_OF_STREAM_ERR = "EOS reached. No data available";
+    private static final String LINK_NOT_UP_ERR = "Link not established.";
+
+    /**
+     * Number of decoded packets that will be queued for {@link #read()}
+     * before reading from the socket is suspended.
+     */
+    private static final int MAX_QUEUED_PACKETS = 64;
+
+    /**
+     * Default number of bytes that may be waiting to be written to the
+     * socket before callers to {@link #write} are blocked.
+     */
+    private static final int DEFAULT_MAX_PENDING_BYTES = 256 * 1024;
+
+    /**
+     * Default size of the largest packet that will be read from the
+     * network.
+     */
+    public static final int DEFAULT_MAX_PDU_SIZE = 64 * 1024;
+
+    /**
+     * Normal size of the read buffer. The buffer only grows past this for
+     * a packet that does not fit, and shrinks again once it has been read.
+     */
+    private static final int READ_BUFFER_SIZE = 4096;
+
+    private final InetSocketAddress address;
+    private SelectorPool selectorPool;
+    private volatile SocketChannel channel;
+    private volatile SelectorThread selector;
+    private volatile SelectionKey key;
+    private volatile LinkListener listener;
+    private volatile int timeout;
+    private volatile long lastReadTime;
+    private volatile Exception failure;
+    private OutputStream snoopIn;
+    private OutputStream snoopOut;
+
+    private final PacketFactory packetFactory = new PacketFactory();
+    private final PacketDecoderImpl decoder = new PacketDecoderImpl();
+    private volatile boolean lazyDecoding = APIConfigFactory.getConfig()
+            .getBoolean(APIConfig.LINK_LAZY_DECODING, false);
+    private final BlockingQueue<Object> inbound = new LinkedBlockingQueue<Object>();
+    private volatile int maxPduSize = APIConfigFactory.getConfig()
+            .getInt(APIConfig.LINK_MAX_PDU_SIZE, DEFAULT_MAX_PDU_SIZE);
+    private ByteBuffer readBuffer = ByteBuffer.allocate(READ_BUFFER_SIZE);
+    private volatile boolean readSuspended;
+    private volatile boolean readPaused;
+
+    private final Object writeLock = new Object();
+    private final LinkedList<ByteBuffer> writeQueue = new LinkedList<ByteBuffer>();
+    private final EncodeBuffer encodeBuffer = new EncodeBuffer(512);
+    private final PacketEncoder encoder = new PacketEncoderImpl(encodeBuffer);
+    private int pendingBytes;
+    private final List<Runnable> drainTasks = new ArrayList<Runnable>();
+    private final List<Runnable> flushTasks = new ArrayList<Runnable>();
+    private int maxPendingBytes = DEFAULT_MAX_PENDING_BYTES;
+
+    /**
+     * Create a new NioLink.
+     * @param address IP address or hostname of the SMSC.
+     * @param port The port number to connect to.
+     * @throws java.net.UnknownHostException If the host is not found.
+     */
+    public NioLink(String address, int port) throws java.net.UnknownHostException {
+        this(InetAddress.getByName(address), port);
+    }
+
+    /**
+     * Create a new NioLink.
+     * @param address IP address of the SMSC.
+     * @param port The port number to connect to.
+     */
+    public NioLink(InetAddress address, int port) {
+        if (port < 1) {
+            port = TcpLink.DEFAULT_PORT;
+        }
+        this.address = new InetSocketAddress(address, port);
+    }
+
+    /**
+     * Create a new NioLink around an already-connected socket channel.
+     * The channel will be switched to non-blocking mode and registered with
+     * the selector pool immediately.
+     * @param channel The connected channel to use for communications.
+     * @throws IOException If the channel cannot be configured.
+     */
+    public NioLink(SocketChannel channel) throws IOException {
+        this(channel, null);
+    }
+
+    /**
+     * Create a new NioLink around an already-connected socket channel,
+     * serviced by a particular selector pool.
+     * @param channel The connected channel to use for communications.
+     * @param selectorPool The selector pool to register the channel with,
+     * or <code>null</code> to use the default pool.
+     * @throws IOException If the channel cannot be configured.
+     */
+    public NioLink(SocketChannel channel, SelectorPool selectorPool) throws IOException {
+        this.address = null;
+        this.selectorPool = selectorPool;
+        attach(channel);
+    }
+
+    /**
+     * Get the selector pool this link uses. If no pool has been set, the
+     * {@link SelectorPool#getDefault() default pool} is used.
+     * @return The selector pool.
+     */
+    public synchronized SelectorPool getSelectorPool() {
+        if (selectorPool == null) {
+            selectorPool = SelectorPool.getDefault();
+        }
+        return selectorPool;
+    }
+
+    /**
+     * Set the selector pool this link should use. This only takes effect
+     * the next time the link connects.
+     * @param selectorPool The selector pool to use.
+     */
+    public synchronized void setSelectorPool(SelectorPool selectorPool) {
+        this.selectorPool = selectorPool;
+    }
+
+    /**
+     * Get the listener that packets read from this link are delivered to.
+     * @return The current listener, or <code>null</code> if packets are
+     * being queued for {@link #read()}.
+     */
+    public LinkListener getLinkListener() {
+        return listener;
+    }
+
+    /**
+     * Set the listener that packets read from this link will be delivered
+     * to. Any packets that have already been read and queued for
+     * {@link #read()} are delivered to the new listener first, on the
+     * selector thread, before any newly-read packets. Setting the listener
+     * to <code>null</code> returns the link to queueing packets for
+     * <code>read()</code>.
+     * @param newListener The listener to deliver packets to.
+     */
+    public void setLinkListener(final LinkListener newListener) {
+        SelectorThread selectorThread = selector;
+        if (selectorThread == null || selectorThread.isSelectorThread()) {
+            switchListener(newListener);
+        } else {
+            selectorThread.execute(new Runnable() {
+                public void run() {
+                    switchListener(newListener);
+                }
+            });
+        }
+    }
+
+    /**
+     * Set the pool that packets read from this link are taken from. By
+     * default the {@link PacketPool#getDefault() shared pool} is used if
+     * packet pooling has been enabled.
+     * @param packetPool The packet pool, or <code>null</code> to allocate
+     * a new object for every packet.
+     */
+    public void setPacketPool(PacketPool packetPool) {
+        packetFactory.setPacketPool(packetPool);
+    }
+
+    /**
+     * Set whether packets read from this link are
+     * {@link SMPPPacket#readLazilyFrom(byte[]) decoded lazily}. The
+     * default is taken from the {@link APIConfig#LINK_LAZY_DECODING}
+     * property.
+     * @param lazyDecoding <code>true</code> to decode only the header of
+     * packets that support it until the rest is used.
+     */
+    public void setLazyDecoding(boolean lazyDecoding) {
+        this.lazyDecoding = lazyDecoding;
+    }
+
+    /**
+     * Get the maximum number of bytes that may be waiting to be written
+     * to the network before callers of {@link #write} block. Writes made
+     * on a selector thread, for instance by an observer of a session, are
+     * never blocked; they are queued beyond this limit instead.
+     * @return The maximum number of pending outbound bytes.
+     */
+    public int getMaxPendingBytes() {
+        return maxPendingBytes;
+    }
+
+    /**
+     * Set the maximum number of bytes that may be waiting to be written to
+     * the network before callers of {@link #write} block.
+     * @param maxPendingBytes The maximum number of pending outbound bytes.
+     */
+    public void setMaxPendingBytes(int maxPendingBytes) {
+        this.maxPendingBytes = maxPendingBytes;
+    }
+
+    /**
+     * Get the size of the largest packet this link will read.
+     * @return The maximum command length, in bytes.
+     */
+    public int getMaxPduSize() {
+        return maxPduSize;
+    }
+
+    /**
+     * Set the size of the largest packet this link will read. The link
+     * fails if the peer sends a longer packet. The default is taken from
+     * the {@link APIConfig#LINK_MAX_PDU_SIZE} property.
+     * @param maxPduSize The maximum command length, in bytes.
+     */
+    public void setMaxPduSize(int maxPduSize) {
+        this.maxPduSize = maxPduSize;
+    }
+
+    /**
+     * Get the address this link connects to.
+     * @return The address of the SMSC, or <code>null</code> if this link
+     * was created around an existing channel.
+     */
+    public InetSocketAddress getAddress() {
+        return address;
+    }
+
+    /**
+     * Set the snooper streams. See
+     * {@link AbstractStreamLink#setSnoopStreams} for details.
+     * @param snoopIn stream to receive incoming bytes from the SMSC (may be
+     * null).
+     * @param snoopOut stream to receive outgoing bytes to the SMSC (may be
+     * null).
+     */
+    public void setSnoopStreams(OutputStream snoopIn, OutputStream snoopOut) {
+        this.snoopIn = snoopIn;
+        this.snoopOut = snoopOut;
+    }
+
+    public void connect() throws IOException {
+        if (isConnected()) {
+            return;
+        }
+        if (address == null) {
+            LOG.debug("Cannot connect a link wrapped around a channel.");
+            throw new IllegalStateException();
+        }
+        LOG.info("Opening TCP channel to {}", address);
+        SocketChannel newChannel = SocketChannel.open();
+        try {
+            newChannel.socket().connect(address, timeout);
+        } catch (IOException x) {
+            newChannel.close();
+            throw x;
+        }
+        attach(newChannel);
+    }
+
+    public void disconnect() throws IOException {
+        SocketChannel oldChannel = channel;
+        if (oldChannel != null) {
+            LOG.info("Shutting down channel");
+            close(new EOFException("Link has been disconnected."));
+        }
+    }
+
+    public boolean isConnected() {
+        SocketChannel ch = channel;
+        return ch != null && ch.isOpen() && ch.isConnected();
+    }
+
+    public void write(SMPPPacket packet, boolean withOptionalParams) throws IOException {
+        synchronized (writeLock) {
+            SocketChannel ch = channel;
+            if (ch == null) {
+                throw new IOException(LINK_NOT_UP_ERR);
+            }
+            encodeAndWrite(ch, packet, withOptionalParams);
+            if (SelectorThread.onSelectorThread()) {
+                // Waiting here would stop the selector that drains the
+                // link, so the bytes are left queued as in writeRaw.
+                return;
+            }
+            while (pendingBytes > maxPendingBytes && channel == ch) {
+                waitForWriteLock();
+            }
+            if (channel != ch) {
+                throw new IOException(LINK_NOT_UP_ERR);
+            }
+        }
+    }
+
+    /**
+     * Write a packet without blocking. The packet is encoded into the
+     * link&apos;s re-usable buffer as for {@link #write}, but, as for
+     * {@link #writeRaw}, this method never waits for pending output to
+     * drain.
+     * @param packet The packet to write.
+     * @param withOptionalParams true to send the optional parameters too.
+     * @return <code>true</code> if the output pending on this link is
+     * within the {@link #getMaxPendingBytes() limit}, <code>false</code>
+     * if the caller should stop writing until the link has drained.
+     * @throws IOException If the link is not connected or the write fails.
+     */
+    public boolean writeNoWait(SMPPPacket packet, boolean withOptionalParams)
+            throws IOException {
+        synchronized (writeLock) {
+            SocketChannel ch = channel;
+            if (ch == null) {
+                throw new IOException(LINK_NOT_UP_ERR);
+            }
+            encodeAndWrite(ch, packet, withOptionalParams);
+            return pendingBytes <= maxPendingBytes;
+        }
+    }
+
+    /**
+     * Write an already-encoded packet without blocking. As much of the
+     * packet as the socket will take is written immediately and only the
+     * remainder is copied, so a relay can forward a packet straight from
+     * another link&apos;s read buffer. Unlike {@link #write}, this method
+     * never waits for pending output to drain, so it may be called on a
+     * selector thread; callers should use the return value and
+     * {@link #whenDrained(Runnable)} to apply back-pressure.
+     * @param pdu The bytes of the packet, from its position to its limit.
+     * The buffer&apos;s position is advanced past the bytes written.
+     * @return <code>true</code> if the output pending on this link is
+     * within the {@link #getMaxPendingBytes() limit}, <code>false</code>
+     * if the caller should stop writing until the link has drained.
+     * @throws IOException If the link is not connected or the write fails.
+     */
+    public boolean writeRaw(ByteBuffer pdu) throws IOException {
+        synchronized (writeLock) {
+            SocketChannel ch = channel;
+            if (ch == null) {
+                throw new IOException(LINK_NOT_UP_ERR);
+            }
+            if (snoopOut != null && pdu.hasArray()) {
+                dump(snoopOut, pdu.array(),
+                        pdu.arrayOffset() + pdu.position(), pdu.remaining());
+            }
+            writeBuffer(ch, pdu);
+            return pendingBytes <= maxPendingBytes;
+        }
+    }
+
+    /**
+     * Run a task once the output pending on this link has fallen to half
+     * of the {@link #getMaxPendingBytes() limit} or less. If it already
+     * has, the task is run immediately on the calling thread; otherwise it
+     * is run on the selector thread. Tasks are discarded if the link is
+     * closed first.
+     * @param task The task to run.
+     */
+    public void whenDrained(Runnable task) {
+        synchronized (writeLock) {
+            if (channel != null && pendingBytes > maxPendingBytes / 2) {
+                drainTasks.add(task);
+                return;
+            }
+        }
+        task.run();
+    }
+
+    /**
+     * Run a task once all the output pending on this link has been
+     * written to the network. If it already has, the task is run
+     * immediately on the calling thread; otherwise it is run on the
+     * selector thread. Tasks are discarded if the link is closed first.
+     * @param task The task to run.
+     */
+    public void whenFlushed(Runnable task) {
+        synchronized (writeLock) {
+            if (channel != null && pendingBytes > 0) {
+                flushTasks.add(task);
+                return;
+            }
+        }
+        task.run();
+    }
+
+    /**
+     * Stop reading from the network until {@link #resumeReading()} is
+     * called. Packets already read are still delivered.
+     */
+    public void pauseReading() {
+        readPaused = true;
+        updateReadInterest();
+    }
+
+    /**
+     * Resume reading from the network after {@link #pauseReading()}.
+     */
+    public void resumeReading() {
+        readPaused = false;
+        updateReadInterest();
+    }
+
+    /**
+     * Block until all pending output has been written to the network.
+     * Called on a selector thread, this method returns immediately and
+     * the output is written as the socket accepts it.
+     * @throws IOException If the link is closed before all pending data
+     * could be written.
+     */
+    public void flush() throws IOException {
+        if (SelectorThread.onSelectorThread()) {
+            return;
+        }
+        synchronized (writeLock) {
+            SocketChannel ch = channel;
+            while (!writeQueue.isEmpty() && channel == ch) {
+                waitForWriteLock();
+            }
+            if (!writeQueue.isEmpty()) {
+                throw new IOException(LINK_NOT_UP_ERR);
+            }
+        }
+    }
+
+    /**
+     * Read the next packet from the link. This method may only be used
+     * when no {@link LinkListener} is set on the link.
+     * @return The next packet read from the SMSC.
+     * @throws IOException If the link is not connected or has failed.
+     * @throws ReadTimeoutException If no packet arrives within the link
+     * timeout.
+     */
+    public SMPPPacket read() throws IOException {
+        if (channel == null && inbound.isEmpty() && failure == null) {
+            throw new IOException(LINK_NOT_UP_ERR);
+        }
+        Object next = inbound.poll();
+        if (next == null) {
+            next = failure;
+        }
+        if (next == null) {
+            try {
+                if (timeout > 0) {
+                    next = inbound.poll(timeout, TimeUnit.MILLISECONDS);
+                } else {
+                    next = inbound.take();
+                }
+            } catch (InterruptedException x) {
+                throw new InterruptedIOException(
+                        "Interrupted while waiting for a packet");
+            }
+        }
+        if (next == null) {
+            throw new ReadTimeoutException();
+        }
+        if (readSuspended && inbound.size() < MAX_QUEUED_PACKETS / 2) {
+            readSuspended = false;
+            updateReadInterest();
+        }
+        if (next instanceof SMPPPacket) {
+            return (SMPPPacket) next;
+        } else if (next instanceof IOException) {
+            throw (IOException) next;
+        } else {
+            throw (RuntimeException) next;
+        }
+    }
+
+    public int getTimeout() {
+        return timeout;
+    }
+
+    /**
+     * Set the read timeout. This value is also used as the connect
+     * timeout.
+     * @param timeout The timeout to set, in milliseconds.
+     * @see SmscLink#setTimeout(int)
+     */
+    public void setTimeout(int timeout) {
+        this.timeout = timeout;
+        this.lastReadTime = System.currentTimeMillis();
+    }
+
+    public boolean isTimeoutSupported() {
+        return true;
+    }
+
+    @Override
+    public String toString() {
+        SocketChannel ch = channel;
+        if (ch != null) {
+            return "NioLink(" + ch.socket().getRemoteSocketAddress() + ")";
+        } else {
+            return "NioLink(" + address + ")";
+        }
+    }
+
+    /**
+     * Called on the selector thread once the channel has been registered.
+     */
+    void registered(SelectionKey selectionKey) {
+        if (channel != selectionKey.channel()) {
+            // Closed and possibly reconnected while the registration
+            // was pending.
+            selectionKey.cancel();
+            return;
+        }
+        this.key = selectionKey;
+        synchronized (writeLock) {
+            if (!writeQueue.isEmpty()) {
+                selectionKey.interestOps(
+                        selectionKey.interestOps() | SelectionKey.OP_WRITE);
+            }
+        }
+        if (readSuspended || readPaused) {
+            selectionKey.interestOps(
+                    selectionKey.interestOps() & ~SelectionKey.OP_READ);
+        }
+    }
+
+    /**
+     * Called on the selector thread when the channel is readable.
+     */
+    void handleRead() {
+        SocketChannel ch = channel;
+        if (ch == null) {
+            return;
+        }
+        try {
+            int count = ch.read(readBuffer);
+            if (count < 0) {
+                fail(new EOFException(END_OF_STREAM_ERR));
+                return;
+            }
+            lastReadTime = System.currentTimeMillis();
+            dump(snoopIn, readBuffer.array(), readBuffer.position() - count, count);
+            processReadBuffer();
+        } catch (IOException x) {
+            fail(x);
+        }
+    }
+
+    /**
+     * Called on the selector thread when the channel is writable.
+     */
+    void handleWrite() {
+        List<Runnable> drained = null;
+        synchronized (writeLock) {
+            SocketChannel ch = channel;
+            if (ch == null) {
+                return;
+            }
+            try {
+                while (!writeQueue.isEmpty()) {
+                    ByteBuffer buffer = writeQueue.getFirst();
+                    int count = ch.write(buffer);
+                    pendingBytes -= count;
+                    if (buffer.hasRemaining()) {
+                        break;
+                    }
+                    writeQueue.removeFirst();
+                }
+                if (writeQueue.isEmpty()) {
+                    key.interestOps(key.interestOps() & ~SelectionKey.OP_WRITE);
+                }
+                if (!drainTasks.isEmpty() && pendingBytes <= maxPendingBytes / 2) {
+                    drained = new ArrayList<Runnable>(drainTasks);
+                    drainTasks.clear();
+                }
+                if (!flushTasks.isEmpty() && pendingBytes == 0) {
+                    if (drained == null) {
+                        drained = new ArrayList<Runnable>(flushTasks.size());
+                    }
+                    drained.addAll(flushTasks);
+                    flushTasks.clear();
+                }
+            } catch (IOException x) {
+                fail(x);
+            } finally {
+                writeLock.notifyAll();
+            }
+        }
+        if (drained != null) {
+            for (Runnable task : drained) {
+                try {
+                    task.run();
+                } catch (RuntimeException x) {
+                    LOG.error("Drain task threw an exception", x);
+                }
+            }
+        }
+    }
+
+    /**
+     * Called on the selector thread periodically to check for read
+     * timeouts.
+     */
+    void checkTimeout(long now) {
+        LinkListener currentListener = listener;
+        int currentTimeout = timeout;
+        if (currentListener != null && currentTimeout > 0
+                && now - lastReadTime >= currentTimeout) {
+            lastReadTime = now;
+            try {
+                currentListener.readTimeout(this);
+            } catch (RuntimeException x) {
+                LOG.error("Link listener threw an exception", x);
+            }
+        }
+    }
+
+    /**
+     * Fail the link. The channel is closed and the failure reported
+     * to the listener or to the next caller of {@link #read()}.
+     * @param cause The reason for the failure.
+     */
+    void fail(IOException cause) {
+        if (channel != null) {
+            LOG.debug("Link failed", cause);
+            close(cause);
+        }
+    }
+
+    private void attach(SocketChannel newChannel) throws IOException {
+        newChannel.configureBlocking(false);
+        SelectorThread selectorThread = getSelectorPool().nextSelector();
+        synchronized (writeLock) {
+            writeQueue.clear();
+            drainTasks.clear();
+            flushTasks.clear();
+            pendingBytes = 0;
+        }
+        inbound.clear();
+        if (readBuffer.capacity() > READ_BUFFER_SIZE) {
+            readBuffer = ByteBuffer.allocate(READ_BUFFER_SIZE);
+        } else {
+            readBuffer.clear();
+        }
+        readSuspended = false;
+        readPaused = false;
+        failure = null;
+        key = null;
+        lastReadTime = System.currentTimeMillis();
+        this.selector = selectorThread;
+        this.channel = newChannel;
+        selectorThread.register(newChannel, this);
+    }
+
+    private void close(IOException cause) {
+        SocketChannel oldChannel;
+        synchronized (writeLock) {
+            oldChannel = channel;
+            if (oldChannel == null) {
+                return;
+            }
+            channel = null;
+            drainTasks.clear();
+            flushTasks.clear();
+            writeLock.notifyAll();
+        }
+        SelectionKey oldKey = key;
+        if (oldKey != null) {
+            oldKey.cancel();
+        }
+        try {
+            oldChannel.close();
+        } catch (IOException x) {
+            LOG.debug("Exception closing channel", x);
+        }
+        deliverError(cause);
+    }
+
+    private void switchListener(LinkListener newListener) {
+        if (newListener != null) {
+            Object next;
+            while ((next = inbound.poll()) != null) {
+                deliverTo(newListener, next);
+            }
+            if (readSuspended) {
+                readSuspended = false;
+                updateReadInterest();
+            }
+        }
+        this.listener = newListener;
+    }
+
+    private void processReadBuffer() {
+        readBuffer.flip();
+        byte[] array = readBuffer.array();
+        while (readBuffer.remaining() >= 4) {
+            int start = readBuffer.position();
+            int commandLen = SMPPIO.readInt4(array, start);
+            if (commandLen < 16 || commandLen > maxPduSize) {
+                fail(new IOException("Invalid command length " + commandLen));
+                return;
+            }
+            if (readBuffer.remaining() < commandLen) {
+                if (commandLen > readBuffer.capacity()) {
+                    ByteBuffer newBuffer = ByteBuffer.allocate(commandLen);
+                    newBuffer.put(readBuffer);
+                    readBuffer = newBuffer;
+                    return;
+                }
+                break;
+            }
+            readBuffer.position(start + commandLen);
+            LinkListener currentListener = listener;
+            if (currentListener instanceof RawLinkListener
+                    && offerRaw((RawLinkListener) currentListener, array, start, commandLen)) {
+                continue;
+            }
+            deliver(decode(array, start, commandLen));
+        }
+        if (readBuffer.capacity() > READ_BUFFER_SIZE
+                && (readBuffer.remaining() < 4 || SMPPIO.readInt4(
+                        array, readBuffer.position()) <= READ_BUFFER_SIZE)) {
+            // The large packet that grew the buffer has been read and the
+            // next one fits in a buffer of the normal size.
+            ByteBuffer newBuffer = ByteBuffer.allocate(READ_BUFFER_SIZE);
+            newBuffer.put(readBuffer);
+            readBuffer = newBuffer;
+        } else {
+            readBuffer.compact();
+        }
+    }
+
+    private boolean offerRaw(RawLinkListener target, byte[] array, int start, int length) {
+        try {
+            return target.pduReceived(this, ByteBuffer.wrap(array, start, length).slice());
+        } catch (RuntimeException x) {
+            LOG.error("Link listener threw an exception", x);
+            return true;
+        }
+    }
+
+    private Object decode(byte[] array, int start, int length) {
+        try {
+            int commandId = SMPPIO.readInt4(array, start + 4);
+            SMPPPacket packet = packetFactory.newInstance(commandId);
+            if (lazyDecoding) {
+                // The read buffer is re-used, so the packet needs its own
+                // copy of the bytes it will decode from later.
+                byte[] pdu = new byte[length];
+                System.arraycopy(array, start, pdu, 0, length);
+                packet.readLazilyFrom(pdu);
+                return packet;
+            }
+            decoder.setBytes(array);
+            decoder.setParsePosition(start);
+            packet.readFrom(decoder);
+            return packet;
+        } catch (RuntimeException x) {
+            return x;
+        }
+    }
+
+    private void deliver(Object packetOrError) {
+        LinkListener currentListener = listener;
+        if (currentListener != null) {
+            deliverTo(currentListener, packetOrError);
+        } else {
+            inbound.add(packetOrError);
+            if (!readSuspended && inbound.size() >= MAX_QUEUED_PACKETS) {
+                readSuspended = true;
+                updateReadInterest();
+            }
+        }
+    }
+
+    private void deliverError(Exception cause) {
+        failure = cause;
+        LinkListener currentListener = listener;
+        if (currentListener != null) {
+            SelectorThread selectorThread = selector;
+            if (selectorThread != null && !selectorThread.isSelectorThread()) {
+                final LinkListener l = currentListener;
+                final Exception x = cause;
+                selectorThread.execute(new Runnable() {
+                    public void run() {
+                        deliverTo(l, x);
+                    }
+                });
+            } else {
+                deliverTo(currentListener, cause);
+            }
+        } else {
+            inbound.add(cause);
+        }
+    }
+
+    private void deliverTo(LinkListener target, Object packetOrError) {
+        try {
+            if (packetOrError instanceof SMPPPacket) {
+                target.packetReceived(this, (SMPPPacket) packetOrError);
+            } else {
+                target.linkFailed(this, (Exception) packetOrError);
+            }
+        } catch (RuntimeException x) {
+            LOG.error("Link listener threw an exception", x);
+        }
+    }
+
+    /**
+     * Encode a packet into the re-usable encode buffer and write it. Must
+     * be called holding the write lock.
+     */
+    private void encodeAndWrite(SocketChannel ch, SMPPPacket packet,
+            boolean withOptionalParams) throws IOException {
+        encodeBuffer.reset(packet.getLength());
+        packet.writeTo(encoder, withOptionalParams);
+        byte[] bytes = encodeBuffer.getBytes();
+        int length = encodeBuffer.size();
+        writeBuffer(ch, ByteBuffer.wrap(bytes, 0, length));
+        dump(snoopOut, bytes, 0, length);
+    }
+
+    /**
+     * Write as much of a buffer as the channel will take, queueing a copy
+     * of the rest. Must be called holding the write lock.
+     */
+    private void writeBuffer(SocketChannel ch, ByteBuffer buffer) throws IOException {
+        if (writeQueue.isEmpty()) {
+            ch.write(buffer);
+        }
+        if (buffer.hasRemaining()) {
+            // Copy the unwritten bytes as the source buffer is re-used.
+            ByteBuffer remaining = ByteBuffer.allocate(buffer.remaining());
+            remaining.put(buffer);
+            remaining.flip();
+            boolean wasEmpty = writeQueue.isEmpty();
+            writeQueue.add(remaining);
+            pendingBytes += remaining.remaining();
+            if (wasEmpty) {
+                setInterest(SelectionKey.OP_WRITE, true);
+            }
+        }
+    }
+
+    /**
+     * Enable reading unless it is suspended or paused. The flags are read
+     * on the selector thread so that concurrent changes cannot be applied
+     * out of order.
+     */
+    private void updateReadInterest() {
+        runOnSelector(new Runnable() {
+            public void run() {
+                SelectionKey k = key;
+                if (k != null && k.isValid()) {
+                    if (!readSuspended && !readPaused) {
+                        k.interestOps(k.interestOps() | SelectionKey.OP_READ);
+                    } else {
+                        k.interestOps(k.interestOps() & ~SelectionKey.OP_READ);
+                    }
+                }
+            }
+        });
+    }
+
+    private void setInterest(final int op, final boolean enable) {
+        runOnSelector(new Runnable() {
+            public void run() {
+                SelectionKey k = key;
+                if (k != null && k.isValid()) {
+                    if (enable) {
+                        k.interestOps(k.interestOps() | op);
+                    } else {
+                        k.interestOps(k.interestOps() & ~op);
+                    }
+                }
+            }
+        });
+    }
+
+    private void runOnSelector(Runnable task) {
+        SelectorThread selectorThread = selector;
+        if (selectorThread == null) {
+            return;
+        }
+        if (selectorThread.isSelectorThread()) {
+            task.run();
+        } else {
+            selectorThread.execute(task);
+        }
+    }
+
+    private void waitForWriteLock() throws IOException {
+        try {
+            writeLock.wait();
+        } catch (InterruptedException x) {
+            throw new InterruptedIOException(
+                    "Interrupted while waiting for the link to drain");
+        }
+    }
+
+    private void dump(OutputStream s, byte[] b, int offset, int len) {
+        try {
+            if (s != null) {
+                s.write(b, offset, len);
+            }
+        } catch (IOException x) {
+            LOG.warn("Couldn't write bytes to snooper.", x);
+        }
+    }
+}
@@ -0,0 +1,31 @@
+package com.adenki.smpp.net;
+
+import java.nio.ByteBuffer;
+
+/**
+ * A {@link LinkListener} that is offered each packet read by a
+ * {@link NioLink} as raw bytes before it is decoded. This lets relays
+ * forward packets without the cost of decoding and re-encoding them.
+ * <p>
+ * The buffer passed to {@link #pduReceived} is a view onto the
+ * link&apos;s read buffer. Its position is zero and its limit is the
+ * command length of the packet. It may be modified in place, for example
+ * to rewrite the sequence number, or handed to
+ * {@link NioLink#writeRaw(ByteBuffer)} of another link, but it must not
+ * be used after <code>pduReceived</code> returns.
+ * </p>
+ * @version $Id$
+ * @see NioLink#setLinkListener(LinkListener)
+ */
+public interface RawLinkListener extends LinkListener {
+    /**
+     * Called when a complete packet has been read from the link, before
+     * it is decoded.
+     * @param link The link the packet was read from.
+     * @param pdu The bytes of the packet, header included.
+     * @return <code>true</code> if the listener has dealt with the
+     * packet, <code>false</code> to have the link decode it and pass it to
+     * {@link LinkListener#packetReceived}.
+     */
+    boolean pduReceived(NioLink link, ByteBuffer pdu);
+}
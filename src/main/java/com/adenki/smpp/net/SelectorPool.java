@@ -0,0 +1,101 @@
+package com.adenki.smpp.net;
+
+import java.io.IOException;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import com.adenki.smpp.SMPPRuntimeException;
+import com.adenki.smpp.util.APIConfig;
+import com.adenki.smpp.util.APIConfigFactory;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * A fixed-size pool of selector threads shared by {@link NioLink}
+ * instances. Each link is assigned to one selector thread when it connects
+ * and all of its network I/O and inbound packet decoding happens on that
+ * thread. This allows a large number of SMPP sessions to be serviced by
+ * a small number of threads.
+ * <p>
+ * Most applications will use the {@link #getDefault() default pool}, the
+ * size of which is read from the {@link APIConfig#LINK_SELECTOR_THREADS}
+ * property. If that property is not set, one selector thread is created
+ * per available processor, up to a maximum of 4.
+ * </p>
+ * @version $Id$
+ */
+public class SelectorPool {
+    private static final Logger LOG = LoggerFactory.getLogger(SelectorPool.class);
+    private static final AtomicInteger POOL_ID = new AtomicInteger(1);
+    private static SelectorPool defaultPool;
+
+    private final SelectorThread[] selectors;
+    private final AtomicInteger next = new AtomicInteger();
+
+    /**
+     * Create a new selector pool.
+     * @param threadCount The number of selector threads to create.
+     * @throws SMPPRuntimeException If a selector cannot be opened.
+     */
+    public SelectorPool(int threadCount) {
+        if (threadCount < 1) {
+            throw new IllegalArgumentException(
+                    "Selector pool needs at least one thread");
+        }
+        String name = "SelectorPool-" + POOL_ID.getAndIncrement();
+        selectors = new SelectorThread[threadCount];
+        try {
+            for (int i = 0; i < threadCount; i++) {
+                selectors[i] = new SelectorThread(name + "-" + i);
+            }
+        } catch (IOException x) {
+            shutdown();
+            throw new SMPPRuntimeException("Could not open a selector", x);
+        }
+        LOG.debug("Created {} with {} threads", name, threadCount);
+    }
+
+    /**
+     * Get the default, shared, selector pool. The pool is created on the
+     * first call to this method.
+     * @return The default selector pool.
+     */
+    public static synchronized SelectorPool getDefault() {
+        if (defaultPool == null) {
+            int processors = Runtime.getRuntime().availableProcessors();
+            APIConfig config = APIConfigFactory.getConfig();
+            int threads = config.getInt(APIConfig.LINK_SELECTOR_THREADS,
+                    Math.min(processors, 4));
+            defaultPool = new SelectorPool(threads);
+        }
+        return defaultPool;
+    }
+
+    /**
+     * Get the number of selector threads in this pool.
+     * @return The number of selector threads.
+     */
+    public int getThreadCount() {
+        return selectors.length;
+    }
+
+    /**
+     * Shut down all of the selector threads in this pool. Any links that
+     * are still connected through this pool will be closed.
+     */
+    public void shutdown() {
+        for (SelectorThread selector : selectors) {
+            if (selector != null) {
+                selector.shutdown();
+            }
+        }
+    }
+
+    /**
+     * Get the selector thread that the next link should be assigned to.
+     * @return A selector thread from this pool.
+     */
+    SelectorThread nextSelector() {
+        int index = (next.getAndIncrement() & Integer.MAX_VALUE) % selectors.length;
+        return selectors[index];
+    }
+}
@@ -0,0 +1,179 @@
+package com.adenki.smpp.net;
+
+import java.io.IOException;
+import java.nio.channels.CancelledKeyException;
+import java.nio.channels.ClosedChannelException;
+import java.nio.channels.SelectableChannel;
+import java.nio.channels.SelectionKey;
+import java.nio.channels.Selector;
+import java.util.Iterator;
+import java.util.Queue;
+import java.util.concurrent.ConcurrentLinkedQueue;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * A single thread running a {@link Selector} on behalf of a number of
+ * {@link NioLink}s. All changes to the registration or interest set of
+ * a link&apos;s channel are submitted as tasks and run on the selector
+ * thread itself, so that callers never block against a thread sitting in
+ * {@link Selector#select}.
+ * @version $Id$
+ */
+final class SelectorThread implements Runnable {
+    private static final Logger LOG = LoggerFactory.getLogger(SelectorThread.class);
+
+    /**
+     * How often, in milliseconds, registered links are checked for
+     * read timeouts.
+     */
+    private static final long TIMEOUT_CHECK_INTERVAL = 250L;
+
+    /**
+     * Set on every selector thread, so that links can tell when they are
+     * called from any selector, not only their own.
+     */
+    private static final ThreadLocal<Boolean> SELECTOR_THREAD =
+        new ThreadLocal<Boolean>();
+
+    private final Selector selector;
+    private final Thread thread;
+    private final Queue<Runnable> tasks = new ConcurrentLinkedQueue<Runnable>();
+    private volatile boolean running = true;
+    private long lastTimeoutCheck;
+
+    SelectorThread(String name) throws IOException {
+        selector = Selector.open();
+        thread = new Thread(this, name);
+        thread.setDaemon(true);
+        thread.start();
+    }
+
+    /**
+     * Run a task on the selector thread. If the caller is the selector
+     * thread, the task is still queued and will run before the next
+     * select.
+     * @param task The task to run.
+     */
+    void execute(Runnable task) {
+        tasks.add(task);
+        if (Thread.currentThread() != thread) {
+            selector.wakeup();
+        }
+    }
+
+    boolean isSelectorThread() {
+        return Thread.currentThread() == thread;
+    }
+
+    /**
+     * Determine if the calling thread is running any selector.
+     * @return <code>true</code> if the caller is a selector thread.
+     */
+    static boolean onSelectorThread() {
+        return SELECTOR_THREAD.get() != null;
+    }
+
+    /**
+     * Register a link&apos;s channel with this selector for reads.
+     * @param channel The (non-blocking) channel to register.
+     * @param link The link that will handle events for the channel.
+     */
+    void register(final SelectableChannel channel, final NioLink link) {
+        execute(new Runnable() {
+            public void run() {
+                try {
+                    SelectionKey key =
+                        channel.register(selector, SelectionKey.OP_READ, link);
+                    link.registered(key);
+                } catch (ClosedChannelException x) {
+                    link.fail(x);
+                }
+            }
+        });
+    }
+
+    /**
+     * Stop the selector thread. Any channels still registered are closed.
+     */
+    void shutdown() {
+        running = false;
+        selector.wakeup();
+    }
+
+    public void run() {
+        LOG.debug("Selector thread starting.");
+        SELECTOR_THREAD.set(Boolean.TRUE);
+        while (running) {
+            try {
+                selector.select(TIMEOUT_CHECK_INTERVAL);
+                runTasks();
+                processSelectedKeys();
+                checkTimeouts();
+            } catch (IOException x) {
+                LOG.error("I/O error in selector loop", x);
+            } catch (RuntimeException x) {
+                LOG.error("Unexpected exception in selector loop", x);
+            }
+        }
+        closeAll();
+        LOG.debug("Selector thread exiting.");
+    }
+
+    private void runTasks() {
+        Runnable task;
+        while ((task = tasks.poll()) != null) {
+            try {
+                task.run();
+            } catch (RuntimeException x) {
+                LOG.error("Selector task threw an exception", x);
+            }
+        }
+    }
+
+    private void processSelectedKeys() {
+        Iterator<SelectionKey> iter = selector.selectedKeys().iterator();
+        while (iter.hasNext()) {
+            SelectionKey key = iter.next();
+            iter.remove();
+            NioLink link = (NioLink) key.attachment();
+            try {
+                if (key.isValid() && key.isReadable()) {
+                    link.handleRead();
+                }
+                if (key.isValid() && key.isWritable()) {
+                    link.handleWrite();
+                }
+            } catch (CancelledKeyException x) {
+                LOG.debug("Key cancelled while processing {}", link);
+            }
+        }
+    }
+
+    private void checkTimeouts() {
+        long now = System.currentTimeMillis();
+        if (now - lastTimeoutCheck < TIMEOUT_CHECK_INTERVAL) {
+            return;
+        }
+        lastTimeoutCheck = now;
+        for (SelectionKey key : selector.keys()) {
+            if (key.isValid()) {
+                ((NioLink) key.attachment()).checkTimeout(now);
+            }
+        }
+    }
+
+    private void closeAll() {
+        runTasks();
+        for (SelectionKey key : selector.keys()) {
+            ((NioLink) key.attachment()).fail(
+                    new IOException("Selector has been shut down."));
+        }
+        try {
+            selector.close();
+        } catch (IOException x) {
+            LOG.debug("Exception closing selector", x);
+        }
+    }
+}
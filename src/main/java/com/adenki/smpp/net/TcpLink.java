@@ -170,7 +170,7 @@ public class TcpLink extends AbstractStreamLink {
     }
 
     public boolean isConnected() {
-        return sock != null && sock.isConnected();
+        return sock != null && sock.isConnected() && !sock.isClosed();
     }
 
     /**
@@ -209,7 +209,7 @@ public class TcpLink extends AbstractStreamLink {
     }
     
     public void connect() throws java.io.IOException {
-        if (sock != null) {
+        if (sock != null || addr == null) {
             LOG.debug("Cannot connect a link wrapped around a socket.");
             throw new IllegalStateException();
         }
@@ -227,8 +227,11 @@ public class TcpLink extends AbstractStreamLink {
     public void disconnect() throws java.io.IOException {
         if (isConnected()) {
             LOG.info("Shutting down socket connection");
+            flushIfIdle();
             sock.close();
             sock = null;
+        } else if (sock != null && sock.isClosed()) {
+            sock = null;
         }
     }
 
@@ -0,0 +1,46 @@
+package com.adenki.smpp.relay;
+
+import com.adenki.smpp.message.Bind;
+import com.adenki.smpp.message.CommandId;
+import com.adenki.smpp.message.SMPPPacket;
+import com.adenki.smpp.net.NioLink;
+
+/**
+ * Rewrites the credentials of bind requests passing from ESMEs to the
+ * SMSC, so that internal applications can bind to a relay with their own
+ * system IDs while the relay binds upstream with the account issued by
+ * the SMSC operator.
+ * @version $Id$
+ */
+public class BindRewriteRule implements RelayRule {
+    private final String systemId;
+    private final String password;
+
+    /**
+     * Create a rule that rewrites the system ID and password of binds.
+     * @param systemId The system ID to bind to the SMSC with.
+     * @param password The password to bind with, or <code>null</code> to
+     * leave the ESME&apos;s password unchanged.
+     */
+    public BindRewriteRule(String systemId, String password) {
+        this.systemId = systemId;
+        this.password = password;
+    }
+
+    public boolean inspects(int commandId) {
+        return commandId == CommandId.BIND_TRANSMITTER
+            || commandId == CommandId.BIND_RECEIVER
+            || commandId == CommandId.BIND_TRANSCEIVER;
+    }
+
+    public SMPPPacket inspect(PduRelay relay, NioLink source, SMPPPacket packet) {
+        if (source == relay.getEsmeLink()) {
+            Bind bind = (Bind) packet;
+            bind.setSystemId(systemId);
+            if (password != null) {
+                bind.setPassword(password);
+            }
+        }
+        return packet;
+    }
+}
@@ -0,0 +1,378 @@
+package com.adenki.smpp.relay;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.util.List;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicLong;
+
+import com.adenki.smpp.message.CommandId;
+import com.adenki.smpp.message.SMPPPacket;
+import com.adenki.smpp.net.NioLink;
+import com.adenki.smpp.net.RawLinkListener;
+import com.adenki.smpp.net.SmscLink;
+import com.adenki.smpp.util.APIConfig;
+import com.adenki.smpp.util.APIConfigFactory;
+import com.adenki.smpp.util.ConcurrentLongMap;
+import com.adenki.smpp.util.DefaultSequenceScheme;
+import com.adenki.smpp.util.PacketEncoderImpl;
+import com.adenki.smpp.util.SMPPIO;
+import com.adenki.smpp.util.SequenceNumberScheme;
+import com.adenki.smpp.util.TimingWheel;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * Relays packets between an ESME and an SMSC without decoding them.
+ * <p>
+ * Each packet read from one link is framed by its command length and its
+ * 16-byte header is read in place. Requests are given a new sequence
+ * number from the relay&apos;s own sequence for the link they are
+ * forwarded to, and responses are given back the sequence number of the
+ * request they answer, by rewriting the header in the read buffer. The
+ * packet is then written to the other link straight from that buffer.
+ * Only packets whose command ID a {@link RelayRule} inspects are decoded
+ * and re-encoded.
+ * </p>
+ * <p>
+ * All forwarding happens on the links&apos; selector threads. If the
+ * link being written to has more output pending than its
+ * {@link NioLink#getMaxPendingBytes() limit}, reading from the other link
+ * is paused until it drains, so a slow SMSC applies back-pressure to the
+ * ESME and the other way round.
+ * </p>
+ * <p>
+ * The relay remembers the original sequence number of each forwarded
+ * request until its response comes back, or until the
+ * {@link #setResponseTimeout(long) response timeout} passes, after which a
+ * late response is dropped. Requests that have no response, such as
+ * <code>alert_notification</code>, are not remembered.
+ * </p>
+ * <p>
+ * When either link fails the relay closes the other.
+ * </p>
+ * @version $Id$
+ * @see SmppProxy
+ */
+public class PduRelay {
+    private static final Logger LOG = LoggerFactory.getLogger(PduRelay.class);
+
+    /**
+     * The response timeout used if
+     * {@link APIConfig#CONNECTION_RESPONSE_TIMEOUT} is not set.
+     */
+    public static final long DEFAULT_RESPONSE_TIMEOUT = 60000L;
+
+    private final NioLink esmeLink;
+    private final NioLink smscLink;
+    private final Direction toSmsc;
+    private final Direction toEsme;
+    private final List<RelayRule> rules = new CopyOnWriteArrayList<RelayRule>();
+    private final AtomicBoolean closed = new AtomicBoolean();
+    private final AtomicLong forwarded = new AtomicLong();
+    private final AtomicLong decoded = new AtomicLong();
+    private volatile Runnable closeHandler;
+    private volatile long responseTimeout;
+
+    /**
+     * Create a relay between two connected links.
+     * @param esmeLink The link to the ESME.
+     * @param smscLink The link to the SMSC.
+     */
+    public PduRelay(NioLink esmeLink, NioLink smscLink) {
+        this.esmeLink = esmeLink;
+        this.smscLink = smscLink;
+        this.toSmsc = new Direction(esmeLink, smscLink);
+        this.toEsme = new Direction(smscLink, esmeLink);
+        toSmsc.peer = toEsme;
+        toEsme.peer = toSmsc;
+        long timeout = APIConfigFactory.getConfig().getLong(
+                APIConfig.CONNECTION_RESPONSE_TIMEOUT, 0L);
+        responseTimeout = timeout > 0L ? timeout : DEFAULT_RESPONSE_TIMEOUT;
+    }
+
+    public NioLink getEsmeLink() {
+        return esmeLink;
+    }
+
+    public NioLink getSmscLink() {
+        return smscLink;
+    }
+
+    /**
+     * Add a rule. Rules are applied in the order they were added.
+     * @param rule The rule to add.
+     */
+    public void addRule(RelayRule rule) {
+        rules.add(rule);
+    }
+
+    public void removeRule(RelayRule rule) {
+        rules.remove(rule);
+    }
+
+    /**
+     * Start relaying. Packets already read by either link are relayed
+     * first.
+     */
+    public void start() {
+        esmeLink.setLinkListener(toSmsc);
+        smscLink.setLinkListener(toEsme);
+    }
+
+    /**
+     * Close both links.
+     */
+    public void close() {
+        if (!closed.compareAndSet(false, true)) {
+            return;
+        }
+        disconnect(esmeLink);
+        disconnect(smscLink);
+        Runnable handler = closeHandler;
+        if (handler != null) {
+            handler.run();
+        }
+    }
+
+    public boolean isClosed() {
+        return closed.get();
+    }
+
+    /**
+     * Get the number of packets forwarded in either direction.
+     * @return The number of packets forwarded.
+     */
+    public long getForwardedCount() {
+        return forwarded.get();
+    }
+
+    /**
+     * Get the number of packets that were decoded for a rule to inspect.
+     * @return The number of packets decoded.
+     */
+    public long getDecodedCount() {
+        return decoded.get();
+    }
+
+    /**
+     * Get the number of forwarded requests, in either direction, whose
+     * response has not yet been relayed.
+     * @return The number of requests waiting on a response.
+     */
+    public int getPendingResponseCount() {
+        return toSmsc.originalNumbers.size() + toEsme.originalNumbers.size();
+    }
+
+    public long getResponseTimeout() {
+        return responseTimeout;
+    }
+
+    /**
+     * Set how long the relay waits for the response to a forwarded
+     * request. Responses that arrive later are dropped. The default is
+     * {@link APIConfig#CONNECTION_RESPONSE_TIMEOUT} if it is set, or
+     * {@link #DEFAULT_RESPONSE_TIMEOUT} otherwise.
+     * @param responseTimeout The timeout in milliseconds. Applies to
+     * requests forwarded after it is set.
+     * @throws IllegalArgumentException If <code>responseTimeout</code> is
+     * not positive.
+     */
+    public void setResponseTimeout(long responseTimeout) {
+        if (responseTimeout <= 0L) {
+            throw new IllegalArgumentException(
+                    "Response timeout must be positive: " + responseTimeout);
+        }
+        this.responseTimeout = responseTimeout;
+    }
+
+    /**
+     * Set a task to run once when the relay closes.
+     */
+    void setCloseHandler(Runnable closeHandler) {
+        this.closeHandler = closeHandler;
+    }
+
+    private boolean isInspected(int commandId) {
+        for (RelayRule rule : rules) {
+            if (rule.inspects(commandId)) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    /**
+     * Determine if a request has a response.
+     */
+    private static boolean expectsResponse(int commandId) {
+        return commandId != CommandId.ALERT_NOTIFICATION
+            && commandId != CommandId.OUTBIND;
+    }
+
+    private void disconnect(NioLink link) {
+        try {
+            link.disconnect();
+        } catch (IOException x) {
+            LOG.debug("Exception closing a relay link", x);
+        }
+    }
+
+    /**
+     * Forwards packets read from one link to the other.
+     */
+    private final class Direction implements RawLinkListener {
+        private final NioLink source;
+        private final NioLink target;
+        private final SequenceNumberScheme numberScheme = new DefaultSequenceScheme();
+        /**
+         * Maps the sequence numbers of requests forwarded to the target to
+         * the numbers they were read with.
+         */
+        private final ConcurrentLongMap<PendingResponse> originalNumbers =
+            new ConcurrentLongMap<PendingResponse>();
+        private final Runnable resumeSource = new Runnable() {
+            public void run() {
+                source.resumeReading();
+            }
+        };
+        private Direction peer;
+
+        Direction(NioLink source, NioLink target) {
+            this.source = source;
+            this.target = target;
+        }
+
+        public boolean pduReceived(NioLink link, ByteBuffer pdu) {
+            byte[] bytes = pdu.array();
+            int offset = pdu.arrayOffset();
+            int commandId = SMPPIO.readInt4(bytes, offset + 4);
+            if (isInspected(commandId)) {
+                return false;
+            }
+            long sequenceNum = SMPPIO.readUInt4(bytes, offset + 12);
+            long newNumber = renumber(commandId, sequenceNum);
+            if (newNumber < 0L) {
+                return true;
+            }
+            if (newNumber != sequenceNum) {
+                pdu.putInt(12, (int) newNumber);
+            }
+            forward(pdu);
+            return true;
+        }
+
+        public void packetReceived(SmscLink link, SMPPPacket packet) {
+            // Packets that were read before the relay started are also
+            // delivered here, whether a rule inspects them or not.
+            decoded.incrementAndGet();
+            for (RelayRule rule : rules) {
+                if (packet == null) {
+                    return;
+                }
+                if (rule.inspects(packet.getCommandId())) {
+                    packet = rule.inspect(PduRelay.this, source, packet);
+                }
+            }
+            if (packet == null) {
+                return;
+            }
+            long newNumber = renumber(packet.getCommandId(), packet.getSequenceNum());
+            if (newNumber < 0L) {
+                return;
+            }
+            packet.setSequenceNum(newNumber);
+            ByteArrayOutputStream out = new ByteArrayOutputStream(packet.getLength());
+            try {
+                packet.writeTo(new PacketEncoderImpl(out));
+            } catch (IOException x) {
+                LOG.error("Could not encode a relayed packet", x);
+                return;
+            }
+            forward(ByteBuffer.wrap(out.toByteArray()));
+        }
+
+        public void readTimeout(SmscLink link) {
+        }
+
+        public void linkFailed(SmscLink link, Exception cause) {
+            if (cause instanceof IOException) {
+                LOG.debug("Relay link {} failed", link, cause);
+                close();
+            } else {
+                LOG.warn("Dropping a packet from {} that could not be decoded", link, cause);
+            }
+        }
+
+        /**
+         * Get the sequence number to forward a packet with.
+         * @return The new sequence number, or -1 if the packet should be
+         * dropped.
+         */
+        private long renumber(int commandId, long sequenceNum) {
+            if ((commandId & 0x80000000) == 0) {
+                long newNumber = numberScheme.nextNumber();
+                if (expectsResponse(commandId)) {
+                    PendingResponse pending = new PendingResponse(newNumber, sequenceNum);
+                    originalNumbers.put(newNumber, pending);
+                    pending.timeout = TimingWheel.getDefault().schedule(
+                            pending, responseTimeout, TimeUnit.MILLISECONDS);
+                }
+                return newNumber;
+            }
+            PendingResponse pending = peer.originalNumbers.remove(sequenceNum);
+            if (pending != null) {
+                TimingWheel.Timeout timeout = pending.timeout;
+                if (timeout != null) {
+                    timeout.cancel();
+                }
+                return pending.originalNumber;
+            } else if (commandId == CommandId.GENERIC_NACK) {
+                // A nack of a packet whose header could not be read.
+                return sequenceNum;
+            }
+            LOG.debug("Dropping response {} with unknown sequence number {}",
+                    Integer.toHexString(commandId), Long.valueOf(sequenceNum));
+            return -1L;
+        }
+
+        private void forward(ByteBuffer pdu) {
+            try {
+                if (!target.writeRaw(pdu)) {
+                    source.pauseReading();
+                    target.whenDrained(resumeSource);
+                }
+                forwarded.incrementAndGet();
+            } catch (IOException x) {
+                LOG.debug("Could not forward to {}", target, x);
+                close();
+            }
+        }
+
+        /**
+         * A request forwarded to the target that is waiting on a response.
+         * Forgets the request when its response timeout passes.
+         */
+        private final class PendingResponse implements Runnable {
+            private final long sequenceNum;
+            private final long originalNumber;
+            private volatile TimingWheel.Timeout timeout;
+
+            PendingResponse(long sequenceNum, long originalNumber) {
+                this.sequenceNum = sequenceNum;
+                this.originalNumber = originalNumber;
+            }
+
+            public void run() {
+                if (originalNumbers.remove(sequenceNum, this)) {
+                    LOG.debug("No response from {} to request {} within {} ms",
+                            new Object[] {target, Long.valueOf(originalNumber),
+                                    Long.valueOf(responseTimeout)});
+                }
+            }
+        }
+    }
+}
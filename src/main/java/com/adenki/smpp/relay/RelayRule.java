@@ -0,0 +1,38 @@
+package com.adenki.smpp.relay;
+
+import com.adenki.smpp.message.SMPPPacket;
+import com.adenki.smpp.net.NioLink;
+
+/**
+ * A rule that inspects, and may rewrite or drop, packets passing through a
+ * {@link PduRelay}. The relay only decodes packets whose command ID one of
+ * its rules {@link #inspects inspects}; every other packet is forwarded as
+ * raw bytes.
+ * <p>
+ * Rules are called on the selector thread of the link the packet was
+ * read from and must not block.
+ * </p>
+ * @version $Id$
+ */
+public interface RelayRule {
+    /**
+     * Determine if this rule needs to see packets with a command ID.
+     * @param commandId The command ID from the packet header.
+     * @return <code>true</code> to have packets with this command ID
+     * decoded and passed to {@link #inspect}.
+     */
+    boolean inspects(int commandId);
+
+    /**
+     * Inspect a decoded packet. The packet still carries the sequence
+     * number it was read with; the relay renumbers it after all rules have
+     * run.
+     * @param relay The relay the packet is passing through.
+     * @param source The link the packet was read from, either
+     * {@link PduRelay#getEsmeLink()} or {@link PduRelay#getSmscLink()}.
+     * @param packet The packet.
+     * @return The packet to forward, which may be the same packet
+     * modified, or <code>null</code> to drop it.
+     */
+    SMPPPacket inspect(PduRelay relay, NioLink source, SMPPPacket packet);
+}
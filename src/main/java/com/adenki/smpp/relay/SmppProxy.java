@@ -0,0 +1,243 @@
+package com.adenki.smpp.relay;
+
+import java.io.IOException;
+import java.net.InetSocketAddress;
+import java.net.SocketAddress;
+import java.nio.channels.ClosedChannelException;
+import java.nio.channels.ServerSocketChannel;
+import java.nio.channels.SocketChannel;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.List;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import com.adenki.smpp.net.NioLink;
+import com.adenki.smpp.net.SelectorPool;
+import com.adenki.smpp.util.SharedExecutors;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * An SMPP proxy. Each ESME connection accepted by the proxy is matched
+ * with a new connection to the SMSC and the two are joined by a
+ * {@link PduRelay}, so packets pass through without being decoded unless
+ * one of the proxy&apos;s {@link RelayRule rules} inspects them.
+ * <pre>
+ * SmppProxy proxy = new SmppProxy(new InetSocketAddress(2775),
+ *         new InetSocketAddress("smsc.example.com", 2775));
+ * proxy.addRule(new BindRewriteRule("upstream-account", "secret"));
+ * proxy.start();
+ * </pre>
+ * <p>
+ * Both links of every relay are serviced by the proxy&apos;s
+ * {@link SelectorPool}, so the proxy needs no thread per connection.
+ * The connection to the SMSC is made on one of the
+ * {@link SharedExecutors#getIoThreads() shared I/O threads}, so a slow
+ * SMSC does not hold up accepting other ESMEs.
+ * </p>
+ * @version $Id$
+ */
+public class SmppProxy {
+    private static final Logger LOG = LoggerFactory.getLogger(SmppProxy.class);
+    private static final AtomicInteger PROXY_ID = new AtomicInteger(1);
+
+    /**
+     * Milliseconds to wait before accepting again after the first of a run
+     * of failed accepts. The wait doubles with each failure up to
+     * {@link #MAX_ACCEPT_BACKOFF}.
+     */
+    private static final long MIN_ACCEPT_BACKOFF = 10L;
+    private static final long MAX_ACCEPT_BACKOFF = 1000L;
+
+    private final SocketAddress listenAddress;
+    private final InetSocketAddress smscAddress;
+    private final List<RelayRule> rules = new CopyOnWriteArrayList<RelayRule>();
+    private final ConcurrentMap<PduRelay, Boolean> relays =
+        new ConcurrentHashMap<PduRelay, Boolean>();
+    private volatile SelectorPool selectorPool;
+    private volatile int connectTimeout = 30000;
+    private ServerSocketChannel serverChannel;
+    private Thread acceptThread;
+
+    /**
+     * Create a proxy.
+     * @param listenAddress The address to accept ESME connections on.
+     * @param smscAddress The address of the SMSC.
+     */
+    public SmppProxy(SocketAddress listenAddress, InetSocketAddress smscAddress) {
+        this.listenAddress = listenAddress;
+        this.smscAddress = smscAddress;
+    }
+
+    /**
+     * Add a rule to every relay created from now on.
+     * @param rule The rule to add.
+     */
+    public void addRule(RelayRule rule) {
+        rules.add(rule);
+    }
+
+    /**
+     * Set the selector pool that services the relayed links. If none is
+     * set, the {@link SelectorPool#getDefault() default pool} is used.
+     * @param selectorPool The selector pool.
+     */
+    public void setSelectorPool(SelectorPool selectorPool) {
+        this.selectorPool = selectorPool;
+    }
+
+    /**
+     * Set how long to wait for the connection to the SMSC.
+     * @param connectTimeout The timeout in milliseconds.
+     */
+    public void setConnectTimeout(int connectTimeout) {
+        this.connectTimeout = connectTimeout;
+    }
+
+    /**
+     * Start accepting connections.
+     * @throws IOException If the listening socket cannot be bound.
+     */
+    public synchronized void start() throws IOException {
+        if (serverChannel != null) {
+            throw new IllegalStateException("Proxy is already running");
+        }
+        final ServerSocketChannel channel = ServerSocketChannel.open();
+        try {
+            channel.socket().setReuseAddress(true);
+            channel.socket().bind(listenAddress);
+        } catch (IOException x) {
+            channel.close();
+            throw x;
+        }
+        serverChannel = channel;
+        acceptThread = new Thread(new Runnable() {
+            public void run() {
+                acceptLoop(channel);
+            }
+        }, "SmppProxy-" + PROXY_ID.getAndIncrement());
+        acceptThread.setDaemon(true);
+        acceptThread.start();
+        LOG.info("Relaying connections on {} to {}",
+                channel.socket().getLocalSocketAddress(), smscAddress);
+    }
+
+    /**
+     * Stop accepting connections and close every relay.
+     */
+    public synchronized void stop() {
+        if (serverChannel == null) {
+            return;
+        }
+        try {
+            serverChannel.close();
+        } catch (IOException x) {
+            LOG.debug("Exception closing the server channel", x);
+        }
+        serverChannel = null;
+        try {
+            acceptThread.join(1000L);
+        } catch (InterruptedException x) {
+            Thread.currentThread().interrupt();
+        }
+        acceptThread = null;
+        for (PduRelay relay : getRelays()) {
+            relay.close();
+        }
+    }
+
+    /**
+     * Get the port the proxy is listening on.
+     * @return The local port, or -1 if the proxy is not running.
+     */
+    public synchronized int getLocalPort() {
+        return serverChannel != null ? serverChannel.socket().getLocalPort() : -1;
+    }
+
+    /**
+     * Get the open relays.
+     * @return A snapshot of the open relays.
+     */
+    public Collection<PduRelay> getRelays() {
+        return new ArrayList<PduRelay>(relays.keySet());
+    }
+
+    private void acceptLoop(final ServerSocketChannel channel) {
+        long backoff = 0L;
+        while (channel.isOpen()) {
+            final SocketChannel accepted;
+            try {
+                accepted = channel.accept();
+                backoff = 0L;
+            } catch (ClosedChannelException x) {
+                break;
+            } catch (IOException x) {
+                backoff = Math.min(Math.max(backoff * 2L, MIN_ACCEPT_BACKOFF),
+                        MAX_ACCEPT_BACKOFF);
+                LOG.warn("Failed to accept a connection, retrying in {}ms",
+                        backoff, x);
+                try {
+                    Thread.sleep(backoff);
+                } catch (InterruptedException ix) {
+                    Thread.currentThread().interrupt();
+                    break;
+                }
+                continue;
+            }
+            SharedExecutors.getIoThreads().execute(new Runnable() {
+                public void run() {
+                    connect(channel, accepted);
+                }
+            });
+        }
+    }
+
+    private void connect(ServerSocketChannel channel, SocketChannel accepted) {
+        try {
+            relay(channel, accepted);
+        } catch (IOException x) {
+            LOG.warn("Could not connect to the SMSC at {}", smscAddress, x);
+            try {
+                accepted.close();
+            } catch (IOException ignore) {
+            }
+        }
+    }
+
+    private void relay(ServerSocketChannel channel, SocketChannel accepted)
+            throws IOException {
+        NioLink smscLink = new NioLink(smscAddress.getAddress(), smscAddress.getPort());
+        smscLink.setSelectorPool(selectorPool);
+        smscLink.setTimeout(connectTimeout);
+        smscLink.connect();
+        smscLink.setTimeout(0);
+        accepted.socket().setTcpNoDelay(true);
+        NioLink esmeLink;
+        try {
+            esmeLink = new NioLink(accepted, selectorPool);
+        } catch (IOException x) {
+            smscLink.disconnect();
+            throw x;
+        }
+        final PduRelay relay = new PduRelay(esmeLink, smscLink);
+        for (RelayRule rule : rules) {
+            relay.addRule(rule);
+        }
+        relay.setCloseHandler(new Runnable() {
+            public void run() {
+                relays.remove(relay);
+            }
+        });
+        relays.put(relay, Boolean.TRUE);
+        relay.start();
+        if (!channel.isOpen()) {
+            // The proxy was stopped while the SMSC link was connecting.
+            relay.close();
+            return;
+        }
+        LOG.debug("Relaying {} to {}", accepted.socket().getRemoteSocketAddress(), smscAddress);
+    }
+}
@@ -0,0 +1,5 @@
+/**
+ * Relaying of SMPP packets between ESMEs and SMSCs without decoding them,
+ * for building SMPP proxies.
+ */
+package com.adenki.smpp.relay;
@@ -0,0 +1,437 @@
+package com.adenki.smpp.simulator;
+
+import java.io.IOException;
+import java.io.PrintStream;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+
+import com.adenki.smpp.Address;
+import com.adenki.smpp.ResponseFuture;
+import com.adenki.smpp.ResponseListener;
+import com.adenki.smpp.Session;
+import com.adenki.smpp.SessionImpl;
+import com.adenki.smpp.SessionState;
+import com.adenki.smpp.SessionType;
+import com.adenki.smpp.event.SMPPEventAdapter;
+import com.adenki.smpp.message.DeliverSM;
+import com.adenki.smpp.message.SubmitSM;
+import com.adenki.smpp.util.AutoResponder;
+import com.adenki.smpp.util.LatencyHistogram;
+import com.adenki.smpp.util.PacketStatus;
+import com.adenki.smpp.util.ThroughputLimiter;
+
+/**
+ * Command line load generator. It binds a number of sessions to an SMSC,
+ * either a remote one or an embedded {@link SmscSimulator}, and then
+ * either submits messages as fast as its window and rate allow or
+ * receives messages the SMSC delivers. At the end it reports the
+ * throughput and the response latency percentiles.
+ * <pre>
+ * java com.adenki.smpp.simulator.LoadGenerator -simulate -count 100000
+ *     -sessions 4 -window 200 -latency 1-20 -error-rate 0.001
+ * </pre>
+ * Run it without arguments for the list of options.
+ * @version $Id$
+ */
+public class LoadGenerator {
+    private static final long STATE_TIMEOUT = 10000L;
+    private static final long PROGRESS_INTERVAL = 1000L;
+
+    private String host = "localhost";
+    private int port = 2775;
+    private boolean simulate;
+    private boolean receive;
+    private int count = 10000;
+    private int sessions = 1;
+    private int window = 100;
+    private int rate;
+    private long minLatency;
+    private long maxLatency;
+    private double errorRate;
+    private boolean receipts;
+    private String systemId = "loadgen";
+    private String password = "secret";
+    private PrintStream out = System.out;
+
+    /**
+     * Create a load generator configured from command line arguments.
+     * @param args The command line arguments.
+     * @throws IllegalArgumentException If an argument is not valid.
+     */
+    public LoadGenerator(String[] args) {
+        for (int i = 0; i < args.length; i++) {
+            String arg = args[i];
+            if ("-simulate".equals(arg)) {
+                simulate = true;
+            } else if ("-receive".equals(arg)) {
+                receive = true;
+            } else if ("-receipts".equals(arg)) {
+                receipts = true;
+            } else if (i + 1 >= args.length) {
+                throw new IllegalArgumentException("Missing value for " + arg);
+            } else {
+                String value = args[++i];
+                if ("-host".equals(arg)) {
+                    host = value;
+                } else if ("-port".equals(arg)) {
+                    port = parseInt(arg, value, 0);
+                } else if ("-count".equals(arg)) {
+                    count = parseInt(arg, value, 1);
+                } else if ("-sessions".equals(arg)) {
+                    sessions = parseInt(arg, value, 1);
+                } else if ("-window".equals(arg)) {
+                    window = parseInt(arg, value, 0);
+                } else if ("-rate".equals(arg)) {
+                    rate = parseInt(arg, value, 0);
+                } else if ("-latency".equals(arg)) {
+                    int dash = value.indexOf('-');
+                    minLatency = parseInt(arg, dash < 0 ? value : value.substring(0, dash), 0);
+                    maxLatency = dash < 0
+                        ? minLatency : parseInt(arg, value.substring(dash + 1), 0);
+                } else if ("-error-rate".equals(arg)) {
+                    try {
+                        errorRate = Double.parseDouble(value);
+                    } catch (NumberFormatException x) {
+                        throw new IllegalArgumentException("Invalid value for " + arg);
+                    }
+                } else if ("-system-id".equals(arg)) {
+                    systemId = value;
+                } else if ("-password".equals(arg)) {
+                    password = value;
+                } else {
+                    throw new IllegalArgumentException("Unknown option " + arg);
+                }
+            }
+        }
+        if (!simulate && (minLatency > 0L || maxLatency > 0L || errorRate > 0.0)) {
+            throw new IllegalArgumentException(
+                    "-latency and -error-rate need -simulate");
+        }
+    }
+
+    public static void main(String[] args) {
+        if (args.length == 0) {
+            usage(System.out);
+            return;
+        }
+        LoadGenerator generator;
+        try {
+            generator = new LoadGenerator(args);
+        } catch (IllegalArgumentException x) {
+            System.err.println(x.getMessage());
+            usage(System.err);
+            System.exit(2);
+            return;
+        }
+        try {
+            Report report = generator.run();
+            System.out.println(report);
+        } catch (Exception x) {
+            x.printStackTrace();
+            System.exit(1);
+        }
+        System.exit(0);
+    }
+
+    /**
+     * Set where progress is printed while the load runs. Progress is
+     * printed to standard output by default.
+     * @param out The stream to print to, or <code>null</code> to print
+     * nothing.
+     */
+    public void setOutput(PrintStream out) {
+        this.out = out;
+    }
+
+    /**
+     * Run the load.
+     * @return The results.
+     * @throws IOException If a session cannot be bound.
+     * @throws InterruptedException If the calling thread is interrupted.
+     */
+    public Report run() throws IOException, InterruptedException {
+        SmscSimulator simulator = null;
+        if (simulate) {
+            simulator = new SmscSimulator(port);
+            simulator.setResponseProfile(new ResponseProfile(
+                    minLatency, maxLatency, errorRate, PacketStatus.SYSTEM_ERROR));
+            simulator.start();
+            port = simulator.getPort();
+        }
+        List<SessionImpl> bound = new ArrayList<SessionImpl>();
+        try {
+            Load load = new Load(count);
+            for (int i = 0; i < sessions; i++) {
+                bound.add(bind(load));
+            }
+            long start = System.nanoTime();
+            if (receive) {
+                if (simulator != null) {
+                    simulator.generateDeliveries(count, rate);
+                }
+            } else {
+                for (int i = 0; i < sessions; i++) {
+                    int share = count / sessions + (i < count % sessions ? 1 : 0);
+                    Thread sender = new Thread(
+                            new Sender(bound.get(i), load, share), "LoadGenerator-" + i);
+                    sender.setDaemon(true);
+                    sender.start();
+                }
+            }
+            while (!load.done.await(PROGRESS_INTERVAL, TimeUnit.MILLISECONDS)) {
+                if (out != null) {
+                    long done = count - load.done.getCount();
+                    long elapsed = System.nanoTime() - start;
+                    out.println(done + "/" + count + " "
+                            + (receive ? "received" : "completed") + ", "
+                            + (long) (done * 1e9 / elapsed) + " per second");
+                }
+            }
+            long elapsed = System.nanoTime() - start;
+            LatencyHistogram latency = load.latency;
+            if (receive) {
+                latency = simulator != null ? simulator.getDeliverLatency() : null;
+            }
+            return new Report(receive, count, load.errors.get(), elapsed, latency);
+        } finally {
+            for (SessionImpl session : bound) {
+                close(session);
+            }
+            if (simulator != null) {
+                simulator.stop();
+            }
+        }
+    }
+
+    private SessionImpl bind(final Load load) throws IOException, InterruptedException {
+        SessionImpl session = new SessionImpl(host, port);
+        session.setWindowSize(window, -1L);
+        if (rate > 0 && !receive) {
+            session.setThroughputLimiter(
+                    new ThroughputLimiter(Math.max(1, rate / sessions)));
+        }
+        session.addObserver(new AutoResponder(true));
+        if (receive) {
+            session.addObserver(new SMPPEventAdapter() {
+                @Override
+                public void deliverSM(Session source, DeliverSM deliverSM) {
+                    load.done.countDown();
+                }
+            });
+        }
+        session.bind(receive ? SessionType.RECEIVER : SessionType.TRANSCEIVER,
+                systemId, password, null);
+        if (!awaitState(session, SessionState.BOUND)) {
+            close(session);
+            throw new IOException("Could not bind to " + host + ":" + port);
+        }
+        return session;
+    }
+
+    private void close(SessionImpl session) {
+        try {
+            if (session.getState() == SessionState.BOUND) {
+                session.unbind();
+            }
+            if (awaitState(session, SessionState.UNBOUND)) {
+                session.closeLink();
+            }
+        } catch (IOException x) {
+            // The report has already been produced.
+        } catch (InterruptedException x) {
+            Thread.currentThread().interrupt();
+        }
+    }
+
+    /**
+     * Wait up to {@link #STATE_TIMEOUT} for a session to reach a state.
+     * Waiting for a bound state stops early if the bind fails.
+     */
+    private static boolean awaitState(SessionImpl session, SessionState state)
+            throws InterruptedException {
+        long deadline = System.currentTimeMillis() + STATE_TIMEOUT;
+        while (session.getState() != state) {
+            if (System.currentTimeMillis() > deadline
+                    || (state == SessionState.BOUND
+                            && session.getState() == SessionState.UNBOUND)) {
+                return false;
+            }
+            Thread.sleep(10L);
+        }
+        return true;
+    }
+
+    private static int parseInt(String option, String value, int min) {
+        try {
+            int result = Integer.parseInt(value);
+            if (result >= min) {
+                return result;
+            }
+        } catch (NumberFormatException x) {
+        }
+        throw new IllegalArgumentException("Invalid value for " + option + ": " + value);
+    }
+
+    private static void usage(PrintStream out) {
+        out.println("Usage: LoadGenerator [options]");
+        out.println("  -host <host>         SMSC host (default localhost)");
+        out.println("  -port <port>         SMSC port (default 2775, 0 for any with -simulate)");
+        out.println("  -simulate            Start an embedded SMSC simulator on the port");
+        out.println("  -receive             Receive deliveries instead of submitting");
+        out.println("  -count <n>           Number of messages (default 10000)");
+        out.println("  -sessions <n>        Number of sessions (default 1)");
+        out.println("  -window <n>          Outstanding requests per session (default 100)");
+        out.println("  -rate <n>            Messages per second, 0 for no limit (default 0)");
+        out.println("  -receipts            Request delivery receipts");
+        out.println("  -system-id <id>      Bind system ID (default loadgen)");
+        out.println("  -password <pwd>      Bind password (default secret)");
+        out.println("  -latency <ms[-ms]>   Simulator response latency");
+        out.println("  -error-rate <r>      Simulator error response rate, 0 to 1");
+    }
+
+    /**
+     * Progress of a run shared by its sessions.
+     */
+    private static final class Load implements ResponseListener {
+        private final CountDownLatch done;
+        private final AtomicLong errors = new AtomicLong();
+        private final LatencyHistogram latency = new LatencyHistogram();
+
+        Load(int count) {
+            done = new CountDownLatch(count);
+        }
+
+        public void requestCompleted(ResponseFuture future) {
+            if (future.getResponse() != null) {
+                latency.record(future.getLatency());
+                if (future.getResponse().getCommandStatus() != PacketStatus.OK) {
+                    errors.incrementAndGet();
+                }
+            } else {
+                errors.incrementAndGet();
+            }
+            done.countDown();
+        }
+    }
+
+    /**
+     * Submits one session&apos;s share of the messages.
+     */
+    private final class Sender implements Runnable {
+        private final SessionImpl session;
+        private final Load load;
+        private final int share;
+
+        Sender(SessionImpl session, Load load, int share) {
+            this.session = session;
+            this.load = load;
+            this.share = share;
+        }
+
+        public void run() {
+            Address source = new Address(0, 0, "12345");
+            byte[] message = "Load generator message".getBytes();
+            for (int i = 0; i < share; i++) {
+                SubmitSM submitSM = new SubmitSM();
+                submitSM.setSource(source);
+                submitSM.setDestination(
+                        new Address(1, 1, Long.toString(447700900000L + i)));
+                submitSM.setMessage(message);
+                if (receipts) {
+                    submitSM.setRegistered(1);
+                }
+                try {
+                    session.sendAsync(submitSM).addListener(load);
+                } catch (IOException x) {
+                    load.errors.incrementAndGet();
+                    load.done.countDown();
+                }
+            }
+        }
+    }
+
+    /**
+     * The results of a run.
+     */
+    public static final class Report {
+        private final boolean receive;
+        private final long count;
+        private final long errors;
+        private final long elapsed;
+        private final LatencyHistogram latency;
+
+        Report(boolean receive, long count, long errors, long elapsed,
+                LatencyHistogram latency) {
+            this.receive = receive;
+            this.count = count;
+            this.errors = errors;
+            this.elapsed = elapsed;
+            this.latency = latency;
+        }
+
+        /**
+         * Get the number of messages submitted or received.
+         */
+        public long getCount() {
+            return count;
+        }
+
+        /**
+         * Get the number of submissions that failed or were answered with
+         * an error status.
+         */
+        public long getErrors() {
+            return errors;
+        }
+
+        /**
+         * Get the duration of the run in nanoseconds.
+         */
+        public long getElapsed() {
+            return elapsed;
+        }
+
+        /**
+         * Get the number of messages per second.
+         */
+        public double getThroughput() {
+            return elapsed > 0L ? count * 1e9 / elapsed : 0.0;
+        }
+
+        /**
+         * Get the response latencies, in nanoseconds, of submissions or,
+         * when receiving from the simulator, of deliveries.
+         * @return The latency histogram, or <code>null</code> if latencies
+         * were not measured.
+         */
+        public LatencyHistogram getLatency() {
+            return latency;
+        }
+
+        @Override
+        public String toString() {
+            StringBuilder text = new StringBuilder();
+            text.append(receive ? "Received " : "Submitted ").append(count)
+                .append(" messages in ").append(String.format("%.3f", elapsed / 1e9))
+                .append("s, ").append(errors).append(" errors\n");
+            text.append("Throughput: ").append(String.format("%.1f", getThroughput()))
+                .append(" TPS\n");
+            if (latency != null && latency.getCount() > 0L) {
+                text.append("Latency (ms): p50=").append(millis(latency.getPercentile(50.0)))
+                    .append(" p99=").append(millis(latency.getPercentile(99.0)))
+                    .append(" p999=").append(millis(latency.getPercentile(99.9)))
+                    .append(" max=").append(millis(latency.getMax()));
+            } else {
+                text.append("Latency: not measured");
+            }
+            return text.toString();
+        }
+
+        private static String millis(long nanos) {
+            return String.format("%.3f", nanos / 1e6);
+        }
+    }
+}
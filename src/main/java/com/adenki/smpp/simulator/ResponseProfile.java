@@ -0,0 +1,110 @@
+package com.adenki.smpp.simulator;
+
+import java.util.Random;
+
+import com.adenki.smpp.util.PacketStatus;
+
+/**
+ * How the {@link SmscSimulator} responds to a type of request: how long it
+ * waits before responding and how often it responds with an error.
+ * Instances are immutable.
+ * @version $Id$
+ */
+public final class ResponseProfile {
+    /**
+     * Respond at once and always successfully.
+     */
+    public static final ResponseProfile IMMEDIATE = new ResponseProfile(0L);
+
+    private final long minLatency;
+    private final long maxLatency;
+    private final double errorRate;
+    private final int errorStatus;
+
+    /**
+     * Create a profile that always responds successfully after a fixed
+     * delay.
+     * @param latency The number of milliseconds to wait before responding.
+     */
+    public ResponseProfile(long latency) {
+        this(latency, latency, 0.0, PacketStatus.SYSTEM_ERROR);
+    }
+
+    /**
+     * Create a profile.
+     * @param minLatency The least number of milliseconds to wait before
+     * responding.
+     * @param maxLatency The most number of milliseconds to wait before
+     * responding. Delays are spread evenly between the two.
+     * @param errorRate The fraction of requests, from 0 to 1, to respond
+     * to with an error.
+     * @param errorStatus The command status of error responses.
+     */
+    public ResponseProfile(long minLatency,
+            long maxLatency,
+            double errorRate,
+            int errorStatus) {
+        if (minLatency < 0L || maxLatency < minLatency) {
+            throw new IllegalArgumentException(
+                    "Invalid latency range " + minLatency + "-" + maxLatency);
+        }
+        if (errorRate < 0.0 || errorRate > 1.0) {
+            throw new IllegalArgumentException(
+                    "Error rate must be between 0 and 1: " + errorRate);
+        }
+        if (errorStatus == PacketStatus.OK) {
+            throw new IllegalArgumentException("Error status cannot be OK");
+        }
+        this.minLatency = minLatency;
+        this.maxLatency = maxLatency;
+        this.errorRate = errorRate;
+        this.errorStatus = errorStatus;
+    }
+
+    public long getMinLatency() {
+        return minLatency;
+    }
+
+    public long getMaxLatency() {
+        return maxLatency;
+    }
+
+    public double getErrorRate() {
+        return errorRate;
+    }
+
+    public int getErrorStatus() {
+        return errorStatus;
+    }
+
+    /**
+     * Choose the delay before the next response.
+     * @param random The source of randomness.
+     * @return The delay in milliseconds.
+     */
+    long nextLatency(Random random) {
+        if (maxLatency == minLatency) {
+            return minLatency;
+        }
+        return minLatency + (long) (random.nextDouble() * (maxLatency - minLatency + 1L));
+    }
+
+    /**
+     * Choose the command status of the next response.
+     * @param random The source of randomness.
+     * @return The command status.
+     */
+    int nextStatus(Random random) {
+        if (errorRate > 0.0 && random.nextDouble() < errorRate) {
+            return errorStatus;
+        }
+        return PacketStatus.OK;
+    }
+
+    @Override
+    public String toString() {
+        return "ResponseProfile[latency=" + minLatency + "-" + maxLatency
+            + "ms,errorRate=" + errorRate
+            + ",errorStatus=0x" + Integer.toHexString(errorStatus) + "]";
+    }
+}
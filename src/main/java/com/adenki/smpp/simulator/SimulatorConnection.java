@@ -0,0 +1,239 @@
+package com.adenki.smpp.simulator;
+
+import java.io.IOException;
+import java.net.Socket;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+
+import com.adenki.smpp.message.Bind;
+import com.adenki.smpp.message.BindResp;
+import com.adenki.smpp.message.CommandId;
+import com.adenki.smpp.message.DataSMResp;
+import com.adenki.smpp.message.SMPPPacket;
+import com.adenki.smpp.message.SubmitMultiResp;
+import com.adenki.smpp.message.SubmitSM;
+import com.adenki.smpp.message.SubmitSMResp;
+import com.adenki.smpp.net.TcpLink;
+import com.adenki.smpp.util.PacketFactory;
+import com.adenki.smpp.util.PacketStatus;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * One ESME connection accepted by an {@link SmscSimulator}. Each
+ * connection reads its requests on its own thread and writes responses
+ * either on that thread or, when the response profile has a latency, on
+ * the simulator&apos;s scheduler.
+ * @version $Id$
+ */
+final class SimulatorConnection implements Runnable {
+    private static final Logger LOG = LoggerFactory.getLogger(SimulatorConnection.class);
+
+    private final SmscSimulator simulator;
+    private final Socket socket;
+    private final TcpLink link;
+    private final Thread thread;
+    private final PacketFactory packetFactory = new PacketFactory();
+    private final AtomicLong sequence = new AtomicLong();
+    private final ConcurrentMap<Long, Long> pendingDeliveries =
+        new ConcurrentHashMap<Long, Long>();
+    private volatile int bindType;
+    private volatile String systemId;
+    private volatile boolean closed;
+
+    SimulatorConnection(SmscSimulator simulator, Socket socket, int id)
+            throws IOException {
+        this.simulator = simulator;
+        this.socket = socket;
+        this.link = new TcpLink(socket);
+        this.thread = new Thread(this, "SmscSimulator-" + id);
+        thread.setDaemon(true);
+    }
+
+    void start() {
+        thread.start();
+    }
+
+    /**
+     * Determine if the ESME is bound in a way that allows the SMSC to send
+     * it messages.
+     */
+    boolean isReceiver() {
+        int type = bindType;
+        return type == CommandId.BIND_RECEIVER || type == CommandId.BIND_TRANSCEIVER;
+    }
+
+    boolean isBound() {
+        return bindType != 0;
+    }
+
+    String getSystemId() {
+        return systemId;
+    }
+
+    /**
+     * Send a request that originates at the SMSC, such as a
+     * <code>deliver_sm</code>. The time taken for the ESME to respond is
+     * recorded in the simulator&apos;s delivery latency histogram.
+     * @param request The request to send.
+     */
+    void deliver(SMPPPacket request) {
+        long seq = sequence.incrementAndGet() & 0x7fffffffL;
+        request.setSequenceNum(seq);
+        pendingDeliveries.put(Long.valueOf(seq), Long.valueOf(System.nanoTime()));
+        write(request);
+    }
+
+    void close() {
+        if (closed) {
+            return;
+        }
+        closed = true;
+        bindType = 0;
+        try {
+            link.disconnect();
+            socket.close();
+        } catch (IOException x) {
+            LOG.debug("Exception closing the connection", x);
+        }
+        simulator.connectionClosed(this);
+    }
+
+    public void run() {
+        try {
+            while (!closed) {
+                SMPPPacket packet = link.read();
+                simulator.packetReceived(packet);
+                if (packet.isRequest()) {
+                    processRequest(packet);
+                } else {
+                    processResponse(packet);
+                }
+            }
+        } catch (IOException x) {
+            if (!closed) {
+                LOG.debug("Connection from {} ended", socket.getRemoteSocketAddress(), x);
+            }
+        } catch (RuntimeException x) {
+            LOG.warn("Closing the connection after an unexpected exception", x);
+        } finally {
+            close();
+        }
+    }
+
+    private void processRequest(SMPPPacket request) {
+        int commandId = request.getCommandId();
+        switch (commandId) {
+        case CommandId.BIND_RECEIVER:
+        case CommandId.BIND_TRANSMITTER:
+        case CommandId.BIND_TRANSCEIVER:
+            bind((Bind) request);
+            return;
+        case CommandId.UNBIND:
+            bindType = 0;
+            write(packetFactory.newResponse(request));
+            close();
+            return;
+        case CommandId.ALERT_NOTIFICATION:
+            // There is no response to an alert_notification.
+            return;
+        }
+        SMPPPacket response = packetFactory.newResponse(request);
+        if (!isBound() && commandId != CommandId.ENQUIRE_LINK) {
+            response.setCommandStatus(PacketStatus.INVALID_BIND_STATUS);
+            write(response);
+            return;
+        }
+        ResponseProfile profile = simulator.getResponseProfile(commandId);
+        int status = profile.nextStatus(simulator.getRandom());
+        response.setCommandStatus(status);
+        String messageId = null;
+        if (status == PacketStatus.OK) {
+            messageId = setMessageId(response);
+        }
+        Runnable task = new Respond(request, response, messageId);
+        long latency = profile.nextLatency(simulator.getRandom());
+        if (latency > 0L) {
+            simulator.getScheduler().schedule(task, latency, TimeUnit.MILLISECONDS);
+        } else {
+            task.run();
+        }
+    }
+
+    private void processResponse(SMPPPacket response) {
+        Long sent = pendingDeliveries.remove(Long.valueOf(response.getSequenceNum()));
+        if (sent != null) {
+            simulator.getDeliverLatency().record(System.nanoTime() - sent.longValue());
+        }
+    }
+
+    private void bind(Bind request) {
+        BindResp response = (BindResp) packetFactory.newResponse(request);
+        if (isBound()) {
+            response.setCommandStatus(PacketStatus.ALREADY_BOUND);
+        } else {
+            response.setSystemId(simulator.getSystemId());
+            systemId = request.getSystemId();
+            bindType = request.getCommandId();
+        }
+        write(response);
+    }
+
+    private String setMessageId(SMPPPacket response) {
+        String messageId = null;
+        switch (response.getCommandId()) {
+        case CommandId.SUBMIT_SM_RESP:
+            messageId = simulator.nextMessageId();
+            ((SubmitSMResp) response).setMessageId(messageId);
+            break;
+        case CommandId.SUBMIT_MULTI_RESP:
+            messageId = simulator.nextMessageId();
+            ((SubmitMultiResp) response).setMessageId(messageId);
+            break;
+        case CommandId.DATA_SM_RESP:
+            messageId = simulator.nextMessageId();
+            ((DataSMResp) response).setMessageId(messageId);
+            break;
+        }
+        return messageId;
+    }
+
+    private void write(SMPPPacket packet) {
+        if (closed) {
+            return;
+        }
+        try {
+            link.write(packet, true);
+        } catch (IOException x) {
+            LOG.debug("Could not write to {}", socket.getRemoteSocketAddress(), x);
+            close();
+        }
+    }
+
+    /**
+     * Writes a response and, if the request asked for one, sends its
+     * delivery receipt.
+     */
+    private final class Respond implements Runnable {
+        private final SMPPPacket request;
+        private final SMPPPacket response;
+        private final String messageId;
+
+        Respond(SMPPPacket request, SMPPPacket response, String messageId) {
+            this.request = request;
+            this.response = response;
+            this.messageId = messageId;
+        }
+
+        public void run() {
+            write(response);
+            if (messageId != null && request.getCommandId() == CommandId.SUBMIT_SM
+                    && (((SubmitSM) request).getRegistered() & 0x01) != 0) {
+                simulator.sendReceipt(SimulatorConnection.this,
+                        (SubmitSM) request, messageId);
+            }
+        }
+    }
+}
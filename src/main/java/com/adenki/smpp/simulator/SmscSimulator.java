@@ -0,0 +1,492 @@
+package com.adenki.smpp.simulator;
+
+import java.io.IOException;
+import java.net.InetAddress;
+import java.net.ServerSocket;
+import java.net.Socket;
+import java.net.SocketException;
+import java.text.SimpleDateFormat;
+import java.util.Date;
+import java.util.List;
+import java.util.Map;
+import java.util.Random;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ScheduledFuture;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+
+import com.adenki.smpp.Address;
+import com.adenki.smpp.message.DeliverSM;
+import com.adenki.smpp.message.ESMClass;
+import com.adenki.smpp.message.MessageState;
+import com.adenki.smpp.message.SMPPPacket;
+import com.adenki.smpp.message.SubmitSM;
+import com.adenki.smpp.message.tlv.Tag;
+import com.adenki.smpp.util.LatencyHistogram;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * An SMSC simulator that runs inside the calling process, for testing
+ * applications and load testing the smppapi without a real SMSC.
+ * <p>
+ * The simulator accepts any number of ESME connections over TCP and binds
+ * every ESME that asks, whatever its system ID and password. It answers
+ * every request that has a response. How long it takes to answer and how
+ * often it answers with an error is set by a {@link ResponseProfile}, for
+ * all requests or per command ID. Successful <code>submit_sm</code>,
+ * <code>submit_multi</code> and <code>data_sm</code> requests are given a
+ * message ID, and a <code>submit_sm</code> that asks for an SMSC delivery
+ * receipt is followed by a receipt <code>deliver_sm</code> to a receiver
+ * or transceiver bound with the same system ID.
+ * </p>
+ * <p>
+ * {@link #generateDeliveries(int, int)} sends mobile originated
+ * <code>deliver_sm</code> load to bound receivers, spread over them in
+ * turn. The time each ESME takes to answer a <code>deliver_sm</code> is
+ * recorded in {@link #getDeliverLatency()}.
+ * </p>
+ * <pre>
+ * SmscSimulator simulator = new SmscSimulator();
+ * simulator.setResponseProfile(CommandId.SUBMIT_SM,
+ *         new ResponseProfile(5L, 50L, 0.01, PacketStatus.MESSAGE_QUEUE_FULL));
+ * simulator.start();
+ * Session session = new SessionImpl("localhost", simulator.getPort());
+ * ...
+ * simulator.stop();
+ * </pre>
+ * @version $Id$
+ */
+public class SmscSimulator {
+    private static final Logger LOG = LoggerFactory.getLogger(SmscSimulator.class);
+
+    /**
+     * The system ID the simulator returns in bind responses by default.
+     */
+    public static final String DEFAULT_SYSTEM_ID = "smppsim";
+
+    /**
+     * The interval between batches of generated deliveries, in
+     * milliseconds.
+     */
+    private static final long DELIVERY_INTERVAL = 10L;
+
+    private final int port;
+    private final Map<Integer, ResponseProfile> profiles =
+        new ConcurrentHashMap<Integer, ResponseProfile>();
+    private final ConcurrentMap<Integer, AtomicLong> received =
+        new ConcurrentHashMap<Integer, AtomicLong>();
+    private final List<SimulatorConnection> connections =
+        new CopyOnWriteArrayList<SimulatorConnection>();
+    private final List<DeliveryGenerator> generators =
+        new CopyOnWriteArrayList<DeliveryGenerator>();
+    private final LatencyHistogram deliverLatency = new LatencyHistogram();
+    private final AtomicLong messageIds = new AtomicLong();
+    private final AtomicLong deliveries = new AtomicLong();
+    private final AtomicInteger connectionIds = new AtomicInteger();
+    private final AtomicInteger nextReceiver = new AtomicInteger();
+    private final Random random = new Random();
+    private volatile ResponseProfile defaultProfile = ResponseProfile.IMMEDIATE;
+    private volatile String systemId = DEFAULT_SYSTEM_ID;
+    private volatile boolean deliveryReceipts = true;
+    private ServerSocket serverSocket;
+    private ScheduledExecutorService scheduler;
+
+    /**
+     * Create a simulator that listens on any free port. The port chosen
+     * is available from {@link #getPort()} once the simulator is started.
+     */
+    public SmscSimulator() {
+        this(0);
+    }
+
+    /**
+     * Create a simulator.
+     * @param port The port to listen on, or zero for any free port.
+     */
+    public SmscSimulator(int port) {
+        this.port = port;
+    }
+
+    /**
+     * Start accepting connections.
+     * @throws IOException If the listening socket cannot be opened.
+     */
+    public synchronized void start() throws IOException {
+        if (serverSocket != null) {
+            throw new IllegalStateException("The simulator is already running");
+        }
+        serverSocket = new ServerSocket(port, 50, InetAddress.getByName(null));
+        scheduler = Executors.newScheduledThreadPool(2, new ThreadFactory() {
+            private final AtomicInteger count = new AtomicInteger();
+            public Thread newThread(Runnable r) {
+                Thread thread = new Thread(
+                        r, "SmscSimulator-scheduler-" + count.incrementAndGet());
+                thread.setDaemon(true);
+                return thread;
+            }
+        });
+        Thread acceptor = new Thread(new Acceptor(serverSocket), "SmscSimulator-acceptor");
+        acceptor.setDaemon(true);
+        acceptor.start();
+        LOG.info("SMSC simulator listening on port {}", Integer.valueOf(getPort()));
+    }
+
+    /**
+     * Stop accepting connections, close every open connection and stop
+     * generating deliveries.
+     */
+    public synchronized void stop() {
+        if (serverSocket == null) {
+            return;
+        }
+        try {
+            serverSocket.close();
+        } catch (IOException x) {
+            LOG.debug("Exception closing the server socket", x);
+        }
+        serverSocket = null;
+        for (DeliveryGenerator generator : generators) {
+            generator.finish();
+        }
+        for (SimulatorConnection connection : connections) {
+            connection.close();
+        }
+        scheduler.shutdownNow();
+    }
+
+    public synchronized boolean isRunning() {
+        return serverSocket != null;
+    }
+
+    /**
+     * Get the port the simulator is listening on.
+     * @return The local port, or the configured port if the simulator is
+     * not running.
+     */
+    public synchronized int getPort() {
+        return serverSocket != null ? serverSocket.getLocalPort() : port;
+    }
+
+    public String getSystemId() {
+        return systemId;
+    }
+
+    /**
+     * Set the system ID returned in bind responses.
+     * @param systemId The SMSC system ID.
+     */
+    public void setSystemId(String systemId) {
+        this.systemId = systemId;
+    }
+
+    /**
+     * Set the profile used to respond to requests that do not have their
+     * own profile.
+     * @param profile The default response profile.
+     */
+    public void setResponseProfile(ResponseProfile profile) {
+        if (profile == null) {
+            throw new NullPointerException("profile");
+        }
+        defaultProfile = profile;
+    }
+
+    /**
+     * Set the profile used to respond to one type of request.
+     * @param commandId The command ID of the request.
+     * @param profile The response profile, or <code>null</code> to use the
+     * default profile.
+     */
+    public void setResponseProfile(int commandId, ResponseProfile profile) {
+        if (profile != null) {
+            profiles.put(Integer.valueOf(commandId), profile);
+        } else {
+            profiles.remove(Integer.valueOf(commandId));
+        }
+    }
+
+    /**
+     * Get the profile used to respond to a type of request.
+     * @param commandId The command ID of the request.
+     * @return The response profile.
+     */
+    public ResponseProfile getResponseProfile(int commandId) {
+        ResponseProfile profile = profiles.get(Integer.valueOf(commandId));
+        return profile != null ? profile : defaultProfile;
+    }
+
+    public boolean isDeliveryReceipts() {
+        return deliveryReceipts;
+    }
+
+    /**
+     * Set whether delivery receipts are sent for <code>submit_sm</code>s
+     * that ask for them. Receipts are sent by default.
+     * @param deliveryReceipts <code>true</code> to send receipts.
+     */
+    public void setDeliveryReceipts(boolean deliveryReceipts) {
+        this.deliveryReceipts = deliveryReceipts;
+    }
+
+    /**
+     * Get the number of ESMEs that are currently bound.
+     * @return The number of bound connections.
+     */
+    public int getBoundCount() {
+        int count = 0;
+        for (SimulatorConnection connection : connections) {
+            if (connection.isBound()) {
+                count++;
+            }
+        }
+        return count;
+    }
+
+    /**
+     * Get the number of packets received from all ESMEs with a command ID.
+     * @param commandId The command ID.
+     * @return The number of packets received.
+     */
+    public long getReceivedCount(int commandId) {
+        AtomicLong count = received.get(Integer.valueOf(commandId));
+        return count != null ? count.get() : 0L;
+    }
+
+    /**
+     * Get the number of <code>deliver_sm</code>s sent, including delivery
+     * receipts.
+     * @return The number of deliveries sent.
+     */
+    public long getDeliveryCount() {
+        return deliveries.get();
+    }
+
+    /**
+     * Get the histogram of the time, in nanoseconds, ESMEs take to respond
+     * to <code>deliver_sm</code>s.
+     * @return The delivery latency histogram.
+     */
+    public LatencyHistogram getDeliverLatency() {
+        return deliverLatency;
+    }
+
+    /**
+     * Start sending mobile originated messages to the bound receivers and
+     * transceivers. The messages are sent in the background; deliveries
+     * wait while no receiver is bound.
+     * @param count The number of messages to send.
+     * @param rate The number of messages to send per second, or zero to
+     * send them as fast as possible.
+     */
+    public synchronized void generateDeliveries(int count, int rate) {
+        if (serverSocket == null) {
+            throw new IllegalStateException("The simulator is not running");
+        }
+        DeliveryGenerator generator = new DeliveryGenerator(count, rate);
+        generators.add(generator);
+        generator.future = scheduler.scheduleAtFixedRate(
+                generator, 0L, DELIVERY_INTERVAL, TimeUnit.MILLISECONDS);
+    }
+
+    /**
+     * Wait for every generated delivery to be sent.
+     * @param timeout The longest number of milliseconds to wait.
+     * @return <code>true</code> if all deliveries have been sent,
+     * <code>false</code> if the timeout passed first.
+     * @throws InterruptedException If the calling thread is interrupted.
+     */
+    public boolean awaitDeliveries(long timeout) throws InterruptedException {
+        long deadline = System.currentTimeMillis() + timeout;
+        for (DeliveryGenerator generator : generators) {
+            long wait = deadline - System.currentTimeMillis();
+            if (!generator.done.await(Math.max(wait, 0L), TimeUnit.MILLISECONDS)) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    ScheduledExecutorService getScheduler() {
+        return scheduler;
+    }
+
+    Random getRandom() {
+        return random;
+    }
+
+    String nextMessageId() {
+        return Long.toHexString(messageIds.incrementAndGet());
+    }
+
+    void packetReceived(SMPPPacket packet) {
+        Integer commandId = Integer.valueOf(packet.getCommandId());
+        AtomicLong count = received.get(commandId);
+        if (count == null) {
+            received.putIfAbsent(commandId, new AtomicLong());
+            count = received.get(commandId);
+        }
+        count.incrementAndGet();
+    }
+
+    void connectionClosed(SimulatorConnection connection) {
+        connections.remove(connection);
+    }
+
+    /**
+     * Send the delivery receipt of a submitted message to the ESME that
+     * submitted it if it can receive, or else to a receiver bound with the
+     * same system ID.
+     */
+    void sendReceipt(SimulatorConnection origin, SubmitSM submit, String messageId) {
+        if (!deliveryReceipts) {
+            return;
+        }
+        SimulatorConnection target = origin;
+        if (!origin.isReceiver()) {
+            target = nextReceiver(origin.getSystemId());
+            if (target == null) {
+                LOG.debug("No receiver bound for the receipt of {}", messageId);
+                return;
+            }
+        }
+        String date = new SimpleDateFormat("yyMMddHHmm").format(new Date());
+        String text = "id:" + messageId + " sub:001 dlvrd:001 submit date:" + date
+            + " done date:" + date + " stat:DELIVRD err:000 text:";
+        DeliverSM receipt = new DeliverSM();
+        receipt.setEsmClass(ESMClass.SMC_RECEIPT);
+        receipt.setSource(submit.getDestination());
+        receipt.setDestination(submit.getSource());
+        receipt.setMessage(ascii(text));
+        receipt.setTLV(Tag.RECEIPTED_MESSAGE_ID, messageId);
+        receipt.setTLV(Tag.MESSAGE_STATE,
+                Integer.valueOf(MessageState.DELIVERED.getValue()));
+        deliveries.incrementAndGet();
+        target.deliver(receipt);
+    }
+
+    /**
+     * Choose the next bound receiver in turn.
+     * @param systemId Only choose receivers bound with this system ID, or
+     * <code>null</code> to choose any receiver.
+     * @return A receiver, or <code>null</code> if none is bound.
+     */
+    private SimulatorConnection nextReceiver(String systemId) {
+        Object[] candidates = connections.toArray();
+        int start = nextReceiver.getAndIncrement() & Integer.MAX_VALUE;
+        for (int i = 0; i < candidates.length; i++) {
+            SimulatorConnection connection =
+                (SimulatorConnection) candidates[(start + i) % candidates.length];
+            if (connection.isReceiver() && (systemId == null
+                    || systemId.equals(connection.getSystemId()))) {
+                return connection;
+            }
+        }
+        return null;
+    }
+
+    private static byte[] ascii(String text) {
+        byte[] bytes = new byte[text.length()];
+        for (int i = 0; i < bytes.length; i++) {
+            bytes[i] = (byte) text.charAt(i);
+        }
+        return bytes;
+    }
+
+    /**
+     * Accepts connections until the server socket is closed.
+     */
+    private class Acceptor implements Runnable {
+        private final ServerSocket server;
+
+        Acceptor(ServerSocket server) {
+            this.server = server;
+        }
+
+        public void run() {
+            while (!server.isClosed()) {
+                try {
+                    Socket socket = server.accept();
+                    socket.setTcpNoDelay(true);
+                    SimulatorConnection connection = new SimulatorConnection(
+                            SmscSimulator.this, socket, connectionIds.incrementAndGet());
+                    connections.add(connection);
+                    connection.start();
+                } catch (SocketException x) {
+                    if (!server.isClosed()) {
+                        LOG.warn("Exception accepting a connection", x);
+                    }
+                } catch (IOException x) {
+                    LOG.warn("Exception accepting a connection", x);
+                }
+            }
+        }
+    }
+
+    /**
+     * Sends a batch of generated deliveries every
+     * {@link SmscSimulator#DELIVERY_INTERVAL} milliseconds.
+     */
+    private class DeliveryGenerator implements Runnable {
+        private final int count;
+        private final int rate;
+        private final CountDownLatch done = new CountDownLatch(1);
+        private volatile ScheduledFuture<?> future;
+        private long started;
+        private int sent;
+
+        DeliveryGenerator(int count, int rate) {
+            this.count = count;
+            this.rate = rate;
+        }
+
+        public void run() {
+            long now = System.currentTimeMillis();
+            if (started == 0L) {
+                started = now;
+            }
+            int due = count;
+            if (rate > 0) {
+                due = (int) Math.min(count, (now - started + DELIVERY_INTERVAL) * rate / 1000L);
+            }
+            while (sent < due) {
+                SimulatorConnection receiver = nextReceiver(null);
+                if (receiver == null) {
+                    // Hold back until a receiver binds.
+                    started += DELIVERY_INTERVAL;
+                    break;
+                }
+                receiver.deliver(newDelivery(sent));
+                deliveries.incrementAndGet();
+                sent++;
+            }
+            if (sent >= count) {
+                finish();
+            }
+        }
+
+        void finish() {
+            ScheduledFuture<?> task = future;
+            if (task != null) {
+                task.cancel(false);
+            }
+            generators.remove(this);
+            done.countDown();
+        }
+
+        private DeliverSM newDelivery(int number) {
+            DeliverSM deliverSM = new DeliverSM();
+            deliverSM.setSource(new Address(1, 1, Long.toString(447700900000L + number)));
+            deliverSM.setDestination(new Address(0, 0, "12345"));
+            deliverSM.setMessage(ascii("Generated message " + number));
+            return deliverSM;
+        }
+    }
+}
@@ -0,0 +1,6 @@
+/**
+ * An in-process SMSC simulator and a load generator, for testing
+ * applications and measuring the throughput of the smppapi without a
+ * real SMSC.
+ */
+package com.adenki.smpp.simulator;
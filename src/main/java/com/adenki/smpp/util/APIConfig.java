@@ -74,6 +74,28 @@ package com.adenki.smpp.util;
  * </tr>
  * 
  * <tr>
+ * <td><code>smppapi.net.flush.max_packets</code></td>
+ * <td>Integer</td>
+ * <td>Flush the link once this many packets are waiting to be written.
+ * Setting any of the <code>smppapi.net.flush</code> properties overrides
+ * <code>smppapi.net.autoflush</code>. See
+ * {@link com.adenki.smpp.net.FlushPolicy}.</td>
+ * </tr>
+ * 
+ * <tr>
+ * <td><code>smppapi.net.flush.max_bytes</code></td>
+ * <td>Integer</td>
+ * <td>Flush the link once this many bytes are waiting to be written.</td>
+ * </tr>
+ * 
+ * <tr>
+ * <td><code>smppapi.net.flush.delay_us</code></td>
+ * <td>Long</td>
+ * <td>The maximum time, in microseconds, a packet will wait to be flushed
+ * to the network.</td>
+ * </tr>
+ * 
+ * <tr>
  * <td><code>smppapi.net.autoclose_snoop</code></td>
  * <td>Boolean</td>
  * <td>If snoop streams are set on the SMSC link object and this value is true
@@ -83,6 +105,32 @@ package com.adenki.smpp.util;
  * </tr>
  * 
  * <tr>
+ * <td><code>smppapi.net.selector_threads</code></td>
+ * <td>Integer</td>
+ * <td>The number of threads in the default
+ * {@link com.adenki.smpp.net.SelectorPool} used by
+ * {@link com.adenki.smpp.net.NioLink}. Defaults to the number of available
+ * processors, up to a maximum of 4.</td>
+ * </tr>
+ * 
+ * <tr>
+ * <td><code>smppapi.net.lazy_decoding</code></td>
+ * <td>Boolean</td>
+ * <td>If true, links decode only the header of <code>submit_sm</code>,
+ * <code>deliver_sm</code>, <code>data_sm</code> and their responses when
+ * they are read, and keep the packet bytes to decode the remaining fields
+ * the first time one of them is used. Defaults to false.</td>
+ * </tr>
+ * 
+ * <tr>
+ * <td><code>smppapi.net.max_pdu_size</code></td>
+ * <td>Integer</td>
+ * <td>The largest command length, in bytes, that a non-blocking link will
+ * read. A link whose peer sends a longer packet is closed. Defaults to
+ * 65536.</td>
+ * </tr>
+ * 
+ * <tr>
  * <td><code>smppapi.net.link_timeout</code></td>
  * <td>Long</td>
  * <td>Sets the timeout in milliseconds for network links. This value affects
@@ -108,6 +156,174 @@ package com.adenki.smpp.util;
  * </tr>
  * 
  * <tr>
+ * <td><code>smppapi.connection.outbound_pipeline</code></td>
+ * <td>Boolean</td>
+ * <td>If true, packets sent on a session are queued and written to the
+ * network link by a single writer thread instead of by the sending thread.
+ * Defaults to false.</td>
+ * </tr>
+ * 
+ * <tr>
+ * <td><code>smppapi.connection.outbound_pipeline.threads</code></td>
+ * <td>Integer</td>
+ * <td>The number of writer threads shared by all outbound pipelines.
+ * Defaults to twice the number of available processors.</td>
+ * </tr>
+ * 
+ * <tr>
+ * <td><code>smppapi.connection.window_size</code></td>
+ * <td>Integer</td>
+ * <td>The maximum number of requests sent with
+ * {@link com.adenki.smpp.Session#sendAsync} that may be waiting on a
+ * response at once. Zero (the default) means no limit.</td>
+ * </tr>
+ * 
+ * <tr>
+ * <td><code>smppapi.connection.window_wait</code></td>
+ * <td>Long</td>
+ * <td>The number of milliseconds <code>sendAsync</code> waits for space
+ * in a full window before throwing a
+ * {@link com.adenki.smpp.WindowFullException}. Zero (the default) fails
+ * immediately and a negative value waits indefinitely.</td>
+ * </tr>
+ * 
+ * <tr>
+ * <td><code>smppapi.connection.response_timeout</code></td>
+ * <td>Long</td>
+ * <td>The number of milliseconds a request sent with
+ * <code>sendAsync</code> waits for its response before its future fails.
+ * Zero (the default) means wait indefinitely.</td>
+ * </tr>
+ * 
+ * <tr>
+ * <td><code>smppapi.connection.throttle.rate</code></td>
+ * <td>Integer</td>
+ * <td>The maximum number of requests per second a session will send. If
+ * not set, the rate is not limited. See
+ * {@link com.adenki.smpp.util.ThroughputLimiter}.</td>
+ * </tr>
+ * 
+ * <tr>
+ * <td><code>smppapi.connection.throttle.burst</code></td>
+ * <td>Integer</td>
+ * <td>The number of requests that may be sent back-to-back after a period
+ * of inactivity. Defaults to the value of
+ * <code>smppapi.connection.throttle.rate</code>.</td>
+ * </tr>
+ * 
+ * <tr>
+ * <td><code>smppapi.connection.keepalive.interval</code></td>
+ * <td>Long</td>
+ * <td>The number of milliseconds a bound session may be idle before an
+ * <code>enquire_link</code> is sent to check the connection. If not set,
+ * no keepalive requests are sent.</td>
+ * </tr>
+ * 
+ * <tr>
+ * <td><code>smppapi.connection.keepalive.timeout</code></td>
+ * <td>Long</td>
+ * <td>The number of milliseconds to wait for the response to a keepalive
+ * <code>enquire_link</code> before a
+ * {@link com.adenki.smpp.event.KeepaliveTimeoutEvent} is raised. Defaults
+ * to the keepalive interval.</td>
+ * </tr>
+ * 
+ * <tr>
+ * <td><code>smppapi.connection.reconnect.initial_delay</code></td>
+ * <td>Long</td>
+ * <td>The number of milliseconds to wait before the first attempt to
+ * reconnect and rebind a session whose connection failed. If not set,
+ * sessions are not reconnected automatically.</td>
+ * </tr>
+ * 
+ * <tr>
+ * <td><code>smppapi.connection.reconnect.max_delay</code></td>
+ * <td>Long</td>
+ * <td>The longest number of milliseconds to wait between reconnect
+ * attempts. The delay doubles after every failed attempt up to this
+ * limit. Defaults to 60000.</td>
+ * </tr>
+ * 
+ * <tr>
+ * <td><code>smppapi.connection.reconnect.max_attempts</code></td>
+ * <td>Integer</td>
+ * <td>The number of failed reconnect attempts after which a session gives
+ * up. If not set, or 0, the session keeps trying.</td>
+ * </tr>
+ * 
+ * <tr>
+ * <td><code>smppapi.packet_pool.capacity</code></td>
+ * <td>Integer</td>
+ * <td>If greater than 0, links draw the packets they decode for the
+ * high-rate packet types from a shared
+ * {@link com.adenki.smpp.message.PacketPool} that keeps up to this many
+ * idle packets of each type, and receivers return them once every observer
+ * has seen them. Defaults to 0, which disables pooling.</td>
+ * </tr>
+ * 
+ * <tr>
+ * <td><code>smppapi.metrics.jmx</code></td>
+ * <td>Boolean</td>
+ * <td>If true, the {@link com.adenki.smpp.SessionMetrics} of every
+ * session are registered with the platform MBean server when the session
+ * is created. Defaults to false.</td>
+ * </tr>
+ * 
+ * <tr>
+ * <td><code>smppapi.pool.min_sessions</code></td>
+ * <td>Integer</td>
+ * <td>The minimum number of sessions an
+ * {@link com.adenki.smpp.ElasticSessionPool} keeps bound. Defaults to 1.</td>
+ * </tr>
+ * 
+ * <tr>
+ * <td><code>smppapi.pool.max_sessions</code></td>
+ * <td>Integer</td>
+ * <td>The maximum number of sessions an elastic pool will bind. Defaults
+ * to the minimum, which turns growth off.</td>
+ * </tr>
+ * 
+ * <tr>
+ * <td><code>smppapi.pool.bind_interval</code></td>
+ * <td>Long</td>
+ * <td>The minimum number of milliseconds between binds opened by an
+ * elastic pool. Defaults to 1000.</td>
+ * </tr>
+ * 
+ * <tr>
+ * <td><code>smppapi.pool.idle_timeout</code></td>
+ * <td>Long</td>
+ * <td>The number of milliseconds an elastic pool must be free of load
+ * before it unbinds a session above its minimum. Defaults to 60000.</td>
+ * </tr>
+ * 
+ * <tr>
+ * <td><code>smppapi.pool.latency_threshold</code></td>
+ * <td>Long</td>
+ * <td>The average response latency, in milliseconds, above which an
+ * elastic pool opens another session. If not set, the pool only grows
+ * when the send windows of its sessions are saturated.</td>
+ * </tr>
+ * 
+ * <tr>
+ * <td><code>smppapi.timer.tick</code></td>
+ * <td>Long</td>
+ * <td>The tick duration, in milliseconds, of the
+ * {@link com.adenki.smpp.util.TimingWheel} shared by all sessions for
+ * response, bind and enquire_link timeouts. Timeouts are accurate to one
+ * tick. Defaults to 10.</td>
+ * </tr>
+ * 
+ * <tr>
+ * <td><code>smppapi.background_threads</code></td>
+ * <td>Integer</td>
+ * <td>The number of {@link com.adenki.smpp.util.SharedExecutors} worker
+ * threads shared by all sessions for background work that may block,
+ * such as reconnecting, binding pool sessions and sending keepalive
+ * probes. Defaults to 4.</td>
+ * </tr>
+ * 
+ * <tr>
  * <td><code>smppapi.event.dispatcher</code></td>
  * <td>String</td>
  * <td>The name of a class, which implements
@@ -169,11 +385,41 @@ public interface APIConfig {
      */
     String LINK_AUTOCLOSE_SNOOP = "smppapi.net.autoclose_snoop";
 
+    /**
+     * @see APIConfig
+     */
+    String LINK_FLUSH_MAX_PACKETS = "smppapi.net.flush.max_packets";
+
+    /**
+     * @see APIConfig
+     */
+    String LINK_FLUSH_MAX_BYTES = "smppapi.net.flush.max_bytes";
+
+    /**
+     * @see APIConfig
+     */
+    String LINK_FLUSH_DELAY = "smppapi.net.flush.delay_us";
+
+    /**
+     * @see APIConfig
+     */
+    String LINK_SELECTOR_THREADS = "smppapi.net.selector_threads";
+
     /**
      * @see APIConfig
      */
     String LINK_TIMEOUT = "smppapi.net.link_timeout";
 
+    /**
+     * @see APIConfig
+     */
+    String LINK_LAZY_DECODING = "smppapi.net.lazy_decoding";
+
+    /**
+     * @see APIConfig
+     */
+    String LINK_MAX_PDU_SIZE = "smppapi.net.max_pdu_size";
+
     /**
      * @see APIConfig
      */
@@ -195,6 +441,114 @@ public interface APIConfig {
      */
     String BIND_TIMEOUT = "smppapi.connection.bind_timeout";
 
+    /**
+     * @see APIConfig
+     */
+    String CONNECTION_OUTBOUND_PIPELINE = "smppapi.connection.outbound_pipeline";
+
+    /**
+     * @see APIConfig
+     */
+    String CONNECTION_OUTBOUND_PIPELINE_THREADS =
+        "smppapi.connection.outbound_pipeline.threads";
+
+    /**
+     * @see APIConfig
+     */
+    String CONNECTION_WINDOW_SIZE = "smppapi.connection.window_size";
+
+    /**
+     * @see APIConfig
+     */
+    String CONNECTION_WINDOW_WAIT = "smppapi.connection.window_wait";
+
+    /**
+     * @see APIConfig
+     */
+    String CONNECTION_RESPONSE_TIMEOUT = "smppapi.connection.response_timeout";
+
+    /**
+     * @see APIConfig
+     */
+    String CONNECTION_THROTTLE_RATE = "smppapi.connection.throttle.rate";
+
+    /**
+     * @see APIConfig
+     */
+    String CONNECTION_THROTTLE_BURST = "smppapi.connection.throttle.burst";
+
+    /**
+     * @see APIConfig
+     */
+    String TIMER_TICK = "smppapi.timer.tick";
+
+    /**
+     * @see APIConfig
+     */
+    String BACKGROUND_THREADS = "smppapi.background_threads";
+
+    /**
+     * @see APIConfig
+     */
+    String CONNECTION_KEEPALIVE_INTERVAL = "smppapi.connection.keepalive.interval";
+
+    /**
+     * @see APIConfig
+     */
+    String CONNECTION_KEEPALIVE_TIMEOUT = "smppapi.connection.keepalive.timeout";
+
+    /**
+     * @see APIConfig
+     */
+    String CONNECTION_RECONNECT_INITIAL_DELAY =
+        "smppapi.connection.reconnect.initial_delay";
+
+    /**
+     * @see APIConfig
+     */
+    String CONNECTION_RECONNECT_MAX_DELAY = "smppapi.connection.reconnect.max_delay";
+
+    /**
+     * @see APIConfig
+     */
+    String CONNECTION_RECONNECT_MAX_ATTEMPTS =
+        "smppapi.connection.reconnect.max_attempts";
+
+    /**
+     * @see APIConfig
+     */
+    String METRICS_JMX = "smppapi.metrics.jmx";
+
+    /**
+     * @see APIConfig
+     */
+    String PACKET_POOL_CAPACITY = "smppapi.packet_pool.capacity";
+
+    /**
+     * @see APIConfig
+     */
+    String POOL_MIN_SESSIONS = "smppapi.pool.min_sessions";
+
+    /**
+     * @see APIConfig
+     */
+    String POOL_MAX_SESSIONS = "smppapi.pool.max_sessions";
+
+    /**
+     * @see APIConfig
+     */
+    String POOL_BIND_INTERVAL = "smppapi.pool.bind_interval";
+
+    /**
+     * @see APIConfig
+     */
+    String POOL_IDLE_TIMEOUT = "smppapi.pool.idle_timeout";
+
+    /**
+     * @see APIConfig
+     */
+    String POOL_LATENCY_THRESHOLD = "smppapi.pool.latency_threshold";
+
     /**
      * @see APIConfig
      */
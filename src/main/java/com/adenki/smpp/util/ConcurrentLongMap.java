@@ -0,0 +1,298 @@
+package com.adenki.smpp.util;
+
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * A thread-safe hash map with primitive <code>long</code> keys. It is used
+ * to track outstanding requests by sequence number without boxing keys or
+ * allocating an entry object per mapping.
+ * <p>
+ * The map is split into a number of segments, each guarded by its own lock,
+ * so that threads operating on different keys rarely contend. Each segment
+ * is an open-addressed table of parallel key and value arrays using linear
+ * probing. Removed entries are cleared by shifting later entries in the
+ * same probe sequence back, so the tables never fill up with tombstones and
+ * a long-lived map only holds memory for its current mappings.
+ * </p>
+ * <p>
+ * <code>null</code> values are not permitted.
+ * </p>
+ * @version $Id$
+ */
+public class ConcurrentLongMap<V> {
+    private static final int DEFAULT_CONCURRENCY = 16;
+    private static final int MIN_SEGMENT_CAPACITY = 8;
+
+    private final Segment<V>[] segments;
+    private final int segmentMask;
+
+    /**
+     * Create a new map with the default number of segments.
+     */
+    public ConcurrentLongMap() {
+        this(DEFAULT_CONCURRENCY);
+    }
+
+    /**
+     * Create a new map.
+     * @param concurrency The expected number of threads concurrently
+     * updating the map. The number of segments is the next power of two
+     * greater than or equal to this value.
+     */
+    @SuppressWarnings({"unchecked", "rawtypes"})
+    public ConcurrentLongMap(int concurrency) {
+        int count = 1;
+        while (count < concurrency) {
+            count <<= 1;
+        }
+        segments = new Segment[count];
+        for (int i = 0; i < count; i++) {
+            segments[i] = new Segment<V>();
+        }
+        segmentMask = count - 1;
+    }
+
+    /**
+     * Get the value mapped to a key.
+     * @param key The key to look up.
+     * @return The value mapped to <code>key</code>, or <code>null</code> if
+     * there is no mapping for it.
+     */
+    public V get(long key) {
+        int hash = hash(key);
+        return segmentFor(hash).get(key, hash);
+    }
+
+    /**
+     * Map a key to a value, replacing any existing mapping.
+     * @param key The key.
+     * @param value The value.
+     * @return The value previously mapped to <code>key</code>, or
+     * <code>null</code>.
+     */
+    public V put(long key, V value) {
+        checkValue(value);
+        int hash = hash(key);
+        return segmentFor(hash).put(key, hash, value, false);
+    }
+
+    /**
+     * Map a key to a value only if the key is not already mapped.
+     * @param key The key.
+     * @param value The value.
+     * @return The existing value mapped to <code>key</code>, or
+     * <code>null</code> if <code>value</code> was added.
+     */
+    public V putIfAbsent(long key, V value) {
+        checkValue(value);
+        int hash = hash(key);
+        return segmentFor(hash).put(key, hash, value, true);
+    }
+
+    /**
+     * Remove the mapping for a key.
+     * @param key The key to remove.
+     * @return The value that was mapped to <code>key</code>, or
+     * <code>null</code> if there was no mapping.
+     */
+    public V remove(long key) {
+        int hash = hash(key);
+        return segmentFor(hash).remove(key, hash, null);
+    }
+
+    /**
+     * Remove the mapping for a key only if it is mapped to the given value.
+     * @param key The key to remove.
+     * @param value The value the key must be mapped to.
+     * @return <code>true</code> if the mapping was removed.
+     */
+    public boolean remove(long key, V value) {
+        checkValue(value);
+        int hash = hash(key);
+        return segmentFor(hash).remove(key, hash, value) != null;
+    }
+
+    /**
+     * Determine if a key is mapped.
+     * @param key The key to look up.
+     * @return <code>true</code> if the map contains a mapping for
+     * <code>key</code>.
+     */
+    public boolean containsKey(long key) {
+        return get(key) != null;
+    }
+
+    /**
+     * Get the number of mappings in the map. The result is only a snapshot
+     * if the map is being modified concurrently.
+     * @return The number of mappings.
+     */
+    public int size() {
+        int size = 0;
+        for (Segment<V> segment : segments) {
+            size += segment.size();
+        }
+        return size;
+    }
+
+    public boolean isEmpty() {
+        return size() == 0;
+    }
+
+    /**
+     * Get a snapshot of the values in the map.
+     * @return A new list containing the values in the map.
+     */
+    public List<V> values() {
+        List<V> values = new ArrayList<V>();
+        for (Segment<V> segment : segments) {
+            segment.addValuesTo(values);
+        }
+        return values;
+    }
+
+    /**
+     * Remove all mappings from the map.
+     */
+    public void clear() {
+        for (Segment<V> segment : segments) {
+            segment.clear();
+        }
+    }
+
+    private Segment<V> segmentFor(int hash) {
+        return segments[(hash >>> 24) & segmentMask];
+    }
+
+    private static int hash(long key) {
+        // Sequence numbers are mostly consecutive, so mix the bits well
+        // enough that neighbouring keys land in different segments.
+        long h = key * 0x9E3779B97F4A7C15L;
+        return (int) (h ^ (h >>> 32));
+    }
+
+    private static void checkValue(Object value) {
+        if (value == null) {
+            throw new NullPointerException("Null values are not permitted");
+        }
+    }
+
+    private static final class Segment<V> {
+        private long[] keys = new long[MIN_SEGMENT_CAPACITY];
+        private Object[] values = new Object[MIN_SEGMENT_CAPACITY];
+        private int size;
+
+        synchronized int size() {
+            return size;
+        }
+
+        @SuppressWarnings("unchecked")
+        synchronized V get(long key, int hash) {
+            int mask = keys.length - 1;
+            for (int i = hash & mask; values[i] != null; i = (i + 1) & mask) {
+                if (keys[i] == key) {
+                    return (V) values[i];
+                }
+            }
+            return null;
+        }
+
+        @SuppressWarnings("unchecked")
+        synchronized V put(long key, int hash, V value, boolean onlyIfAbsent) {
+            int mask = keys.length - 1;
+            int i = hash & mask;
+            for (; values[i] != null; i = (i + 1) & mask) {
+                if (keys[i] == key) {
+                    V old = (V) values[i];
+                    if (!onlyIfAbsent) {
+                        values[i] = value;
+                    }
+                    return old;
+                }
+            }
+            keys[i] = key;
+            values[i] = value;
+            if (++size > (keys.length >> 1)) {
+                resize(keys.length << 1);
+            }
+            return null;
+        }
+
+        @SuppressWarnings("unchecked")
+        synchronized V remove(long key, int hash, V expected) {
+            int mask = keys.length - 1;
+            for (int i = hash & mask; values[i] != null; i = (i + 1) & mask) {
+                if (keys[i] == key) {
+                    V old = (V) values[i];
+                    if (expected != null && expected != old) {
+                        return null;
+                    }
+                    delete(i);
+                    return old;
+                }
+            }
+            return null;
+        }
+
+        synchronized void addValuesTo(List<V> list) {
+            for (Object value : values) {
+                if (value != null) {
+                    @SuppressWarnings("unchecked")
+                    V v = (V) value;
+                    list.add(v);
+                }
+            }
+        }
+
+        synchronized void clear() {
+            keys = new long[MIN_SEGMENT_CAPACITY];
+            values = new Object[MIN_SEGMENT_CAPACITY];
+            size = 0;
+        }
+
+        /**
+         * Remove the entry at <code>index</code> and shift back any
+         * following entries in its probe sequence.
+         */
+        private void delete(int index) {
+            int mask = keys.length - 1;
+            int hole = index;
+            int i = (index + 1) & mask;
+            while (values[i] != null) {
+                int home = hash(keys[i]) & mask;
+                // Move the entry into the hole if the hole lies cyclically
+                // between the entry's home slot and its current slot.
+                if (((i - home) & mask) >= ((i - hole) & mask)) {
+                    keys[hole] = keys[i];
+                    values[hole] = values[i];
+                    hole = i;
+                }
+                i = (i + 1) & mask;
+            }
+            values[hole] = null;
+            size--;
+            if (keys.length > MIN_SEGMENT_CAPACITY && size < (keys.length >> 3)) {
+                resize(keys.length >> 1);
+            }
+        }
+
+        private void resize(int capacity) {
+            long[] oldKeys = keys;
+            Object[] oldValues = values;
+            keys = new long[capacity];
+            values = new Object[capacity];
+            int mask = capacity - 1;
+            for (int j = 0; j < oldKeys.length; j++) {
+                if (oldValues[j] != null) {
+                    int i = hash(oldKeys[j]) & mask;
+                    while (values[i] != null) {
+                        i = (i + 1) & mask;
+                    }
+                    keys[i] = oldKeys[j];
+                    values[i] = oldValues[j];
+                }
+            }
+        }
+    }
+}
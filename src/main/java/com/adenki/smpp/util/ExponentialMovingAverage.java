@@ -0,0 +1,91 @@
+package com.adenki.smpp.util;
+
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * A lock-free exponentially weighted moving average. Each new sample moves
+ * the average towards it by the smoothing factor, so recent samples count
+ * more than old ones. It is used to track the recent response latency of
+ * a session.
+ * @version $Id$
+ */
+public class ExponentialMovingAverage {
+    /**
+     * The default smoothing factor.
+     */
+    public static final double DEFAULT_ALPHA = 0.2;
+
+    private static final long EMPTY = Double.doubleToLongBits(Double.NaN);
+
+    private final double alpha;
+    private final AtomicLong value = new AtomicLong(EMPTY);
+
+    /**
+     * Create an average with the default smoothing factor.
+     */
+    public ExponentialMovingAverage() {
+        this(DEFAULT_ALPHA);
+    }
+
+    /**
+     * Create an average.
+     * @param alpha The weight given to each new sample, greater than 0
+     * and at most 1.
+     */
+    public ExponentialMovingAverage(double alpha) {
+        if (alpha <= 0.0 || alpha > 1.0) {
+            throw new IllegalArgumentException(
+                    "Smoothing factor must be in (0, 1]: " + alpha);
+        }
+        this.alpha = alpha;
+    }
+
+    /**
+     * Add a sample to the average. The first sample becomes the average.
+     * @param sample The sample value.
+     */
+    public void update(double sample) {
+        while (true) {
+            long bits = value.get();
+            double current = Double.longBitsToDouble(bits);
+            double next;
+            if (Double.isNaN(current)) {
+                next = sample;
+            } else {
+                next = current + alpha * (sample - current);
+            }
+            if (value.compareAndSet(bits, Double.doubleToLongBits(next))) {
+                return;
+            }
+        }
+    }
+
+    /**
+     * Get the current average.
+     * @return The average, or zero if no samples have been added.
+     */
+    public double get() {
+        double current = Double.longBitsToDouble(value.get());
+        return Double.isNaN(current) ? 0.0 : current;
+    }
+
+    /**
+     * Determine if any samples have been added.
+     * @return <code>true</code> if no samples have been added.
+     */
+    public boolean isEmpty() {
+        return value.get() == EMPTY;
+    }
+
+    /**
+     * Discard all samples.
+     */
+    public void reset() {
+        value.set(EMPTY);
+    }
+
+    @Override
+    public String toString() {
+        return Double.toString(get());
+    }
+}
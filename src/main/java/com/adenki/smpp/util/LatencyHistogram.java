@@ -0,0 +1,158 @@
+package com.adenki.smpp.util;
+
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicLongArray;
+
+/**
+ * A lock-free histogram of latencies, used to record round-trip times
+ * without keeping every sample.
+ * <p>
+ * Values are counted in log-linear buckets: each power of two is split
+ * into eight equal buckets, so a recorded value is reported with an error
+ * of at most 12.5%. The histogram covers the full range of
+ * <code>long</code> values in a fixed amount of memory, and recording a
+ * value is a single atomic increment. Values are unit-less; callers
+ * normally record nanoseconds.
+ * </p>
+ * @version $Id$
+ */
+public class LatencyHistogram {
+    private static final int SUB_BUCKET_BITS = 3;
+    private static final int SUB_BUCKETS = 1 << SUB_BUCKET_BITS;
+    private static final int BUCKETS = 64 * SUB_BUCKETS;
+
+    private final AtomicLongArray counts = new AtomicLongArray(BUCKETS);
+    private final AtomicLong count = new AtomicLong();
+    private final AtomicLong total = new AtomicLong();
+    private final AtomicLong min = new AtomicLong(Long.MAX_VALUE);
+    private final AtomicLong max = new AtomicLong(Long.MIN_VALUE);
+
+    /**
+     * Record a value. Negative values are recorded as zero.
+     * @param value The value to record.
+     */
+    public void record(long value) {
+        if (value < 0L) {
+            value = 0L;
+        }
+        counts.incrementAndGet(indexOf(value));
+        count.incrementAndGet();
+        total.addAndGet(value);
+        long current;
+        while (value < (current = min.get())) {
+            if (min.compareAndSet(current, value)) {
+                break;
+            }
+        }
+        while (value > (current = max.get())) {
+            if (max.compareAndSet(current, value)) {
+                break;
+            }
+        }
+    }
+
+    /**
+     * Get the number of values recorded.
+     * @return The number of values recorded.
+     */
+    public long getCount() {
+        return count.get();
+    }
+
+    /**
+     * Get the smallest value recorded.
+     * @return The smallest value, or zero if no values have been recorded.
+     */
+    public long getMin() {
+        long value = min.get();
+        return value == Long.MAX_VALUE ? 0L : value;
+    }
+
+    /**
+     * Get the largest value recorded.
+     * @return The largest value, or zero if no values have been recorded.
+     */
+    public long getMax() {
+        long value = max.get();
+        return value == Long.MIN_VALUE ? 0L : value;
+    }
+
+    /**
+     * Get the mean of the values recorded.
+     * @return The mean value, or zero if no values have been recorded.
+     */
+    public double getMean() {
+        long n = count.get();
+        return n == 0L ? 0.0 : (double) total.get() / n;
+    }
+
+    /**
+     * Get the value below which a percentage of the recorded values fall.
+     * The result is the upper bound of the bucket holding the percentile,
+     * capped at the largest value recorded.
+     * @param percentile The percentile, from 0 to 100.
+     * @return The value at <code>percentile</code>, or zero if no values
+     * have been recorded.
+     */
+    public long getPercentile(double percentile) {
+        if (percentile < 0.0 || percentile > 100.0) {
+            throw new IllegalArgumentException(
+                    "Percentile must be between 0 and 100: " + percentile);
+        }
+        long n = count.get();
+        if (n == 0L) {
+            return 0L;
+        }
+        long target = Math.max(1L, (long) Math.ceil(n * percentile / 100.0));
+        long seen = 0L;
+        for (int i = 0; i < BUCKETS; i++) {
+            seen += counts.get(i);
+            if (seen >= target) {
+                return Math.min(upperBound(i), getMax());
+            }
+        }
+        return getMax();
+    }
+
+    /**
+     * Discard all recorded values.
+     */
+    public void reset() {
+        for (int i = 0; i < BUCKETS; i++) {
+            counts.set(i, 0L);
+        }
+        count.set(0L);
+        total.set(0L);
+        min.set(Long.MAX_VALUE);
+        max.set(Long.MIN_VALUE);
+    }
+
+    @Override
+    public String toString() {
+        return "LatencyHistogram[count=" + getCount()
+            + ",min=" + getMin()
+            + ",mean=" + (long) getMean()
+            + ",p99=" + getPercentile(99.0)
+            + ",max=" + getMax() + "]";
+    }
+
+    private static int indexOf(long value) {
+        if (value < SUB_BUCKETS) {
+            return (int) value;
+        }
+        int exponent = 63 - Long.numberOfLeadingZeros(value);
+        int shift = exponent - SUB_BUCKET_BITS;
+        int subBucket = (int) (value >>> shift) & (SUB_BUCKETS - 1);
+        return (shift + 1) * SUB_BUCKETS + subBucket;
+    }
+
+    private static long upperBound(int index) {
+        if (index < SUB_BUCKETS) {
+            return index;
+        }
+        int shift = index / SUB_BUCKETS - 1;
+        long subBucket = index % SUB_BUCKETS;
+        long lower = (SUB_BUCKETS + subBucket) << shift;
+        return lower + (1L << shift) - 1L;
+    }
+}
@@ -0,0 +1,26 @@
+package com.adenki.smpp.util;
+
+import com.adenki.smpp.message.SMPPPacket;
+
+/**
+ * Creates new instances of one type of SMPP packet for a
+ * {@link PacketFactory}. A vendor packet type can be registered with a
+ * creator instead of its class, so the factory does not need to use
+ * reflection to create it:
+ * <pre>
+ * factory.registerVendorPacket(VendorRequest.ID, new PacketCreator() {
+ *     public SMPPPacket newPacket() {
+ *         return new VendorRequest();
+ *     }
+ * }, null);
+ * </pre>
+ * Creators are shared between threads and must be thread-safe.
+ * @version $Id$
+ */
+public interface PacketCreator {
+    /**
+     * Create a new packet with all its fields in their default state.
+     * @return A new packet.
+     */
+    SMPPPacket newPacket();
+}
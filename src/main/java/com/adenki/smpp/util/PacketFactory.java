@@ -1,6 +1,7 @@
 package com.adenki.smpp.util;
 
 import java.lang.reflect.Constructor;
+import java.util.Collections;
 import java.util.HashMap;
 import java.util.Map;
 
@@ -19,6 +20,7 @@ import com.adenki.smpp.message.CancelBroadcastSM;
 import com.adenki.smpp.message.CancelBroadcastSMResp;
 import com.adenki.smpp.message.CancelSM;
 import com.adenki.smpp.message.CancelSMResp;
+import com.adenki.smpp.message.CommandId;
 import com.adenki.smpp.message.DataSM;
 import com.adenki.smpp.message.DataSMResp;
 import com.adenki.smpp.message.DeliverSM;
@@ -27,6 +29,7 @@ import com.adenki.smpp.message.EnquireLink;
 import com.adenki.smpp.message.EnquireLinkResp;
 import com.adenki.smpp.message.GenericNack;
 import com.adenki.smpp.message.Outbind;
+import com.adenki.smpp.message.PacketPool;
 import com.adenki.smpp.message.ParamRetrieve;
 import com.adenki.smpp.message.ParamRetrieveResp;
 import com.adenki.smpp.message.QueryBroadcastSM;
@@ -46,48 +49,33 @@ import com.adenki.smpp.message.SubmitSM;
 import com.adenki.smpp.message.SubmitSMResp;
 import com.adenki.smpp.message.Unbind;
 import com.adenki.smpp.message.UnbindResp;
-import org.slf4j.Logger;
-import org.slf4j.LoggerFactory;
 
 /**
  * Factory class for SMPP packets.
+ * <p>
+ * Packets are created by {@link PacketCreator}s looked up by command ID in
+ * an immutable registry. The registry of the packet types defined by the
+ * API is built once and shared by every factory, so creating a factory is
+ * cheap. Registering a vendor packet gives the factory its own copy of the
+ * registry with the new type added; lookups never lock and see either the
+ * old or the new registry.
+ * </p>
  * @version $Id$
  */
 public final class PacketFactory {
-    private static final Logger LOG = LoggerFactory.getLogger(PacketFactory.class);
-    
-    private final Map<Integer, Class<? extends SMPPPacket>> commands =
-        new HashMap<Integer, Class<? extends SMPPPacket>>();
-    private final Map<Integer, Class<? extends SMPPPacket>> userCommands =
-        new HashMap<Integer, Class<? extends SMPPPacket>>();
-    
+    private static final Registry STANDARD_PACKETS = createStandardRegistry();
+
+    private volatile Registry registry = STANDARD_PACKETS;
+    private PacketPool packetPool = PacketPool.getDefault();
+
     public PacketFactory() {
-        add(new AlertNotification());
-        add(new BindReceiver(), new BindReceiverResp());
-        add(new BindTransceiver(), new BindTransceiverResp());
-        add(new BindTransmitter(), new BindTransmitterResp());
-        add(new BroadcastSM(), new BroadcastSMResp());
-        add(new CancelBroadcastSM(), new CancelBroadcastSMResp());
-        add(new CancelSM(), new CancelSMResp());
-        add(new DataSM(), new DataSMResp());
-        add(new DeliverSM(), new DeliverSMResp());
-        add(new EnquireLink(), new EnquireLinkResp());
-        add(new GenericNack());
-        add(new Outbind());
-        add(new ParamRetrieve(), new ParamRetrieveResp());
-        add(new QueryBroadcastSM(), new QueryBroadcastSMResp());
-        add(new QueryLastMsgs(), new QueryLastMsgsResp());
-        add(new QueryMsgDetails(), new QueryMsgDetailsResp());
-        add(new QuerySM(), new QuerySMResp());
-        add(new ReplaceSM(), new ReplaceSMResp());
-        add(new SubmitMulti(), new SubmitMultiResp());
-        add(new SubmitSM(), new SubmitSMResp());
-        add(new Unbind(), new UnbindResp());
     }
 
     /**
      * Create a new instance of the appropriate sub class of SMPPPacket. Packet
-     * fields are all left at their default initial state.
+     * fields are all left at their default initial state. If this factory
+     * has a {@link #setPacketPool packet pool}, packets of the pooled types
+     * are taken from it and must be {@link SMPPPacket#release() released}.
      * 
      * @param id
      *            The SMPP command ID of the packet type to return.
@@ -97,7 +85,35 @@ public final class PacketFactory {
      *             if the command ID is not recognized.
      */
     public SMPPPacket newInstance(int id) {
-        return newInstance(id, null);
+        PacketPool pool = packetPool;
+        if (pool == null) {
+            return create(id);
+        }
+        SMPPPacket packet = pool.acquire(id);
+        if (packet == null) {
+            packet = pool.adopt(create(id));
+        }
+        return packet;
+    }
+
+    /**
+     * Get the pool that {@link #newInstance(int)} takes packets from.
+     * @return The packet pool, or <code>null</code> if packets are not
+     * pooled.
+     */
+    public PacketPool getPacketPool() {
+        return packetPool;
+    }
+
+    /**
+     * Set the pool that {@link #newInstance(int)} takes packets from. The
+     * default is the {@link PacketPool#getDefault() shared pool}, if
+     * pooling is enabled.
+     * @param packetPool The packet pool, or <code>null</code> to allocate
+     * every packet.
+     */
+    public void setPacketPool(PacketPool packetPool) {
+        this.packetPool = packetPool;
     }
     
     /**
@@ -117,7 +133,7 @@ public final class PacketFactory {
                     "Cannot create a response to a response!");
         }
         int id = packet.getCommandId();
-        SMPPPacket response = newInstance(id | 0x80000000, packet);
+        SMPPPacket response = create(id | 0x80000000);
         response.setSequenceNum(packet.getSequenceNum());
         return response;
     }
@@ -136,132 +152,363 @@ public final class PacketFactory {
      * the specification of such a case (<code>AlertNotification</code> has
      * no response packet).
      * </p>
+     * <p>
+     * The classes&apos; no-argument constructors are looked up when they
+     * are registered and called reflectively for each packet. Registering
+     * {@link PacketCreator}s instead avoids the reflection.
+     * </p>
      * @param id The command ID of the request packet.
      * @param requestType The class which implements the vendor request packet.
      * @param responseType The class which implements the vendor response
      * packet.
+     * @throws IllegalArgumentException If either class does not have a
+     * no-argument constructor.
      */
     public void registerVendorPacket(int id,
             Class<? extends SMPPPacket> requestType,
             Class<? extends SMPPPacket> responseType) {
-        userCommands.put(Integer.valueOf(id), requestType);
-        if (responseType != null) {
-            userCommands.put(
-                    Integer.valueOf(id | 0x80000000), responseType);
-        }
-    }
-
-    /**
-     * Remove a vendor packet definition from this factory.
-     * @param id The ID of the vendor packet to remove. This will also
-     * unregister the response packet if it exists.
-     */
-    public void unregisterVendorPacket(int id) {
-        userCommands.remove(Integer.valueOf(id));
-        userCommands.remove(Integer.valueOf(id | 0x80000000));
+        registerVendorPacket(id,
+                new ConstructorCreator(requestType),
+                responseType != null ? new ConstructorCreator(responseType) : null);
     }
 
     /**
-     * Add an internal API-defined packet type.
-     * @param command The request packet to add.
+     * Register a vendor packet with the factory, as
+     * {@link #registerVendorPacket(int, Class, Class)} does, using
+     * creators to make new instances. A vendor packet registered with the
+     * ID of a packet type defined by the API replaces that type in this
+     * factory until it is unregistered.
+     * @param id The command ID of the request packet.
+     * @param request Creates the vendor request packet.
+     * @param response Creates the vendor response packet, or
+     * <code>null</code> if the request has no response.
      */
-    private void add(SMPPPacket command) {
-        int commandId = command.getCommandId();
-        Class<? extends SMPPPacket> commandClass = command.getClass();
-        commands.put(Integer.valueOf(commandId), commandClass);
-        if (LOG.isDebugEnabled()) {
-            LOG.debug("Mapping id 0x{} to class {}",
-                    Integer.toHexString(commandId), commandClass.getName());
+    public synchronized void registerVendorPacket(int id,
+            PacketCreator request, PacketCreator response) {
+        Map<Integer, PacketCreator> changes = new HashMap<Integer, PacketCreator>();
+        changes.put(Integer.valueOf(id), request);
+        if (response != null) {
+            changes.put(Integer.valueOf(id | 0x80000000), response);
         }
+        registry = registry.with(changes);
     }
-    
+
     /**
-     * Add an internal API-defined packet type.
-     * @param requestClass The request packet to add.
-     * @param responseClass The response packet to add.
+     * Remove a vendor packet definition from this factory.
+     * @param id The ID of the vendor packet to remove. This will also
+     * unregister the response packet if it exists.
      */
-    private void add(SMPPPacket request, SMPPPacket response) {
-        add(request);
-        if (response != null) {
-            add(response);
-        }
+    public synchronized void unregisterVendorPacket(int id) {
+        Map<Integer, PacketCreator> changes = new HashMap<Integer, PacketCreator>();
+        // Restore the API's own types, if the IDs are defined by the API.
+        changes.put(Integer.valueOf(id), STANDARD_PACKETS.get(id));
+        changes.put(Integer.valueOf(id | 0x80000000),
+                STANDARD_PACKETS.get(id | 0x80000000));
+        registry = registry.with(changes);
     }
 
     /**
      * Get a new instance of an SMPP packet for the specified ID.
      * @param id The command ID to get the packet object for.
-     * @param request If a response packet is being created, this parameter
-     * may be optionally supplied and an attempt will be made to call a
-     * constructor which accepts an SMPPPacket as its argument. All of the
-     * response packets that are supplied as part of the API have such
-     * a constructor.
      * @return A new instance of the relevant SMPPPacket implementation.
-     * @throws BadCommandIDException If no matching class can be found for
+     * @throws BadCommandIDException If no packet type is registered for
      * <code>id</code>.
-     * @throws SMPPRuntimeException If a packet&apos;s constructor throws
-     * an exception.
      */
-    private SMPPPacket newInstance(int id, SMPPPacket request) {
-        SMPPPacket response = null;
-        Class<? extends SMPPPacket> clazz = getClassForId(id);
-        if (clazz == null) {
+    private SMPPPacket create(int id) {
+        PacketCreator creator = registry.get(id);
+        if (creator == null) {
             throw new BadCommandIDException(
                     "Unrecognized command id " + Integer.toHexString(id), id);
         }
-        try {
-            if (request != null) {
-                response = constructWithPacketArg(clazz, request);
+        return creator.newPacket();
+    }
+
+    private static Registry createStandardRegistry() {
+        Map<Integer, PacketCreator> registry = new HashMap<Integer, PacketCreator>();
+        registry.put(CommandId.ALERT_NOTIFICATION, new PacketCreator() {
+            public SMPPPacket newPacket() {
+                return new AlertNotification();
             }
-            if (response == null) {
-                response = clazz.newInstance();
+        });
+        registry.put(CommandId.BIND_RECEIVER, new PacketCreator() {
+            public SMPPPacket newPacket() {
+                return new BindReceiver();
             }
-        } catch (Exception x) {
-            throw new SMPPRuntimeException(
-                    "Packet constructor threw an exception.", x);
-        }
-        return response;
+        });
+        registry.put(CommandId.BIND_RECEIVER_RESP, new PacketCreator() {
+            public SMPPPacket newPacket() {
+                return new BindReceiverResp();
+            }
+        });
+        registry.put(CommandId.BIND_TRANSCEIVER, new PacketCreator() {
+            public SMPPPacket newPacket() {
+                return new BindTransceiver();
+            }
+        });
+        registry.put(CommandId.BIND_TRANSCEIVER_RESP, new PacketCreator() {
+            public SMPPPacket newPacket() {
+                return new BindTransceiverResp();
+            }
+        });
+        registry.put(CommandId.BIND_TRANSMITTER, new PacketCreator() {
+            public SMPPPacket newPacket() {
+                return new BindTransmitter();
+            }
+        });
+        registry.put(CommandId.BIND_TRANSMITTER_RESP, new PacketCreator() {
+            public SMPPPacket newPacket() {
+                return new BindTransmitterResp();
+            }
+        });
+        registry.put(CommandId.BROADCAST_SM, new PacketCreator() {
+            public SMPPPacket newPacket() {
+                return new BroadcastSM();
+            }
+        });
+        registry.put(CommandId.BROADCAST_SM_RESP, new PacketCreator() {
+            public SMPPPacket newPacket() {
+                return new BroadcastSMResp();
+            }
+        });
+        registry.put(CommandId.CANCEL_BROADCAST_SM, new PacketCreator() {
+            public SMPPPacket newPacket() {
+                return new CancelBroadcastSM();
+            }
+        });
+        registry.put(CommandId.CANCEL_BROADCAST_SM_RESP, new PacketCreator() {
+            public SMPPPacket newPacket() {
+                return new CancelBroadcastSMResp();
+            }
+        });
+        registry.put(CommandId.CANCEL_SM, new PacketCreator() {
+            public SMPPPacket newPacket() {
+                return new CancelSM();
+            }
+        });
+        registry.put(CommandId.CANCEL_SM_RESP, new PacketCreator() {
+            public SMPPPacket newPacket() {
+                return new CancelSMResp();
+            }
+        });
+        registry.put(CommandId.DATA_SM, new PacketCreator() {
+            public SMPPPacket newPacket() {
+                return new DataSM();
+            }
+        });
+        registry.put(CommandId.DATA_SM_RESP, new PacketCreator() {
+            public SMPPPacket newPacket() {
+                return new DataSMResp();
+            }
+        });
+        registry.put(CommandId.DELIVER_SM, new PacketCreator() {
+            public SMPPPacket newPacket() {
+                return new DeliverSM();
+            }
+        });
+        registry.put(CommandId.DELIVER_SM_RESP, new PacketCreator() {
+            public SMPPPacket newPacket() {
+                return new DeliverSMResp();
+            }
+        });
+        registry.put(CommandId.ENQUIRE_LINK, new PacketCreator() {
+            public SMPPPacket newPacket() {
+                return new EnquireLink();
+            }
+        });
+        registry.put(CommandId.ENQUIRE_LINK_RESP, new PacketCreator() {
+            public SMPPPacket newPacket() {
+                return new EnquireLinkResp();
+            }
+        });
+        registry.put(CommandId.GENERIC_NACK, new PacketCreator() {
+            public SMPPPacket newPacket() {
+                return new GenericNack();
+            }
+        });
+        registry.put(CommandId.OUTBIND, new PacketCreator() {
+            public SMPPPacket newPacket() {
+                return new Outbind();
+            }
+        });
+        registry.put(CommandId.PARAM_RETRIEVE, new PacketCreator() {
+            public SMPPPacket newPacket() {
+                return new ParamRetrieve();
+            }
+        });
+        registry.put(CommandId.PARAM_RETRIEVE_RESP, new PacketCreator() {
+            public SMPPPacket newPacket() {
+                return new ParamRetrieveResp();
+            }
+        });
+        registry.put(CommandId.QUERY_BROADCAST_SM, new PacketCreator() {
+            public SMPPPacket newPacket() {
+                return new QueryBroadcastSM();
+            }
+        });
+        registry.put(CommandId.QUERY_BROADCAST_SM_RESP, new PacketCreator() {
+            public SMPPPacket newPacket() {
+                return new QueryBroadcastSMResp();
+            }
+        });
+        registry.put(CommandId.QUERY_LAST_MSGS, new PacketCreator() {
+            public SMPPPacket newPacket() {
+                return new QueryLastMsgs();
+            }
+        });
+        registry.put(CommandId.QUERY_LAST_MSGS_RESP, new PacketCreator() {
+            public SMPPPacket newPacket() {
+                return new QueryLastMsgsResp();
+            }
+        });
+        registry.put(CommandId.QUERY_MSG_DETAILS, new PacketCreator() {
+            public SMPPPacket newPacket() {
+                return new QueryMsgDetails();
+            }
+        });
+        registry.put(CommandId.QUERY_MSG_DETAILS_RESP, new PacketCreator() {
+            public SMPPPacket newPacket() {
+                return new QueryMsgDetailsResp();
+            }
+        });
+        registry.put(CommandId.QUERY_SM, new PacketCreator() {
+            public SMPPPacket newPacket() {
+                return new QuerySM();
+            }
+        });
+        registry.put(CommandId.QUERY_SM_RESP, new PacketCreator() {
+            public SMPPPacket newPacket() {
+                return new QuerySMResp();
+            }
+        });
+        registry.put(CommandId.REPLACE_SM, new PacketCreator() {
+            public SMPPPacket newPacket() {
+                return new ReplaceSM();
+            }
+        });
+        registry.put(CommandId.REPLACE_SM_RESP, new PacketCreator() {
+            public SMPPPacket newPacket() {
+                return new ReplaceSMResp();
+            }
+        });
+        registry.put(CommandId.SUBMIT_MULTI, new PacketCreator() {
+            public SMPPPacket newPacket() {
+                return new SubmitMulti();
+            }
+        });
+        registry.put(CommandId.SUBMIT_MULTI_RESP, new PacketCreator() {
+            public SMPPPacket newPacket() {
+                return new SubmitMultiResp();
+            }
+        });
+        registry.put(CommandId.SUBMIT_SM, new PacketCreator() {
+            public SMPPPacket newPacket() {
+                return new SubmitSM();
+            }
+        });
+        registry.put(CommandId.SUBMIT_SM_RESP, new PacketCreator() {
+            public SMPPPacket newPacket() {
+                return new SubmitSMResp();
+            }
+        });
+        registry.put(CommandId.UNBIND, new PacketCreator() {
+            public SMPPPacket newPacket() {
+                return new Unbind();
+            }
+        });
+        registry.put(CommandId.UNBIND_RESP, new PacketCreator() {
+            public SMPPPacket newPacket() {
+                return new UnbindResp();
+            }
+        });
+        return new Registry().with(registry);
     }
-    
+
     /**
-     * Construct an SMPPPacket implementation class using a single-argument
-     * constructor which takes an SMPPPacket object as its argument.
-     * @param clazz The class to instantiate.
-     * @param request The object to pass to the constructor.
-     * @return The instantiated class, or <code>null</code> if the class does
-     * not implement a single-argument constructor which accepts an SMPPPacket.
-     * @throws Exception Any exception that is thrown by
-     * {@link Constructor#newInstance(java.lang.Object[])} can be thrown
-     * by this method.
+     * An immutable map of command IDs to packet creators. The IDs defined
+     * by the SMPP specification are looked up by index in two small
+     * arrays, one for requests and one for responses; any other ID is
+     * looked up in a map.
      */
-    private SMPPPacket constructWithPacketArg(
-            Class<? extends SMPPPacket> clazz,
-            SMPPPacket request) throws Exception {
-        SMPPPacket packet = null;
-        try {
-            Constructor<? extends SMPPPacket> cons = clazz.getConstructor(
-                    new Class[] {SMPPPacket.class});
-            packet = cons.newInstance(
-                    new Object[] {request});
-        } catch (NoSuchMethodException x) {
-            LOG.debug("No SMPPPacket constructor; will fall back to default.");
+    private static final class Registry {
+        /** IDs below this, with or without the response bit, are indexed. */
+        private static final int INDEXED_IDS = 0x200;
+
+        private final PacketCreator[] requests;
+        private final PacketCreator[] responses;
+        private final Map<Integer, PacketCreator> others;
+
+        Registry() {
+            this(new PacketCreator[INDEXED_IDS], new PacketCreator[INDEXED_IDS],
+                    Collections.<Integer, PacketCreator>emptyMap());
+        }
+
+        private Registry(PacketCreator[] requests, PacketCreator[] responses,
+                Map<Integer, PacketCreator> others) {
+            this.requests = requests;
+            this.responses = responses;
+            this.others = others;
+        }
+
+        PacketCreator get(int id) {
+            int index = id & 0x7fffffff;
+            if (index < INDEXED_IDS) {
+                return id < 0 ? responses[index] : requests[index];
+            }
+            return others.get(Integer.valueOf(id));
+        }
+
+        /**
+         * Get a copy of this registry with some creators changed.
+         * @param changes The creators to set, with <code>null</code> values
+         * for creators to remove.
+         * @return A new registry.
+         */
+        Registry with(Map<Integer, PacketCreator> changes) {
+            PacketCreator[] newRequests = requests.clone();
+            PacketCreator[] newResponses = responses.clone();
+            Map<Integer, PacketCreator> newOthers =
+                new HashMap<Integer, PacketCreator>(others);
+            for (Map.Entry<Integer, PacketCreator> change : changes.entrySet()) {
+                int id = change.getKey().intValue();
+                int index = id & 0x7fffffff;
+                if (index < INDEXED_IDS) {
+                    PacketCreator[] array = id < 0 ? newResponses : newRequests;
+                    array[index] = change.getValue();
+                } else if (change.getValue() != null) {
+                    newOthers.put(change.getKey(), change.getValue());
+                } else {
+                    newOthers.remove(change.getKey());
+                }
+            }
+            return new Registry(newRequests, newResponses,
+                    Collections.unmodifiableMap(newOthers));
         }
-        return packet;
     }
-    
+
     /**
-     * Get the implementation class for SMPP <code>commandId</code>.
-     * The internally supplied SMPPPacket implementations will be queried
-     * first, followed by all registered vendor packets.
-     * @param commandId The command ID of the packet to get.
-     * @return The implementing class, or <code>null</code> if there is
-     * no class for the specified command ID.
+     * Creates packets of a class registered by the application through its
+     * no-argument constructor.
      */
-    private Class<? extends SMPPPacket> getClassForId(int commandId) {
-        Integer id = Integer.valueOf(commandId);
-        Class<? extends SMPPPacket> clazz = commands.get(id);
-        if (clazz == null) {
-            clazz = userCommands.get(id);
+    private static final class ConstructorCreator implements PacketCreator {
+        private final Constructor<? extends SMPPPacket> constructor;
+
+        ConstructorCreator(Class<? extends SMPPPacket> type) {
+            try {
+                constructor = type.getDeclaredConstructor();
+                constructor.setAccessible(true);
+            } catch (NoSuchMethodException x) {
+                throw new IllegalArgumentException(
+                        type.getName() + " has no no-argument constructor");
+            }
+        }
+
+        public SMPPPacket newPacket() {
+            try {
+                return constructor.newInstance();
+            } catch (Exception x) {
+                throw new SMPPRuntimeException(
+                        "Packet constructor threw an exception.", x);
+            }
         }
-        return clazz;
     }
 }
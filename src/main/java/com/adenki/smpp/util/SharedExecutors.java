@@ -0,0 +1,138 @@
+package com.adenki.smpp.util;
+
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ScheduledFuture;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * The background threads shared by every session in the JVM.
+ * <p>
+ * The {@link #getScheduler() scheduler} is a single thread that runs
+ * delayed and periodic tasks, such as timed flushes, keepalive checks,
+ * reconnect delays and pool checks. Its tasks must be short and must not
+ * block. Work that may block on the network, such as connecting, binding
+ * or writing to a link, is run on the {@link #getWorkers() workers}, a
+ * fixed number of threads set by the {@link APIConfig#BACKGROUND_THREADS}
+ * property. {@link #scheduleWork} combines the two.
+ * </p>
+ * <p>
+ * A write to a dead link may block until the link is closed, and enough
+ * of those would leave no worker free to close them. Writes that are not
+ * bounded by a timeout, and connects with a long timeout, are therefore
+ * run on the {@link #getIoThreads() I/O threads} instead, which are
+ * started as needed and exit when idle.
+ * </p>
+ * <p>
+ * Response, bind and enquire_link timeouts, of which there may be very
+ * many, are run on the {@link TimingWheel} instead.
+ * </p>
+ * @version $Id$
+ */
+public final class SharedExecutors {
+    private static final Logger LOG = LoggerFactory.getLogger(SharedExecutors.class);
+    private static final int DEFAULT_BACKGROUND_THREADS = 4;
+
+    private SharedExecutors() {
+    }
+
+    /**
+     * Get the thread shared by all sessions for short, non-blocking timed
+     * tasks.
+     * @return The shared scheduler.
+     */
+    public static ScheduledExecutorService getScheduler() {
+        return Scheduler.EXECUTOR;
+    }
+
+    /**
+     * Get the threads shared by all sessions for background work that may
+     * block.
+     * @return The shared worker pool.
+     */
+    public static ExecutorService getWorkers() {
+        return Workers.EXECUTOR;
+    }
+
+    /**
+     * Get the threads shared by all sessions for writes to a link that
+     * may block until the link is closed, and for slow connects.
+     * @return The shared I/O thread pool.
+     */
+    public static ExecutorService getIoThreads() {
+        return IoThreads.EXECUTOR;
+    }
+
+    /**
+     * Run a task on a worker thread after a delay.
+     * @param task The task to run.
+     * @param delay The delay before the task is handed to a worker.
+     * @param unit The unit of <code>delay</code>.
+     * @return A future that may be used to cancel the task before it is
+     * handed to a worker.
+     */
+    public static ScheduledFuture<?> scheduleWork(final Runnable task,
+            long delay, TimeUnit unit) {
+        return Scheduler.EXECUTOR.schedule(new Runnable() {
+            public void run() {
+                execute(task);
+            }
+        }, delay, unit);
+    }
+
+    /**
+     * Run a task on a worker thread.
+     * @param task The task to run.
+     */
+    public static void execute(Runnable task) {
+        try {
+            Workers.EXECUTOR.execute(task);
+        } catch (RejectedExecutionException x) {
+            LOG.error("Background task rejected", x);
+        }
+    }
+
+    private static ThreadFactory daemonThreads(final String prefix) {
+        final AtomicInteger threadId = new AtomicInteger(1);
+        return new ThreadFactory() {
+            public Thread newThread(Runnable r) {
+                Thread thread = new Thread(r, prefix + threadId.getAndIncrement());
+                thread.setDaemon(true);
+                return thread;
+            }
+        };
+    }
+
+    /**
+     * Holder for the shared scheduler.
+     */
+    private static final class Scheduler {
+        static final ScheduledExecutorService EXECUTOR =
+            Executors.newSingleThreadScheduledExecutor(daemonThreads("SMPPScheduler-"));
+    }
+
+    /**
+     * Holder for the shared worker pool.
+     */
+    private static final class Workers {
+        static final ExecutorService EXECUTOR = Executors.newFixedThreadPool(
+                Math.max(1, APIConfigFactory.getConfig().getInt(
+                        APIConfig.BACKGROUND_THREADS, DEFAULT_BACKGROUND_THREADS)),
+                daemonThreads("SMPPWorker-"));
+    }
+
+    /**
+     * Holder for the shared I/O thread pool.
+     */
+    private static final class IoThreads {
+        static final ExecutorService EXECUTOR =
+            Executors.newCachedThreadPool(daemonThreads("SMPPIO-"));
+    }
+}
@@ -0,0 +1,84 @@
+package com.adenki.smpp.util;
+
+import java.util.concurrent.atomic.AtomicLongArray;
+
+/**
+ * A counter that many threads can increment without contending on a
+ * single memory location.
+ * <p>
+ * The count is split over a number of cells, at least as many as there
+ * are processors, each on its own cache line. A thread always adds to the
+ * cell chosen by its thread ID, so threads on different processors rarely
+ * share a cell and never share a cache line. Reading the counter sums the
+ * cells, which makes reads more expensive than writes; counters are meant
+ * to be written on every packet and read occasionally.
+ * </p>
+ * @version $Id$
+ */
+public class StripedCounter {
+    /**
+     * The number of <code>long</code>s between cells, so that each cell is
+     * on its own 64 byte cache line.
+     */
+    private static final int PADDING = 8;
+
+    private static final int STRIPES;
+
+    static {
+        int stripes = 1;
+        while (stripes < Runtime.getRuntime().availableProcessors()) {
+            stripes <<= 1;
+        }
+        STRIPES = stripes;
+    }
+
+    private final AtomicLongArray cells = new AtomicLongArray(STRIPES * PADDING);
+
+    /**
+     * Add one to the counter.
+     */
+    public void increment() {
+        add(1L);
+    }
+
+    /**
+     * Add a value to the counter.
+     * @param value The value to add.
+     */
+    public void add(long value) {
+        cells.addAndGet(index(), value);
+    }
+
+    /**
+     * Get the value of the counter. The result is not an atomic snapshot
+     * if the counter is being updated at the same time.
+     * @return The sum of all values added.
+     */
+    public long get() {
+        long sum = 0L;
+        for (int i = 0; i < STRIPES; i++) {
+            sum += cells.get(i * PADDING);
+        }
+        return sum;
+    }
+
+    /**
+     * Set the counter back to zero.
+     */
+    public void reset() {
+        for (int i = 0; i < STRIPES; i++) {
+            cells.set(i * PADDING, 0L);
+        }
+    }
+
+    @Override
+    public String toString() {
+        return Long.toString(get());
+    }
+
+    private static int index() {
+        // Spread consecutive thread IDs over the stripes.
+        long id = Thread.currentThread().getId() * 0x9e3779b97f4a7c15L;
+        return ((int) (id >>> 32) & (STRIPES - 1)) * PADDING;
+    }
+}
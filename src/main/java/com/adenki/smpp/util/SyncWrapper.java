@@ -1,13 +1,14 @@
 package com.adenki.smpp.util;
 
 import java.io.IOException;
-import java.util.ArrayList;
-import java.util.LinkedHashMap;
-import java.util.List;
-import java.util.Map;
+import java.util.Iterator;
+import java.util.LinkedList;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
 
 import com.adenki.smpp.Session;
 import com.adenki.smpp.SessionType;
+import com.adenki.smpp.event.ReceiverExitEvent;
 import com.adenki.smpp.event.SMPPEvent;
 import com.adenki.smpp.event.SessionObserver;
 import com.adenki.smpp.message.Bind;
@@ -26,15 +27,43 @@ import org.slf4j.LoggerFactory;
  * Connection observer which mimics synchronous communications. This observer
  * provides methods which block the caller until the desired response packet
  * is available to be returned.
+ * <p>
+ * Each caller waiting on a response has its own slot in a table keyed by
+ * the sequence number of its request. A received response wakes only the
+ * caller waiting on it, and slots are removed as soon as the response
+ * arrives or the caller stops waiting. Responses that nobody is waiting on
+ * are added to the queue read by {@link #readNextPacket}, along with every
+ * request. Every request is kept until it is read, but at most 1000
+ * unclaimed responses are held; beyond that the oldest is discarded, so
+ * that late responses and the responses to requests sent with
+ * {@link Session#sendAsync(SMPPPacket)} cannot fill the heap of an
+ * application that never reads them. If the
+ * session&apos;s receiver exits, every waiting caller is woken with an
+ * <code>IOException</code>.
+ * </p>
+ * <p>
+ * Packets handed to callers are {@link SMPPPacket#retain() retained}, so
+ * pooled packets are never recycled while a caller holds them.
+ * </p>
  * @version $Id$
  */
 public class SyncWrapper implements SessionObserver {
     private static final Logger LOG = LoggerFactory.getLogger(SyncWrapper.class);
-    
+
+    /**
+     * The maximum number of unclaimed responses held for
+     * {@link #readNextPacket}.
+     */
+    static final int MAX_UNCLAIMED_RESPONSES = 1000;
+
     private Session connection;
-    private final Map<Number, SMPPPacket> responses = new LinkedHashMap<Number, SMPPPacket>();
-    private final List<SMPPPacket> packetQueue = new ArrayList<SMPPPacket>();
+    private final ConcurrentLongMap<ResponseSlot> waiters =
+        new ConcurrentLongMap<ResponseSlot>();
+    private final LinkedList<SMPPPacket> packetQueue = new LinkedList<SMPPPacket>();
     private long packetTimeout;
+    // Guarded by packetQueue.
+    private int queuedResponses;
+    private long discarded;
     
     private ConnectionCaller bindCaller = new ConnectionCaller() {
         public void execute(Session connection, SMPPPacket packet) throws IOException {
@@ -171,22 +200,39 @@ public class SyncWrapper implements SessionObserver {
     }
     
     public void packetReceived(Session source, SMPPPacket packet) {
+        // The packet outlives this callback, so keep it from being
+        // recycled if it came from a pool.
+        packet.retain();
         if (packet.isResponse()) {
             if (LOG.isDebugEnabled()) {
                 LOG.debug("Response received: {}", packet);
             }
-            synchronized (responses) {
-                responses.put(packet.getSequenceNum(), packet);
-                responses.notifyAll();
+            ResponseSlot slot = waiters.remove(packet.getSequenceNum());
+            if (slot != null) {
+                slot.complete(packet);
+                return;
             }
-        } else {
-            addToQueue(packet);
         }
+        addToQueue(packet);
     }
 
     public void update(Session source, SMPPEvent event) {
-        // TODO: need to handle SMPPEvent
-        LOG.warn("SyncWrapper ignoring an SMPP event.");
+        if (event.getType() == SMPPEvent.RECEIVER_EXIT) {
+            ReceiverExitEvent exitEvent = (ReceiverExitEvent) event;
+            IOException x = new IOException("Receiver has exited");
+            if (exitEvent.getException() != null) {
+                x.initCause(exitEvent.getException());
+            }
+            // Only fail the slots removed here; a caller that registers
+            // after the snapshot keeps its slot.
+            for (ResponseSlot slot : waiters.values()) {
+                if (waiters.remove(slot.sequenceNum, slot)) {
+                    slot.fail(x);
+                }
+            }
+        } else {
+            LOG.debug("SyncWrapper ignoring an SMPP event.");
+        }
     }
 
     /**
@@ -224,7 +270,10 @@ public class SyncWrapper implements SessionObserver {
                 if (packetQueue.size() < 1 && block) {
                     packetQueue.wait();
                 } else {
-                    packet = packetQueue.remove(0);
+                    packet = packetQueue.poll();
+                    if (packet != null && packet.isResponse()) {
+                        queuedResponses--;
+                    }
                 }
             }
         } catch (InterruptedException x) {
@@ -252,10 +301,39 @@ public class SyncWrapper implements SessionObserver {
     }
 
     private void addToQueue(SMPPPacket packet) {
+        SMPPPacket oldest = null;
         synchronized (packetQueue) {
+            if (packet.isResponse()
+                    && ++queuedResponses > MAX_UNCLAIMED_RESPONSES) {
+                oldest = removeOldestResponse();
+                discarded++;
+                if (discarded == 1L || discarded % 1000L == 0L) {
+                    LOG.warn("Too many unclaimed responses; {} discarded so far",
+                            discarded);
+                }
+            }
             packetQueue.add(packet);
             packetQueue.notify();
         }
+        if (oldest != null) {
+            oldest.release();
+        }
+    }
+
+    /**
+     * Remove the oldest response from the packet queue. Must be called
+     * while holding the queue&apos;s lock.
+     */
+    private SMPPPacket removeOldestResponse() {
+        for (Iterator<SMPPPacket> i = packetQueue.iterator(); i.hasNext();) {
+            SMPPPacket queued = i.next();
+            if (queued.isResponse()) {
+                i.remove();
+                queuedResponses--;
+                return queued;
+            }
+        }
+        return null;
     }
     
     private long getBindTimeout() {
@@ -267,31 +345,80 @@ public class SyncWrapper implements SessionObserver {
             SMPPPacket packet,
             ConnectionCaller caller,
             long timeout) throws IOException {
-        caller.execute(connection, packet);
-        SMPPPacket response = null;
+        // The sequence number is needed to register the waiter before the
+        // request is sent, as the response may arrive before send returns.
+        if (packet.getSequenceNum() < 0L) {
+            SequenceNumberScheme scheme = connection.getSequenceNumberScheme();
+            if (scheme != null) {
+                packet.setSequenceNum(scheme.nextNumber());
+            }
+        }
+        long sequenceNum = packet.getSequenceNum();
+        ResponseSlot slot = new ResponseSlot(sequenceNum);
+        if (waiters.putIfAbsent(sequenceNum, slot) != null) {
+            throw new IllegalStateException("A caller is already waiting on "
+                    + "the response to sequence number " + sequenceNum);
+        }
         try {
-            long waitFinish = System.currentTimeMillis() + timeout;
-            synchronized (responses) {
-                response = responses.get(packet.getSequenceNum());
-                while (response == null) {
-                    if (System.currentTimeMillis() > waitFinish) {
-                        throw new ReadTimeoutException(
-                                packet.getClass().getSimpleName()
-                                        + " response with sequence "
-                                        + packet.getSequenceNum()
-                                        + " not received within timeout.");
-                    }
-                    responses.wait(timeout);
-                    response = responses.get(packet.getSequenceNum());
-                }
+            caller.execute(connection, packet);
+            if (!slot.await(timeout)) {
+                throw new ReadTimeoutException(
+                        packet.getClass().getSimpleName()
+                        + " response with sequence " + sequenceNum
+                        + " not received within timeout.");
             }
+            return slot.getResponse();
         } catch (InterruptedException x) {
             LOG.debug("Thread interrupted while waiting on response packet {}.",
-                    packet.getSequenceNum());
+                    sequenceNum);
+            return null;
+        } finally {
+            waiters.remove(sequenceNum, slot);
         }
-        return response;
     }
     
+    /**
+     * A single caller's wait for the response to its request.
+     */
+    private static final class ResponseSlot {
+        private final long sequenceNum;
+        private final CountDownLatch latch = new CountDownLatch(1);
+        private volatile SMPPPacket response;
+        private volatile IOException failure;
+
+        ResponseSlot(long sequenceNum) {
+            this.sequenceNum = sequenceNum;
+        }
+
+        void complete(SMPPPacket response) {
+            this.response = response;
+            latch.countDown();
+        }
+
+        void fail(IOException failure) {
+            this.failure = failure;
+            latch.countDown();
+        }
+
+        boolean await(long timeout) throws InterruptedException {
+            if (timeout > 0L) {
+                return latch.await(timeout, TimeUnit.MILLISECONDS);
+            } else {
+                latch.await();
+                return true;
+            }
+        }
+
+        SMPPPacket getResponse() throws IOException {
+            if (failure != null) {
+                IOException x = new IOException(failure.getMessage());
+                x.initCause(failure);
+                throw x;
+            }
+            return response;
+        }
+    }
+
     private interface ConnectionCaller {
         void execute(Session connection, SMPPPacket packet) throws IOException;
     }
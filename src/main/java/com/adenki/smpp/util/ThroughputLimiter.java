@@ -0,0 +1,226 @@
+package com.adenki.smpp.util;
+
+import java.io.InterruptedIOException;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Token bucket rate limiter used to keep the rate of requests sent on a
+ * session within the limit agreed with the SMSC.
+ * <p>
+ * Tokens are added to the bucket at the current rate, up to a maximum of
+ * <code>burst</code> tokens, and each call to {@link #acquire()} takes one
+ * token. If the bucket is empty, the caller is made to wait until its
+ * token would become available. Callers are served in the order they call
+ * <code>acquire</code>.
+ * </p>
+ * <p>
+ * The limiter adapts to throttling by the SMSC. Each time a response with
+ * the {@link PacketStatus#THROTTLING_ERROR} status is received,
+ * {@link #throttled()} should be called. The current rate is then halved,
+ * at most once per adjustment interval and never below a tenth of the
+ * configured rate. Once no throttling has been reported for an adjustment
+ * interval, the rate is increased by a tenth of the configured rate per
+ * interval until it is back at the configured rate.
+ * </p>
+ * @version $Id$
+ * @see com.adenki.smpp.util.APIConfig#CONNECTION_THROTTLE_RATE
+ * @see com.adenki.smpp.util.APIConfig#CONNECTION_THROTTLE_BURST
+ */
+public class ThroughputLimiter {
+    /**
+     * The default interval between rate adjustments, in milliseconds.
+     */
+    public static final long DEFAULT_ADJUST_INTERVAL = 1000L;
+
+    private static final double DECREASE_FACTOR = 0.5;
+    private static final double MIN_RATE_FRACTION = 0.1;
+    private static final double RECOVERY_FRACTION = 0.1;
+
+    private final double rate;
+    private final int burst;
+    private final long adjustInterval;
+    private double currentRate;
+    private double tokens;
+    private long lastRefill;
+    private long lastDecrease;
+    private long lastIncrease;
+    private long lastThrottled;
+    private long throttledCount;
+    private long delayedCount;
+
+    /**
+     * Create a limiter with a burst size equal to one second of requests.
+     * @param rate The number of requests per second.
+     */
+    public ThroughputLimiter(int rate) {
+        this(rate, rate);
+    }
+
+    /**
+     * Create a limiter.
+     * @param rate The number of requests per second.
+     * @param burst The maximum number of requests that may be sent
+     * back-to-back after a period of inactivity.
+     */
+    public ThroughputLimiter(int rate, int burst) {
+        this(rate, burst, DEFAULT_ADJUST_INTERVAL);
+    }
+
+    /**
+     * Create a limiter.
+     * @param rate The number of requests per second.
+     * @param burst The maximum number of requests that may be sent
+     * back-to-back after a period of inactivity.
+     * @param adjustInterval The minimum interval, in milliseconds, between
+     * adjustments of the current rate.
+     */
+    public ThroughputLimiter(int rate, int burst, long adjustInterval) {
+        if (rate < 1 || burst < 1) {
+            throw new IllegalArgumentException(
+                    "Rate and burst must be at least 1");
+        }
+        this.rate = rate;
+        this.burst = burst;
+        this.adjustInterval = TimeUnit.MILLISECONDS.toNanos(adjustInterval);
+        this.currentRate = rate;
+        this.tokens = burst;
+        this.lastRefill = System.nanoTime();
+        this.lastDecrease = lastRefill;
+        this.lastIncrease = lastRefill;
+        this.lastThrottled = lastRefill;
+    }
+
+    /**
+     * Create a limiter from the API configuration.
+     * @return A new limiter, or <code>null</code> if no rate is configured.
+     */
+    public static ThroughputLimiter fromConfig() {
+        APIConfig config = APIConfigFactory.getConfig();
+        int rate = config.getInt(APIConfig.CONNECTION_THROTTLE_RATE, 0);
+        if (rate < 1) {
+            return null;
+        }
+        int burst = config.getInt(APIConfig.CONNECTION_THROTTLE_BURST, rate);
+        return new ThroughputLimiter(rate, burst);
+    }
+
+    /**
+     * Take a token from the bucket, waiting until one is available.
+     * @throws InterruptedIOException If the calling thread is interrupted
+     * while waiting.
+     */
+    public void acquire() throws InterruptedIOException {
+        long wait = reserve(System.nanoTime());
+        if (wait > 0L) {
+            try {
+                TimeUnit.NANOSECONDS.sleep(wait);
+            } catch (InterruptedException x) {
+                throw new InterruptedIOException(
+                        "Interrupted waiting for the throughput limiter");
+            }
+        }
+    }
+
+    /**
+     * Take a token from the bucket only if one is available now.
+     * @return <code>true</code> if a token was taken.
+     */
+    public synchronized boolean tryAcquire() {
+        refill(System.nanoTime());
+        if (tokens >= 1.0) {
+            tokens -= 1.0;
+            return true;
+        }
+        return false;
+    }
+
+    /**
+     * Report that the SMSC rejected a request because it was sent too
+     * fast. The current rate is reduced.
+     */
+    public synchronized void throttled() {
+        long now = System.nanoTime();
+        refill(now);
+        throttledCount++;
+        lastThrottled = now;
+        if (currentRate == rate || now - lastDecrease >= adjustInterval) {
+            currentRate = Math.max(
+                    rate * MIN_RATE_FRACTION, currentRate * DECREASE_FACTOR);
+            tokens = Math.min(tokens, 0.0);
+            lastDecrease = now;
+        }
+    }
+
+    /**
+     * Get the configured rate.
+     * @return The maximum number of requests per second.
+     */
+    public int getRate() {
+        return (int) rate;
+    }
+
+    public int getBurst() {
+        return burst;
+    }
+
+    /**
+     * Get the current rate, which is lower than the configured rate while
+     * the limiter is recovering from throttling.
+     * @return The current number of requests allowed per second.
+     */
+    public synchronized double getCurrentRate() {
+        refill(System.nanoTime());
+        return currentRate;
+    }
+
+    /**
+     * Get the number of times {@link #throttled()} has been called.
+     * @return The number of throttled responses reported.
+     */
+    public synchronized long getThrottledCount() {
+        return throttledCount;
+    }
+
+    /**
+     * Get the number of calls to {@link #acquire()} that had to wait for a
+     * token.
+     * @return The number of delayed requests.
+     */
+    public synchronized long getDelayedCount() {
+        return delayedCount;
+    }
+
+    /**
+     * Take a token, going into debt if the bucket is empty.
+     * @return The number of nanoseconds the caller must wait before its
+     * token is available.
+     */
+    private synchronized long reserve(long now) {
+        refill(now);
+        tokens -= 1.0;
+        if (tokens >= 0.0) {
+            return 0L;
+        }
+        delayedCount++;
+        return (long) (-tokens * 1e9 / currentRate);
+    }
+
+    private void refill(long now) {
+        long elapsed = now - lastRefill;
+        if (elapsed <= 0L) {
+            return;
+        }
+        lastRefill = now;
+        if (currentRate < rate) {
+            // Recover once a full interval has passed without throttling.
+            long since = Math.max(lastThrottled, lastIncrease);
+            long intervals = (now - since) / adjustInterval;
+            if (intervals > 0L) {
+                currentRate = Math.min(rate,
+                        currentRate + intervals * rate * RECOVERY_FRACTION);
+                lastIncrease = since + intervals * adjustInterval;
+            }
+        }
+        tokens = Math.min(burst, tokens + elapsed * currentRate / 1e9);
+    }
+}
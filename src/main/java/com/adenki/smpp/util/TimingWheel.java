@@ -0,0 +1,331 @@
+package com.adenki.smpp.util;
+
+import java.util.Queue;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicIntegerFieldUpdater;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * A hashed timing wheel that runs timeouts for any number of sessions on
+ * a single timer thread.
+ * <p>
+ * The wheel is an array of buckets, each holding the timeouts that are due
+ * on a particular tick of the wheel. Scheduling and cancelling a timeout
+ * are constant-time operations that only add the timeout to a lock-free
+ * queue; the timer thread moves new timeouts into their buckets and
+ * removes cancelled ones on each tick. Timeouts due more than one turn of
+ * the wheel away stay in their bucket until the wheel has turned enough
+ * times. This makes the wheel suitable for tracking very large numbers of
+ * timeouts, almost all of which are cancelled before they expire, such as
+ * the response timeouts of outstanding requests.
+ * </p>
+ * <p>
+ * Timeouts are accurate to one tick. Expiry tasks run on the timer
+ * thread, so they must be short and must not block.
+ * </p>
+ * <p>
+ * The {@link #getDefault() default wheel} is shared by every session in
+ * the JVM. Its tick duration is read from the
+ * {@link APIConfig#TIMER_TICK} property.
+ * </p>
+ * @version $Id$
+ */
+public class TimingWheel {
+    private static final Logger LOG = LoggerFactory.getLogger(TimingWheel.class);
+    private static final AtomicInteger WHEEL_ID = new AtomicInteger(1);
+    private static final int DEFAULT_TICKS_PER_WHEEL = 512;
+    private static final long DEFAULT_TICK = 10L;
+    private static TimingWheel defaultWheel;
+
+    private final long tickDuration;
+    private final Bucket[] wheel;
+    private final int mask;
+    private final Queue<TimeoutImpl> added = new ConcurrentLinkedQueue<TimeoutImpl>();
+    private final Queue<TimeoutImpl> cancelled = new ConcurrentLinkedQueue<TimeoutImpl>();
+    private final AtomicBoolean started = new AtomicBoolean();
+    private final Thread thread;
+    private volatile boolean running = true;
+    private final long startTime = System.nanoTime();
+    private long tick;
+
+    /**
+     * A handle to a scheduled task.
+     */
+    public interface Timeout {
+        /**
+         * Cancel the task. Has no effect if the task has already run or
+         * been cancelled.
+         * @return <code>true</code> if this call cancelled the task.
+         */
+        boolean cancel();
+
+        boolean isCancelled();
+
+        boolean isExpired();
+    }
+
+    /**
+     * Create a new timing wheel. Its timer thread is started when the
+     * first task is scheduled.
+     * @param tickDuration The duration of one tick.
+     * @param unit The unit of <code>tickDuration</code>.
+     * @param ticksPerWheel The number of buckets in the wheel. This is
+     * rounded up to a power of two.
+     */
+    public TimingWheel(long tickDuration, TimeUnit unit, int ticksPerWheel) {
+        if (tickDuration <= 0L || ticksPerWheel <= 0) {
+            throw new IllegalArgumentException(
+                    "Tick duration and ticks per wheel must be positive");
+        }
+        this.tickDuration = unit.toNanos(tickDuration);
+        int size = 1;
+        while (size < ticksPerWheel) {
+            size <<= 1;
+        }
+        wheel = new Bucket[size];
+        for (int i = 0; i < size; i++) {
+            wheel[i] = new Bucket();
+        }
+        mask = size - 1;
+        thread = new Thread(new Runnable() {
+            public void run() {
+                runWheel();
+            }
+        }, "TimingWheel-" + WHEEL_ID.getAndIncrement());
+        thread.setDaemon(true);
+    }
+
+    /**
+     * Get the timing wheel shared by all sessions.
+     * @return The default timing wheel.
+     */
+    public static synchronized TimingWheel getDefault() {
+        if (defaultWheel == null) {
+            APIConfig config = APIConfigFactory.getConfig();
+            long tick = config.getLong(APIConfig.TIMER_TICK, DEFAULT_TICK);
+            defaultWheel = new TimingWheel(
+                    tick, TimeUnit.MILLISECONDS, DEFAULT_TICKS_PER_WHEEL);
+        }
+        return defaultWheel;
+    }
+
+    /**
+     * Schedule a task to run after a delay.
+     * @param task The task to run on the timer thread.
+     * @param delay The delay before the task runs.
+     * @param unit The unit of <code>delay</code>.
+     * @return A handle that can be used to cancel the task.
+     */
+    public Timeout schedule(Runnable task, long delay, TimeUnit unit) {
+        if (!running) {
+            throw new IllegalStateException("Timing wheel has been stopped");
+        }
+        start();
+        long deadline = System.nanoTime() - startTime + unit.toNanos(delay);
+        TimeoutImpl timeout = new TimeoutImpl(task, deadline);
+        added.add(timeout);
+        return timeout;
+    }
+
+    /**
+     * Stop the timer thread. Tasks that have not yet run are discarded.
+     */
+    public void stop() {
+        running = false;
+        if (started.get()) {
+            thread.interrupt();
+        }
+    }
+
+    /**
+     * Get the number of scheduled tasks that have not yet run or been
+     * cancelled. This is only an estimate while the wheel is running.
+     * @return The number of pending tasks.
+     */
+    public int getPendingCount() {
+        int count = added.size();
+        for (Bucket bucket : wheel) {
+            count += bucket.size;
+        }
+        return count;
+    }
+
+    private void start() {
+        if (started.compareAndSet(false, true)) {
+            thread.start();
+        }
+    }
+
+    private void runWheel() {
+        while (running) {
+            long deadline = waitForNextTick();
+            if (deadline < 0L) {
+                break;
+            }
+            removeCancelled();
+            transferAdded();
+            Bucket bucket = wheel[(int) (tick & mask)];
+            bucket.expire(deadline);
+            tick++;
+        }
+        LOG.debug("{} stopped", thread.getName());
+    }
+
+    /**
+     * Sleep until the current tick has ended.
+     * @return The time the tick ended, relative to the start time, or -1
+     * if the wheel was stopped.
+     */
+    private long waitForNextTick() {
+        long deadline = tickDuration * (tick + 1);
+        while (true) {
+            long current = System.nanoTime() - startTime;
+            long sleep = deadline - current;
+            if (sleep <= 0L) {
+                return current;
+            }
+            try {
+                TimeUnit.NANOSECONDS.sleep(sleep);
+            } catch (InterruptedException x) {
+                if (!running) {
+                    return -1L;
+                }
+            }
+        }
+    }
+
+    private void transferAdded() {
+        TimeoutImpl timeout;
+        while ((timeout = added.poll()) != null) {
+            if (timeout.state != TimeoutImpl.INIT) {
+                continue;
+            }
+            long due = timeout.deadline / tickDuration;
+            // Never schedule into a tick that has already passed.
+            long target = Math.max(due, tick);
+            timeout.remainingRounds = (target - tick) / wheel.length;
+            wheel[(int) (target & mask)].add(timeout);
+        }
+    }
+
+    private void removeCancelled() {
+        TimeoutImpl timeout;
+        while ((timeout = cancelled.poll()) != null) {
+            if (timeout.bucket != null) {
+                timeout.bucket.remove(timeout);
+            }
+        }
+    }
+
+    /**
+     * A doubly-linked list of timeouts. Only accessed by the timer thread.
+     */
+    private static final class Bucket {
+        private TimeoutImpl head;
+        private TimeoutImpl tail;
+        private volatile int size;
+
+        void add(TimeoutImpl timeout) {
+            timeout.bucket = this;
+            if (head == null) {
+                head = timeout;
+                tail = timeout;
+            } else {
+                tail.next = timeout;
+                timeout.prev = tail;
+                tail = timeout;
+            }
+            size++;
+        }
+
+        void remove(TimeoutImpl timeout) {
+            if (timeout.prev != null) {
+                timeout.prev.next = timeout.next;
+            } else {
+                head = timeout.next;
+            }
+            if (timeout.next != null) {
+                timeout.next.prev = timeout.prev;
+            } else {
+                tail = timeout.prev;
+            }
+            timeout.prev = null;
+            timeout.next = null;
+            timeout.bucket = null;
+            size--;
+        }
+
+        void expire(long deadline) {
+            TimeoutImpl timeout = head;
+            while (timeout != null) {
+                TimeoutImpl next = timeout.next;
+                if (timeout.remainingRounds <= 0L) {
+                    remove(timeout);
+                    if (timeout.deadline <= deadline) {
+                        timeout.expire();
+                    } else {
+                        LOG.warn("Timeout deadline {} is after tick deadline {}",
+                                timeout.deadline, deadline);
+                    }
+                } else {
+                    timeout.remainingRounds--;
+                }
+                timeout = next;
+            }
+        }
+    }
+
+    private final class TimeoutImpl implements Timeout {
+        static final int INIT = 0;
+        static final int CANCELLED = 1;
+        static final int EXPIRED = 2;
+
+        private final Runnable task;
+        private final long deadline;
+        volatile int state = INIT;
+        private long remainingRounds;
+        private Bucket bucket;
+        private TimeoutImpl next;
+        private TimeoutImpl prev;
+
+        TimeoutImpl(Runnable task, long deadline) {
+            this.task = task;
+            this.deadline = deadline;
+        }
+
+        public boolean cancel() {
+            if (!STATE_UPDATER.compareAndSet(this, INIT, CANCELLED)) {
+                return false;
+            }
+            cancelled.add(this);
+            return true;
+        }
+
+        public boolean isCancelled() {
+            return state == CANCELLED;
+        }
+
+        public boolean isExpired() {
+            return state == EXPIRED;
+        }
+
+        void expire() {
+            if (!STATE_UPDATER.compareAndSet(this, INIT, EXPIRED)) {
+                return;
+            }
+            try {
+                task.run();
+            } catch (Throwable t) {
+                LOG.warn("Timeout task threw an exception", t);
+            }
+        }
+    }
+
+    private static final AtomicIntegerFieldUpdater<TimeoutImpl> STATE_UPDATER =
+        AtomicIntegerFieldUpdater.newUpdater(TimeoutImpl.class, "state");
+}
@@ -54,5 +54,14 @@ public class AddressTest {
         assertEquals(a2, a1);
         assertTrue(!(a1.equals(a3)));
     }
+
+    public void testEqualAddressesHaveEqualHashCodes() {
+        Address a1 = new Address(Ton.NETWORK,
+                Npi.NATIONAL, "353851234567");
+        Address a2 = new Address(Ton.NETWORK,
+                Npi.NATIONAL, "353851234567");
+        assertEquals(a1.hashCode(), a2.hashCode());
+        assertEquals(new Address().hashCode(), new Address().hashCode());
+    }
 }
 
@@ -0,0 +1,90 @@
+package com.adenki.smpp;
+
+import static org.testng.Assert.assertEquals;
+import static org.testng.Assert.assertSame;
+import static org.testng.Assert.assertTrue;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+import org.easymock.EasyMock;
+import org.testng.annotations.BeforeMethod;
+import org.testng.annotations.Test;
+
+import com.adenki.smpp.message.EnquireLink;
+import com.adenki.smpp.message.SMPPPacket;
+import com.adenki.smpp.message.SubmitSM;
+import com.adenki.smpp.net.SmscLink;
+
+@Test
+public class ConsistentHashRouterTest {
+    private static final int KEYS = 10000;
+
+    private List<SessionImpl> sessions;
+
+    @BeforeMethod
+    public void setUp() {
+        SmscLink link = EasyMock.createNiceMock(SmscLink.class);
+        EasyMock.replay(link);
+        sessions = new ArrayList<SessionImpl>();
+        for (int i = 0; i < 4; i++) {
+            sessions.add(new SessionImpl(link));
+        }
+    }
+
+    public void testSameDestinationUsesSameSession() {
+        ConsistentHashRouter router = new ConsistentHashRouter();
+        SessionImpl first = router.select(sessions, submit("447700900123"), null);
+        for (int i = 0; i < 100; i++) {
+            assertSame(router.select(sessions, submit("447700900123"), null), first);
+        }
+    }
+
+    public void testKeysAreSpreadEvenly() {
+        ConsistentHashRouter router = new ConsistentHashRouter();
+        Map<SessionImpl, Integer> counts = new HashMap<SessionImpl, Integer>();
+        for (int i = 0; i < KEYS; i++) {
+            SessionImpl session = router.select(sessions, null, "key-" + i);
+            Integer count = counts.get(session);
+            counts.put(session, count == null ? 1 : count.intValue() + 1);
+        }
+        assertEquals(counts.size(), sessions.size());
+        for (Integer count : counts.values()) {
+            assertTrue(count.intValue() > KEYS / 8, "Uneven spread: " + counts);
+            assertTrue(count.intValue() < KEYS / 2, "Uneven spread: " + counts);
+        }
+    }
+
+    public void testOnlyKeysOfRemovedSessionMove() {
+        ConsistentHashRouter router = new ConsistentHashRouter();
+        SessionImpl[] before = new SessionImpl[KEYS];
+        for (int i = 0; i < KEYS; i++) {
+            before[i] = router.select(sessions, null, Integer.valueOf(i));
+        }
+        SessionImpl removed = sessions.remove(2);
+        for (int i = 0; i < KEYS; i++) {
+            SessionImpl after = router.select(sessions, null, Integer.valueOf(i));
+            if (before[i] != removed) {
+                assertSame(after, before[i]);
+            }
+        }
+    }
+
+    public void testPacketsWithoutKeyUseFallback() {
+        final SessionImpl expected = sessions.get(3);
+        ConsistentHashRouter router = new ConsistentHashRouter(10, new SessionRouter() {
+            public SessionImpl select(List<SessionImpl> list, SMPPPacket packet, Object key) {
+                return expected;
+            }
+        });
+        assertSame(router.select(sessions, new EnquireLink(), null), expected);
+    }
+
+    private SubmitSM submit(String destination) {
+        SubmitSM submitSM = new SubmitSM();
+        submitSM.setDestination(new Address(Ton.INTERNATIONAL, Npi.ISDN, destination));
+        return submitSM;
+    }
+}
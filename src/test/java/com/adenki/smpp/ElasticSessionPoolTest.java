@@ -0,0 +1,228 @@
+package com.adenki.smpp;
+
+import static com.adenki.smpp.SessionFixtures.awaitState;
+import static com.adenki.smpp.SessionFixtures.connectedLink;
+import static com.adenki.smpp.SessionFixtures.unboundSession;
+import static org.testng.Assert.assertEquals;
+import static org.testng.Assert.assertFalse;
+import static org.testng.Assert.assertTrue;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+
+import org.easymock.EasyMock;
+import org.easymock.IAnswer;
+import org.testng.annotations.BeforeMethod;
+import org.testng.annotations.Test;
+
+import com.adenki.smpp.event.ReceiverExitEvent;
+import com.adenki.smpp.message.Bind;
+import com.adenki.smpp.message.BindTransmitter;
+import com.adenki.smpp.message.BindTransmitterResp;
+import com.adenki.smpp.message.SubmitSM;
+import com.adenki.smpp.message.SubmitSMResp;
+import com.adenki.smpp.net.SmscLink;
+
+@Test
+public class ElasticSessionPoolTest {
+
+    private List<SessionImpl> created;
+    private ElasticSessionPool pool;
+
+    @BeforeMethod
+    public void setUp() {
+        created = new ArrayList<SessionImpl>();
+        pool = new ElasticSessionPool(new SessionFactory() {
+            public SessionImpl createSession() throws IOException {
+                SessionImpl session = unboundSession(connectedLink());
+                session.setWindowSize(2, 0L);
+                created.add(session);
+                return session;
+            }
+
+            public Bind createBindRequest() {
+                return new BindTransmitter();
+            }
+        });
+        pool.setLimits(2, 3);
+        pool.setBindInterval(0L);
+        pool.setIdleTimeout(60000L);
+    }
+
+    public void testMinimumSessionsAreOpened() throws Exception {
+        pool.check();
+        pool.check();
+        pool.check();
+        assertEquals(created.size(), 2);
+        assertEquals(pool.getSessionCount(), 2);
+        assertEquals(pool.getGroup().size(), 2);
+        completeBinds();
+        assertEquals(pool.getGroup().getAvailableSessions().size(), 2);
+    }
+
+    public void testPoolGrowsWhenWindowsStaySaturated() throws Exception {
+        openMinimum();
+        for (int i = 0; i < 4; i++) {
+            pool.getGroup().sendAsync(new SubmitSM());
+        }
+        pool.check();
+        assertEquals(pool.getSessionCount(), 2);
+        pool.check();
+        assertEquals(pool.getSessionCount(), 3);
+        completeBinds();
+        pool.check();
+        pool.check();
+        assertEquals(pool.getSessionCount(), 3, "Pool should not exceed its maximum");
+    }
+
+    public void testBindIntervalLimitsGrowth() throws Exception {
+        pool.setBindInterval(60000L);
+        pool.check();
+        pool.check();
+        assertEquals(pool.getSessionCount(), 1);
+    }
+
+    public void testIdleSessionIsRetiredAfterItsRequestsComplete() throws Exception {
+        openMinimum();
+        for (int i = 0; i < 4; i++) {
+            pool.getGroup().sendAsync(new SubmitSM());
+        }
+        pool.check();
+        pool.check();
+        completeBinds();
+        SessionImpl newest = created.get(2);
+        SubmitSM outstanding = new SubmitSM();
+        newest.sendAsync(outstanding);
+        for (SessionImpl session : created.subList(0, 2)) {
+            respondToAll(session);
+        }
+
+        pool.setIdleTimeout(0L);
+        pool.check();
+        assertEquals(pool.getSessionCount(), 2);
+        assertFalse(pool.getGroup().getSessions().contains(newest));
+        assertEquals(newest.getState(), SessionState.BOUND);
+
+        newest.processReceivedPacket(new SubmitSMResp(outstanding));
+        pool.check();
+        assertEquals(newest.getState(), SessionState.UNBINDING);
+        assertEquals(pool.getSessionCount(), 2);
+    }
+
+    public void testDeadSessionIsReplaced() throws Exception {
+        openMinimum();
+        SessionImpl dead = created.get(0);
+        dead.processReceiverExit(new ReceiverExitEvent(dead));
+        dead.getEventDispatcher().notifyObservers(dead, new ReceiverExitEvent(dead));
+        assertFalse(pool.getGroup().getSessions().contains(dead));
+        pool.check();
+        assertEquals(created.size(), 3);
+        assertEquals(pool.getSessionCount(), 2);
+        assertTrue(pool.getGroup().getSessions().contains(created.get(2)));
+    }
+
+    public void testRotateReplacesSessionsOneAtATime() throws Exception {
+        openMinimum();
+        SessionImpl first = created.get(0);
+        SessionImpl second = created.get(1);
+        pool.rotate();
+        assertTrue(pool.isRotating());
+        pool.check();
+        assertEquals(created.size(), 3);
+        SessionImpl replacement = created.get(2);
+        assertEquals(replacement.getState(), SessionState.BINDING);
+        assertTrue(pool.getGroup().getSessions().contains(first));
+
+        completeReplacementBind(replacement);
+        assertFalse(pool.getGroup().getSessions().contains(first));
+        assertTrue(pool.getGroup().getSessions().contains(replacement));
+        pool.check();
+        assertEquals(created.size(), 4);
+        assertEquals(pool.getSessionCount(), 2);
+        assertTrue(pool.getGroup().getSessions().contains(second));
+
+        completeReplacementBind(created.get(3));
+        pool.check();
+        assertFalse(pool.isRotating());
+        assertEquals(pool.getSessionCount(), 2);
+        assertEquals(pool.getGroup().getSessions(), created.subList(2, 4));
+        awaitState(first, SessionState.UNBINDING);
+        awaitState(second, SessionState.UNBINDING);
+    }
+
+    @Test(timeOut = 10000)
+    public void testSlowConnectDoesNotHoldThePoolLock() throws Exception {
+        final CountDownLatch connecting = new CountDownLatch(1);
+        final CountDownLatch connected = new CountDownLatch(1);
+        final ElasticSessionPool slowPool = new ElasticSessionPool(new SessionFactory() {
+            public SessionImpl createSession() throws IOException {
+                SmscLink link = EasyMock.createNiceMock(SmscLink.class);
+                link.connect();
+                EasyMock.expectLastCall().andAnswer(new IAnswer<Object>() {
+                    public Object answer() throws Throwable {
+                        connecting.countDown();
+                        connected.await();
+                        return null;
+                    }
+                });
+                EasyMock.replay(link);
+                return unboundSession(link);
+            }
+
+            public Bind createBindRequest() {
+                return new BindTransmitter();
+            }
+        });
+        slowPool.setLimits(1, 1);
+        Thread checker = new Thread() {
+            @Override
+            public void run() {
+                slowPool.check();
+            }
+        };
+        checker.start();
+        assertTrue(connecting.await(5L, TimeUnit.SECONDS));
+        // Would block until the connect completes if the check held the
+        // pool's lock.
+        slowPool.setLimits(1, 2);
+        slowPool.rotate();
+        assertEquals(slowPool.getSessionCount(), 1);
+        connected.countDown();
+        checker.join();
+        assertEquals(slowPool.getGroup().getSessions().get(0).getState(),
+                SessionState.BINDING);
+    }
+
+    private void completeReplacementBind(SessionImpl session) {
+        // The replacement's bind is the first request it sends.
+        BindTransmitterResp resp = new BindTransmitterResp();
+        resp.setSequenceNum(1L);
+        session.processReceivedPacket(resp);
+    }
+
+    private void openMinimum() {
+        pool.check();
+        pool.check();
+        completeBinds();
+    }
+
+    private void completeBinds() {
+        for (SessionImpl session : created) {
+            if (session.getState() == SessionState.BINDING) {
+                session.processReceivedPacket(new BindTransmitterResp());
+            }
+        }
+    }
+
+    private void respondToAll(SessionImpl session) {
+        long seq = 1L;
+        while (session.getOutstandingRequests() > 0 && seq < 100L) {
+            SubmitSMResp resp = new SubmitSMResp();
+            resp.setSequenceNum(seq++);
+            session.processReceivedPacket(resp);
+        }
+    }
+}
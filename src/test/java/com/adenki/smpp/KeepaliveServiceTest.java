@@ -0,0 +1,127 @@
+package com.adenki.smpp;
+
+import static com.adenki.smpp.SessionFixtures.unboundSession;
+import static org.testng.Assert.assertEquals;
+import static org.testng.Assert.assertTrue;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+
+import org.testng.annotations.AfterMethod;
+import org.testng.annotations.Test;
+
+import com.adenki.smpp.event.KeepaliveTimeoutEvent;
+import com.adenki.smpp.event.SMPPEvent;
+import com.adenki.smpp.event.SessionObserver;
+import com.adenki.smpp.message.CommandId;
+import com.adenki.smpp.message.EnquireLinkResp;
+import com.adenki.smpp.message.SMPPPacket;
+import com.adenki.smpp.message.SubmitSM;
+
+@Test
+public class KeepaliveServiceTest {
+
+    private final List<SessionImpl> sessions = new ArrayList<SessionImpl>();
+
+    @AfterMethod
+    public void tearDown() {
+        for (SessionImpl session : sessions) {
+            session.setKeepalive(0L, 0L);
+        }
+        sessions.clear();
+    }
+
+    public void testIdleSessionIsProbedAndLatencyRecorded() throws Exception {
+        ProbeLink link = new ProbeLink(true);
+        SessionImpl session = bind(link);
+        session.setKeepalive(50L, 1000L);
+        long deadline = System.currentTimeMillis() + 5000L;
+        while (session.getEnquireLinkLatency().getCount() < 2L
+                && System.currentTimeMillis() < deadline) {
+            Thread.sleep(10L);
+        }
+        assertTrue(session.getEnquireLinkLatency().getCount() >= 2L);
+        assertTrue(link.getProbeCount() >= 2);
+        assertEquals(session.getOutstandingRequests(), 0);
+    }
+
+    public void testUnansweredProbeRaisesEvent() throws Exception {
+        ProbeLink link = new ProbeLink(false);
+        SessionImpl session = bind(link);
+        final CountDownLatch timedOut = new CountDownLatch(1);
+        session.addObserver(new SessionObserver() {
+            public void update(Session source, SMPPEvent event) {
+                if (event instanceof KeepaliveTimeoutEvent) {
+                    assertEquals(((KeepaliveTimeoutEvent) event).getTimeout(), 50L);
+                    timedOut.countDown();
+                }
+            }
+
+            public void packetReceived(Session source, SMPPPacket packet) {
+            }
+        });
+        session.setKeepalive(50L, 50L);
+        assertTrue(timedOut.await(5, TimeUnit.SECONDS));
+        assertEquals(session.getEnquireLinkLatency().getCount(), 0L);
+    }
+
+    public void testSessionWithFullWindowIsProbed() throws Exception {
+        ProbeLink link = new ProbeLink(true);
+        SessionImpl session = bind(link);
+        session.setWindowSize(1, -1L);
+        session.sendAsync(new SubmitSM());
+        session.setKeepalive(50L, 1000L);
+        long deadline = System.currentTimeMillis() + 5000L;
+        while (session.getEnquireLinkLatency().getCount() < 1L
+                && System.currentTimeMillis() < deadline) {
+            Thread.sleep(10L);
+        }
+        assertTrue(link.getProbeCount() >= 1);
+        assertTrue(session.getEnquireLinkLatency().getCount() >= 1L);
+        assertEquals(session.getOutstandingRequests(), 1);
+    }
+
+    public void testUnboundSessionIsNotProbed() throws Exception {
+        ProbeLink link = new ProbeLink(true);
+        SessionImpl session = new SessionImpl(link);
+        sessions.add(session);
+        session.setKeepalive(20L, 20L);
+        Thread.sleep(100L);
+        assertEquals(link.getProbeCount(), 0);
+    }
+
+    private SessionImpl bind(ProbeLink link) throws IOException {
+        SessionImpl session = unboundSession(link);
+        sessions.add(session);
+        link.session = session;
+        SessionFixtures.bind(session);
+        assertEquals(session.getState(), SessionState.BOUND);
+        return session;
+    }
+
+    /**
+     * Answers enquire_link requests if asked to.
+     */
+    private static class ProbeLink extends RecordingLink {
+        private final boolean answer;
+        private volatile SessionImpl session;
+
+        ProbeLink(boolean answer) {
+            this.answer = answer;
+        }
+
+        int getProbeCount() {
+            return count(CommandId.ENQUIRE_LINK);
+        }
+
+        @Override
+        protected void packetWritten(SMPPPacket packet) {
+            if (answer && packet.getCommandId() == CommandId.ENQUIRE_LINK) {
+                session.processReceivedPacket(new EnquireLinkResp(packet));
+            }
+        }
+    }
+}
@@ -0,0 +1,150 @@
+package com.adenki.smpp;
+
+import static org.testng.Assert.assertEquals;
+import static org.testng.Assert.assertNull;
+import static org.testng.Assert.assertTrue;
+
+import java.io.DataInputStream;
+import java.io.IOException;
+import java.net.InetAddress;
+import java.net.InetSocketAddress;
+import java.net.ServerSocket;
+import java.net.Socket;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.TimeUnit;
+
+import org.testng.annotations.AfterMethod;
+import org.testng.annotations.BeforeMethod;
+import org.testng.annotations.Test;
+
+import com.adenki.smpp.event.SMPPEvent;
+import com.adenki.smpp.event.SessionObserver;
+import com.adenki.smpp.message.BindTransceiverResp;
+import com.adenki.smpp.message.CommandId;
+import com.adenki.smpp.message.DeliverSM;
+import com.adenki.smpp.message.EnquireLink;
+import com.adenki.smpp.message.SMPPPacket;
+import com.adenki.smpp.message.SubmitSM;
+import com.adenki.smpp.net.LinkListener;
+import com.adenki.smpp.net.NioLink;
+import com.adenki.smpp.net.SelectorPool;
+import com.adenki.smpp.net.SmscLink;
+import com.adenki.smpp.util.PacketEncoderImpl;
+import com.adenki.smpp.util.SMPPIO;
+
+@Test
+public class NioReceiverTest {
+    /**
+     * Comfortably more than the socket buffers on both ends will hold.
+     */
+    private static final int BYTES_TO_SEND = 8 * 1024 * 1024;
+
+    private SelectorPool pool;
+    private ServerSocket serverSocket;
+    private NioLink link;
+    private NioLink otherLink;
+    private Socket peer;
+    private Socket otherPeer;
+
+    @BeforeMethod
+    public void setUp() throws Exception {
+        pool = new SelectorPool(1);
+        serverSocket = new ServerSocket();
+        serverSocket.setReceiveBufferSize(4096);
+        serverSocket.bind(new InetSocketAddress(
+                InetAddress.getByName("127.0.0.1"), 0), 2);
+        link = new NioLink(serverSocket.getInetAddress(), serverSocket.getLocalPort());
+        link.setSelectorPool(pool);
+        link.setMaxPendingBytes(1024);
+        otherLink = new NioLink(serverSocket.getInetAddress(), serverSocket.getLocalPort());
+        otherLink.setSelectorPool(pool);
+    }
+
+    @AfterMethod
+    public void tearDown() throws Exception {
+        link.disconnect();
+        otherLink.disconnect();
+        if (peer != null) {
+            peer.close();
+        }
+        if (otherPeer != null) {
+            otherPeer.close();
+        }
+        serverSocket.close();
+        pool.shutdown();
+    }
+
+    public void testObserverSendingToStalledPeerDoesNotBlockSelector() throws Exception {
+        final CountDownLatch sent = new CountDownLatch(1);
+        final BlockingQueue<Exception> errors = new LinkedBlockingQueue<Exception>();
+        SessionImpl session = new SessionImpl(link);
+        session.addObserver(new SessionObserver() {
+            public void packetReceived(Session source, SMPPPacket packet) {
+                if (packet.getCommandId() != CommandId.DELIVER_SM) {
+                    return;
+                }
+                try {
+                    SubmitSM submitSM = new SubmitSM();
+                    submitSM.setMessage(new byte[254]);
+                    for (int total = 0; total < BYTES_TO_SEND;
+                            total += submitSM.getLength()) {
+                        submitSM.setSequenceNum(-1L);
+                        source.send(submitSM);
+                    }
+                } catch (Exception x) {
+                    errors.add(x);
+                }
+                sent.countDown();
+            }
+
+            public void update(Session source, SMPPEvent event) {
+            }
+        });
+        session.bind(SessionType.TRANSCEIVER, "test", "test", null);
+        peer = serverSocket.accept();
+        DataInputStream in = new DataInputStream(peer.getInputStream());
+        byte[] bind = new byte[in.readInt() - 4];
+        in.readFully(bind);
+        BindTransceiverResp bindResp = new BindTransceiverResp();
+        bindResp.setSequenceNum(SMPPIO.readInt4(bind, 8));
+        bindResp.setSystemId("smsc");
+        write(peer, bindResp);
+        DeliverSM deliverSM = new DeliverSM();
+        deliverSM.setSequenceNum(1);
+        write(peer, deliverSM);
+
+        // The peer never reads, so the observer runs on the selector
+        // thread with far more output pending than the link allows.
+        assertTrue(sent.await(30, TimeUnit.SECONDS));
+        assertNull(errors.poll());
+        assertEquals(session.getState(), SessionState.BOUND);
+
+        // Other links on the same selector must still be serviced.
+        final BlockingQueue<SMPPPacket> received = new LinkedBlockingQueue<SMPPPacket>();
+        otherLink.setLinkListener(new LinkListener() {
+            public void packetReceived(SmscLink source, SMPPPacket packet) {
+                received.add(packet);
+            }
+
+            public void readTimeout(SmscLink source) {
+            }
+
+            public void linkFailed(SmscLink source, Exception cause) {
+            }
+        });
+        otherLink.connect();
+        otherPeer = serverSocket.accept();
+        EnquireLink enquireLink = new EnquireLink();
+        enquireLink.setSequenceNum(7);
+        write(otherPeer, enquireLink);
+        SMPPPacket packet = received.poll(5, TimeUnit.SECONDS);
+        assertEquals(packet.getCommandId(), CommandId.ENQUIRE_LINK);
+    }
+
+    private void write(Socket socket, SMPPPacket packet) throws IOException {
+        packet.writeTo(new PacketEncoderImpl(socket.getOutputStream()));
+        socket.getOutputStream().flush();
+    }
+}
@@ -0,0 +1,158 @@
+package com.adenki.smpp;
+
+import static org.testng.Assert.assertEquals;
+import static org.testng.Assert.assertFalse;
+import static org.testng.Assert.assertTrue;
+import static org.testng.Assert.fail;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.Executor;
+
+import org.testng.annotations.Test;
+
+import com.adenki.smpp.message.CommandId;
+import com.adenki.smpp.message.DeliverSMResp;
+import com.adenki.smpp.message.EnquireLink;
+import com.adenki.smpp.message.QuerySM;
+import com.adenki.smpp.message.SMPPPacket;
+import com.adenki.smpp.message.SubmitSM;
+
+@Test
+public class OutboundPipelineTest {
+
+    public void testConcurrentSendersAreWrittenBySingleWriterInOrder() throws Exception {
+        final int threads = 8;
+        final int packetsPerThread = 200;
+        RecordingLink link = new RecordingLink();
+        final SessionImpl session = new SessionImpl(link);
+        session.setValidating(false);
+        session.setOutboundPipeline(true);
+        assertTrue(session.isOutboundPipeline());
+
+        final CountDownLatch start = new CountDownLatch(1);
+        List<Thread> senders = new ArrayList<Thread>();
+        for (int i = 0; i < threads; i++) {
+            final int sender = i;
+            Thread thread = new Thread() {
+                public void run() {
+                    try {
+                        start.await();
+                        for (int j = 0; j < packetsPerThread; j++) {
+                            SubmitSM submitSM = new SubmitSM();
+                            submitSM.setCommandStatus(sender);
+                            submitSM.setMessage(new byte[] {(byte) j});
+                            session.send(submitSM);
+                        }
+                    } catch (Exception x) {
+                        x.printStackTrace();
+                    }
+                }
+            };
+            senders.add(thread);
+            thread.start();
+        }
+        start.countDown();
+        for (Thread thread : senders) {
+            thread.join();
+        }
+        assertTrue(link.awaitPackets(threads * packetsPerThread, 10000L));
+        assertFalse(link.isOverlapped());
+
+        Map<Integer, Integer> nextBySender = new HashMap<Integer, Integer>();
+        for (SMPPPacket packet : link.getPackets()) {
+            Integer sender = packet.getCommandStatus();
+            Integer expected = nextBySender.get(sender);
+            int index = ((SubmitSM) packet).getMessage()[0] & 0xff;
+            assertEquals(index, expected == null ? 0 : expected.intValue());
+            nextBySender.put(sender, index + 1);
+        }
+        assertTrue(link.getFlushCount() < threads * packetsPerThread);
+    }
+
+    public void testWriteFailureIsReportedToSenders() throws Exception {
+        RecordingLink link = new RecordingLink();
+        link.setFailWrites(true);
+        SessionImpl session = new SessionImpl(link);
+        session.setOutboundPipeline(true);
+        session.send(new EnquireLink());
+        assertTrue(link.awaitPackets(1, 10000L));
+        long timeout = System.currentTimeMillis() + 5000L;
+        while (System.currentTimeMillis() < timeout) {
+            try {
+                session.send(new EnquireLink());
+                Thread.sleep(10L);
+            } catch (IOException x) {
+                return;
+            }
+        }
+        fail("Write failure was not reported");
+    }
+
+    public void testLaneSelection() {
+        assertEquals(OutboundPipeline.laneFor(new DeliverSMResp()), 0);
+        assertEquals(OutboundPipeline.laneFor(new EnquireLink()), 0);
+        SubmitSM submitSM = new SubmitSM();
+        submitSM.setPriority(3);
+        assertEquals(OutboundPipeline.laneFor(submitSM), 1);
+        submitSM.setPriority(0);
+        assertEquals(OutboundPipeline.laneFor(submitSM), 4);
+        submitSM.setPriority(99);
+        assertEquals(OutboundPipeline.laneFor(submitSM), 1);
+        assertEquals(OutboundPipeline.laneFor(new QuerySM()), 4);
+    }
+
+    public void testResponsesAreWrittenBeforeQueuedSubmits() throws Exception {
+        RecordingLink link = new RecordingLink();
+        SessionImpl session = new SessionImpl(link);
+        session.setValidating(false);
+        ManualExecutor executor = new ManualExecutor();
+        OutboundPipeline pipeline = new OutboundPipeline(session, link, executor);
+        for (int i = 0; i < 20; i++) {
+            pipeline.enqueue(submit(0));
+        }
+        for (int i = 0; i < 20; i++) {
+            pipeline.enqueue(submit(3));
+        }
+        pipeline.enqueue(new DeliverSMResp());
+        pipeline.enqueue(new EnquireLink());
+        assertEquals(pipeline.getQueueSize(), 42);
+        executor.runAll();
+
+        List<SMPPPacket> packets = link.getPackets();
+        assertEquals(packets.size(), 42);
+        assertEquals(packets.get(0).getCommandId(), CommandId.DELIVER_SM_RESP);
+        assertEquals(packets.get(1).getCommandId(), CommandId.ENQUIRE_LINK);
+        // Eight high priority messages are sent for each low priority one.
+        for (int i = 2; i < 10; i++) {
+            assertEquals(((SubmitSM) packets.get(i)).getPriority(), 3);
+        }
+        assertEquals(((SubmitSM) packets.get(10)).getPriority(), 0);
+        assertEquals(((SubmitSM) packets.get(11)).getPriority(), 3);
+        assertEquals(pipeline.getQueueSize(), 0);
+    }
+
+    private SubmitSM submit(int priority) {
+        SubmitSM submitSM = new SubmitSM();
+        submitSM.setPriority(priority);
+        return submitSM;
+    }
+
+    private static class ManualExecutor implements Executor {
+        private final List<Runnable> tasks = new ArrayList<Runnable>();
+
+        public void execute(Runnable task) {
+            tasks.add(task);
+        }
+
+        void runAll() {
+            while (!tasks.isEmpty()) {
+                tasks.remove(0).run();
+            }
+        }
+    }
+}
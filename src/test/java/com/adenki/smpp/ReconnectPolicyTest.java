@@ -0,0 +1,54 @@
+package com.adenki.smpp;
+
+import static org.testng.Assert.assertEquals;
+import static org.testng.Assert.assertFalse;
+import static org.testng.Assert.assertTrue;
+
+import java.util.Random;
+
+import org.testng.annotations.Test;
+
+import com.adenki.smpp.message.CommandId;
+import com.adenki.smpp.message.EnquireLink;
+import com.adenki.smpp.message.QuerySM;
+import com.adenki.smpp.message.SubmitSM;
+
+@Test
+public class ReconnectPolicyTest {
+
+    public void testDelayDoublesUpToMaximumWithJitter() {
+        ReconnectPolicy policy = new ReconnectPolicy(100L, 1000L, 0);
+        Random random = new Random(42L);
+        long[] expected = {100L, 200L, 400L, 800L, 1000L, 1000L};
+        for (int attempt = 1; attempt <= expected.length; attempt++) {
+            for (int i = 0; i < 100; i++) {
+                long delay = policy.getDelay(attempt, random);
+                long max = expected[attempt - 1];
+                assertTrue(delay >= max / 2L && delay <= max,
+                        "Attempt " + attempt + " delay " + delay);
+            }
+        }
+    }
+
+    public void testMaxAttempts() {
+        ReconnectPolicy limited = new ReconnectPolicy(0L, 0L, 3);
+        assertTrue(limited.isAllowed(3));
+        assertFalse(limited.isAllowed(4));
+        assertEquals(limited.getDelay(2, new Random()), 0L);
+        assertTrue(new ReconnectPolicy(0L, 0L, 0).isAllowed(Integer.MAX_VALUE));
+    }
+
+    @Test(expectedExceptions = IllegalArgumentException.class)
+    public void testMaxDelayBelowInitialDelayIsRejected() {
+        new ReconnectPolicy(1000L, 100L, 0);
+    }
+
+    public void testReplayPolicy() {
+        ReplayPolicy submitOnly = new ReplayPolicy(CommandId.SUBMIT_SM);
+        assertTrue(submitOnly.isReplayable(new SubmitSM()));
+        assertFalse(submitOnly.isReplayable(new QuerySM()));
+        assertTrue(ReplayPolicy.ALL.isReplayable(new QuerySM()));
+        assertFalse(ReplayPolicy.ALL.isReplayable(new EnquireLink()));
+        assertFalse(ReplayPolicy.NONE.isReplayable(new SubmitSM()));
+    }
+}
@@ -0,0 +1,189 @@
+package com.adenki.smpp;
+
+import static org.testng.Assert.assertTrue;
+
+import java.io.IOException;
+import java.net.ConnectException;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import com.adenki.smpp.message.SMPPPacket;
+import com.adenki.smpp.net.SmscLink;
+
+/**
+ * An in-memory link for tests. Records every packet written to it, and
+ * can be made to fail writes or connects. Subclasses may answer packets
+ * by overriding {@link #packetWritten(SMPPPacket)}.
+ * @version $Id$
+ */
+class RecordingLink implements SmscLink {
+    private final List<SMPPPacket> packets = new ArrayList<SMPPPacket>();
+    private final AtomicInteger writing = new AtomicInteger();
+    private final AtomicInteger flushes = new AtomicInteger();
+    private final AtomicInteger connects = new AtomicInteger();
+    private volatile boolean connected;
+    private volatile boolean overlapped;
+    private volatile boolean failWrites;
+    private volatile boolean failConnects;
+
+    /**
+     * Create a link that is already connected.
+     */
+    RecordingLink() {
+        this(true);
+    }
+
+    RecordingLink(boolean connected) {
+        this.connected = connected;
+    }
+
+    public void write(SMPPPacket packet, boolean withOptionalParams) throws IOException {
+        if (writing.incrementAndGet() > 1) {
+            overlapped = true;
+        }
+        try {
+            if (!connected) {
+                throw new IOException("Not connected");
+            }
+            synchronized (this) {
+                packets.add(packet);
+                notifyAll();
+            }
+            if (failWrites) {
+                throw new IOException("Test failure");
+            }
+            packetWritten(packet);
+        } finally {
+            writing.decrementAndGet();
+        }
+    }
+
+    /**
+     * Called after a packet has been recorded.
+     * @param packet The packet that was written.
+     */
+    protected void packetWritten(SMPPPacket packet) {
+    }
+
+    /**
+     * Make writes fail after the packet has been recorded.
+     */
+    void setFailWrites(boolean failWrites) {
+        this.failWrites = failWrites;
+    }
+
+    void setFailConnects(boolean failConnects) {
+        this.failConnects = failConnects;
+    }
+
+    /**
+     * Get a copy of the packets written so far, in the order they were
+     * written.
+     */
+    synchronized List<SMPPPacket> getPackets() {
+        return new ArrayList<SMPPPacket>(packets);
+    }
+
+    /**
+     * Get the number of packets with a command ID written so far.
+     */
+    synchronized int count(int commandId) {
+        int count = 0;
+        for (SMPPPacket packet : packets) {
+            if (packet.getCommandId() == commandId) {
+                count++;
+            }
+        }
+        return count;
+    }
+
+    /**
+     * Wait until a number of packets have been written.
+     * @return <code>true</code> if they were written before the timeout.
+     */
+    synchronized boolean awaitPackets(int count, long timeout)
+            throws InterruptedException {
+        long deadline = System.currentTimeMillis() + timeout;
+        while (packets.size() < count) {
+            long wait = deadline - System.currentTimeMillis();
+            if (wait <= 0L) {
+                return false;
+            }
+            wait(wait);
+        }
+        return true;
+    }
+
+    /**
+     * Wait until a number of packets with a command ID have been
+     * written.
+     * @return The last packet written with the command ID.
+     */
+    synchronized SMPPPacket await(int commandId, int count)
+            throws InterruptedException {
+        long deadline = System.currentTimeMillis() + 5000L;
+        while (count(commandId) < count) {
+            long wait = deadline - System.currentTimeMillis();
+            assertTrue(wait > 0L, "Timed out waiting for command " + commandId);
+            wait(wait);
+        }
+        SMPPPacket last = null;
+        for (SMPPPacket packet : packets) {
+            if (packet.getCommandId() == commandId) {
+                last = packet;
+            }
+        }
+        return last;
+    }
+
+    /**
+     * Determine if two threads were ever writing at the same time.
+     */
+    boolean isOverlapped() {
+        return overlapped;
+    }
+
+    int getFlushCount() {
+        return flushes.get();
+    }
+
+    int getConnectCount() {
+        return connects.get();
+    }
+
+    public void flush() throws IOException {
+        flushes.incrementAndGet();
+    }
+
+    public void connect() throws IOException {
+        connects.incrementAndGet();
+        if (failConnects) {
+            throw new ConnectException("Test failure");
+        }
+        connected = true;
+    }
+
+    public void disconnect() throws IOException {
+        connected = false;
+    }
+
+    public boolean isConnected() {
+        return connected;
+    }
+
+    public SMPPPacket read() throws IOException {
+        throw new IOException("Not supported");
+    }
+
+    public int getTimeout() {
+        return 0;
+    }
+
+    public void setTimeout(int timeout) {
+    }
+
+    public boolean isTimeoutSupported() {
+        return false;
+    }
+}
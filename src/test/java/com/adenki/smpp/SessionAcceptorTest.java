@@ -0,0 +1,281 @@
+package com.adenki.smpp;
+
+import static com.adenki.smpp.SessionFixtures.awaitState;
+import static com.adenki.smpp.SessionFixtures.newSubmit;
+import static org.testng.Assert.assertEquals;
+import static org.testng.Assert.assertNotNull;
+import static org.testng.Assert.assertNull;
+import static org.testng.Assert.assertSame;
+import static org.testng.Assert.assertTrue;
+
+import java.io.IOException;
+import java.net.InetSocketAddress;
+import java.net.Socket;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.TimeUnit;
+
+import org.testng.annotations.AfterMethod;
+import org.testng.annotations.BeforeMethod;
+import org.testng.annotations.Test;
+
+import com.adenki.smpp.event.SMPPEventAdapter;
+import com.adenki.smpp.message.Bind;
+import com.adenki.smpp.message.BindResp;
+import com.adenki.smpp.message.BindTransceiver;
+import com.adenki.smpp.message.BindTransmitter;
+import com.adenki.smpp.message.DeliverSM;
+import com.adenki.smpp.message.EnquireLink;
+import com.adenki.smpp.message.SMPPPacket;
+import com.adenki.smpp.message.SubmitSM;
+import com.adenki.smpp.message.SubmitSMResp;
+import com.adenki.smpp.net.TcpLink;
+import com.adenki.smpp.util.AutoResponder;
+import com.adenki.smpp.util.PacketStatus;
+
+@Test
+public class SessionAcceptorTest {
+    private SessionAcceptor acceptor;
+    private RecordingListener listener;
+    private SessionImpl session;
+
+    @BeforeMethod
+    public void startAcceptor() throws Exception {
+        acceptor = new SessionAcceptor(new InetSocketAddress("localhost", 0),
+                new BindAuthenticator() {
+                    public int authenticate(ServerSession session, Bind bindRequest) {
+                        if ("secret".equals(bindRequest.getPassword())) {
+                            return PacketStatus.OK;
+                        }
+                        return PacketStatus.INVALID_PASSWORD;
+                    }
+                });
+        acceptor.setSystemId("acceptor");
+        acceptor.setWorkerThreads(2);
+        listener = new RecordingListener();
+        acceptor.setListener(listener);
+        acceptor.start();
+    }
+
+    @AfterMethod
+    public void stopAcceptor() throws Exception {
+        if (session != null) {
+            if (session.getState() == SessionState.BOUND) {
+                session.unbind();
+                awaitState(session, SessionState.UNBOUND);
+            }
+            session.closeLink();
+            session = null;
+        }
+        acceptor.stop();
+    }
+
+    public void testBindIsAuthenticated() throws Exception {
+        session = bind(SessionType.TRANSCEIVER, "secret", null);
+        assertEquals(session.getState(), SessionState.BOUND);
+        ServerSession serverSession = listener.bound.poll(5L, TimeUnit.SECONDS);
+        assertNotNull(serverSession);
+        assertEquals(serverSession.getState(), SessionState.BOUND);
+        assertEquals(serverSession.getSessionType(), SessionType.TRANSCEIVER);
+        assertEquals(serverSession.getSystemId(), "test");
+        assertEquals(acceptor.getSessionCount(), 1);
+    }
+
+    public void testBindWithWrongPasswordIsRejected() throws Exception {
+        Socket socket = new Socket("localhost", acceptor.getLocalPort());
+        TcpLink link = new TcpLink(socket);
+        try {
+            BindTransmitter bind = new BindTransmitter();
+            bind.setSystemId("test");
+            bind.setPassword("wrong");
+            bind.setSequenceNum(1L);
+            link.write(bind, true);
+            BindResp response = (BindResp) link.read();
+            assertEquals(response.getCommandStatus(), PacketStatus.INVALID_PASSWORD);
+            assertEquals(response.getSequenceNum(), 1L);
+            // The ESME may try again on the same connection.
+            bind.setPassword("secret");
+            bind.setSequenceNum(2L);
+            link.write(bind, true);
+            response = (BindResp) link.read();
+            assertEquals(response.getCommandStatus(), PacketStatus.OK);
+            assertEquals(response.getSystemId(), "acceptor");
+        } finally {
+            link.disconnect();
+        }
+    }
+
+    public void testRequestBeforeBindIsRejected() throws Exception {
+        Socket socket = new Socket("localhost", acceptor.getLocalPort());
+        TcpLink link = new TcpLink(socket);
+        try {
+            EnquireLink enquireLink = new EnquireLink();
+            enquireLink.setSequenceNum(1L);
+            link.write(enquireLink, true);
+            assertEquals(link.read().getCommandStatus(), PacketStatus.OK);
+            SubmitSM submit = newSubmit();
+            submit.setSequenceNum(2L);
+            link.write(submit, true);
+            SMPPPacket response = link.read();
+            assertTrue(response instanceof SubmitSMResp);
+            assertEquals(response.getCommandStatus(), PacketStatus.INVALID_BIND_STATUS);
+            assertNull(listener.received.poll());
+        } finally {
+            link.disconnect();
+        }
+    }
+
+    public void testListenerAnswersSubmit() throws Exception {
+        session = bind(SessionType.TRANSCEIVER, "secret", null);
+        SubmitSMResp response =
+            (SubmitSMResp) session.sendAsync(newSubmit()).get(5L, TimeUnit.SECONDS);
+        assertEquals(response.getCommandStatus(), PacketStatus.OK);
+        assertEquals(response.getMessageId(), "msg-1");
+        assertTrue(listener.received.poll(5L, TimeUnit.SECONDS) instanceof SubmitSM);
+    }
+
+    public void testDeliverIsMatchedToResponse() throws Exception {
+        BlockingQueue<DeliverSM> delivered = new LinkedBlockingQueue<DeliverSM>();
+        session = bind(SessionType.RECEIVER, "secret", delivered);
+        ServerSession serverSession = listener.bound.poll(5L, TimeUnit.SECONDS);
+        DeliverSM deliver = new DeliverSM();
+        deliver.setSource(new Address(1, 1, "447700900123"));
+        deliver.setDestination(new Address(0, 0, "12345"));
+        deliver.setMessage("Hello".getBytes());
+        ResponseFuture future = serverSession.sendAsync(deliver);
+        assertEquals(future.get(5L, TimeUnit.SECONDS).getCommandStatus(), PacketStatus.OK);
+        assertNotNull(delivered.poll(5L, TimeUnit.SECONDS));
+        assertEquals(serverSession.getOutstandingRequests(), 0);
+    }
+
+    @Test(expectedExceptions = UnsupportedOperationException.class)
+    public void testDeliverToTransmitterIsRefused() throws Exception {
+        session = bind(SessionType.TRANSMITTER, "secret", null);
+        ServerSession serverSession = listener.bound.poll(5L, TimeUnit.SECONDS);
+        serverSession.send(new DeliverSM());
+    }
+
+    public void testUnbindClosesSession() throws Exception {
+        session = bind(SessionType.TRANSCEIVER, "secret", null);
+        ServerSession serverSession = listener.bound.poll(5L, TimeUnit.SECONDS);
+        session.unbind();
+        awaitState(session, SessionState.UNBOUND);
+        assertSame(listener.closed.poll(5L, TimeUnit.SECONDS), serverSession);
+        assertEquals(serverSession.getState(), SessionState.UNBOUND);
+        assertEquals(acceptor.getSessionCount(), 0);
+    }
+
+    public void testServerUnbindClosesSession() throws Exception {
+        session = bind(SessionType.TRANSCEIVER, "secret", null);
+        ServerSession serverSession = listener.bound.poll(5L, TimeUnit.SECONDS);
+        serverSession.unbind();
+        assertSame(listener.closed.poll(5L, TimeUnit.SECONDS), serverSession);
+        awaitState(session, SessionState.UNBOUND);
+    }
+
+    public void testUnboundConnectionTimesOut() throws Exception {
+        acceptor.setBindTimeout(200);
+        Socket socket = new Socket("localhost", acceptor.getLocalPort());
+        try {
+            assertNotNull(listener.closed.poll(5L, TimeUnit.SECONDS));
+            assertEquals(socket.getInputStream().read(), -1);
+        } finally {
+            socket.close();
+        }
+    }
+
+    public void testReadingResumesAfterBacklogClears() throws Exception {
+        Socket socket = new Socket("localhost", acceptor.getLocalPort());
+        TcpLink link = new TcpLink(socket);
+        try {
+            BindTransceiver bind = new BindTransceiver();
+            bind.setSystemId("test");
+            bind.setPassword("secret");
+            bind.setSequenceNum(1L);
+            link.write(bind, true);
+            assertEquals(link.read().getCommandStatus(), PacketStatus.OK);
+
+            // Far more requests than may queue for a worker, with the
+            // listener held up and no responses read until all are sent.
+            CountDownLatch gate = new CountDownLatch(1);
+            listener.gate = gate;
+            int count = 500;
+            for (int i = 0; i < count; i++) {
+                SubmitSM submit = newSubmit();
+                submit.setSequenceNum(2L + i);
+                link.write(submit, true);
+            }
+            gate.countDown();
+            for (int i = 0; i < count; i++) {
+                SMPPPacket response = link.read();
+                assertEquals(response.getSequenceNum(), 2L + i);
+            }
+        } finally {
+            link.disconnect();
+        }
+    }
+
+
+    private SessionImpl bind(SessionType type, String password,
+            final BlockingQueue<DeliverSM> delivered) throws Exception {
+        SessionImpl newSession = new SessionImpl("localhost", acceptor.getLocalPort());
+        newSession.addObserver(new AutoResponder(true));
+        if (delivered != null) {
+            newSession.addObserver(new SMPPEventAdapter() {
+                @Override
+                public void deliverSM(Session source, DeliverSM deliverSM) {
+                    delivered.add(deliverSM);
+                }
+            });
+        }
+        newSession.bind(type, "test", password, null);
+        awaitState(newSession, SessionState.BOUND);
+        return newSession;
+    }
+
+
+    /**
+     * Records sessions and packets, answering submits with an incrementing
+     * message ID.
+     */
+    private static class RecordingListener implements ServerSessionListener {
+        private final BlockingQueue<ServerSession> bound =
+            new LinkedBlockingQueue<ServerSession>();
+        private final BlockingQueue<ServerSession> closed =
+            new LinkedBlockingQueue<ServerSession>();
+        private final BlockingQueue<SMPPPacket> received =
+            new LinkedBlockingQueue<SMPPPacket>();
+        private volatile CountDownLatch gate;
+        private int messageId;
+
+        public void sessionBound(ServerSession session) {
+            bound.add(session);
+        }
+
+        public void packetReceived(ServerSession session, SMPPPacket packet) {
+            CountDownLatch currentGate = gate;
+            if (currentGate != null) {
+                try {
+                    currentGate.await();
+                } catch (InterruptedException x) {
+                    Thread.currentThread().interrupt();
+                }
+            }
+            received.add(packet);
+            if (packet instanceof SubmitSM && !(packet instanceof DeliverSM)) {
+                SubmitSMResp response = new SubmitSMResp((SubmitSM) packet);
+                response.setMessageId("msg-" + (++messageId));
+                try {
+                    session.send(response);
+                } catch (IOException x) {
+                    session.close();
+                }
+            }
+        }
+
+        public void sessionClosed(ServerSession session) {
+            closed.add(session);
+        }
+    }
+}
@@ -0,0 +1,86 @@
+package com.adenki.smpp;
+
+import static org.testng.Assert.assertEquals;
+
+import java.io.IOException;
+
+import org.easymock.EasyMock;
+
+import com.adenki.smpp.message.BindTransmitter;
+import com.adenki.smpp.message.BindTransmitterResp;
+import com.adenki.smpp.message.SubmitSM;
+import com.adenki.smpp.net.SmscLink;
+
+/**
+ * Sessions and packets shared by the session tests.
+ * @version $Id$
+ */
+public final class SessionFixtures {
+
+    private SessionFixtures() {
+    }
+
+    /**
+     * Create a mock link that is always connected and ignores writes.
+     */
+    public static SmscLink connectedLink() {
+        SmscLink link = EasyMock.createNiceMock(SmscLink.class);
+        EasyMock.expect(link.isConnected()).andReturn(true).anyTimes();
+        EasyMock.replay(link);
+        return link;
+    }
+
+    /**
+     * Create an unbound session that does not validate packets and has a
+     * receiver that does nothing, so packets are only processed when the
+     * test hands them to the session.
+     */
+    public static SessionImpl unboundSession(SmscLink link) {
+        SessionImpl session = new SessionImpl(link);
+        session.setValidating(false);
+        Receiver receiver = EasyMock.createNiceMock(Receiver.class);
+        EasyMock.replay(receiver);
+        session.setReceiver(receiver);
+        return session;
+    }
+
+    /**
+     * Create a session bound as a transmitter.
+     * @see #unboundSession(SmscLink)
+     */
+    public static SessionImpl boundSession(SmscLink link) throws IOException {
+        return bind(unboundSession(link));
+    }
+
+    /**
+     * Bind a session as a transmitter and answer the bind.
+     * @return <code>session</code>.
+     */
+    public static SessionImpl bind(SessionImpl session) throws IOException {
+        BindTransmitter bind = new BindTransmitter();
+        session.bind(bind);
+        session.processReceivedPacket(new BindTransmitterResp(bind));
+        return session;
+    }
+
+    public static SubmitSM newSubmit() {
+        SubmitSM submit = new SubmitSM();
+        submit.setSource(new Address(0, 0, "12345"));
+        submit.setDestination(new Address(1, 1, "447700900123"));
+        submit.setMessage("Test message".getBytes());
+        return submit;
+    }
+
+    /**
+     * Wait up to five seconds for a session to reach a state.
+     */
+    public static void awaitState(SessionImpl session, SessionState state)
+            throws InterruptedException {
+        long deadline = System.currentTimeMillis() + 5000L;
+        while (session.getState() != state
+                && System.currentTimeMillis() < deadline) {
+            Thread.sleep(5L);
+        }
+        assertEquals(session.getState(), state);
+    }
+}
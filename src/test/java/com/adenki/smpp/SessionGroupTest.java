@@ -0,0 +1,237 @@
+package com.adenki.smpp;
+
+import static com.adenki.smpp.SessionFixtures.boundSession;
+import static com.adenki.smpp.SessionFixtures.unboundSession;
+import static org.testng.Assert.assertEquals;
+import static org.testng.Assert.assertFalse;
+import static org.testng.Assert.assertSame;
+import static org.testng.Assert.assertTrue;
+import static org.testng.Assert.fail;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.List;
+
+import org.testng.annotations.Test;
+
+import com.adenki.smpp.event.ReceiverExitEvent;
+import com.adenki.smpp.event.SMPPEvent;
+import com.adenki.smpp.event.SessionObserver;
+import com.adenki.smpp.message.BindTransmitter;
+import com.adenki.smpp.message.BindTransmitterResp;
+import com.adenki.smpp.message.DeliverSM;
+import com.adenki.smpp.message.SMPPPacket;
+import com.adenki.smpp.message.SubmitSM;
+import com.adenki.smpp.message.SubmitSMResp;
+import com.adenki.smpp.util.PacketStatus;
+
+@Test
+public class SessionGroupTest {
+
+    public void testLeastOutstandingSpreadsRequests() throws Exception {
+        SessionGroup group = new SessionGroup();
+        List<SessionImpl> sessions = new ArrayList<SessionImpl>();
+        for (int i = 0; i < 3; i++) {
+            SessionImpl session = boundSession(new RecordingLink());
+            sessions.add(session);
+            group.add(session);
+        }
+        for (int i = 0; i < 9; i++) {
+            group.sendAsync(new SubmitSM());
+        }
+        for (SessionImpl session : sessions) {
+            assertEquals(session.getOutstandingRequests(), 3);
+        }
+    }
+
+    public void testUnboundMembersAreNotUsed() throws Exception {
+        SessionGroup group = new SessionGroup();
+        SessionImpl unbound = new SessionImpl(new RecordingLink());
+        group.add(unbound);
+        try {
+            group.send(new SubmitSM());
+            fail("No member is bound");
+        } catch (NotBoundException x) {
+            // expected
+        }
+        SessionImpl bound = boundSession(new RecordingLink());
+        group.add(bound);
+        assertSame(group.send(new SubmitSM()), bound);
+        assertEquals(group.getAvailableSessions().size(), 1);
+        assertEquals(group.size(), 2);
+    }
+
+    public void testLeastLatencyPrefersFastSession() throws Exception {
+        SessionImpl slow = boundSession(new RecordingLink());
+        SessionImpl fast = boundSession(new RecordingLink());
+        slow.getResponseLatency().update(50000000.0);
+        fast.getResponseLatency().update(1000000.0);
+        SessionGroup group = new SessionGroup(new LeastLatencyRouter());
+        group.add(slow);
+        group.add(fast);
+        for (int i = 0; i < 10; i++) {
+            assertSame(group.select(new SubmitSM()), fast);
+        }
+    }
+
+    public void testObserversSeeAllMembersAndFailedMembersAreRemoved() throws Exception {
+        SessionGroup group = new SessionGroup();
+        SessionImpl first = boundSession(new RecordingLink());
+        SessionImpl second = boundSession(new RecordingLink());
+        group.add(first);
+        group.add(second);
+        final List<Session> sources = new ArrayList<Session>();
+        final List<SMPPEvent> events = new ArrayList<SMPPEvent>();
+        group.addObserver(new SessionObserver() {
+            public void update(Session source, SMPPEvent event) {
+                events.add(event);
+            }
+
+            public void packetReceived(Session source, SMPPPacket packet) {
+                sources.add(source);
+            }
+        });
+        first.getEventDispatcher().notifyObservers(first, new DeliverSM());
+        second.getEventDispatcher().notifyObservers(second, new DeliverSM());
+        assertEquals(sources.size(), 2);
+        assertSame(sources.get(0), first);
+        assertSame(sources.get(1), second);
+
+        first.getEventDispatcher().notifyObservers(first, new ReceiverExitEvent(first));
+        assertEquals(events.size(), 1);
+        assertEquals(group.size(), 1);
+        assertFalse(group.getSessions().contains(first));
+        assertTrue(first.getEventDispatcher().getObservers().isEmpty());
+    }
+
+    public void testSegmentsAreSentOnOneSession() throws Exception {
+        SessionGroup group = new SessionGroup(new ConsistentHashRouter());
+        List<SessionImpl> sessions = new ArrayList<SessionImpl>();
+        for (int i = 0; i < 4; i++) {
+            SessionImpl session = boundSession(new RecordingLink());
+            sessions.add(session);
+            group.add(session);
+        }
+        List<SubmitSM> segments = new ArrayList<SubmitSM>();
+        for (int i = 0; i < 3; i++) {
+            segments.add(new SubmitSM());
+        }
+        SessionImpl chosen = group.send(segments, "447700900123");
+        for (int i = 0; i < 10; i++) {
+            assertSame(group.select(new SubmitSM(), "447700900123"), chosen);
+        }
+    }
+
+    public void testSendFailureRemovesMember() throws Exception {
+        RecordingLink link = new RecordingLink();
+        SessionImpl session = boundSession(link);
+        SessionGroup group = new SessionGroup();
+        group.add(session);
+        link.setFailWrites(true);
+        try {
+            group.send(new SubmitSM());
+            fail("Write should have failed");
+        } catch (IOException x) {
+            // expected
+        }
+        assertEquals(group.size(), 0);
+    }
+
+    public void testReplaceSwitchesSendsOnceReplacementIsBound() throws Exception {
+        SessionGroup group = new SessionGroup();
+        SessionImpl old = boundSession(new RecordingLink());
+        group.add(old);
+        SubmitSM outstanding = new SubmitSM();
+        old.sendAsync(outstanding);
+        SessionImpl replacement = unboundSession(new RecordingLink());
+        BindTransmitter bind = new BindTransmitter();
+        ResponseFuture future = group.replace(old, replacement, bind);
+        assertSame(group.select(new SubmitSM()), old);
+        assertFalse(future.isDone());
+
+        replacement.processReceivedPacket(new BindTransmitterResp(bind));
+        assertTrue(future.isDone());
+        assertEquals(group.getSessions().size(), 1);
+        assertSame(group.select(new SubmitSM()), replacement);
+        Thread.sleep(150L);
+        assertEquals(old.getState(), SessionState.BOUND, "Old session should drain first");
+
+        old.processReceivedPacket(new SubmitSMResp(outstanding));
+        long deadline = System.currentTimeMillis() + 5000L;
+        while (old.getState() == SessionState.BOUND
+                && System.currentTimeMillis() < deadline) {
+            Thread.sleep(10L);
+        }
+        assertEquals(old.getState(), SessionState.UNBINDING);
+    }
+
+    public void testDrainingMemberStillRelaysPackets() throws Exception {
+        SessionGroup group = new SessionGroup();
+        SessionImpl old = boundSession(new RecordingLink());
+        group.add(old);
+        SubmitSM outstanding = new SubmitSM();
+        old.sendAsync(outstanding);
+        final List<Session> sources = new ArrayList<Session>();
+        group.addObserver(new SessionObserver() {
+            public void update(Session source, SMPPEvent event) {
+            }
+
+            public void packetReceived(Session source, SMPPPacket packet) {
+                sources.add(source);
+            }
+        });
+        SessionImpl replacement = unboundSession(new RecordingLink());
+        BindTransmitter bind = new BindTransmitter();
+        group.replace(old, replacement, bind);
+        replacement.processReceivedPacket(new BindTransmitterResp(bind));
+        assertFalse(group.getSessions().contains(old));
+
+        old.getEventDispatcher().notifyObservers(old, new DeliverSM());
+        assertEquals(sources.size(), 1);
+        assertSame(sources.get(0), old);
+
+        old.processReceivedPacket(new SubmitSMResp(outstanding));
+        long deadline = System.currentTimeMillis() + 5000L;
+        while (!old.getEventDispatcher().getObservers().isEmpty()
+                && System.currentTimeMillis() < deadline) {
+            Thread.sleep(10L);
+        }
+        assertTrue(old.getEventDispatcher().getObservers().isEmpty());
+        assertEquals(old.getState(), SessionState.UNBINDING);
+    }
+
+    public void testDrainTimeoutUnbindsWithRequestsOutstanding() throws Exception {
+        SessionGroup group = new SessionGroup();
+        SessionImpl old = boundSession(new RecordingLink());
+        group.add(old);
+        old.sendAsync(new SubmitSM());
+        SessionImpl replacement = unboundSession(new RecordingLink());
+        BindTransmitter bind = new BindTransmitter();
+        group.replace(old, replacement, bind, 100L);
+        replacement.processReceivedPacket(new BindTransmitterResp(bind));
+        assertEquals(old.getState(), SessionState.BOUND);
+
+        long deadline = System.currentTimeMillis() + 5000L;
+        while (old.getState() == SessionState.BOUND
+                && System.currentTimeMillis() < deadline) {
+            Thread.sleep(10L);
+        }
+        assertEquals(old.getState(), SessionState.UNBINDING);
+        assertEquals(old.getOutstandingRequests(), 1);
+    }
+
+    public void testFailedReplacementKeepsOldSession() throws Exception {
+        SessionGroup group = new SessionGroup();
+        SessionImpl old = boundSession(new RecordingLink());
+        group.add(old);
+        SessionImpl replacement = unboundSession(new RecordingLink());
+        BindTransmitter bind = new BindTransmitter();
+        group.replace(old, replacement, bind);
+        BindTransmitterResp resp = new BindTransmitterResp(bind);
+        resp.setCommandStatus(PacketStatus.INVALID_PASSWORD);
+        replacement.processReceivedPacket(resp);
+        assertEquals(group.getSessions().size(), 1);
+        assertSame(group.select(new SubmitSM()), old);
+        assertEquals(old.getState(), SessionState.BOUND);
+    }
+}
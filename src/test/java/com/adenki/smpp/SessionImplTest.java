@@ -0,0 +1,161 @@
+package com.adenki.smpp;
+
+import static org.testng.Assert.assertEquals;
+import static org.testng.Assert.assertFalse;
+import static org.testng.Assert.assertSame;
+import static org.testng.Assert.assertTrue;
+import static org.testng.Assert.fail;
+
+import java.io.IOException;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.TimeUnit;
+
+import org.easymock.EasyMock;
+import org.testng.annotations.BeforeMethod;
+import org.testng.annotations.Test;
+
+import com.adenki.smpp.event.ReceiverExitEvent;
+import com.adenki.smpp.message.EnquireLink;
+import com.adenki.smpp.message.EnquireLinkResp;
+import com.adenki.smpp.message.SMPPPacket;
+import com.adenki.smpp.message.SubmitSM;
+import com.adenki.smpp.message.SubmitSMResp;
+import com.adenki.smpp.net.ReadTimeoutException;
+import com.adenki.smpp.net.SmscLink;
+import com.adenki.smpp.util.PacketStatus;
+import com.adenki.smpp.util.ThroughputLimiter;
+
+@Test
+public class SessionImplTest {
+
+    private SessionImpl session;
+
+    @BeforeMethod
+    public void setUp() {
+        SmscLink link = EasyMock.createNiceMock(SmscLink.class);
+        EasyMock.replay(link);
+        session = new SessionImpl(link);
+    }
+
+    public void testSendAsyncCompletesWithMatchingResponse() throws Exception {
+        SubmitSM submitSM = new SubmitSM();
+        ResponseFuture future = session.sendAsync(submitSM);
+        assertTrue(submitSM.getSequenceNum() >= 0L);
+        assertFalse(future.isDone());
+        assertEquals(session.getOutstandingRequests(), 1);
+
+        SubmitSMResp other = new SubmitSMResp();
+        other.setSequenceNum(submitSM.getSequenceNum() + 1);
+        session.processReceivedPacket(other);
+        assertFalse(future.isDone());
+
+        SubmitSMResp resp = new SubmitSMResp(submitSM);
+        session.processReceivedPacket(resp);
+        assertTrue(future.isDone());
+        assertSame(future.get(), resp);
+        assertEquals(session.getOutstandingRequests(), 0);
+    }
+
+    public void testSendAsyncRejectsResponses() throws Exception {
+        try {
+            session.sendAsync(new EnquireLinkResp());
+            fail("Responses should not be accepted");
+        } catch (IllegalArgumentException x) {
+            // expected
+        }
+        assertEquals(session.getOutstandingRequests(), 0);
+    }
+
+    public void testFullWindowFailsFast() throws Exception {
+        session.setWindowSize(2, 0L);
+        SMPPPacket first = new EnquireLink();
+        session.sendAsync(first);
+        session.sendAsync(new EnquireLink());
+        try {
+            session.sendAsync(new EnquireLink());
+            fail("Window should be full");
+        } catch (WindowFullException x) {
+            // expected
+        }
+        session.processReceivedPacket(new EnquireLinkResp(first));
+        session.sendAsync(new EnquireLink());
+        assertEquals(session.getOutstandingRequests(), 2);
+    }
+
+    public void testFullWindowWaitsForSpace() throws Exception {
+        session.setWindowSize(1, 5000L);
+        final SMPPPacket first = new EnquireLink();
+        session.sendAsync(first);
+        new Thread() {
+            public void run() {
+                try {
+                    Thread.sleep(100L);
+                } catch (InterruptedException x) {
+                }
+                session.processReceivedPacket(new EnquireLinkResp(first));
+            }
+        }.start();
+        ResponseFuture second = session.sendAsync(new EnquireLink());
+        assertFalse(second.isDone());
+        assertEquals(session.getOutstandingRequests(), 1);
+    }
+
+    public void testRequestTimesOut() throws Exception {
+        session.setWindowSize(1, 0L);
+        ResponseFuture future = session.sendAsync(new EnquireLink(), 50L);
+        try {
+            future.get(5, TimeUnit.SECONDS);
+            fail("Request should have timed out");
+        } catch (ExecutionException x) {
+            assertTrue(x.getCause() instanceof ReadTimeoutException);
+        }
+        assertEquals(session.getOutstandingRequests(), 0);
+        session.sendAsync(new EnquireLink());
+    }
+
+    public void testCancelFreesWindow() throws Exception {
+        session.setWindowSize(1, 0L);
+        ResponseFuture future = session.sendAsync(new EnquireLink());
+        assertTrue(future.cancel(false));
+        assertTrue(future.isCancelled());
+        assertEquals(session.getOutstandingRequests(), 0);
+        session.sendAsync(new EnquireLink());
+    }
+
+    public void testThrottledResponseIsReportedToLimiter() throws Exception {
+        ThroughputLimiter limiter = new ThroughputLimiter(100, 100);
+        session.setThroughputLimiter(limiter);
+        SubmitSM submitSM = new SubmitSM();
+        ResponseFuture future = session.sendAsync(submitSM);
+        SubmitSMResp resp = new SubmitSMResp(submitSM);
+        resp.setCommandStatus(PacketStatus.THROTTLING_ERROR);
+        session.processReceivedPacket(resp);
+        assertEquals(future.get().getCommandStatus(), PacketStatus.THROTTLING_ERROR);
+        assertEquals(limiter.getThrottledCount(), 1L);
+        assertTrue(limiter.getCurrentRate() < 100.0);
+    }
+
+    public void testReceiverExitFailsOutstandingRequests() throws Exception {
+        ResponseFuture first = session.sendAsync(new EnquireLink());
+        ResponseFuture second = session.sendAsync(new SubmitSM());
+        IOException cause = new IOException("Test");
+        session.processReceiverExit(new ReceiverExitEvent(session, cause));
+        for (ResponseFuture future : new ResponseFuture[] {first, second}) {
+            try {
+                future.get();
+                fail("Request should have failed");
+            } catch (ExecutionException x) {
+                assertTrue(x.getCause() instanceof IOException);
+                assertSame(x.getCause().getCause(), cause);
+            }
+        }
+        assertEquals(session.getOutstandingRequests(), 0);
+    }
+
+    public void testReceiverExitUnregistersMetrics() throws Exception {
+        session.getMetrics().registerMBean();
+        assertTrue(session.getMetrics().isRegistered());
+        assertFalse(session.processReceiverExit(new ReceiverExitEvent(session)));
+        assertFalse(session.getMetrics().isRegistered());
+    }
+}
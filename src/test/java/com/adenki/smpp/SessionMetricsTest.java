@@ -0,0 +1,89 @@
+package com.adenki.smpp;
+
+import static com.adenki.smpp.SessionFixtures.boundSession;
+import static com.adenki.smpp.SessionFixtures.connectedLink;
+import static org.testng.Assert.assertEquals;
+import static org.testng.Assert.assertFalse;
+import static org.testng.Assert.assertTrue;
+
+import java.lang.management.ManagementFactory;
+import java.util.Map;
+
+import javax.management.MBeanServer;
+
+import org.testng.annotations.BeforeMethod;
+import org.testng.annotations.Test;
+
+import com.adenki.smpp.message.CommandId;
+import com.adenki.smpp.message.DeliverSM;
+import com.adenki.smpp.message.SubmitSM;
+import com.adenki.smpp.message.SubmitSMResp;
+import com.adenki.smpp.util.PacketStatus;
+
+@Test
+public class SessionMetricsTest {
+
+    private SessionImpl session;
+
+    @BeforeMethod
+    public void setUp() throws Exception {
+        session = boundSession(connectedLink());
+    }
+
+    public void testPacketsAreCountedByCommandAndStatus() throws Exception {
+        SubmitSM first = new SubmitSM();
+        SubmitSM second = new SubmitSM();
+        session.sendAsync(first);
+        session.sendAsync(second);
+        session.processReceivedPacket(new SubmitSMResp(first));
+        SubmitSMResp rejected = new SubmitSMResp(second);
+        rejected.setCommandStatus(PacketStatus.MESSAGE_QUEUE_FULL);
+        session.processReceivedPacket(rejected);
+        session.processReceivedPacket(new DeliverSM());
+
+        SessionMetrics metrics = session.getMetrics();
+        assertEquals(metrics.getSentCount(CommandId.SUBMIT_SM), 2L);
+        assertEquals(metrics.getReceivedCount(CommandId.SUBMIT_SM_RESP), 2L);
+        assertEquals(metrics.getReceivedCount(CommandId.DELIVER_SM), 1L);
+        assertEquals(metrics.getStatusCount(PacketStatus.MESSAGE_QUEUE_FULL), 1L);
+        assertEquals(metrics.getPacketsSent(), 3L);
+        assertEquals(metrics.getPacketsReceived(), 4L);
+        assertEquals(metrics.getResponseLatency().getCount(), 2L);
+
+        Map<String, Long> sent = metrics.getSentByCommand();
+        assertEquals(sent.get("SUBMIT_SM"), Long.valueOf(2L));
+        assertEquals(sent.get("BIND_TRANSMITTER"), Long.valueOf(1L));
+        Map<String, Long> byStatus = metrics.getResponsesByStatus();
+        assertEquals(byStatus.get("OK"), Long.valueOf(2L));
+        assertEquals(byStatus.get("MESSAGE_QUEUE_FULL"), Long.valueOf(1L));
+
+        metrics.reset();
+        assertEquals(metrics.getPacketsSent(), 0L);
+        assertEquals(metrics.getSentCount(CommandId.SUBMIT_SM), 0L);
+    }
+
+    public void testUnknownCommandsAreCountedSeparately() {
+        SessionMetrics metrics = session.getMetrics();
+        SubmitSMResp vendor = new SubmitSMResp();
+        vendor.setCommandStatus(0x12345);
+        metrics.packetReceived(vendor);
+        assertEquals(metrics.getStatusCount(0x12345), 1L);
+        assertEquals(metrics.getResponsesByStatus().get("OTHER"), Long.valueOf(1L));
+    }
+
+    public void testMetricsAreRegisteredOverJmx() throws Exception {
+        SessionMetrics metrics = session.getMetrics();
+        MBeanServer server = ManagementFactory.getPlatformMBeanServer();
+        metrics.registerMBean();
+        try {
+            assertTrue(metrics.isRegistered());
+            session.send(new SubmitSM());
+            assertEquals(server.getAttribute(metrics.getObjectName(), "PacketsSent"),
+                    Long.valueOf(2L));
+            assertEquals(server.getAttribute(metrics.getObjectName(), "State"), "BOUND");
+        } finally {
+            metrics.unregisterMBean();
+        }
+        assertFalse(server.isRegistered(metrics.getObjectName()));
+    }
+}
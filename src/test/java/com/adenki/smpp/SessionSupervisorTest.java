@@ -0,0 +1,106 @@
+package com.adenki.smpp;
+
+import static com.adenki.smpp.SessionFixtures.awaitState;
+import static com.adenki.smpp.SessionFixtures.bind;
+import static com.adenki.smpp.SessionFixtures.unboundSession;
+import static org.testng.Assert.assertEquals;
+import static org.testng.Assert.assertFalse;
+import static org.testng.Assert.assertNotNull;
+import static org.testng.Assert.assertSame;
+import static org.testng.Assert.assertTrue;
+import static org.testng.Assert.fail;
+
+import java.io.IOException;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.TimeUnit;
+
+import org.testng.annotations.Test;
+
+import com.adenki.smpp.event.ReceiverExitEvent;
+import com.adenki.smpp.message.BindTransmitter;
+import com.adenki.smpp.message.BindTransmitterResp;
+import com.adenki.smpp.message.CommandId;
+import com.adenki.smpp.message.EnquireLink;
+import com.adenki.smpp.message.SubmitSM;
+import com.adenki.smpp.message.SubmitSMResp;
+import com.adenki.smpp.net.SmscLink;
+
+@Test
+public class SessionSupervisorTest {
+
+    public void testReconnectsAndReplaysHeldRequests() throws Exception {
+        RecordingLink link = new RecordingLink(false);
+        SessionImpl session = supervisedSession(link, new ReconnectPolicy(10L, 10L, 0));
+        SubmitSM first = new SubmitSM();
+        ResponseFuture firstFuture = session.sendAsync(first);
+        long oldSequence = first.getSequenceNum();
+        ResponseFuture probe = session.sendAsync(new EnquireLink());
+
+        assertTrue(session.processReceiverExit(
+                new ReceiverExitEvent(session, new IOException("Test failure"))));
+        assertEquals(session.getState(), SessionState.UNBOUND);
+        assertTrue(session.isReconnecting());
+        assertTrue(probe.isDone());
+        assertFalse(firstFuture.isDone());
+
+        SubmitSM second = new SubmitSM();
+        ResponseFuture secondFuture = session.sendAsync(second);
+        assertEquals(link.count(CommandId.SUBMIT_SM), 1);
+
+        BindTransmitter bind = (BindTransmitter) link.await(CommandId.BIND_TRANSMITTER, 2);
+        // The state changes just after the packet is written.
+        awaitState(session, SessionState.BINDING);
+        session.processReceivedPacket(new BindTransmitterResp(bind));
+        assertFalse(session.isReconnecting());
+        link.await(CommandId.SUBMIT_SM, 3);
+
+        assertTrue(first.getSequenceNum() != oldSequence);
+        assertEquals(session.getOutstandingRequests(), 2);
+        session.processReceivedPacket(new SubmitSMResp(first));
+        session.processReceivedPacket(new SubmitSMResp(second));
+        assertNotNull(firstFuture.get(1L, TimeUnit.SECONDS));
+        assertNotNull(secondFuture.get(1L, TimeUnit.SECONDS));
+    }
+
+    public void testRequestsNotReplayedFail() throws Exception {
+        RecordingLink link = new RecordingLink(false);
+        SessionImpl session = supervisedSession(link, new ReconnectPolicy(1000L, 1000L, 0));
+        session.setReplayPolicy(ReplayPolicy.NONE);
+        ResponseFuture future = session.sendAsync(new SubmitSM());
+        assertTrue(session.processReceiverExit(new ReceiverExitEvent(session)));
+        assertTrue(future.isDone());
+        assertEquals(session.getOutstandingRequests(), 0);
+        session.setReconnectPolicy(null);
+    }
+
+    public void testGivesUpAfterMaxAttempts() throws Exception {
+        RecordingLink link = new RecordingLink(false);
+        SessionImpl session = supervisedSession(link, new ReconnectPolicy(1L, 1L, 2));
+        ResponseFuture future = session.sendAsync(new SubmitSM());
+        link.setFailConnects(true);
+        assertTrue(session.processReceiverExit(new ReceiverExitEvent(session)));
+        try {
+            future.get(2L, TimeUnit.SECONDS);
+            fail("Held request should have failed");
+        } catch (ExecutionException x) {
+            assertSame(x.getCause().getClass(), IOException.class);
+        }
+        assertEquals(link.getConnectCount(), 3);
+        assertFalse(session.isReconnecting());
+    }
+
+    public void testUnbindStopsReconnect() throws Exception {
+        SessionImpl session = supervisedSession(
+                new RecordingLink(false), new ReconnectPolicy(1L, 1L, 0));
+        session.unbind();
+        assertFalse(session.processReceiverExit(new ReceiverExitEvent(session)));
+        assertFalse(session.isReconnecting());
+    }
+
+    private SessionImpl supervisedSession(SmscLink link, ReconnectPolicy policy)
+            throws IOException {
+        SessionImpl session = unboundSession(link);
+        session.setReconnectPolicy(policy);
+        return bind(session);
+    }
+}
@@ -0,0 +1,119 @@
+package com.adenki.smpp.message;
+
+import static org.testng.Assert.assertEquals;
+import static org.testng.Assert.assertFalse;
+import static org.testng.Assert.assertNull;
+import static org.testng.Assert.assertTrue;
+
+import java.io.ByteArrayOutputStream;
+
+import org.testng.annotations.Test;
+
+import com.adenki.smpp.Address;
+import com.adenki.smpp.message.tlv.Tag;
+import com.adenki.smpp.util.PacketDecoderImpl;
+import com.adenki.smpp.util.PacketEncoderImpl;
+import com.adenki.smpp.util.PacketStatus;
+
+@Test
+public class LazyDecodingTest {
+
+    public void testOnlyHeaderIsDecodedUntilFieldIsUsed() throws Exception {
+        DeliverSM packet = new DeliverSM();
+        packet.readLazilyFrom(encode(newDeliverSM()));
+        assertFalse(packet.isDecoded());
+        assertEquals(packet.getCommandId(), CommandId.DELIVER_SM);
+        assertEquals(packet.getSequenceNum(), 42L);
+        packet.setSequenceNum(43L);
+        assertFalse(packet.isDecoded());
+        assertEquals(packet.getMessage(), "Hello".getBytes());
+        assertTrue(packet.isDecoded());
+        assertEquals(packet.getSource(), new Address(1, 1, "447700900123"));
+        assertEquals(packet.getTLV(Tag.USER_MESSAGE_REFERENCE), Integer.valueOf(7));
+        assertEquals(packet.getSequenceNum(), 43L);
+    }
+
+    public void testTLVAccessDecodesPacket() throws Exception {
+        DeliverSM packet = new DeliverSM();
+        packet.readLazilyFrom(encode(newDeliverSM()));
+        assertTrue(packet.isSet(Tag.USER_MESSAGE_REFERENCE));
+        assertTrue(packet.isDecoded());
+        assertEquals(packet.getMessage(), "Hello".getBytes());
+    }
+
+    public void testSetterIsNotOverwrittenByDecoding() throws Exception {
+        DeliverSM packet = new DeliverSM();
+        packet.readLazilyFrom(encode(newDeliverSM()));
+        packet.setMessage("Changed".getBytes());
+        assertEquals(packet.getMessage(), "Changed".getBytes());
+        assertEquals(packet.getDestination(), new Address(0, 0, "12345"));
+        DeliverSM decoded = new DeliverSM();
+        decoded.readLazilyFrom(encode(packet));
+        assertEquals(decoded.getMessage(), "Changed".getBytes());
+    }
+
+    public void testChangedHeaderIsReEncoded() throws Exception {
+        DeliverSM packet = new DeliverSM();
+        packet.readLazilyFrom(encode(newDeliverSM()));
+        packet.setSequenceNum(1000L);
+        DeliverSM decoded = new DeliverSM();
+        decoded.readFrom(new PacketDecoderImpl(encode(packet)));
+        assertEquals(decoded.getSequenceNum(), 1000L);
+        assertEquals(decoded.getMessage(), "Hello".getBytes());
+    }
+
+    public void testErrorResponseIsDecodedImmediately() throws Exception {
+        SubmitSMResp response = new SubmitSMResp();
+        response.setSequenceNum(5L);
+        response.setCommandStatus(PacketStatus.INVALID_DEST_ADDRESS);
+        SubmitSMResp packet = new SubmitSMResp();
+        packet.readLazilyFrom(encode(response));
+        assertTrue(packet.isDecoded());
+        assertNull(packet.getMessageId());
+    }
+
+    public void testUnsupportedTypeIsDecodedImmediately() throws Exception {
+        BindTransmitter bind = new BindTransmitter();
+        bind.setSystemId("esme");
+        bind.setPassword("secret");
+        BindTransmitter packet = new BindTransmitter();
+        packet.readLazilyFrom(encode(bind));
+        assertTrue(packet.isDecoded());
+        assertEquals(packet.getSystemId(), "esme");
+    }
+
+    @Test(expectedExceptions = SMPPProtocolException.class)
+    public void testCorruptBodyFailsWhenUsed() throws Exception {
+        byte[] array = encode(new SubmitSMResp());
+        // Remove the message ID's terminating nul.
+        array[array.length - 1] = 'x';
+        SubmitSMResp packet = new SubmitSMResp();
+        packet.readLazilyFrom(array);
+        packet.getMessageId();
+    }
+
+    public void testResetDiscardsUndecodedBytes() throws Exception {
+        DeliverSM packet = new DeliverSM();
+        packet.readLazilyFrom(encode(newDeliverSM()));
+        packet.reset();
+        assertTrue(packet.isDecoded());
+        assertNull(packet.getMessage());
+        assertEquals(packet, new DeliverSM());
+    }
+
+    private DeliverSM newDeliverSM() {
+        DeliverSM packet = new DeliverSM();
+        packet.setSequenceNum(42L);
+        packet.setSource(new Address(1, 1, "447700900123"));
+        packet.setDestination(new Address(0, 0, "12345"));
+        packet.setMessage("Hello".getBytes());
+        packet.setTLV(Tag.USER_MESSAGE_REFERENCE, Integer.valueOf(7));
+        return packet;
+    }
+
+    private byte[] encode(SMPPPacket packet) throws Exception {
+        ByteArrayOutputStream out = new ByteArrayOutputStream();
+        packet.writeTo(new PacketEncoderImpl(out));
+        return out.toByteArray();
+    }
+}
@@ -0,0 +1,104 @@
+package com.adenki.smpp.message;
+
+import static org.testng.Assert.assertEquals;
+import static org.testng.Assert.assertFalse;
+import static org.testng.Assert.assertNull;
+import static org.testng.Assert.assertSame;
+import static org.testng.Assert.assertTrue;
+
+import org.testng.annotations.Test;
+
+import com.adenki.smpp.Address;
+import com.adenki.smpp.message.tlv.Tag;
+import com.adenki.smpp.util.PacketFactory;
+import com.adenki.smpp.util.PacketStatus;
+
+@Test
+public class PacketPoolTest {
+
+    public void testReleasedPacketIsReused() throws Exception {
+        PacketPool pool = new PacketPool(4);
+        assertNull(pool.acquire(CommandId.DELIVER_SM));
+        DeliverSM packet = (DeliverSM) pool.adopt(new DeliverSM());
+        assertTrue(packet.isPooled());
+        packet.setSequenceNum(10L);
+        packet.setSource(new Address(1, 1, "447700900123"));
+        packet.setMessage("Hello".getBytes());
+        packet.setTLV(Tag.USER_MESSAGE_REFERENCE, Integer.valueOf(3));
+        packet.release();
+        assertEquals(pool.getIdleCount(CommandId.DELIVER_SM), 1);
+
+        DeliverSM reused = (DeliverSM) pool.acquire(CommandId.DELIVER_SM);
+        assertSame(reused, packet);
+        assertEquals(reused.getSequenceNum(), -1L);
+        assertNull(reused.getSource());
+        assertNull(reused.getMessage());
+        assertEquals(reused.getTLVTable().getLength(), 0);
+        assertEquals(pool.getHits(), 1L);
+        assertEquals(pool.getMisses(), 1L);
+    }
+
+    public void testRetainedPacketIsNotRecycledUntilReleased() throws Exception {
+        PacketPool pool = new PacketPool(4);
+        SMPPPacket packet = pool.adopt(new SubmitSMResp());
+        packet.retain();
+        packet.release();
+        assertEquals(pool.getIdleCount(CommandId.SUBMIT_SM_RESP), 0);
+        packet.release();
+        assertEquals(pool.getIdleCount(CommandId.SUBMIT_SM_RESP), 1);
+    }
+
+    @Test(expectedExceptions = IllegalStateException.class)
+    public void testReleasingTooOftenFails() throws Exception {
+        PacketPool pool = new PacketPool(4);
+        SMPPPacket packet = pool.adopt(new EnquireLink());
+        packet.release();
+        packet.release();
+    }
+
+    public void testUnpooledPacketsAreUnaffected() throws Exception {
+        PacketPool pool = new PacketPool(4);
+        SMPPPacket packet = pool.adopt(new BindTransmitter());
+        assertFalse(packet.isPooled());
+        packet.release();
+        packet.release();
+        assertNull(pool.acquire(CommandId.BIND_TRANSMITTER));
+    }
+
+    public void testErrorResponseDoesNotKeepOldFields() throws Exception {
+        PacketPool pool = new PacketPool(4);
+        SubmitSMResp packet = (SubmitSMResp) pool.adopt(new SubmitSMResp());
+        packet.setMessageId("abc");
+        packet.setCommandStatus(PacketStatus.INVALID_DEST_ADDRESS);
+        packet.release();
+        packet = (SubmitSMResp) pool.acquire(CommandId.SUBMIT_SM_RESP);
+        assertNull(packet.getMessageId());
+        assertEquals(packet.getCommandStatus(), 0);
+    }
+
+    public void testPoolIsBounded() throws Exception {
+        PacketPool pool = new PacketPool(2);
+        for (int i = 0; i < 5; i++) {
+            pool.adopt(new EnquireLinkResp()).release();
+        }
+        assertEquals(pool.getIdleCount(CommandId.ENQUIRE_LINK_RESP), 2);
+    }
+
+    public void testCloneIsNotPooled() throws Exception {
+        PacketPool pool = new PacketPool(2);
+        SMPPPacket packet = pool.adopt(new DeliverSM());
+        SMPPPacket copy = (SMPPPacket) packet.clone();
+        assertFalse(copy.isPooled());
+    }
+
+    public void testFactoryDrawsFromPool() throws Exception {
+        PacketPool pool = new PacketPool(2);
+        PacketFactory factory = new PacketFactory();
+        factory.setPacketPool(pool);
+        SMPPPacket first = factory.newInstance(CommandId.DELIVER_SM);
+        assertTrue(first.isPooled());
+        first.release();
+        assertSame(factory.newInstance(CommandId.DELIVER_SM), first);
+        assertFalse(factory.newInstance(CommandId.BIND_RECEIVER).isPooled());
+    }
+}
@@ -3,6 +3,7 @@ package com.adenki.smpp.message;
 import static org.testng.Assert.assertEquals;
 import static org.testng.Assert.assertFalse;
 import static org.testng.Assert.assertNotNull;
+import static org.testng.Assert.assertTrue;
 
 import java.io.ByteArrayOutputStream;
 import java.util.Random;
@@ -95,6 +96,44 @@ public abstract class PacketTests<T extends SMPPPacket> {
         assertEquals(original, decodedPacket);
     }
     
+    /**
+     * Test that resetting a packet of a type that is pooled by default
+     * leaves it equal to a newly created packet.
+     */
+    @Test
+    public void testResetRestoresPooledTypeToNewState() throws Exception {
+        T fresh = getPacketType().newInstance();
+        if (!new PacketPool(1).isPooled(fresh.getCommandId())) {
+            return;
+        }
+        T packet = getInitialisedPacket();
+        setCommonFields(packet);
+        packet.reset();
+        assertEquals(packet, fresh);
+        assertEquals(packet.getLength(), fresh.getLength());
+    }
+
+    /**
+     * Test that a packet read lazily re-encodes to the bytes it was read
+     * from and decodes to the same fields as the original.
+     */
+    @Test
+    public void testLazilyReadPacketMatchesOriginalPacket() throws Exception {
+        T original = getInitialisedPacket();
+        setCommonFields(original);
+        ByteArrayOutputStream out = new ByteArrayOutputStream();
+        original.writeTo(new PacketEncoderImpl(out));
+        byte[] array = out.toByteArray();
+        T lazyPacket = getPacketType().newInstance();
+        lazyPacket.readLazilyFrom(array);
+        assertEquals(lazyPacket.getLength(), array.length);
+        out.reset();
+        lazyPacket.writeTo(new PacketEncoderImpl(out));
+        assertEquals(out.toByteArray(), array);
+        assertEquals(lazyPacket, original);
+        assertTrue(lazyPacket.isDecoded());
+    }
+
     protected abstract Class<T> getPacketType();
     
     protected abstract T getInitialisedPacket();
@@ -0,0 +1,197 @@
+package com.adenki.smpp.message.tlv;
+
+import static org.testng.Assert.assertEquals;
+import static org.testng.Assert.assertFalse;
+import static org.testng.Assert.assertNull;
+import static org.testng.Assert.assertSame;
+import static org.testng.Assert.assertTrue;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.ObjectInputStream;
+import java.io.ObjectOutputStream;
+import java.util.BitSet;
+import java.util.Iterator;
+import java.util.Map;
+
+import org.testng.annotations.Test;
+
+import com.adenki.smpp.message.SMPPProtocolException;
+import com.adenki.smpp.util.PacketDecoderImpl;
+import com.adenki.smpp.util.PacketEncoderImpl;
+
+@Test
+public class CompactTLVTableTest {
+
+    public void testValuesRoundTrip() throws Exception {
+        CompactTLVTable table = newTable();
+        byte[] encoded = encode(table);
+        assertEquals(encoded.length, table.getLength());
+
+        CompactTLVTable decoded = decode(encoded);
+        assertEquals(decoded.size(), table.size());
+        assertEquals(decoded.getInt(Tag.DEST_ADDR_SUBUNIT), 0x56);
+        assertEquals(decoded.getInt(Tag.DEST_TELEMATICS_ID), 0xe2e1);
+        assertEquals(decoded.getLong(Tag.QOS_TIME_TO_LIVE), 0xe4e3e2e1L);
+        assertEquals(decoded.get(Tag.ADDITIONAL_STATUS_INFO_TEXT), "Test info");
+        assertEquals(decoded.getBytes(Tag.CALLBACK_NUM_ATAG), new byte[] {0x56, 0x67, 0x69});
+        assertEquals(decoded.getBitmask(Tag.MS_MSG_WAIT_FACILITIES), table.getBitmask(Tag.MS_MSG_WAIT_FACILITIES));
+        assertEquals(decoded.getLength(), encoded.length);
+    }
+
+    public void testDecodedValuesHaveTheDescriptorTypes() throws Exception {
+        CompactTLVTable decoded = decode(encode(newTable()));
+        assertEquals(decoded.get(Tag.DEST_ADDR_SUBUNIT), Integer.valueOf(0x56));
+        assertEquals(decoded.get(Tag.QOS_TIME_TO_LIVE), Long.valueOf(0xe4e3e2e1L));
+        assertEquals(decoded, toTLVTableImpl(decoded));
+    }
+
+    public void testUndecodedTableReEncodesIdentically() throws Exception {
+        byte[] encoded = encode(newTable());
+        assertEquals(encode(decode(encoded)), encoded);
+    }
+
+    public void testDecodedValueIsKept() throws Exception {
+        CompactTLVTable decoded = decode(encode(newTable()));
+        byte[] value = decoded.getBytes(Tag.CALLBACK_NUM_ATAG);
+        assertSame(decoded.getBytes(Tag.CALLBACK_NUM_ATAG), value);
+    }
+
+    public void testUnknownTagsAreKept() throws Exception {
+        ByteArrayOutputStream out = new ByteArrayOutputStream();
+        PacketEncoderImpl encoder = new PacketEncoderImpl(out);
+        encoder.writeBytes(new byte[] {
+                (byte) 0xca, (byte) 0xfd, 0x00, 0x02, (byte) 0xfe, (byte) 0xed,
+        });
+        byte[] encoded = out.toByteArray();
+        CompactTLVTable table = decode(encoded);
+        assertEquals(encode(table), encoded);
+        assertEquals(table.get(0xcafd), new byte[] {(byte) 0xfe, (byte) 0xed});
+    }
+
+    public void testPrimitivePutKeepsIntegerTypes() throws Exception {
+        CompactTLVTable table = new CompactTLVTable();
+        table.put(Tag.DEST_TELEMATICS_ID, 0xe2e1);
+        table.put(Tag.QOS_TIME_TO_LIVE, 0xe4e3e2e1L);
+        assertEquals(table.get(Tag.DEST_TELEMATICS_ID), Integer.valueOf(0xe2e1));
+        assertEquals(table.get(Tag.QOS_TIME_TO_LIVE), Long.valueOf(0xe4e3e2e1L));
+        assertEquals(table.getLength(), 14);
+        assertEquals(decode(encode(table)).getInt(Tag.DEST_TELEMATICS_ID), 0xe2e1);
+    }
+
+    @Test(expectedExceptions = InvalidSizeForValueException.class)
+    public void testPutChecksLength() throws Exception {
+        new CompactTLVTable().put(Tag.SOURCE_SUBADDRESS, new byte[1]);
+    }
+
+    @Test(expectedExceptions = BadValueTypeException.class)
+    public void testPutRejectsNull() throws Exception {
+        new CompactTLVTable().put(Tag.SOURCE_SUBADDRESS, null);
+    }
+
+    @Test(expectedExceptions = ClassCastException.class)
+    public void testGetIntThrowsExceptionOnIncorrectType() throws Exception {
+        CompactTLVTable table = new CompactTLVTable();
+        table.put(Tag.RECEIPTED_MESSAGE_ID, "messageID");
+        decode(encode(table)).getInt(Tag.RECEIPTED_MESSAGE_ID);
+    }
+
+    public void testUnsetTags() throws Exception {
+        CompactTLVTable table = new CompactTLVTable();
+        assertNull(table.get(Tag.DEST_SUBADDRESS));
+        assertNull(table.getString(Tag.RECEIPTED_MESSAGE_ID));
+        assertEquals(table.getInt(Tag.DEST_TELEMATICS_ID), -1);
+        assertEquals(table.getLong(Tag.DEST_TELEMATICS_ID), -1L);
+        assertEquals(table.getLength(), 0);
+        assertEquals(encode(table).length, 0);
+    }
+
+    public void testLengthFollowsChanges() throws Exception {
+        CompactTLVTable table = new CompactTLVTable();
+        table.put(Tag.RECEIPTED_MESSAGE_ID, "abc");
+        assertEquals(table.getLength(), 8);
+        table.put(Tag.RECEIPTED_MESSAGE_ID, "abcdef");
+        assertEquals(table.getLength(), 11);
+        table.put(Tag.DEST_ADDR_SUBUNIT, 1);
+        assertEquals(table.getLength(), 16);
+        table.remove(Tag.RECEIPTED_MESSAGE_ID);
+        assertEquals(table.getLength(), 5);
+        table.clear();
+        assertEquals(table.getLength(), 0);
+    }
+
+    public void testOrderIsKeptAcrossRemovals() throws Exception {
+        CompactTLVTable table = new CompactTLVTable();
+        Tag[] tags = {
+            Tag.DEST_ADDR_SUBUNIT, Tag.SOURCE_ADDR_SUBUNIT, Tag.PAYLOAD_TYPE,
+            Tag.PRIVACY_INDICATOR, Tag.USER_MESSAGE_REFERENCE, Tag.SOURCE_PORT,
+        };
+        for (int i = 0; i < tags.length; i++) {
+            table.put(tags[i], i);
+        }
+        table.remove(Tag.PAYLOAD_TYPE.intValue());
+        Iterator<Map.Entry<Tag, Object>> iterator = table.entrySet().iterator();
+        assertEquals(iterator.next().getKey(), Tag.DEST_ADDR_SUBUNIT);
+        iterator.next();
+        iterator.remove();
+        assertEquals(iterator.next().getKey(), Tag.PRIVACY_INDICATOR);
+        assertEquals(iterator.next().getValue(), Integer.valueOf(4));
+        assertEquals(iterator.next().getKey(), Tag.SOURCE_PORT);
+        assertFalse(iterator.hasNext());
+        assertEquals(table.size(), 4);
+        assertFalse(table.containsKey(Tag.SOURCE_ADDR_SUBUNIT));
+        assertTrue(table.containsKey(Tag.SOURCE_PORT));
+    }
+
+    @Test(expectedExceptions = SMPPProtocolException.class)
+    public void testTruncatedParameterIsRejected() throws Exception {
+        byte[] encoded = encode(newTable());
+        new CompactTLVTable().readFrom(new PacketDecoderImpl(encoded), encoded.length - 1);
+    }
+
+    public void testSerializationKeepsUndecodedValues() throws Exception {
+        CompactTLVTable table = decode(encode(newTable()));
+        ByteArrayOutputStream out = new ByteArrayOutputStream();
+        ObjectOutputStream objectOut = new ObjectOutputStream(out);
+        objectOut.writeObject(table);
+        objectOut.close();
+        ObjectInputStream objectIn = new ObjectInputStream(
+                new ByteArrayInputStream(out.toByteArray()));
+        CompactTLVTable copy = (CompactTLVTable) objectIn.readObject();
+        assertEquals(copy.getLength(), table.getLength());
+        assertEquals(encode(copy), encode(table));
+    }
+
+    private CompactTLVTable newTable() {
+        CompactTLVTable table = new CompactTLVTable();
+        BitSet bitSet = new BitSet();
+        bitSet.set(3);
+        table.put(Tag.DEST_ADDR_SUBUNIT, new Integer(0x56));
+        table.put(Tag.DEST_TELEMATICS_ID, new Integer(0xe2e1));
+        table.put(Tag.QOS_TIME_TO_LIVE, new Long(0xe4e3e2e1L));
+        table.put(Tag.ADDITIONAL_STATUS_INFO_TEXT, "Test info");
+        table.put(Tag.CALLBACK_NUM_ATAG, new byte[] {0x56, 0x67, 0x69});
+        table.put(Tag.MS_MSG_WAIT_FACILITIES, bitSet);
+        return table;
+    }
+
+    private TLVTableImpl toTLVTableImpl(CompactTLVTable table) {
+        TLVTableImpl copy = new TLVTableImpl();
+        copy.putAll(table);
+        return copy;
+    }
+
+    private byte[] encode(TLVTable table) throws Exception {
+        ByteArrayOutputStream out = new ByteArrayOutputStream();
+        table.writeTo(new PacketEncoderImpl(out));
+        return out.toByteArray();
+    }
+
+    private CompactTLVTable decode(byte[] encoded) {
+        CompactTLVTable table = new CompactTLVTable();
+        PacketDecoderImpl decoder = new PacketDecoderImpl(encoded);
+        table.readFrom(decoder, encoded.length);
+        assertEquals(decoder.getParsePosition(), encoded.length);
+        return table;
+    }
+}
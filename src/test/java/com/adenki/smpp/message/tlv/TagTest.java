@@ -2,9 +2,17 @@ package com.adenki.smpp.message.tlv;
 
 import static org.testng.Assert.assertEquals;
 import static org.testng.Assert.assertFalse;
+import static org.testng.Assert.assertNotSame;
 import static org.testng.Assert.assertSame;
 import static org.testng.Assert.assertTrue;
 
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.ObjectInputStream;
+import java.io.ObjectOutputStream;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.atomic.AtomicInteger;
+
 import org.testng.annotations.Test;
 
 @Test
@@ -47,4 +55,76 @@ public class TagTest {
         Tag.undefineTag(tag);
         assertFalse(Tag.isTagDefined(TAG_VALUE));
     }
+
+    public void testUnknownTagIsNotDefined() throws Exception {
+        final int TAG_VALUE = 0x3fed;
+        Tag tag = Tag.getTag(TAG_VALUE);
+        assertEquals(tag.intValue(), TAG_VALUE);
+        assertEquals(tag.getParamDescriptor(), BasicDescriptors.BYTES);
+        assertFalse(Tag.isTagDefined(TAG_VALUE));
+        Tag other = Tag.getTag(TAG_VALUE);
+        assertNotSame(other, tag);
+        assertEquals(other, tag);
+        assertEquals(other.hashCode(), tag.hashCode());
+        // An unknown tag can still be defined later.
+        Tag defined = Tag.defineTag(TAG_VALUE, BasicDescriptors.INTEGER2, 2);
+        try {
+            assertSame(Tag.getTag(TAG_VALUE), defined);
+        } finally {
+            Tag.undefineTag(defined);
+        }
+    }
+
+    @Test(expectedExceptions = TagDefinedException.class)
+    public void testDefiningATagTwiceFails() throws Exception {
+        Tag.defineTag(Tag.SMS_SIGNAL.intValue(), BasicDescriptors.INTEGER2, 2);
+    }
+
+    @Test(expectedExceptions = IllegalArgumentException.class)
+    public void testTagValueMustFitInTwoBytes() throws Exception {
+        Tag.defineTag(0x10000, BasicDescriptors.INTEGER2, 2);
+    }
+
+    public void testOutOfRangeValuesAreNotDefined() throws Exception {
+        assertFalse(Tag.isTagDefined(-1));
+        assertFalse(Tag.isTagDefined(0x10000));
+    }
+
+    public void testDeserializedTagIsTheDefinedTag() throws Exception {
+        ByteArrayOutputStream out = new ByteArrayOutputStream();
+        ObjectOutputStream objectOut = new ObjectOutputStream(out);
+        objectOut.writeObject(Tag.MESSAGE_PAYLOAD);
+        objectOut.close();
+        ObjectInputStream objectIn = new ObjectInputStream(
+                new ByteArrayInputStream(out.toByteArray()));
+        assertSame(objectIn.readObject(), Tag.MESSAGE_PAYLOAD);
+    }
+
+    public void testConcurrentDefinitionsOfOneTagHaveOneWinner() throws Exception {
+        final int TAG_VALUE = 0x2f00;
+        final int threads = 8;
+        final CountDownLatch start = new CountDownLatch(1);
+        final CountDownLatch done = new CountDownLatch(threads);
+        final AtomicInteger winners = new AtomicInteger();
+        for (int i = 0; i < threads; i++) {
+            new Thread(new Runnable() {
+                public void run() {
+                    try {
+                        start.await();
+                        Tag.defineTag(TAG_VALUE, BasicDescriptors.INTEGER1, 1);
+                        winners.incrementAndGet();
+                    } catch (TagDefinedException x) {
+                    } catch (InterruptedException x) {
+                    } finally {
+                        done.countDown();
+                    }
+                }
+            }).start();
+        }
+        start.countDown();
+        done.await();
+        assertEquals(winners.get(), 1);
+        Tag.undefineTag(Tag.getTag(TAG_VALUE));
+        assertFalse(Tag.isTagDefined(TAG_VALUE));
+    }
 }
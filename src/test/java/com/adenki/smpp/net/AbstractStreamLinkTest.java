@@ -0,0 +1,227 @@
+package com.adenki.smpp.net;
+
+import static org.testng.Assert.assertEquals;
+import static org.testng.Assert.assertFalse;
+import static org.testng.Assert.assertTrue;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+
+import org.testng.annotations.BeforeMethod;
+import org.testng.annotations.Test;
+
+import com.adenki.smpp.message.DeliverSM;
+import com.adenki.smpp.message.EnquireLink;
+import com.adenki.smpp.message.SubmitSM;
+import com.adenki.smpp.message.tlv.Tag;
+import com.adenki.smpp.util.PacketEncoderImpl;
+
+@Test
+public class AbstractStreamLinkTest {
+
+    private CountingOutputStream out;
+    private StreamLink link;
+
+    @BeforeMethod
+    public void setUp() throws Exception {
+        out = new CountingOutputStream();
+        link = new StreamLink(new ByteArrayInputStream(new byte[0]), out);
+        link.setAutoFlush(true);
+        link.connect();
+    }
+
+    public void testEachPacketIsWrittenInOneCall() throws Exception {
+        SubmitSM submitSM = new SubmitSM();
+        submitSM.setSequenceNum(1);
+        submitSM.setMessage(new byte[140]);
+        submitSM.setTLV(Tag.MESSAGE_PAYLOAD, new byte[100000]);
+        link.write(submitSM, true);
+        assertEquals(out.writes, 1);
+        assertEquals(out.size(), submitSM.getLength());
+
+        EnquireLink enquireLink = new EnquireLink();
+        enquireLink.setSequenceNum(2);
+        link.write(enquireLink, true);
+        assertEquals(out.writes, 2);
+        assertEquals(out.size(), submitSM.getLength() + 16);
+    }
+
+    public void testLazilyReadPacketsKeepTheirOwnBytes() throws Exception {
+        ByteArrayOutputStream input = new ByteArrayOutputStream();
+        PacketEncoderImpl encoder = new PacketEncoderImpl(input);
+        for (int i = 1; i <= 2; i++) {
+            DeliverSM deliverSM = new DeliverSM();
+            deliverSM.setSequenceNum(i);
+            deliverSM.setMessage(("Message " + i).getBytes());
+            deliverSM.writeTo(encoder, true);
+        }
+        StreamLink lazyLink = new StreamLink(
+                new ByteArrayInputStream(input.toByteArray()), out);
+        lazyLink.setLazyDecoding(true);
+        lazyLink.connect();
+        DeliverSM first = (DeliverSM) lazyLink.read();
+        DeliverSM second = (DeliverSM) lazyLink.read();
+        assertFalse(first.isDecoded());
+        assertEquals(first.getMessage(), "Message 1".getBytes());
+        assertEquals(second.getMessage(), "Message 2".getBytes());
+    }
+
+    public void testWrittenBytesMatchEncoderOutput() throws Exception {
+        ByteArrayOutputStream expected = new ByteArrayOutputStream();
+        PacketEncoderImpl encoder = new PacketEncoderImpl(expected);
+        for (int i = 1; i <= 5; i++) {
+            DeliverSM deliverSM = new DeliverSM();
+            deliverSM.setSequenceNum(i);
+            deliverSM.setMessage(new byte[i * 30]);
+            link.write(deliverSM, true);
+            deliverSM.writeTo(encoder, true);
+        }
+        assertEquals(out.toByteArray(), expected.toByteArray());
+    }
+
+    public void testSnoopStreamReceivesWrittenBytes() throws Exception {
+        ByteArrayOutputStream snoopOut = new ByteArrayOutputStream();
+        link.setSnoopStreams(null, snoopOut);
+        DeliverSM deliverSM = new DeliverSM();
+        deliverSM.setSequenceNum(1);
+        deliverSM.setMessage(new byte[60]);
+        link.write(deliverSM, true);
+        link.write(new EnquireLink(), true);
+        assertEquals(snoopOut.toByteArray(), out.toByteArray());
+    }
+
+    public void testPacketLimitCoalescesWrites() throws Exception {
+        link.setFlushPolicy(new FlushPolicy(4, 0, 0L));
+        for (int i = 1; i <= 10; i++) {
+            EnquireLink enquireLink = new EnquireLink();
+            enquireLink.setSequenceNum(i);
+            link.write(enquireLink, true);
+        }
+        assertEquals(out.writes, 2);
+        assertEquals(out.flushes, 2);
+        assertEquals(out.size(), 8 * 16);
+        link.flush();
+        assertEquals(out.writes, 3);
+        assertEquals(out.size(), 10 * 16);
+    }
+
+    public void testByteLimitFlushes() throws Exception {
+        link.setFlushPolicy(new FlushPolicy(0, 100, 0L));
+        DeliverSM deliverSM = new DeliverSM();
+        deliverSM.setMessage(new byte[40]);
+        link.write(deliverSM, true);
+        assertEquals(out.size(), 0);
+        link.write(deliverSM, true);
+        assertEquals(out.flushes, 1);
+        assertEquals(out.size(), deliverSM.getLength() * 2);
+    }
+
+    public void testDelayFlushesWaitingPackets() throws Exception {
+        link.setFlushPolicy(new FlushPolicy(0, 0, 1000L));
+        link.write(new EnquireLink(), true);
+        link.write(new EnquireLink(), true);
+        long timeout = System.currentTimeMillis() + 5000L;
+        while (out.flushes == 0 && System.currentTimeMillis() < timeout) {
+            Thread.sleep(5L);
+        }
+        assertEquals(out.flushes, 1);
+        assertEquals(out.writes, 1);
+        assertEquals(out.size(), 32);
+        assertTrue(out.flushThread.startsWith("SMPPIO-"), out.flushThread);
+    }
+
+    public void testDelayRestartsAfterTimedFlush() throws Exception {
+        link.setFlushPolicy(new FlushPolicy(0, 0, 50000L));
+        link.write(new EnquireLink(), true);
+        long timeout = System.currentTimeMillis() + 5000L;
+        while (out.flushes == 0 && System.currentTimeMillis() < timeout) {
+            Thread.sleep(5L);
+        }
+        link.write(new EnquireLink(), true);
+        link.write(new EnquireLink(), true);
+        assertEquals(out.flushes, 1);
+        assertEquals(out.size(), 16);
+        timeout = System.currentTimeMillis() + 5000L;
+        while (out.flushes == 1 && System.currentTimeMillis() < timeout) {
+            Thread.sleep(5L);
+        }
+        assertEquals(out.flushes, 2);
+        assertEquals(out.size(), 48);
+    }
+
+    public void testExplicitPolicyWaitsForFlush() throws Exception {
+        link.setAutoFlush(false);
+        assertEquals(link.getFlushPolicy(), FlushPolicy.EXPLICIT);
+        link.write(new EnquireLink(), true);
+        assertEquals(out.size(), 0);
+        link.flush();
+        assertEquals(out.size(), 16);
+        link.setAutoFlush(true);
+        assertTrue(link.getAutoFlush());
+    }
+
+    private static class CountingOutputStream extends ByteArrayOutputStream {
+        private volatile int writes;
+        private volatile int flushes;
+        private volatile String flushThread;
+
+        @Override
+        public synchronized void flush() {
+            flushThread = Thread.currentThread().getName();
+            flushes++;
+        }
+
+        @Override
+        public synchronized void write(int b) {
+            writes++;
+            super.write(b);
+        }
+
+        @Override
+        public synchronized void write(byte[] b, int off, int len) {
+            writes++;
+            super.write(b, off, len);
+        }
+    }
+
+    private static class StreamLink extends AbstractStreamLink {
+        private InputStream inputStream;
+        private OutputStream outputStream;
+        private boolean connected;
+
+        public StreamLink(InputStream inputStream, OutputStream outputStream) {
+            this.inputStream = inputStream;
+            this.outputStream = outputStream;
+        }
+
+        public void connect() throws IOException {
+            setInputStream(inputStream);
+            setOutputStream(outputStream);
+            connected = true;
+        }
+
+        @Override
+        public void disconnect() throws IOException {
+            super.disconnect();
+            connected = false;
+        }
+
+        public boolean isConnected() {
+            return connected;
+        }
+
+        public int getTimeout() {
+            return 0;
+        }
+
+        public void setTimeout(int timeout) {
+        }
+
+        public boolean isTimeoutSupported() {
+            return false;
+        }
+    }
+}
@@ -0,0 +1,272 @@
+package com.adenki.smpp.net;
+
+import static org.testng.Assert.assertEquals;
+import static org.testng.Assert.assertFalse;
+import static org.testng.Assert.assertNotNull;
+import static org.testng.Assert.assertTrue;
+import static org.testng.Assert.fail;
+
+import java.io.ByteArrayOutputStream;
+import java.io.EOFException;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.net.InetAddress;
+import java.net.ServerSocket;
+import java.net.Socket;
+import java.nio.ByteBuffer;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+
+import org.testng.annotations.AfterMethod;
+import org.testng.annotations.BeforeMethod;
+import org.testng.annotations.Test;
+
+import com.adenki.smpp.message.BindTransmitter;
+import com.adenki.smpp.message.BindTransmitterResp;
+import com.adenki.smpp.message.CommandId;
+import com.adenki.smpp.message.DeliverSM;
+import com.adenki.smpp.message.EnquireLink;
+import com.adenki.smpp.message.SMPPPacket;
+import com.adenki.smpp.message.tlv.Tag;
+import com.adenki.smpp.util.PacketEncoderImpl;
+import com.adenki.smpp.util.SMPPIO;
+
+@Test
+public class NioLinkTest {
+
+    private SelectorPool pool;
+    private ServerSocket serverSocket;
+    private NioLink link;
+    private Socket peer;
+
+    @BeforeMethod
+    public void setUp() throws Exception {
+        pool = new SelectorPool(1);
+        serverSocket = new ServerSocket(0, 1, InetAddress.getByName("127.0.0.1"));
+        link = new NioLink(serverSocket.getInetAddress(), serverSocket.getLocalPort());
+        link.setSelectorPool(pool);
+        link.setTimeout(5000);
+        link.connect();
+        peer = serverSocket.accept();
+    }
+
+    @AfterMethod
+    public void tearDown() throws Exception {
+        link.disconnect();
+        peer.close();
+        serverSocket.close();
+        pool.shutdown();
+    }
+
+    public void testWriteSendsEncodedPacket() throws Exception {
+        BindTransmitter bind = new BindTransmitter();
+        bind.setSequenceNum(1);
+        bind.setSystemId("test");
+        link.write(bind, true);
+        link.flush();
+        byte[] bytes = readPacket(peer.getInputStream());
+        assertEquals(bytes.length, bind.getLength());
+        assertEquals(SMPPIO.readInt4(bytes, 4), CommandId.BIND_TRANSMITTER);
+    }
+
+    public void testReadReturnsPacketsInOrder() throws Exception {
+        OutputStream out = peer.getOutputStream();
+        PacketEncoderImpl encoder = new PacketEncoderImpl(out);
+        BindTransmitterResp resp = new BindTransmitterResp();
+        resp.setSequenceNum(1);
+        resp.setSystemId("smsc");
+        resp.writeTo(encoder);
+        for (int i = 2; i < 10; i++) {
+            DeliverSM deliver = new DeliverSM();
+            deliver.setSequenceNum(i);
+            deliver.setMessage(new byte[i * 20]);
+            deliver.setTLV(Tag.MESSAGE_PAYLOAD, new byte[i * 1000]);
+            deliver.writeTo(encoder);
+        }
+        out.flush();
+        SMPPPacket packet = link.read();
+        assertEquals(packet.getCommandId(), CommandId.BIND_TRANSMITTER_RESP);
+        assertEquals(((BindTransmitterResp) packet).getSystemId(), "smsc");
+        for (int i = 2; i < 10; i++) {
+            packet = link.read();
+            assertEquals(packet.getSequenceNum(), (long) i);
+            assertEquals(((DeliverSM) packet).getMessage().length, i * 20);
+            assertEquals(((byte[]) packet.getTLV(Tag.MESSAGE_PAYLOAD)).length, i * 1000);
+        }
+    }
+
+    public void testOversizedPacketFailsLink() throws Exception {
+        ByteArrayOutputStream header = new ByteArrayOutputStream();
+        SMPPIO.writeInt(Integer.MAX_VALUE, header);
+        SMPPIO.writeInt(CommandId.SUBMIT_SM, header);
+        SMPPIO.writeInt(0, header);
+        SMPPIO.writeInt(1, header);
+        peer.getOutputStream().write(header.toByteArray());
+        try {
+            link.read();
+            fail("Expected the link to fail");
+        } catch (IOException x) {
+            // expected
+        }
+        assertFalse(link.isConnected());
+    }
+
+    public void testReadTimesOut() throws Exception {
+        link.setTimeout(200);
+        try {
+            link.read();
+            fail("Expected a read timeout");
+        } catch (ReadTimeoutException x) {
+            // expected
+        }
+    }
+
+    public void testListenerReceivesPacketsAndFailure() throws Exception {
+        final List<SMPPPacket> packets = new ArrayList<SMPPPacket>();
+        final CountDownLatch failed = new CountDownLatch(1);
+        link.setLinkListener(new LinkListener() {
+            public void packetReceived(SmscLink source, SMPPPacket packet) {
+                packets.add(packet);
+            }
+            public void readTimeout(SmscLink source) {
+            }
+            public void linkFailed(SmscLink source, Exception cause) {
+                assertTrue(cause instanceof EOFException);
+                failed.countDown();
+            }
+        });
+        PacketEncoderImpl encoder = new PacketEncoderImpl(peer.getOutputStream());
+        for (int i = 1; i <= 3; i++) {
+            EnquireLink enquireLink = new EnquireLink();
+            enquireLink.setSequenceNum(i);
+            enquireLink.writeTo(encoder);
+        }
+        peer.close();
+        assertTrue(failed.await(5, TimeUnit.SECONDS));
+        assertEquals(packets.size(), 3);
+        assertNotNull(packets.get(2));
+        assertEquals(packets.get(2).getSequenceNum(), 3L);
+        assertFalse(link.isConnected());
+    }
+
+    public void testRawListenerForwardsOrDeclinesPackets() throws Exception {
+        final List<SMPPPacket> decoded = new ArrayList<SMPPPacket>();
+        final CountDownLatch received = new CountDownLatch(2);
+        link.setLinkListener(new RawLinkListener() {
+            public boolean pduReceived(NioLink source, ByteBuffer pdu) {
+                if (SMPPIO.readInt4(pdu.array(), pdu.arrayOffset() + 4)
+                        != CommandId.ENQUIRE_LINK) {
+                    return false;
+                }
+                pdu.putInt(12, 99);
+                try {
+                    source.writeRaw(pdu);
+                } catch (IOException x) {
+                    fail("Raw write failed", x);
+                }
+                received.countDown();
+                return true;
+            }
+            public void packetReceived(SmscLink source, SMPPPacket packet) {
+                decoded.add(packet);
+                received.countDown();
+            }
+            public void readTimeout(SmscLink source) {
+            }
+            public void linkFailed(SmscLink source, Exception cause) {
+            }
+        });
+        PacketEncoderImpl encoder = new PacketEncoderImpl(peer.getOutputStream());
+        EnquireLink enquireLink = new EnquireLink();
+        enquireLink.setSequenceNum(1);
+        enquireLink.writeTo(encoder);
+        BindTransmitterResp resp = new BindTransmitterResp();
+        resp.setSequenceNum(2);
+        resp.setSystemId("smsc");
+        resp.writeTo(encoder);
+        assertTrue(received.await(5, TimeUnit.SECONDS));
+        byte[] echoed = readPacket(peer.getInputStream());
+        assertEquals(SMPPIO.readInt4(echoed, 4), CommandId.ENQUIRE_LINK);
+        assertEquals(SMPPIO.readInt4(echoed, 12), 99);
+        assertEquals(decoded.size(), 1);
+        assertEquals(decoded.get(0).getCommandId(), CommandId.BIND_TRANSMITTER_RESP);
+    }
+
+    public void testWriteRawReportsPendingLimit() throws Exception {
+        link.setMaxPendingBytes(1024);
+        final CountDownLatch drained = new CountDownLatch(1);
+        byte[] pdu = new byte[64 * 1024];
+        boolean withinLimit = true;
+        for (int i = 0; i < 64 && withinLimit; i++) {
+            withinLimit = link.writeRaw(ByteBuffer.wrap(pdu));
+        }
+        assertFalse(withinLimit);
+        link.whenDrained(new Runnable() {
+            public void run() {
+                drained.countDown();
+            }
+        });
+        InputStream in = peer.getInputStream();
+        byte[] buf = new byte[8192];
+        while (drained.getCount() > 0) {
+            if (in.read(buf) < 0) {
+                break;
+            }
+        }
+        assertTrue(drained.await(5, TimeUnit.SECONDS));
+    }
+
+    public void testWhenFlushedWaitsForAllOutput() throws Exception {
+        final CountDownLatch flushed = new CountDownLatch(1);
+        byte[] pdu = new byte[64 * 1024];
+        int total = 0;
+        for (int i = 0; i < 64; i++) {
+            link.writeRaw(ByteBuffer.wrap(pdu));
+            total += pdu.length;
+        }
+        EnquireLink enquireLink = new EnquireLink();
+        link.writeNoWait(enquireLink, true);
+        total += enquireLink.getLength();
+        link.whenFlushed(new Runnable() {
+            public void run() {
+                flushed.countDown();
+            }
+        });
+        InputStream in = peer.getInputStream();
+        byte[] buf = new byte[8192];
+        int received = 0;
+        while (received < total) {
+            int count = in.read(buf);
+            if (count < 0) {
+                break;
+            }
+            received += count;
+        }
+        assertEquals(received, total);
+        assertTrue(flushed.await(5, TimeUnit.SECONDS));
+    }
+
+    private byte[] readPacket(InputStream in) throws Exception {
+        byte[] header = new byte[4];
+        readFully(in, header, 0, 4);
+        int length = SMPPIO.readInt4(header, 0);
+        byte[] packet = new byte[length];
+        System.arraycopy(header, 0, packet, 0, 4);
+        readFully(in, packet, 4, length - 4);
+        return packet;
+    }
+
+    private void readFully(InputStream in, byte[] buf, int offset, int length) throws Exception {
+        while (length > 0) {
+            int count = in.read(buf, offset, length);
+            if (count < 0) {
+                throw new EOFException();
+            }
+            offset += count;
+            length -= count;
+        }
+    }
+}
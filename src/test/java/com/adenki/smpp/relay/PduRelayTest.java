@@ -0,0 +1,221 @@
+package com.adenki.smpp.relay;
+
+import static com.adenki.smpp.SessionFixtures.awaitState;
+import static com.adenki.smpp.SessionFixtures.newSubmit;
+import static org.testng.Assert.assertEquals;
+import static org.testng.Assert.assertNotNull;
+import static org.testng.Assert.assertTrue;
+
+import java.io.IOException;
+import java.net.InetSocketAddress;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.TimeUnit;
+
+import org.testng.annotations.AfterMethod;
+import org.testng.annotations.BeforeMethod;
+import org.testng.annotations.Test;
+
+import com.adenki.smpp.Address;
+import com.adenki.smpp.BindAuthenticator;
+import com.adenki.smpp.ResponseFuture;
+import com.adenki.smpp.ServerSession;
+import com.adenki.smpp.ServerSessionListener;
+import com.adenki.smpp.Session;
+import com.adenki.smpp.SessionAcceptor;
+import com.adenki.smpp.SessionImpl;
+import com.adenki.smpp.SessionState;
+import com.adenki.smpp.SessionType;
+import com.adenki.smpp.event.SMPPEvent;
+import com.adenki.smpp.event.SMPPEventAdapter;
+import com.adenki.smpp.event.SessionObserver;
+import com.adenki.smpp.message.AlertNotification;
+import com.adenki.smpp.message.Bind;
+import com.adenki.smpp.message.CommandId;
+import com.adenki.smpp.message.DataSM;
+import com.adenki.smpp.message.DeliverSM;
+import com.adenki.smpp.message.SMPPPacket;
+import com.adenki.smpp.message.SubmitSM;
+import com.adenki.smpp.message.SubmitSMResp;
+import com.adenki.smpp.net.NioLink;
+import com.adenki.smpp.util.AutoResponder;
+import com.adenki.smpp.util.PacketStatus;
+
+@Test
+public class PduRelayTest {
+    private SessionAcceptor smsc;
+    private BlockingQueue<ServerSession> bound;
+    private BlockingQueue<SubmitSM> submitted;
+    private SmppProxy proxy;
+    private SessionImpl session;
+
+    @BeforeMethod
+    public void setUp() throws Exception {
+        bound = new LinkedBlockingQueue<ServerSession>();
+        submitted = new LinkedBlockingQueue<SubmitSM>();
+        smsc = new SessionAcceptor(new InetSocketAddress("localhost", 0),
+                new BindAuthenticator() {
+                    public int authenticate(ServerSession session, Bind bindRequest) {
+                        if ("upstream".equals(bindRequest.getSystemId())
+                                && "secret".equals(bindRequest.getPassword())) {
+                            return PacketStatus.OK;
+                        }
+                        return PacketStatus.INVALID_PASSWORD;
+                    }
+                });
+        smsc.setListener(new ServerSessionListener() {
+            public void sessionBound(ServerSession serverSession) {
+                bound.add(serverSession);
+            }
+            public void packetReceived(ServerSession serverSession, SMPPPacket packet) {
+                if (packet.getCommandId() != CommandId.SUBMIT_SM) {
+                    return;
+                }
+                submitted.add((SubmitSM) packet);
+                SubmitSMResp response = new SubmitSMResp(packet);
+                response.setMessageId("id-" + packet.getSequenceNum());
+                try {
+                    serverSession.send(response);
+                } catch (IOException x) {
+                    serverSession.close();
+                }
+            }
+            public void sessionClosed(ServerSession serverSession) {
+            }
+        });
+        smsc.start();
+        proxy = new SmppProxy(new InetSocketAddress("localhost", 0),
+                new InetSocketAddress("localhost", smsc.getLocalPort()));
+        proxy.addRule(new BindRewriteRule("upstream", "secret"));
+        proxy.start();
+    }
+
+    @AfterMethod
+    public void tearDown() throws Exception {
+        if (session != null) {
+            if (session.getState() == SessionState.BOUND) {
+                session.unbind();
+                awaitState(session, SessionState.UNBOUND);
+            }
+            session.closeLink();
+            session = null;
+        }
+        proxy.stop();
+        smsc.stop();
+    }
+
+    public void testRelaysWithoutDecoding() throws Exception {
+        final BlockingQueue<DeliverSM> delivered = new LinkedBlockingQueue<DeliverSM>();
+        session = new SessionImpl("localhost", proxy.getLocalPort());
+        session.addObserver(new AutoResponder(true));
+        session.addObserver(new SMPPEventAdapter() {
+            @Override
+            public void deliverSM(Session source, DeliverSM deliverSM) {
+                delivered.add(deliverSM);
+            }
+        });
+        session.bind(SessionType.TRANSCEIVER, "app", "apppass", null);
+        awaitState(session, SessionState.BOUND);
+        ServerSession serverSession = bound.poll(5L, TimeUnit.SECONDS);
+        assertEquals(serverSession.getSystemId(), "upstream");
+
+        for (int i = 0; i < 10; i++) {
+            SubmitSM submit = newSubmit();
+            SubmitSMResp response =
+                (SubmitSMResp) session.sendAsync(submit).get(5L, TimeUnit.SECONDS);
+            SubmitSM received = submitted.poll(5L, TimeUnit.SECONDS);
+            assertEquals(response.getMessageId(), "id-" + received.getSequenceNum());
+        }
+
+        DeliverSM deliver = new DeliverSM();
+        deliver.setSource(new Address(1, 1, "447700900123"));
+        deliver.setDestination(new Address(0, 0, "12345"));
+        deliver.setMessage("Hello".getBytes());
+        ResponseFuture future = serverSession.sendAsync(deliver);
+        assertEquals(future.get(5L, TimeUnit.SECONDS).getCommandStatus(), PacketStatus.OK);
+        assertNotNull(delivered.poll(5L, TimeUnit.SECONDS));
+
+        PduRelay relay = proxy.getRelays().iterator().next();
+        // Only the bind was decoded.
+        assertEquals(relay.getDecodedCount(), 1L);
+        assertTrue(relay.getForwardedCount() >= 24L);
+    }
+
+    public void testRuleCanDropPackets() throws Exception {
+        proxy.addRule(new RelayRule() {
+            public boolean inspects(int commandId) {
+                return commandId == CommandId.SUBMIT_SM;
+            }
+            public SMPPPacket inspect(PduRelay relay, NioLink source, SMPPPacket packet) {
+                return null;
+            }
+        });
+        session = new SessionImpl("localhost", proxy.getLocalPort());
+        session.bind(SessionType.TRANSMITTER, "app", "apppass", null);
+        awaitState(session, SessionState.BOUND);
+        session.send(newSubmit());
+        session.sendAsync(newSubmit());
+        Thread.sleep(200L);
+        assertEquals(submitted.size(), 0);
+    }
+
+    public void testClosingOneSideClosesTheOther() throws Exception {
+        session = new SessionImpl("localhost", proxy.getLocalPort());
+        session.bind(SessionType.TRANSMITTER, "app", "apppass", null);
+        awaitState(session, SessionState.BOUND);
+        ServerSession serverSession = bound.poll(5L, TimeUnit.SECONDS);
+        serverSession.close();
+        awaitState(session, SessionState.UNBOUND);
+        long deadline = System.currentTimeMillis() + 5000L;
+        while (!proxy.getRelays().isEmpty() && System.currentTimeMillis() < deadline) {
+            Thread.sleep(10L);
+        }
+        assertTrue(proxy.getRelays().isEmpty());
+    }
+
+    public void testUnansweredRequestsAreForgotten() throws Exception {
+        final BlockingQueue<SMPPPacket> received = new LinkedBlockingQueue<SMPPPacket>();
+        session = new SessionImpl("localhost", proxy.getLocalPort());
+        session.addObserver(new SessionObserver() {
+            public void packetReceived(Session source, SMPPPacket packet) {
+                received.add(packet);
+            }
+
+            public void update(Session source, SMPPEvent event) {
+            }
+        });
+        session.bind(SessionType.TRANSCEIVER, "app", "apppass", null);
+        awaitState(session, SessionState.BOUND);
+        ServerSession serverSession = bound.poll(5L, TimeUnit.SECONDS);
+        PduRelay relay = proxy.getRelays().iterator().next();
+        relay.setResponseTimeout(500L);
+        received.clear();
+
+        // An alert_notification has no response, so it is not remembered.
+        AlertNotification alert = new AlertNotification();
+        alert.setSource(new Address(1, 1, "447700900123"));
+        alert.setDestination(new Address(0, 0, "12345"));
+        serverSession.send(alert);
+        SMPPPacket packet = received.poll(5L, TimeUnit.SECONDS);
+        assertEquals(packet.getCommandId(), CommandId.ALERT_NOTIFICATION);
+
+        // The SMSC never answers a data_sm.
+        DataSM dataSM = new DataSM();
+        dataSM.setSource(new Address(0, 0, "12345"));
+        dataSM.setDestination(new Address(1, 1, "447700900123"));
+        session.send(dataSM);
+        long deadline = System.currentTimeMillis() + 5000L;
+        while (relay.getPendingResponseCount() == 0
+                && System.currentTimeMillis() < deadline) {
+            Thread.sleep(10L);
+        }
+        assertEquals(relay.getPendingResponseCount(), 1);
+
+        deadline = System.currentTimeMillis() + 5000L;
+        while (relay.getPendingResponseCount() > 0
+                && System.currentTimeMillis() < deadline) {
+            Thread.sleep(10L);
+        }
+        assertEquals(relay.getPendingResponseCount(), 0);
+    }
+}
@@ -0,0 +1,49 @@
+package com.adenki.smpp.simulator;
+
+import static org.testng.Assert.assertEquals;
+import static org.testng.Assert.assertNotNull;
+import static org.testng.Assert.assertTrue;
+import static org.testng.Assert.fail;
+
+import org.testng.annotations.Test;
+
+@Test
+public class LoadGeneratorTest {
+
+    public void testSubmitAgainstSimulator() throws Exception {
+        LoadGenerator generator = new LoadGenerator(new String[] {
+                "-simulate", "-port", "0", "-count", "200", "-sessions", "2",
+                "-window", "20", "-latency", "0-2",
+        });
+        generator.setOutput(null);
+        LoadGenerator.Report report = generator.run();
+        assertEquals(report.getCount(), 200L);
+        assertEquals(report.getErrors(), 0L);
+        assertEquals(report.getLatency().getCount(), 200L);
+        assertTrue(report.getThroughput() > 0.0);
+        assertTrue(report.toString().contains("p999="), report.toString());
+    }
+
+    public void testReceiveFromSimulator() throws Exception {
+        LoadGenerator generator = new LoadGenerator(new String[] {
+                "-simulate", "-port", "0", "-receive", "-count", "50",
+        });
+        generator.setOutput(null);
+        LoadGenerator.Report report = generator.run();
+        assertEquals(report.getCount(), 50L);
+        assertNotNull(report.getLatency());
+    }
+
+    public void testInvalidArgumentsAreRejected() {
+        try {
+            new LoadGenerator(new String[] {"-count", "none"});
+            fail("Accepted a count that is not a number");
+        } catch (IllegalArgumentException x) {
+        }
+        try {
+            new LoadGenerator(new String[] {"-error-rate", "0.1"});
+            fail("Accepted an error rate without the simulator");
+        } catch (IllegalArgumentException x) {
+        }
+    }
+}
@@ -0,0 +1,61 @@
+package com.adenki.smpp.simulator;
+
+import static org.testng.Assert.assertEquals;
+import static org.testng.Assert.assertTrue;
+import static org.testng.Assert.fail;
+
+import java.util.Random;
+
+import org.testng.annotations.Test;
+
+import com.adenki.smpp.util.PacketStatus;
+
+@Test
+public class ResponseProfileTest {
+
+    public void testLatencyIsWithinRange() {
+        ResponseProfile profile =
+            new ResponseProfile(10L, 20L, 0.0, PacketStatus.SYSTEM_ERROR);
+        Random random = new Random(1L);
+        for (int i = 0; i < 1000; i++) {
+            long latency = profile.nextLatency(random);
+            assertTrue(latency >= 10L && latency <= 20L, Long.toString(latency));
+        }
+        assertEquals(new ResponseProfile(7L).nextLatency(random), 7L);
+    }
+
+    public void testErrorRate() {
+        Random random = new Random(1L);
+        ResponseProfile never = new ResponseProfile(0L, 0L, 0.0, PacketStatus.SYSTEM_ERROR);
+        ResponseProfile always =
+            new ResponseProfile(0L, 0L, 1.0, PacketStatus.MESSAGE_QUEUE_FULL);
+        ResponseProfile half = new ResponseProfile(0L, 0L, 0.5, PacketStatus.SYSTEM_ERROR);
+        int errors = 0;
+        for (int i = 0; i < 1000; i++) {
+            assertEquals(never.nextStatus(random), PacketStatus.OK);
+            assertEquals(always.nextStatus(random), PacketStatus.MESSAGE_QUEUE_FULL);
+            if (half.nextStatus(random) != PacketStatus.OK) {
+                errors++;
+            }
+        }
+        assertTrue(errors > 400 && errors < 600, Integer.toString(errors));
+    }
+
+    public void testInvalidProfilesAreRejected() {
+        try {
+            new ResponseProfile(20L, 10L, 0.0, PacketStatus.SYSTEM_ERROR);
+            fail("Accepted an empty latency range");
+        } catch (IllegalArgumentException x) {
+        }
+        try {
+            new ResponseProfile(0L, 0L, 1.5, PacketStatus.SYSTEM_ERROR);
+            fail("Accepted an error rate above 1");
+        } catch (IllegalArgumentException x) {
+        }
+        try {
+            new ResponseProfile(0L, 0L, 0.5, PacketStatus.OK);
+            fail("Accepted OK as the error status");
+        } catch (IllegalArgumentException x) {
+        }
+    }
+}
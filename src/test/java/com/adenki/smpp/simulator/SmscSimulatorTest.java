@@ -0,0 +1,124 @@
+package com.adenki.smpp.simulator;
+
+import static com.adenki.smpp.SessionFixtures.awaitState;
+import static com.adenki.smpp.SessionFixtures.newSubmit;
+import static org.testng.Assert.assertEquals;
+import static org.testng.Assert.assertNotNull;
+import static org.testng.Assert.assertTrue;
+
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.TimeUnit;
+
+import org.testng.annotations.AfterMethod;
+import org.testng.annotations.BeforeMethod;
+import org.testng.annotations.Test;
+
+import com.adenki.smpp.Session;
+import com.adenki.smpp.SessionImpl;
+import com.adenki.smpp.SessionState;
+import com.adenki.smpp.SessionType;
+import com.adenki.smpp.event.SMPPEventAdapter;
+import com.adenki.smpp.message.CommandId;
+import com.adenki.smpp.message.DeliverSM;
+import com.adenki.smpp.message.ESMClass;
+import com.adenki.smpp.message.SMPPPacket;
+import com.adenki.smpp.message.SubmitSM;
+import com.adenki.smpp.message.SubmitSMResp;
+import com.adenki.smpp.message.tlv.Tag;
+import com.adenki.smpp.util.AutoResponder;
+import com.adenki.smpp.util.PacketStatus;
+
+@Test
+public class SmscSimulatorTest {
+    private SmscSimulator simulator;
+    private SessionImpl session;
+
+    @BeforeMethod
+    public void startSimulator() throws Exception {
+        simulator = new SmscSimulator();
+        simulator.start();
+    }
+
+    @AfterMethod
+    public void stopSimulator() throws Exception {
+        if (session != null) {
+            session.unbind();
+            awaitState(session, SessionState.UNBOUND);
+            session.closeLink();
+            session = null;
+        }
+        simulator.stop();
+    }
+
+    public void testSubmitIsAnsweredWithMessageId() throws Exception {
+        session = bind(SessionType.TRANSCEIVER, null);
+        assertEquals(simulator.getBoundCount(), 1);
+        SMPPPacket response = session.sendAsync(newSubmit()).get(5L, TimeUnit.SECONDS);
+        assertEquals(response.getCommandStatus(), PacketStatus.OK);
+        assertNotNull(((SubmitSMResp) response).getMessageId());
+        assertEquals(simulator.getReceivedCount(CommandId.SUBMIT_SM), 1L);
+    }
+
+    public void testResponseProfileSetsLatencyAndStatus() throws Exception {
+        simulator.setResponseProfile(CommandId.SUBMIT_SM,
+                new ResponseProfile(50L, 50L, 1.0, PacketStatus.MESSAGE_QUEUE_FULL));
+        session = bind(SessionType.TRANSCEIVER, null);
+        long start = System.nanoTime();
+        SMPPPacket response = session.sendAsync(newSubmit()).get(5L, TimeUnit.SECONDS);
+        assertTrue(System.nanoTime() - start >= TimeUnit.MILLISECONDS.toNanos(45L));
+        assertEquals(response.getCommandStatus(), PacketStatus.MESSAGE_QUEUE_FULL);
+        assertEquals(simulator.getResponseProfile(CommandId.DATA_SM),
+                ResponseProfile.IMMEDIATE);
+    }
+
+    public void testDeliveryReceiptFollowsSubmit() throws Exception {
+        BlockingQueue<DeliverSM> delivered = new LinkedBlockingQueue<DeliverSM>();
+        session = bind(SessionType.TRANSCEIVER, delivered);
+        SubmitSM submit = newSubmit();
+        submit.setRegistered(1);
+        SubmitSMResp response =
+            (SubmitSMResp) session.sendAsync(submit).get(5L, TimeUnit.SECONDS);
+        DeliverSM receipt = delivered.poll(5L, TimeUnit.SECONDS);
+        assertNotNull(receipt);
+        assertEquals(receipt.getEsmClass(), ESMClass.SMC_RECEIPT);
+        assertEquals(receipt.getTLVTable().getString(Tag.RECEIPTED_MESSAGE_ID),
+                response.getMessageId());
+        assertEquals(receipt.getDestination(), submit.getSource());
+    }
+
+    public void testGeneratedDeliveriesReachReceiver() throws Exception {
+        BlockingQueue<DeliverSM> delivered = new LinkedBlockingQueue<DeliverSM>();
+        session = bind(SessionType.RECEIVER, delivered);
+        simulator.generateDeliveries(20, 0);
+        assertTrue(simulator.awaitDeliveries(5000L));
+        for (int i = 0; i < 20; i++) {
+            assertNotNull(delivered.poll(5L, TimeUnit.SECONDS));
+        }
+        assertEquals(simulator.getDeliveryCount(), 20L);
+        long deadline = System.currentTimeMillis() + 5000L;
+        while (simulator.getDeliverLatency().getCount() < 20L
+                && System.currentTimeMillis() < deadline) {
+            Thread.sleep(10L);
+        }
+        assertEquals(simulator.getDeliverLatency().getCount(), 20L);
+    }
+
+
+    private SessionImpl bind(SessionType type, final BlockingQueue<DeliverSM> delivered)
+            throws Exception {
+        SessionImpl newSession = new SessionImpl("localhost", simulator.getPort());
+        newSession.addObserver(new AutoResponder(true));
+        if (delivered != null) {
+            newSession.addObserver(new SMPPEventAdapter() {
+                @Override
+                public void deliverSM(Session source, DeliverSM deliverSM) {
+                    delivered.add(deliverSM);
+                }
+            });
+        }
+        newSession.bind(type, "test", "secret", null);
+        awaitState(newSession, SessionState.BOUND);
+        return newSession;
+    }
+}
@@ -0,0 +1,90 @@
+package com.adenki.smpp.util;
+
+import static org.testng.Assert.assertEquals;
+import static org.testng.Assert.assertFalse;
+import static org.testng.Assert.assertNull;
+import static org.testng.Assert.assertTrue;
+
+import java.util.HashMap;
+import java.util.Map;
+import java.util.Random;
+
+import org.testng.annotations.Test;
+
+@Test
+public class ConcurrentLongMapTest {
+
+    public void testPutGetRemove() {
+        ConcurrentLongMap<String> map = new ConcurrentLongMap<String>();
+        assertTrue(map.isEmpty());
+        assertNull(map.put(1L, "one"));
+        assertNull(map.put(-5L, "minus five"));
+        assertEquals(map.put(1L, "uno"), "one");
+        assertEquals(map.get(1L), "uno");
+        assertEquals(map.get(-5L), "minus five");
+        assertNull(map.get(2L));
+        assertEquals(map.size(), 2);
+        assertEquals(map.remove(1L), "uno");
+        assertNull(map.remove(1L));
+        assertFalse(map.containsKey(1L));
+        assertEquals(map.size(), 1);
+    }
+
+    public void testPutIfAbsentAndConditionalRemove() {
+        ConcurrentLongMap<String> map = new ConcurrentLongMap<String>();
+        assertNull(map.putIfAbsent(7L, "seven"));
+        assertEquals(map.putIfAbsent(7L, "other"), "seven");
+        assertFalse(map.remove(7L, "other"));
+        assertTrue(map.remove(7L, "seven"));
+        assertTrue(map.isEmpty());
+    }
+
+    public void testMatchesHashMapUnderRandomOperations() {
+        ConcurrentLongMap<Long> map = new ConcurrentLongMap<Long>(4);
+        Map<Long, Long> expected = new HashMap<Long, Long>();
+        Random random = new Random(42L);
+        for (int i = 0; i < 200000; i++) {
+            long key = random.nextInt(2000);
+            Long value = Long.valueOf(i);
+            if (random.nextInt(3) == 0) {
+                assertEquals(map.remove(key), expected.remove(key));
+            } else {
+                assertEquals(map.put(key, value), expected.put(key, value));
+            }
+        }
+        assertEquals(map.size(), expected.size());
+        for (Map.Entry<Long, Long> entry : expected.entrySet()) {
+            assertEquals(map.get(entry.getKey().longValue()), entry.getValue());
+        }
+        assertEquals(map.values().size(), expected.size());
+        map.clear();
+        assertEquals(map.size(), 0);
+    }
+
+    public void testConcurrentUpdates() throws Exception {
+        final ConcurrentLongMap<Long> map = new ConcurrentLongMap<Long>();
+        final int perThread = 10000;
+        Thread[] threads = new Thread[8];
+        for (int t = 0; t < threads.length; t++) {
+            final long base = (long) t * perThread;
+            threads[t] = new Thread() {
+                public void run() {
+                    for (long key = base; key < base + perThread; key++) {
+                        map.put(key, Long.valueOf(key));
+                    }
+                    for (long key = base; key < base + perThread; key += 2) {
+                        map.remove(key);
+                    }
+                }
+            };
+            threads[t].start();
+        }
+        for (Thread thread : threads) {
+            thread.join();
+        }
+        assertEquals(map.size(), threads.length * perThread / 2);
+        for (long key = 1L; key < threads.length * perThread; key += 2) {
+            assertEquals(map.get(key), Long.valueOf(key));
+        }
+    }
+}
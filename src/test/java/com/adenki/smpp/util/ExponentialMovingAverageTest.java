@@ -0,0 +1,36 @@
+package com.adenki.smpp.util;
+
+import static org.testng.Assert.assertEquals;
+import static org.testng.Assert.assertFalse;
+import static org.testng.Assert.assertTrue;
+
+import org.testng.annotations.Test;
+
+@Test
+public class ExponentialMovingAverageTest {
+
+    public void testFirstSampleBecomesAverage() {
+        ExponentialMovingAverage average = new ExponentialMovingAverage(0.5);
+        assertTrue(average.isEmpty());
+        assertEquals(average.get(), 0.0);
+        average.update(10.0);
+        assertFalse(average.isEmpty());
+        assertEquals(average.get(), 10.0);
+    }
+
+    public void testSamplesAreWeighted() {
+        ExponentialMovingAverage average = new ExponentialMovingAverage(0.5);
+        average.update(10.0);
+        average.update(20.0);
+        assertEquals(average.get(), 15.0);
+        average.update(15.0);
+        assertEquals(average.get(), 15.0);
+        average.reset();
+        assertTrue(average.isEmpty());
+    }
+
+    @Test(expectedExceptions = IllegalArgumentException.class)
+    public void testInvalidAlpha() {
+        new ExponentialMovingAverage(0.0);
+    }
+}
@@ -0,0 +1,67 @@
+package com.adenki.smpp.util;
+
+import static org.testng.Assert.assertEquals;
+import static org.testng.Assert.assertTrue;
+
+import org.testng.annotations.Test;
+
+@Test
+public class LatencyHistogramTest {
+
+    public void testEmptyHistogram() {
+        LatencyHistogram histogram = new LatencyHistogram();
+        assertEquals(histogram.getCount(), 0L);
+        assertEquals(histogram.getMin(), 0L);
+        assertEquals(histogram.getMax(), 0L);
+        assertEquals(histogram.getPercentile(99.0), 0L);
+        assertEquals(histogram.getMean(), 0.0);
+    }
+
+    public void testSmallValuesAreExact() {
+        LatencyHistogram histogram = new LatencyHistogram();
+        for (int i = 0; i < 8; i++) {
+            histogram.record(i);
+        }
+        assertEquals(histogram.getCount(), 8L);
+        assertEquals(histogram.getMin(), 0L);
+        assertEquals(histogram.getMax(), 7L);
+        assertEquals(histogram.getPercentile(50.0), 3L);
+        assertEquals(histogram.getMean(), 3.5);
+    }
+
+    public void testPercentilesAreWithinBucketError() {
+        LatencyHistogram histogram = new LatencyHistogram();
+        for (long i = 1L; i <= 100000L; i++) {
+            histogram.record(i * 1000L);
+        }
+        assertEquals(histogram.getMin(), 1000L);
+        assertEquals(histogram.getMax(), 100000000L);
+        checkPercentile(histogram, 50.0, 50000000L);
+        checkPercentile(histogram, 99.0, 99000000L);
+        assertEquals(histogram.getPercentile(100.0), 100000000L);
+    }
+
+    public void testExtremeValues() {
+        LatencyHistogram histogram = new LatencyHistogram();
+        histogram.record(-5L);
+        histogram.record(Long.MAX_VALUE);
+        assertEquals(histogram.getMin(), 0L);
+        assertEquals(histogram.getMax(), Long.MAX_VALUE);
+        assertEquals(histogram.getPercentile(100.0), Long.MAX_VALUE);
+    }
+
+    public void testReset() {
+        LatencyHistogram histogram = new LatencyHistogram();
+        histogram.record(100L);
+        histogram.reset();
+        assertEquals(histogram.getCount(), 0L);
+        assertEquals(histogram.getMax(), 0L);
+    }
+
+    private void checkPercentile(LatencyHistogram histogram,
+            double percentile, long expected) {
+        long actual = histogram.getPercentile(percentile);
+        assertTrue(actual >= expected, "p" + percentile + " = " + actual);
+        assertTrue(actual <= expected + expected / 8L, "p" + percentile + " = " + actual);
+    }
+}
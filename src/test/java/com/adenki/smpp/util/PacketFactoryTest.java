@@ -1,14 +1,17 @@
 package com.adenki.smpp.util;
 
 import static org.testng.Assert.assertEquals;
+import static org.testng.Assert.assertSame;
 import static org.testng.Assert.assertTrue;
 import static org.testng.Assert.fail;
 
+import org.testng.annotations.BeforeMethod;
 import org.testng.annotations.Test;
 
 import com.adenki.smpp.BadCommandIDException;
 import com.adenki.smpp.SMPPRuntimeException;
 import com.adenki.smpp.message.CommandId;
+import com.adenki.smpp.message.DeliverSM;
 import com.adenki.smpp.message.SMPPPacket;
 
 @Test
@@ -56,7 +59,12 @@ public class PacketFactoryTest {
             CommandId.UNBIND,
             CommandId.UNBIND_RESP,
     };
-    private PacketFactory packetFactory = new PacketFactory();
+    private PacketFactory packetFactory;
+
+    @BeforeMethod
+    public void setUp() {
+        packetFactory = new PacketFactory();
+    }
     
     public void testCreatePackets() throws Exception {
         for (int id : allIds) {
@@ -119,6 +127,77 @@ public class PacketFactoryTest {
         assertTrue(response instanceof VendorResponse);
         assertEquals(response.getSequenceNum(), 101);
     }
+
+    public void testPacketsHaveTheirCommandIds() throws Exception {
+        for (int id : allIds) {
+            assertEquals(packetFactory.newInstance(id).getCommandId(), id);
+        }
+    }
+
+    public void testCustomCommandWithCreators() throws Exception {
+        packetFactory.registerVendorPacket(VENDOR_ID, new PacketCreator() {
+            public SMPPPacket newPacket() {
+                return new VendorRequest();
+            }
+        }, new PacketCreator() {
+            public SMPPPacket newPacket() {
+                return new VendorResponse();
+            }
+        });
+        SMPPPacket packet = packetFactory.newInstance(VENDOR_ID);
+        assertTrue(packet instanceof VendorRequest);
+        packet.setSequenceNum(102);
+        SMPPPacket response = packetFactory.newResponse(packet);
+        assertTrue(response instanceof VendorResponse);
+        assertEquals(response.getSequenceNum(), 102);
+        packetFactory.unregisterVendorPacket(VENDOR_ID);
+        try {
+            packetFactory.newInstance(VENDOR_ID | 0x80000000);
+            fail("Vendor ID should no longer be recognized.");
+        } catch (BadCommandIDException x) {
+            // Pass
+        }
+    }
+
+    public void testRegistrationOnlyAffectsOneFactory() throws Exception {
+        packetFactory.registerVendorPacket(
+                VENDOR_ID, VendorRequest.class, VendorResponse.class);
+        try {
+            new PacketFactory().newInstance(VENDOR_ID);
+            fail("Vendor ID should only be known to one factory.");
+        } catch (BadCommandIDException x) {
+            // Pass
+        }
+    }
+
+    public void testOverriddenTypeIsRestoredWhenUnregistered() throws Exception {
+        final SMPPPacket custom = new DeliverSM();
+        packetFactory.setPacketPool(null);
+        packetFactory.registerVendorPacket(CommandId.DELIVER_SM, new PacketCreator() {
+            public SMPPPacket newPacket() {
+                return custom;
+            }
+        }, null);
+        assertSame(packetFactory.newInstance(CommandId.DELIVER_SM), custom);
+        packetFactory.unregisterVendorPacket(CommandId.DELIVER_SM);
+        SMPPPacket packet = packetFactory.newInstance(CommandId.DELIVER_SM);
+        assertTrue(packet instanceof DeliverSM);
+        assertTrue(packet != custom);
+        assertEquals(packetFactory.newInstance(CommandId.DELIVER_SM_RESP).getCommandId(),
+                CommandId.DELIVER_SM_RESP);
+    }
+
+    @Test(expectedExceptions = IllegalArgumentException.class)
+    public void testClassWithoutDefaultConstructorIsRejected() throws Exception {
+        packetFactory.registerVendorPacket(VENDOR_ID, VendorRequest.class, NoDefaultConstructor.class);
+    }
+}
+
+class NoDefaultConstructor extends SMPPPacket {
+    private static final long serialVersionUID = 1L;
+    NoDefaultConstructor(int id) {
+        super(id);
+    }
 }
 
 class VendorRequest extends SMPPPacket {
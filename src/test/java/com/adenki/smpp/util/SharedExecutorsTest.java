@@ -0,0 +1,60 @@
+package com.adenki.smpp.util;
+
+import static org.testng.Assert.assertFalse;
+import static org.testng.Assert.assertNull;
+import static org.testng.Assert.assertTrue;
+
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.ScheduledFuture;
+import java.util.concurrent.TimeUnit;
+
+import org.testng.annotations.Test;
+
+@Test
+public class SharedExecutorsTest {
+
+    public void testScheduledWorkRunsOnWorkerThread() throws Exception {
+        final BlockingQueue<Thread> threads = new LinkedBlockingQueue<Thread>();
+        SharedExecutors.scheduleWork(new Runnable() {
+            public void run() {
+                threads.add(Thread.currentThread());
+            }
+        }, 10L, TimeUnit.MILLISECONDS);
+        Thread thread = threads.poll(5L, TimeUnit.SECONDS);
+        assertTrue(thread.getName().startsWith("SMPPWorker-"));
+        assertTrue(thread.isDaemon());
+    }
+
+    public void testCancelledWorkDoesNotRun() throws Exception {
+        final BlockingQueue<Thread> threads = new LinkedBlockingQueue<Thread>();
+        ScheduledFuture<?> future = SharedExecutors.scheduleWork(new Runnable() {
+            public void run() {
+                threads.add(Thread.currentThread());
+            }
+        }, 200L, TimeUnit.MILLISECONDS);
+        assertTrue(future.cancel(false));
+        assertNull(threads.poll(400L, TimeUnit.MILLISECONDS));
+    }
+
+    public void testBlockedWorkerDoesNotDelayScheduler() throws Exception {
+        final Object lock = new Object();
+        final BlockingQueue<Boolean> ran = new LinkedBlockingQueue<Boolean>();
+        synchronized (lock) {
+            SharedExecutors.execute(new Runnable() {
+                public void run() {
+                    synchronized (lock) {
+                        ran.add(Boolean.FALSE);
+                    }
+                }
+            });
+            SharedExecutors.getScheduler().schedule(new Runnable() {
+                public void run() {
+                    ran.add(Boolean.TRUE);
+                }
+            }, 10L, TimeUnit.MILLISECONDS);
+            assertTrue(ran.poll(5L, TimeUnit.SECONDS).booleanValue());
+        }
+        assertFalse(ran.poll(5L, TimeUnit.SECONDS).booleanValue());
+    }
+}
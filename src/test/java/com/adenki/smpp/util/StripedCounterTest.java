@@ -0,0 +1,38 @@
+package com.adenki.smpp.util;
+
+import static org.testng.Assert.assertEquals;
+
+import org.testng.annotations.Test;
+
+@Test
+public class StripedCounterTest {
+
+    public void testConcurrentIncrementsAreAllCounted() throws Exception {
+        final StripedCounter counter = new StripedCounter();
+        Thread[] threads = new Thread[8];
+        for (int i = 0; i < threads.length; i++) {
+            threads[i] = new Thread() {
+                @Override
+                public void run() {
+                    for (int j = 0; j < 10000; j++) {
+                        counter.increment();
+                    }
+                }
+            };
+            threads[i].start();
+        }
+        for (Thread thread : threads) {
+            thread.join();
+        }
+        assertEquals(counter.get(), 80000L);
+    }
+
+    public void testAddAndReset() {
+        StripedCounter counter = new StripedCounter();
+        counter.add(5L);
+        counter.add(-2L);
+        assertEquals(counter.get(), 3L);
+        counter.reset();
+        assertEquals(counter.get(), 0L);
+    }
+}
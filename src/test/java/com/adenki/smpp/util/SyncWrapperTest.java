@@ -0,0 +1,151 @@
+package com.adenki.smpp.util;
+
+import static org.testng.Assert.assertEquals;
+import static org.testng.Assert.assertFalse;
+import static org.testng.Assert.assertNull;
+import static org.testng.Assert.assertSame;
+import static org.testng.Assert.assertTrue;
+import static org.testng.Assert.fail;
+
+import java.io.IOException;
+
+import org.easymock.EasyMock;
+import org.testng.annotations.BeforeMethod;
+import org.testng.annotations.Test;
+
+import com.adenki.smpp.SessionImpl;
+import com.adenki.smpp.event.ReceiverExitEvent;
+import com.adenki.smpp.message.EnquireLink;
+import com.adenki.smpp.message.CommandId;
+import com.adenki.smpp.message.DeliverSM;
+import com.adenki.smpp.message.EnquireLinkResp;
+import com.adenki.smpp.message.PacketPool;
+import com.adenki.smpp.message.SMPPPacket;
+import com.adenki.smpp.net.ReadTimeoutException;
+import com.adenki.smpp.net.SmscLink;
+
+@Test
+public class SyncWrapperTest {
+
+    private SessionImpl session;
+    private SyncWrapper wrapper;
+
+    @BeforeMethod
+    public void setUp() {
+        SmscLink link = EasyMock.createNiceMock(SmscLink.class);
+        EasyMock.replay(link);
+        session = new SessionImpl(link);
+        wrapper = new SyncWrapper(session);
+    }
+
+    public void testEachResponseWakesItsOwnCaller() throws Exception {
+        final int callers = 20;
+        final SMPPPacket[] responses = new SMPPPacket[callers];
+        final EnquireLink[] requests = new EnquireLink[callers];
+        Thread[] threads = new Thread[callers];
+        for (int i = 0; i < callers; i++) {
+            final int index = i;
+            requests[i] = new EnquireLink();
+            requests[i].setSequenceNum(1000 + i);
+            threads[i] = new Thread() {
+                public void run() {
+                    try {
+                        responses[index] = wrapper.send(requests[index]);
+                    } catch (IOException x) {
+                        x.printStackTrace();
+                    }
+                }
+            };
+            threads[i].start();
+        }
+        Thread.sleep(100L);
+        for (int i = callers - 1; i >= 0; i--) {
+            wrapper.packetReceived(session, new EnquireLinkResp(requests[i]));
+        }
+        for (int i = 0; i < callers; i++) {
+            threads[i].join(5000L);
+            assertEquals(responses[i].getSequenceNum(), 1000L + i);
+        }
+        assertFalse(wrapper.isPacketAvailable());
+    }
+
+    public void testTimedOutResponseIsQueued() throws Exception {
+        wrapper.setPacketTimeout(50L);
+        EnquireLink request = new EnquireLink();
+        try {
+            wrapper.send(request);
+            fail("Expected a timeout");
+        } catch (ReadTimeoutException x) {
+            // expected
+        }
+        assertTrue(request.getSequenceNum() >= 0L);
+        EnquireLinkResp late = new EnquireLinkResp(request);
+        wrapper.packetReceived(session, late);
+        assertTrue(wrapper.isPacketAvailable());
+        assertSame(wrapper.readNextPacket(false), late);
+    }
+
+    public void testOldestUnclaimedResponseIsDiscarded() throws Exception {
+        DeliverSM request = new DeliverSM();
+        request.setSequenceNum(1L);
+        wrapper.packetReceived(session, request);
+        for (int i = 1; i <= SyncWrapper.MAX_UNCLAIMED_RESPONSES + 1; i++) {
+            EnquireLinkResp unclaimed = new EnquireLinkResp();
+            unclaimed.setSequenceNum(i);
+            wrapper.packetReceived(session, unclaimed);
+        }
+        // Requests are never discarded.
+        assertSame(wrapper.readNextPacket(false), request);
+        assertEquals(wrapper.readNextPacket(false).getSequenceNum(), 2L);
+    }
+
+    public void testReceiverExitWakesCallers() throws Exception {
+        final IOException[] failure = new IOException[1];
+        Thread thread = new Thread() {
+            public void run() {
+                try {
+                    wrapper.send(new EnquireLink());
+                } catch (IOException x) {
+                    failure[0] = x;
+                }
+            }
+        };
+        thread.start();
+        Thread.sleep(100L);
+        wrapper.update(session, new ReceiverExitEvent(session));
+        thread.join(5000L);
+        assertTrue(failure[0] != null);
+    }
+
+    public void testPooledResponsesAreNotRecycledWhileHeld() throws Exception {
+        final PacketPool pool = new PacketPool(4);
+        final EnquireLink request = new EnquireLink();
+        request.setSequenceNum(77);
+        Thread receiver = new Thread() {
+            public void run() {
+                try {
+                    Thread.sleep(100L);
+                } catch (InterruptedException x) {
+                    return;
+                }
+                // Deliver and release the packet as a receiver would.
+                SMPPPacket resp = pool.adopt(new EnquireLinkResp(request));
+                wrapper.packetReceived(session, resp);
+                resp.release();
+            }
+        };
+        receiver.start();
+        SMPPPacket response = wrapper.send(request);
+        receiver.join(5000L);
+        assertEquals(response.getSequenceNum(), 77L);
+        assertNull(pool.acquire(CommandId.ENQUIRE_LINK_RESP));
+
+        EnquireLinkResp unclaimed = new EnquireLinkResp();
+        unclaimed.setSequenceNum(78);
+        pool.adopt(unclaimed);
+        wrapper.packetReceived(session, unclaimed);
+        unclaimed.release();
+        assertNull(pool.acquire(CommandId.ENQUIRE_LINK_RESP));
+        assertEquals(wrapper.readNextPacket(false).getSequenceNum(), 78L);
+    }
+}
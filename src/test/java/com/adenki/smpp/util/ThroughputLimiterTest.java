@@ -0,0 +1,56 @@
+package com.adenki.smpp.util;
+
+import static org.testng.Assert.assertEquals;
+import static org.testng.Assert.assertFalse;
+import static org.testng.Assert.assertTrue;
+
+import org.testng.annotations.Test;
+
+@Test
+public class ThroughputLimiterTest {
+
+    public void testBurstIsAvailableImmediately() {
+        ThroughputLimiter limiter = new ThroughputLimiter(10, 5);
+        for (int i = 0; i < 5; i++) {
+            assertTrue(limiter.tryAcquire());
+        }
+        assertFalse(limiter.tryAcquire());
+    }
+
+    public void testAcquireWaitsForRate() throws Exception {
+        ThroughputLimiter limiter = new ThroughputLimiter(200, 1);
+        long start = System.nanoTime();
+        for (int i = 0; i < 21; i++) {
+            limiter.acquire();
+        }
+        long elapsedMillis = (System.nanoTime() - start) / 1000000L;
+        assertTrue(elapsedMillis >= 90L, "Took only " + elapsedMillis + "ms");
+        assertEquals(limiter.getDelayedCount(), 20L);
+    }
+
+    public void testThrottlingReducesRateAndRecovers() throws Exception {
+        ThroughputLimiter limiter = new ThroughputLimiter(100, 10, 20L);
+        assertEquals(limiter.getCurrentRate(), 100.0, 0.001);
+        limiter.throttled();
+        assertEquals(limiter.getCurrentRate(), 50.0, 0.001);
+        // A second throttled response inside the interval has no effect.
+        limiter.throttled();
+        assertEquals(limiter.getCurrentRate(), 50.0, 0.001);
+        assertEquals(limiter.getThrottledCount(), 2L);
+        Thread.sleep(25L);
+        limiter.throttled();
+        double rate = limiter.getCurrentRate();
+        assertTrue(rate < 50.0, "Rate is " + rate);
+        Thread.sleep(300L);
+        assertEquals(limiter.getCurrentRate(), 100.0, 0.001);
+    }
+
+    public void testRateNeverFallsBelowMinimum() throws Exception {
+        ThroughputLimiter limiter = new ThroughputLimiter(100, 10, 1L);
+        for (int i = 0; i < 20; i++) {
+            limiter.throttled();
+            Thread.sleep(2L);
+        }
+        assertTrue(limiter.getCurrentRate() >= 10.0);
+    }
+}
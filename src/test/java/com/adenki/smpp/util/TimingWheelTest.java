@@ -0,0 +1,87 @@
+package com.adenki.smpp.util;
+
+import static org.testng.Assert.assertEquals;
+import static org.testng.Assert.assertFalse;
+import static org.testng.Assert.assertTrue;
+
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import org.testng.annotations.AfterMethod;
+import org.testng.annotations.BeforeMethod;
+import org.testng.annotations.Test;
+
+@Test
+public class TimingWheelTest {
+
+    private TimingWheel wheel;
+
+    @BeforeMethod
+    public void setUp() {
+        wheel = new TimingWheel(1L, TimeUnit.MILLISECONDS, 8);
+    }
+
+    @AfterMethod
+    public void tearDown() {
+        wheel.stop();
+    }
+
+    public void testTaskRunsAfterDelay() throws Exception {
+        final CountDownLatch latch = new CountDownLatch(1);
+        long start = System.nanoTime();
+        TimingWheel.Timeout timeout = wheel.schedule(new Runnable() {
+            public void run() {
+                latch.countDown();
+            }
+        }, 50L, TimeUnit.MILLISECONDS);
+        assertTrue(latch.await(5, TimeUnit.SECONDS));
+        long elapsed = (System.nanoTime() - start) / 1000000L;
+        assertTrue(elapsed >= 50L, "Ran after only " + elapsed + "ms");
+        assertTrue(timeout.isExpired());
+        assertFalse(timeout.cancel());
+    }
+
+    public void testCancelledTaskDoesNotRun() throws Exception {
+        final AtomicInteger runs = new AtomicInteger();
+        Runnable task = new Runnable() {
+            public void run() {
+                runs.incrementAndGet();
+            }
+        };
+        TimingWheel.Timeout cancelled = wheel.schedule(task, 20L, TimeUnit.MILLISECONDS);
+        assertTrue(cancelled.cancel());
+        assertTrue(cancelled.isCancelled());
+        assertFalse(cancelled.cancel());
+        Thread.sleep(100L);
+        assertEquals(runs.get(), 0);
+        assertEquals(wheel.getPendingCount(), 0);
+    }
+
+    public void testManyTimeoutsExpireInOrderOfDeadline() throws Exception {
+        final int count = 10000;
+        final CountDownLatch latch = new CountDownLatch(count / 2);
+        final AtomicInteger early = new AtomicInteger();
+        final long start = System.nanoTime();
+        TimingWheel.Timeout[] timeouts = new TimingWheel.Timeout[count];
+        for (int i = 0; i < count; i++) {
+            final long delay = 5L + (i % 40);
+            timeouts[i] = wheel.schedule(new Runnable() {
+                public void run() {
+                    long elapsed = System.nanoTime() - start;
+                    if (elapsed < TimeUnit.MILLISECONDS.toNanos(delay)) {
+                        early.incrementAndGet();
+                    }
+                    latch.countDown();
+                }
+            }, delay, TimeUnit.MILLISECONDS);
+        }
+        for (int i = 0; i < count; i += 2) {
+            timeouts[i].cancel();
+        }
+        assertTrue(latch.await(5, TimeUnit.SECONDS));
+        assertEquals(early.get(), 0);
+        Thread.sleep(50L);
+        assertEquals(wheel.getPendingCount(), 0);
+    }
+}